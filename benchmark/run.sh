@@ -0,0 +1,21 @@
+#!/bin/sh
+#
+# Copyright © 2024 CurioLoop (curioloops@gmail.com)
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Runs the benchmarks with the GC profiler, extra arguments are passed to JMH, e.g. -p connections=1000
+# Each loopback connection takes two file descriptors, so raise the soft limit up to the hard limit.
+ulimit -n "$(ulimit -Hn)" 2>/dev/null || echo "failed to raise file descriptor limit, large fixtures may fail"
+exec java -jar "$(dirname "$0")/target/benchmarks.jar" -prof gc -rf json "$@"
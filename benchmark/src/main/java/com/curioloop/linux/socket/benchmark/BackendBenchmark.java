@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.probe.LinuxSocketProbe;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JNI and FFM backends of the probe, each one in its own fork.
+ * <p>
+ * The FFM backend requires running the benchmarks on Java 22+ with a library JAR built on JDK 22+.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BackendBenchmark extends FixtureState {
+
+    static final String BACKEND_PROPERTY = "linux.socket.probe.backend";
+
+    @Override
+    protected void prepare() {
+        String expected = System.getProperty(BACKEND_PROPERTY);
+        if (expected != null && !expected.equals(LinuxSocketProbe.backend())) {
+            throw new IllegalStateException("expect backend " + expected + " but selected " + LinuxSocketProbe.backend());
+        }
+    }
+
+    private LinuxSocketProbe collect() {
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        if (!probe.collectSocketStat(filter)) throw new IllegalStateException("failed to collect statistics");
+        return probe;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + BACKEND_PROPERTY + "=jni")
+    public LinuxSocketProbe jni() {
+        return collect();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-D" + BACKEND_PROPERTY + "=ffm", "--enable-native-access=ALL-UNNAMED"})
+    public LinuxSocketProbe ffm() {
+        return collect();
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.monitor.SockCollector;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures collectors refreshing meters against the fixture statistics.
+ * <p>
+ * {@code refreshSteady} finds every meter already created, while {@code refreshChurn}
+ * alternates between all and half of the sockets, so half of the meters are created and destroyed each time.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectorBenchmark extends FixtureState {
+
+    static final class CountingCollector extends SockCollector<Object> {
+
+        int created;
+
+        CountingCollector() {
+            super(key -> true);
+        }
+
+        @Override
+        protected Object createMeter(SockKey key, SockMonitor monitor) {
+            created++;
+            return key;
+        }
+
+        @Override
+        protected void destroyMeter(SockKey key, Object meter) {}
+    }
+
+    private SockMonitor monitor;
+    private Map<SockKey, InetSockStat<TcpStat>> allStats;
+    private Map<SockKey, InetSockStat<TcpStat>> halfStats;
+    private CountingCollector steady;
+    private CountingCollector churn;
+    private boolean half;
+
+    @Override
+    protected void prepare() {
+        monitor = refreshedMonitor();
+        allStats = monitor.tcpStats();
+        halfStats = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<SockKey, InetSockStat<TcpStat>> entry : allStats.entrySet()) {
+            if (i++ % 2 == 0) halfStats.put(entry.getKey(), entry.getValue());
+        }
+        steady = new CountingCollector();
+        steady.refreshMeters(monitor, allStats);
+        churn = new CountingCollector();
+    }
+
+    @Benchmark
+    public boolean refreshSteady() {
+        return steady.refreshMeters(monitor, allStats);
+    }
+
+    @Benchmark
+    public boolean refreshChurn() {
+        half = !half;
+        return churn.refreshMeters(monitor, half ? halfStats : allStats);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.probe.LinuxSocketProbe;
+import com.curioloop.linux.socket.probe.SockFilter;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Base state which opens the loopback fixture once per trial.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@State(Scope.Benchmark)
+public abstract class FixtureState {
+
+    /** Number of loopback connections, the dump holds twice as many sockets. */
+    @Param({"1000", "10000", "100000"})
+    public int connections;
+
+    /** The opened connections. */
+    protected LoopbackFixture fixture;
+
+    /** Filter which selects the fixture sockets. */
+    protected SockFilter filter;
+
+    @Setup(Level.Trial)
+    public void openFixture() throws Exception {
+        Throwable cause = LinuxSocketProbe.unavailabilityCause();
+        if (cause != null) throw new IllegalStateException("socket probe unavailable", cause);
+        fixture = new LoopbackFixture(connections);
+        filter = fixture.filter();
+        prepare();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFixture() {
+        if (fixture != null) fixture.close();
+    }
+
+    /**
+     * Prepares benchmark specific state once the fixture is opened.
+     *
+     * @throws Exception if failed to prepare.
+     */
+    protected void prepare() throws Exception {}
+
+    /**
+     * Creates a monitor refreshed against the fixture.
+     *
+     * @return the refreshed monitor.
+     */
+    protected SockMonitor refreshedMonitor() {
+        SockMonitor monitor = new SockMonitor();
+        if (!monitor.refreshStats(filter)) throw new IllegalStateException("failed to refresh statistics");
+        if (monitor.tcpStats().size() < 2 * connections) {
+            throw new IllegalStateException("expect " + 2 * connections + " sockets but found " + monitor.tcpStats().size());
+        }
+        return monitor;
+    }
+
+}
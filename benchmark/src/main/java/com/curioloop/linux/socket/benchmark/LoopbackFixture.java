@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.probe.PortFilter;
+import com.curioloop.linux.socket.probe.SockFilter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens loopback TCP connections, each one shows up as two sockets in the dump.
+ * <p>
+ * Connections are spread over several listening ports, so the ephemeral port range
+ * is never exhausted. Each connection takes two file descriptors, raise the limit with
+ * {@code ulimit -n} before opening large fixtures.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class LoopbackFixture implements AutoCloseable {
+
+    /** Connections per listening port, well below the default ephemeral port range. */
+    static final int CONNECTIONS_PER_PORT = 16384;
+
+    final List<ServerSocketChannel> servers = new ArrayList<>();
+    final List<SocketChannel> channels = new ArrayList<>();
+
+    /**
+     * Opens the loopback connections.
+     *
+     * @param connections the number of connections.
+     * @throws IOException if failed to connect.
+     */
+    public LoopbackFixture(int connections) throws IOException {
+        long required = 2L * connections + 256;
+        long limit = maxFileDescriptors();
+        if (limit > 0 && limit < required) {
+            throw new IllegalStateException("file descriptor limit " + limit + " below " + required + ", raise it with ulimit -n");
+        }
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try {
+            for (int opened = 0; opened < connections; ) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                servers.add(server);
+                server.bind(new InetSocketAddress(loopback, 0), 1024);
+                int batch = Math.min(CONNECTIONS_PER_PORT, connections - opened);
+                for (int i = 0; i < batch; i++, opened++) {
+                    SocketChannel client = SocketChannel.open();
+                    channels.add(client);
+                    client.setOption(StandardSocketOptions.SO_LINGER, 0);
+                    client.connect(server.getLocalAddress());
+                    channels.add(server.accept());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the listening ports.
+     *
+     * @return the ports.
+     */
+    public int[] ports() {
+        int[] ports = new int[servers.size()];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = servers.get(i).socket().getLocalPort();
+        }
+        return ports;
+    }
+
+    /**
+     * Creates a filter which selects both sides of all fixture connections.
+     *
+     * @return the socket filter.
+     */
+    public SockFilter filter() {
+        PortFilter portFilter = null;
+        for (int port : ports()) {
+            PortFilter sides = PortFilter.eq(PortFilter.Side.SRC, port).or(PortFilter.eq(PortFilter.Side.DST, port));
+            portFilter = portFilter == null ? sides : portFilter.or(sides);
+        }
+        return new SockFilter().portFilters(portFilter);
+    }
+
+    @Override
+    public void close() {
+        for (SocketChannel channel : channels) closeQuietly(channel);
+        for (ServerSocketChannel server : servers) closeQuietly(server);
+        channels.clear();
+        servers.clear();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static long maxFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getMaxFileDescriptorCount();
+        }
+        return -1;
+    }
+
+}
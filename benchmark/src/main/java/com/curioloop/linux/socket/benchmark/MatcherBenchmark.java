@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.monitor.SockAggregator;
+import com.curioloop.linux.socket.monitor.SockGauge;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures per-socket operations on the hot path of collectors and metric scrapes.
+ * <p>
+ * Each invocation visits the next socket of the fixture in turn, so results reflect
+ * the cache behaviour of the whole socket table rather than a single entry.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatcherBenchmark extends FixtureState {
+
+    private SockKey[] keys;
+    private SockGauge[] gauges;
+    private SockAggregator aggregator;
+    private int cursor;
+
+    @Override
+    protected void prepare() {
+        SockMonitor monitor = refreshedMonitor();
+        keys = monitor.tcpStats().keySet().toArray(new SockKey[0]);
+        gauges = new SockGauge[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            gauges[i] = SockGauge.rrt(keys[i], monitor, Double.NaN);
+        }
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int[] ports = fixture.ports();
+        Supplier<Stream<InetSocketAddress>> source = () -> IntStream.of(ports).mapToObj(port -> new InetSocketAddress(loopback, port));
+        aggregator = new SockAggregator(SockAggregator.MatchMode.REMOTE, TimeUnit.MINUTES.toMillis(10), Collections.singletonList(source));
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = i + 1 == keys.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean aggregatorTest() {
+        return aggregator.test(keys[next()]);
+    }
+
+    @Benchmark
+    public double gaugeDoubleValue() {
+        return gauges[next()].doubleValue();
+    }
+
+}
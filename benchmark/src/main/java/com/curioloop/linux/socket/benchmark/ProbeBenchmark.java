@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.benchmark;
+
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.probe.LinuxSocketProbe;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the native dump and the monitor refresh built on top of it.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProbeBenchmark extends FixtureState {
+
+    private SockMonitor monitor;
+
+    @Override
+    protected void prepare() {
+        monitor = refreshedMonitor();
+    }
+
+    @Benchmark
+    public LinuxSocketProbe collectSocketStat() {
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        if (!probe.collectSocketStat(filter)) throw new IllegalStateException("failed to collect statistics");
+        return probe;
+    }
+
+    @Benchmark
+    public SockSnapshot refreshStats() {
+        SockSnapshot snapshot = monitor.refreshSnapshot(filter);
+        if (snapshot == null) throw new IllegalStateException("failed to refresh statistics");
+        return snapshot;
+    }
+
+}
@@ -18,7 +18,9 @@
 #include <stdlib.h>
 #include <string.h>
 #include <unistd.h>
+#include <time.h>
 #include <dirent.h>
+#include <sys/stat.h>
 #include <pwd.h>
 #include <asm/types.h>
 #include <sys/socket.h>
@@ -28,22 +30,37 @@
 #include <linux/tcp.h>
 #include <linux/sock_diag.h>
 #include <linux/inet_diag.h>
+#include <linux/unix_diag.h>
 
 #include "sock_probe.h"
 
-static int pid_ent_add(struct pid_ent **hash_tab, unsigned int ino, int pid) {
+//Bytecode ops and attributes missing from older kernel headers
+#define BC_DEV_COND    9
+#define BC_MARK_COND   10
+#define BC_CGROUP_COND 13
+#define DIAG_MARK      15
+#define DIAG_CGROUP_ID 21
+
+static uint64_t monotonic_nanos() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+static int pid_ent_add(struct pid_ent **hash_tab, unsigned int ino, int pid, int uid) {
     struct pid_ent *p = malloc(sizeof(struct pid_ent));
     if (!p) return EXIT_FAILURE;
     p->next = NULL;
     p->ino = ino;
     p->pid = pid;
+    p->uid = uid;
     struct pid_ent **pp = &hash_tab[PID_ENT_HASH(ino)];
     p->next = *pp;
     *pp = p;
     return EXIT_SUCCESS;
 }
 
-static int pid_ent_hash_build(struct pid_ent **hash_tab) {
+static int pid_ent_hash_build(struct pid_ent **hash_tab, uint32_t *entries) {
 
     memset(hash_tab, 0, sizeof(struct pid_ent*) * PID_ENT_HASH_SIZE);
 
@@ -67,6 +84,11 @@ static int pid_ent_hash_build(struct pid_ent **hash_tab) {
         if (sscanf(d->d_name, "%d%c", &pid, &crap) != 1)
             continue;
 
+        // The owner of /proc/<pid> is the effective user of the process
+        struct stat st;
+        sprintf(name + nameoff, "%d", pid);
+        int uid = stat(name, &st) == 0 ? (int) st.st_uid : -1;
+
         sprintf(name + nameoff, "%d/fd/", pid);
         int pos = strlen(name);
 
@@ -95,8 +117,9 @@ static int pid_ent_hash_build(struct pid_ent **hash_tab) {
             unsigned int ino;
             sscanf(lnk, "socket:[%u]", &ino);
 
-            code = pid_ent_add(hash_tab, ino, pid);
+            code = pid_ent_add(hash_tab, ino, pid, uid);
             if (code) break;
+            (*entries)++;
         }
         closedir(dir1);
         if (code) break;
@@ -177,6 +200,43 @@ static int filter_compile(struct port_filter *f, char **bytecode)
             ((struct inet_diag_bc_op*)*bytecode)[1] = (struct inet_diag_bc_op){ 0, 0, f->port };
             return 8;
         }
+        case SRC_HOST:
+        case DST_HOST:
+        {
+            // followed by struct inet_diag_hostcond and the address, port -1 matches any port
+            int len = 4 + sizeof(struct inet_diag_hostcond) + f->addr_len;
+            if (!(*bytecode=malloc(len))) abort();
+            ((struct inet_diag_bc_op*)*bytecode)[0] = (struct inet_diag_bc_op){ SRC_HOST == f->type ? INET_DIAG_BC_S_COND : INET_DIAG_BC_D_COND, len, len+4 };
+            struct inet_diag_hostcond *cond = (struct inet_diag_hostcond*)(*bytecode+4);
+            cond->family = f->addr_len == 4 ? AF_INET : AF_INET6;
+            cond->prefix_len = f->port;
+            cond->port = -1;
+            memcpy(cond->addr, f->addr, f->addr_len);
+            return len;
+        }
+        case SOCK_DEV:
+        {
+            if (!(*bytecode=malloc(8))) abort();
+            ((struct inet_diag_bc_op*)*bytecode)[0] = (struct inet_diag_bc_op){ BC_DEV_COND, 8, 12 };
+            memcpy(*bytecode+4, &f->port, sizeof(uint32_t));
+            return 8;
+        }
+        case SOCK_MARK:
+        {
+            // followed by struct inet_diag_markcond
+            if (!(*bytecode=malloc(12))) abort();
+            ((struct inet_diag_bc_op*)*bytecode)[0] = (struct inet_diag_bc_op){ BC_MARK_COND, 12, 16 };
+            memcpy(*bytecode+4, &f->port, sizeof(uint32_t));
+            memcpy(*bytecode+8, &f->mask, sizeof(uint32_t));
+            return 12;
+        }
+        case SOCK_CGROUP:
+        {
+            if (!(*bytecode=malloc(12))) abort();
+            ((struct inet_diag_bc_op*)*bytecode)[0] = (struct inet_diag_bc_op){ BC_CGROUP_COND, 12, 16 };
+            memcpy(*bytecode+4, &f->cgroup, sizeof(uint64_t));
+            return 12;
+        }
         case DST_PORT_EQ:
         {
             eq_filter[0].type = COND_AND;
@@ -204,7 +264,7 @@ static int filter_compile(struct port_filter *f, char **bytecode)
         and:
         case COND_AND:
         {
-            char *a1, *a2, *a, l1, l2;
+            char *a1, *a2, *a; int l1, l2;
             l1 = filter_compile(f->pred, &a1);
             l2 = filter_compile(f->post, &a2);
             if (!(a = malloc(l1+l2))) abort();
@@ -217,7 +277,7 @@ static int filter_compile(struct port_filter *f, char **bytecode)
         }
         case COND_OR:
         {
-            char *a1, *a2, *a, l1, l2;
+            char *a1, *a2, *a; int l1, l2;
             l1 = filter_compile(f->pred, &a1);
             l2 = filter_compile(f->post, &a2);
             if (!(a = malloc(l1+l2+4))) abort();
@@ -230,7 +290,7 @@ static int filter_compile(struct port_filter *f, char **bytecode)
         }
         case COND_NOT:
         {
-            char *a1, *a, l1;
+            char *a1, *a; int l1;
             l1 = filter_compile(f->pred, &a1);
             if (!(a = malloc(l1+4))) abort();
             memcpy(a, a1, l1);
@@ -346,12 +406,14 @@ static void inet_show_sock(struct nlmsghdr *nlh, struct sock_visitor *visitor, s
 
     s.request_queue = r->idiag_rqueue;
     s.waiting_queue = r->idiag_wqueue;
+    s.ifindex = r->id.idiag_if;
 
     struct passwd *u = getpwuid(r->idiag_uid);
     s.uid = r->idiag_uid;
     if (u) s.username = u->pw_name;
 
     struct tcp_stat t;
+    memset(&t, 0, sizeof(t));
     if (r->idiag_timer) {
         if (r->idiag_timer > TCP_TIMER_UNKNOWN)
             r->idiag_timer = TCP_TIMER_UNKNOWN;
@@ -376,6 +438,10 @@ static void inet_show_sock(struct nlmsghdr *nlh, struct sock_visitor *visitor, s
                 tcp_info = attr;
             } else if (attr->rta_type == INET_DIAG_VEGASINFO) {
                 vegas_info = attr;
+            } else if (attr->rta_type == DIAG_MARK && RTA_PAYLOAD(attr) >= sizeof(uint32_t)) {
+                s.mark = *(uint32_t*) RTA_DATA(attr);
+            } else if (attr->rta_type == DIAG_CGROUP_ID && RTA_PAYLOAD(attr) >= sizeof(uint64_t)) {
+                memcpy(&s.cgroup_id, RTA_DATA(attr), sizeof(uint64_t));
             }
             attr = RTA_NEXT(attr, rta_len);
         }
@@ -396,7 +462,7 @@ static void inet_show_sock(struct nlmsghdr *nlh, struct sock_visitor *visitor, s
     if (tcp_info) {
         const struct tcp_info *info;
         int len = RTA_PAYLOAD(tcp_info);
-        if (len < sizeof(*info)) {
+        if (len < (int) sizeof(*info)) {
             /* workaround for older kernels with fewer fields */
             info = alloca(sizeof(*info));
             memset((void *)info, 0, sizeof(*info));
@@ -453,7 +519,112 @@ static void inet_show_sock(struct nlmsghdr *nlh, struct sock_visitor *visitor, s
         if (info->tcpi_rcv_space)
             t.rcv_space = info->tcpi_rcv_space;
     }
-    visitor->visit_func(visitor->visit_ctx, &s, &t, NULL);
+    uint64_t visit_start = monotonic_nanos();
+    visitor->visit_func(visitor->visit_ctx, &s, visitor->protocol == IPPROTO_TCP ? &t : NULL, NULL);
+    visitor->stat.visit_nanos += monotonic_nanos() - visit_start;
+}
+
+int send_unix_diag_msg(int sock_fd) {
+
+    // UNIX domain socket statistics request
+    struct unix_diag_req sock_diag_req;
+    memset(&sock_diag_req, 0, sizeof(sock_diag_req));
+
+    sock_diag_req.sdiag_family = AF_UNIX;
+    sock_diag_req.udiag_states = TCPF_ALL & ~((1<<TCP_SYN_RECV) | (1<<TCP_TIME_WAIT) | (1<<TCP_CLOSE));
+    // UID is ignored by kernels before 5.3
+    sock_diag_req.udiag_show = UDIAG_SHOW_NAME | UDIAG_SHOW_PEER | UDIAG_SHOW_RQLEN | UDIAG_SHOW_MEMINFO | UDIAG_SHOW_UID;
+
+    struct nlmsghdr nl_msg_header;
+    memset(&nl_msg_header, 0, sizeof(nl_msg_header));
+    nl_msg_header.nlmsg_type = SOCK_DIAG_BY_FAMILY;
+    nl_msg_header.nlmsg_flags = NLM_F_DUMP | NLM_F_REQUEST;
+    nl_msg_header.nlmsg_len = NLMSG_LENGTH(sizeof(sock_diag_req));
+
+    struct iovec iov[2];
+    iov[0] = (struct iovec){ &nl_msg_header, sizeof(nl_msg_header) };
+    iov[1] = (struct iovec){ &sock_diag_req, sizeof(sock_diag_req) };
+
+    struct sockaddr_nl sock_addr;
+    memset(&sock_addr, 0, sizeof(sock_addr));
+    sock_addr.nl_family = AF_NETLINK;
+
+    struct msghdr msg = (struct msghdr) {
+            .msg_name = (void*)&sock_addr,
+            .msg_namelen = sizeof(sock_addr),
+            .msg_iov = iov,
+            .msg_iovlen = 2,
+    };
+
+    return sendmsg(sock_fd, &msg, 0);
+}
+
+static void unix_show_sock(struct nlmsghdr *nlh, struct sock_visitor *visitor, struct sock_filter *filter) {
+
+    struct unix_diag_msg *r = NLMSG_DATA(nlh);
+    if (r->udiag_family != AF_UNIX)
+        return; // skip
+
+    struct unix_sock_stat s;
+    memset(&s, 0, sizeof(s));
+    s.uid = -1;
+
+    struct pid_ent *e = find_pid_ent(visitor->pid_hash, r->udiag_ino);
+    if (e) {
+        if (filter->only_curr_proc && getpid() != e->pid)
+            return; // skip
+        s.pid = e->pid;
+    } else if (filter->only_curr_proc) {
+        return; // skip
+    }
+
+    s.type = r->udiag_type;
+    s.conn_state = r->udiag_state;
+    s.inode = r->udiag_ino;
+
+    int rta_len = nlh->nlmsg_len - NLMSG_LENGTH(sizeof(*r));
+    struct rtattr *attr = (struct rtattr*) (r+1);
+    while (rta_len > 0 && RTA_OK(attr, rta_len)) {
+        int len = RTA_PAYLOAD(attr);
+        if (attr->rta_type == UNIX_DIAG_NAME && len > 0) {
+            const char *name = RTA_DATA(attr);
+            if (len > UNIX_PATH_LEN) len = UNIX_PATH_LEN;
+            if (name[0] == '\0') {
+                // abstract name
+                s.path[0] = '@';
+                memcpy(s.path + 1, name + 1, len - 1);
+                s.path[len] = '\0';
+            } else {
+                memcpy(s.path, name, len);
+                s.path[len] = '\0';
+            }
+        } else if (attr->rta_type == UNIX_DIAG_PEER && len >= (int) sizeof(__u32)) {
+            s.peer_inode = *(__u32 *) RTA_DATA(attr);
+        } else if (attr->rta_type == UNIX_DIAG_RQLEN && len >= (int) sizeof(struct unix_diag_rqlen)) {
+            struct unix_diag_rqlen *q = RTA_DATA(attr);
+            s.rqueue = q->udiag_rqueue;
+            s.wqueue = q->udiag_wqueue;
+        } else if (attr->rta_type == UNIX_DIAG_MEMINFO && len >= (int) ((SK_MEMINFO_SNDBUF + 1) * sizeof(__u32))) {
+            const __u32 *i = RTA_DATA(attr);
+            s.rcv_queue_mem = i[SK_MEMINFO_RMEM_ALLOC];
+            s.snd_queue_mem = i[SK_MEMINFO_WMEM_ALLOC];
+            s.rcv_sock_buf = i[SK_MEMINFO_RCVBUF];
+            s.snd_sock_buf = i[SK_MEMINFO_SNDBUF];
+        } else if (attr->rta_type == UNIX_DIAG_UID && len >= (int) sizeof(__u32)) {
+            s.uid = *(__u32 *) RTA_DATA(attr);
+        }
+        attr = RTA_NEXT(attr, rta_len);
+    }
+
+    // UNIX_DIAG_UID is reported since Linux 5.3, otherwise sockets are owned by the user of their process
+    if (s.uid < 0 && e)
+        s.uid = e->uid;
+    if (filter->only_curr_user && (s.uid < 0 || (uid_t) s.uid != getuid()))
+        return; // skip
+
+    uint64_t visit_start = monotonic_nanos();
+    visitor->unix_visit_func(visitor->visit_ctx, &s);
+    visitor->stat.visit_nanos += monotonic_nanos() - visit_start;
 }
 
 int recv_diag_msg(int sock_fd, struct sock_visitor *visitor, struct sock_filter *filter) {
@@ -479,12 +650,14 @@ int recv_diag_msg(int sock_fd, struct sock_visitor *visitor, struct sock_filter
         };
 
         int status = recvmsg(sock_fd, &msg, 0);
+        visitor->stat.recv_calls++;
         if (status < 0) {
             if (errno == EINTR)
                 continue;
             perror("OVERRUN");
             continue;
         }
+        visitor->stat.recv_bytes += status;
         if (status == 0) {
             fprintf(stderr, "EOF on netlink\n");
             return EXIT_SUCCESS;
@@ -493,6 +666,7 @@ int recv_diag_msg(int sock_fd, struct sock_visitor *visitor, struct sock_filter
         struct nlmsghdr *h = (struct nlmsghdr*) buf;
         while (NLMSG_OK(h, status)) {
 
+            visitor->stat.recv_msgs++;
             if(h->nlmsg_type == NLMSG_DONE)
                 goto done;
 
@@ -510,7 +684,10 @@ int recv_diag_msg(int sock_fd, struct sock_visitor *visitor, struct sock_filter
                 goto done;
             }
 
-            inet_show_sock(h, visitor, filter);
+            if (visitor->protocol)
+                inet_show_sock(h, visitor, filter);
+            else
+                unix_show_sock(h, visitor, filter);
             h = NLMSG_NEXT(h, status);
         }
     }
@@ -521,12 +698,17 @@ int recv_diag_msg(int sock_fd, struct sock_visitor *visitor, struct sock_filter
 
 
 int collect_with_filter(int sock_fd, struct sock_visitor *visitor, struct sock_filter *filter, int family, int protocol) {
+    uint64_t start = monotonic_nanos();
+    uint64_t visit_nanos = visitor->stat.visit_nanos;
+    visitor->protocol = protocol;
     //Send the request for the sockets we are interested in
     if (send_diag_msg(sock_fd, family, protocol, filter->port_filters) < 0) {
         perror("sendmsg: ");
         return EXIT_FAILURE;
     }
-    return recv_diag_msg(sock_fd, visitor, filter);
+    int code = recv_diag_msg(sock_fd, visitor, filter);
+    visitor->stat.dump_nanos += monotonic_nanos() - start - (visitor->stat.visit_nanos - visit_nanos);
+    return code;
 }
 
 int collect_sock_stat(struct sock_visitor *visitor, struct sock_filter *filter) {
@@ -537,7 +719,10 @@ int collect_sock_stat(struct sock_visitor *visitor, struct sock_filter *filter)
         return EXIT_FAILURE;
     }
 
-    int code = pid_ent_hash_build(visitor->pid_hash);
+    memset(&visitor->stat, 0, sizeof(visitor->stat));
+    uint64_t start = monotonic_nanos();
+    int code = pid_ent_hash_build(visitor->pid_hash, &visitor->stat.pid_entries);
+    visitor->stat.pid_hash_nanos = monotonic_nanos() - start;
     if (code == EXIT_SUCCESS && filter->show_families & SHOW_IPV4) {
         if (filter->show_protocols & SHOW_TCP) {
             code = collect_with_filter(sock_fd, visitor, filter, AF_INET, IPPROTO_TCP);
@@ -554,8 +739,37 @@ int collect_sock_stat(struct sock_visitor *visitor, struct sock_filter *filter)
             code = collect_with_filter(sock_fd, visitor, filter, AF_INET6, IPPROTO_UDP);
         }
     }
+    if (code == EXIT_SUCCESS && filter->show_unix && visitor->unix_visit_func) {
+        uint64_t dump_start = monotonic_nanos();
+        uint64_t visit_nanos = visitor->stat.visit_nanos;
+        visitor->protocol = 0;
+        if (send_unix_diag_msg(sock_fd) < 0) {
+            perror("sendmsg: ");
+            code = EXIT_FAILURE;
+        } else {
+            code = recv_diag_msg(sock_fd, visitor, filter);
+        }
+        visitor->stat.dump_nanos += monotonic_nanos() - dump_start - (visitor->stat.visit_nanos - visit_nanos);
+    }
     pid_ent_hash_free(visitor->pid_hash);
     close(sock_fd);
     return code;
 
 }
+
+int read_tcp_info(const int *fds, int count, char *slots, int slot_size) {
+
+    int filled = 0;
+    for (int i = 0; i < count; i++) {
+        int32_t *slot = (int32_t *) (slots + (size_t) i * slot_size);
+        socklen_t len = slot_size - sizeof(*slot);
+        if (getsockopt(fds[i], IPPROTO_TCP, TCP_INFO, slot + 1, &len) == 0) {
+            *slot = len;
+            filled++;
+        } else {
+            *slot = -errno;
+        }
+    }
+    return filled;
+
+}
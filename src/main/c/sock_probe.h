@@ -38,6 +38,9 @@ SOCK_PROBE__BEGIN_DECLS
 //Copied from libmnl source
 #define SOCKET_BUFFER_SIZE (getpagesize() < 8192L ? getpagesize() : 8192L)
 
+//Length of sun_path in struct sockaddr_un
+#define UNIX_PATH_LEN 108
+
 //Copied from iproute2/ss source
 #define PID_ENT_HASH_SIZE	256
 #define PID_ENT_HASH(ino) (((ino >> 24) ^ (ino >> 16) ^ (ino >> 8) ^ ino) & (PID_ENT_HASH_SIZE - 1))
@@ -57,16 +60,25 @@ SOCK_PROBE__BEGIN_DECLS
 #define SRC_PORT_LE  7
 #define DST_PORT_EQ  8
 #define SRC_PORT_EQ  9
+#define SOCK_MARK    10
+#define SOCK_CGROUP  11
+#define SOCK_DEV     12
+#define SRC_HOST     13
+#define DST_HOST     14
 
 struct port_filter {
     int type;
-    int port;
+    int port;         // also the mark of SOCK_MARK, the ifindex of SOCK_DEV or the prefix length of *_HOST
+    uint32_t mask;    // mask of SOCK_MARK
+    uint64_t cgroup;  // cgroup v2 ID of SOCK_CGROUP
+    uint8_t addr_len; // 4 or 16 bytes address of *_HOST
+    uint8_t addr[16];
     struct port_filter *pred;
     struct port_filter *post;
 };
 
 struct sock_filter {
-    uint8_t	show_families:2, show_protocols:2, only_curr_user:1, only_curr_proc:1;
+    uint8_t	show_families:2, show_protocols:2, only_curr_user:1, only_curr_proc:1, show_unix:1;
     struct port_filter *port_filters;
 };
 
@@ -74,6 +86,7 @@ struct pid_ent {
     struct pid_ent	*next;
     unsigned int	ino;
     int		pid;
+    int		uid;	// owner of /proc/<pid>, -1 if unknown
 };
 
 typedef const char * cst_str;
@@ -141,6 +154,10 @@ struct inet_sock_stat {
     uint32_t uid;
     cst_str username;
 
+    uint32_t ifindex;   // The interface bound by SO_BINDTODEVICE, 0 if not bound.
+    uint32_t mark;      // The SO_MARK, only reported with CAP_NET_ADMIN.
+    uint64_t cgroup_id; // The cgroup v2 ID, only reported since Linux 5.9.
+
     // For listening sockets: the number of pending connections.
     // For other sockets: the amount of data in the incoming queue.
     uint32_t request_queue;
@@ -157,6 +174,28 @@ struct inet_sock_stat {
     uint32_t tcp_queued_mem;  // The amount of data queued by TCP, but not yet sent.
 };
 
+struct unix_sock_stat {
+
+    char path[UNIX_PATH_LEN + 2]; // '@' prefix of abstract names, empty if unnamed
+    uint8_t type;
+    uint8_t conn_state;
+
+    uint32_t inode;
+    uint32_t peer_inode;      // 0 if not connected
+    uint32_t pid;
+    int32_t uid;              // owner of the process if not reported (before Linux 5.3), -1 if both unknown
+
+    // For listening sockets: the number of pending connections and the backlog length.
+    // For other sockets: the bytes in the receive queue and the bytes not yet received by the peer.
+    uint32_t rqueue;
+    uint32_t wqueue;
+
+    uint32_t rcv_queue_mem;   // The amount of data in receive queue.
+    uint32_t snd_queue_mem;   // The amount of data in send queue.
+    uint32_t rcv_sock_buf;    // The receive socket buffer as set by SO_RCVBUF.
+    uint32_t snd_sock_buf;    // The send socket buffer as set by SO_SNDBUF.
+};
+
 struct tcp_stat {
 
     uint8_t options;
@@ -197,16 +236,35 @@ struct tcp_stat {
 };
 
 typedef void (*sock_visitor_func)(void* ctx, struct inet_sock_stat* sock, struct tcp_stat *tcp, const char* debug);
+typedef void (*unix_visitor_func)(void* ctx, struct unix_sock_stat* sock);
+
+// Cost of each phase of a collection.
+struct collect_stat {
+    uint64_t pid_hash_nanos; // Time to build the inode to pid hash from /proc.
+    uint64_t dump_nanos;     // Time to request and receive netlink dumps, excluding visits.
+    uint64_t visit_nanos;    // Time spent in visit callbacks.
+    uint64_t recv_bytes;     // Bytes received from netlink.
+    uint32_t recv_calls;     // Number of recvmsg calls.
+    uint32_t recv_msgs;      // Number of netlink messages received.
+    uint32_t pid_entries;    // Number of socket inodes found in /proc.
+};
 
 struct sock_visitor {
     void* visit_ctx;
-    sock_visitor_func visit_func;
+    sock_visitor_func visit_func; // tcp is NULL for non-TCP sockets
+    unix_visitor_func unix_visit_func;
+    int protocol; // 0 for UNIX domain sockets
     struct pid_ent *pid_hash[PID_ENT_HASH_SIZE];
+    struct collect_stat stat;
 };
 
 
 int collect_sock_stat(struct sock_visitor *visitor, struct sock_filter *filter);
 
+// Reads struct tcp_info of each fd into a slot, which starts with the length read or -errno on failure.
+// Returns the number of slots filled successfully.
+int read_tcp_info(const int *fds, int count, char *slots, int slot_size);
+
 SOCK_PROBE__END_DECLS
 
 #endif // SOCK_PROBE_INCLUDED
\ No newline at end of file
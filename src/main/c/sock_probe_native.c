@@ -45,8 +45,19 @@ static jobject new_sock_stat_obj(JNIEnv *env, struct inet_sock_stat *s, char *de
     jfieldID inet_family = (*env)->GetFieldID(env, cls, "inetFamily", INET_FAMILY_ENUM_SIG);
     jfieldID req_queue = (*env)->GetFieldID(env, cls, "requestQueue", "J");
     jfieldID wait_queue = (*env)->GetFieldID(env, cls, "waitingQueue", "J");
+    jfieldID rcv_mem = (*env)->GetFieldID(env, cls, "receiveMemory", "J");
+    jfieldID snd_mem = (*env)->GetFieldID(env, cls, "sendMemory", "J");
+    jfieldID rcv_buf = (*env)->GetFieldID(env, cls, "receiveBuffer", "J");
+    jfieldID snd_buf = (*env)->GetFieldID(env, cls, "sendBuffer", "J");
+    jfieldID fwd_alloc = (*env)->GetFieldID(env, cls, "forwardAlloc", "J");
+    jfieldID queued_mem = (*env)->GetFieldID(env, cls, "queuedMemory", "J");
+
+    jfieldID ifindex = (*env)->GetFieldID(env, cls, "interfaceIndex", "I");
+    jfieldID mark = (*env)->GetFieldID(env, cls, "mark", "I");
+    jfieldID cgroup_id = (*env)->GetFieldID(env, cls, "cgroupID", "J");
 
     jfieldID pid = (*env)->GetFieldID(env, cls, "processID", "I");
+    jfieldID uid = (*env)->GetFieldID(env, cls, "userID", "I");
     jfieldID debug_str = (*env)->GetFieldID(env, cls, "debug", "Ljava/lang/String;");
 
     (*env)->SetObjectField(env, sock_stat, remote_ip, (*env)->NewStringUTF(env, s->remote));
@@ -57,8 +68,18 @@ static jobject new_sock_stat_obj(JNIEnv *env, struct inet_sock_stat *s, char *de
     (*env)->SetObjectField(env, sock_stat, inet_family, sock_inet_family);
     (*env)->SetLongField(env, sock_stat, req_queue, s->request_queue);
     (*env)->SetLongField(env, sock_stat, wait_queue, s->waiting_queue);
+    (*env)->SetLongField(env, sock_stat, rcv_mem, s->rcv_queue_mem);
+    (*env)->SetLongField(env, sock_stat, snd_mem, s->snd_queue_mem);
+    (*env)->SetLongField(env, sock_stat, rcv_buf, s->rcv_sock_buf);
+    (*env)->SetLongField(env, sock_stat, snd_buf, s->snd_sock_buf);
+    (*env)->SetLongField(env, sock_stat, fwd_alloc, s->tcp_fwd_alloc);
+    (*env)->SetLongField(env, sock_stat, queued_mem, s->tcp_queued_mem);
+    (*env)->SetIntField(env, sock_stat, ifindex, s->ifindex);
+    (*env)->SetIntField(env, sock_stat, mark, s->mark);
+    (*env)->SetLongField(env, sock_stat, cgroup_id, s->cgroup_id);
 
     (*env)->SetIntField(env, sock_stat, pid, s->pid);
+    (*env)->SetIntField(env, sock_stat, uid, s->uid);
     if (debug) {
         (*env)->SetObjectField(env, sock_stat, debug_str, (*env)->NewStringUTF(env, debug));
     }
@@ -101,8 +122,65 @@ void visit_sock(void *ctx, struct inet_sock_stat *s, struct tcp_stat *t, char* d
     JNIEnv *env = c->env;
 
     jobject sock_stat = new_sock_stat_obj(env, s, debug);
-    jobject tcp_stat = new_tcp_stat_obj(env, t);
-    (*env)->CallVoidMethod(env, c->obj, c->mid, sock_stat, tcp_stat);
+    if (t) {
+        jobject tcp_stat = new_tcp_stat_obj(env, t);
+        (*env)->CallVoidMethod(env, c->obj, c->mid, sock_stat, tcp_stat);
+    } else {
+        (*env)->CallVoidMethod(env, c->obj, c->udp_mid, sock_stat);
+    }
+}
+
+static jobject new_unix_stat_obj(JNIEnv *env, struct unix_sock_stat *s) {
+
+    jclass cls = (*env)->FindClass(env, UNIX_STAT_JAVA_CLASS);
+    jmethodID init = (*env)->GetMethodID(env, cls, "<init>", "()V");
+    jobject unix_stat = (*env)->NewObject(env, cls, init);
+
+    jclass ts = (*env)->FindClass(env, UNIX_TYPE_ENUM_CLASS);
+    jmethodID find_type = (*env)->GetStaticMethodID(env, ts, "of", UNIX_TYPE_FUNC_SIG);
+    jobject sock_type = (*env)->CallStaticObjectMethod(env, ts, find_type, s->type);
+
+    jclass cs = (*env)->FindClass(env, CONN_STATE_ENUM_CLASS);
+    jmethodID find_conn_state = (*env)->GetStaticMethodID(env, cs, CONN_STATE_FUNC_NAME, CONN_STATE_FUNC_SIG);
+    jobject sock_conn_state = (*env)->CallStaticObjectMethod(env, cs, find_conn_state, s->conn_state);
+
+    jfieldID type = (*env)->GetFieldID(env, cls, "type", UNIX_TYPE_ENUM_SIG);
+    jfieldID conn_state = (*env)->GetFieldID(env, cls, "connState", CONN_STATE_ENUM_SIG);
+    jfieldID path = (*env)->GetFieldID(env, cls, "path", "Ljava/lang/String;");
+    jfieldID inode = (*env)->GetFieldID(env, cls, "inode", "J");
+    jfieldID peer_inode = (*env)->GetFieldID(env, cls, "peerInode", "J");
+    jfieldID pid = (*env)->GetFieldID(env, cls, "processID", "I");
+    jfieldID uid = (*env)->GetFieldID(env, cls, "userID", "I");
+    jfieldID req_queue = (*env)->GetFieldID(env, cls, "requestQueue", "J");
+    jfieldID wait_queue = (*env)->GetFieldID(env, cls, "waitingQueue", "J");
+    jfieldID rcv_mem = (*env)->GetFieldID(env, cls, "receiveMemory", "J");
+    jfieldID snd_mem = (*env)->GetFieldID(env, cls, "sendMemory", "J");
+    jfieldID rcv_buf = (*env)->GetFieldID(env, cls, "receiveBuffer", "J");
+    jfieldID snd_buf = (*env)->GetFieldID(env, cls, "sendBuffer", "J");
+
+    (*env)->SetObjectField(env, unix_stat, type, sock_type);
+    (*env)->SetObjectField(env, unix_stat, conn_state, sock_conn_state);
+    if (s->path[0]) {
+        (*env)->SetObjectField(env, unix_stat, path, (*env)->NewStringUTF(env, s->path));
+    }
+    (*env)->SetLongField(env, unix_stat, inode, s->inode);
+    (*env)->SetLongField(env, unix_stat, peer_inode, s->peer_inode);
+    (*env)->SetIntField(env, unix_stat, pid, s->pid);
+    (*env)->SetIntField(env, unix_stat, uid, s->uid);
+    (*env)->SetLongField(env, unix_stat, req_queue, s->rqueue);
+    (*env)->SetLongField(env, unix_stat, wait_queue, s->wqueue);
+    (*env)->SetLongField(env, unix_stat, rcv_mem, s->rcv_queue_mem);
+    (*env)->SetLongField(env, unix_stat, snd_mem, s->snd_queue_mem);
+    (*env)->SetLongField(env, unix_stat, rcv_buf, s->rcv_sock_buf);
+    (*env)->SetLongField(env, unix_stat, snd_buf, s->snd_sock_buf);
+
+    return unix_stat;
+}
+
+void visit_unix_sock(void *ctx, struct unix_sock_stat *s) {
+    struct visit_sock_ctx *c = (struct visit_sock_ctx *)ctx;
+    JNIEnv *env = c->env;
+    (*env)->CallVoidMethod(env, c->obj, c->unix_mid, new_unix_stat_obj(env, s));
 }
 
 static void ensure_sock_filter(JNIEnv *env, jobject flt, struct sock_filter *f) {
@@ -148,6 +226,8 @@ static void ensure_sock_filter(JNIEnv *env, jobject flt, struct sock_filter *f)
                         (*env)->GetFieldID(env, sock_flt_cls, "currentUser", "Z"));
     f->only_curr_proc = (*env)->GetBooleanField(env, flt,
                         (*env)->GetFieldID(env, sock_flt_cls, "currentProc", "Z"));
+    f->show_unix = (*env)->GetBooleanField(env, flt,
+                   (*env)->GetFieldID(env, sock_flt_cls, "unix", "Z"));
 }
 
 
@@ -160,6 +240,9 @@ static int copy_port_filter(JNIEnv *env, jobject flt, const struct pf_enum_ctx *
     jfieldID get_op = (*env)->GetFieldID(env, cls, "op", PORT_FILTER_OP_ENUM_SIG);
     jfieldID get_side = (*env)->GetFieldID(env, cls, "side", PORT_FILTER_SIDE_ENUM_SIG);
     jfieldID get_value = (*env)->GetFieldID(env, cls, "value", "I");
+    jfieldID get_mask = (*env)->GetFieldID(env, cls, "mask", "I");
+    jfieldID get_cgroup = (*env)->GetFieldID(env, cls, "cgroupID", "J");
+    jfieldID get_address = (*env)->GetFieldID(env, cls, "address", "[B");
     jfieldID get_curr = (*env)->GetFieldID(env, cls, "curr", PORT_FILTER_JAVA_CLASS_SIG);
     jfieldID get_next = (*env)->GetFieldID(env, cls, "next", PORT_FILTER_JAVA_CLASS_SIG);
 
@@ -184,6 +267,24 @@ static int copy_port_filter(JNIEnv *env, jobject flt, const struct pf_enum_ctx *
     } else if ((*env)->IsSameObject(env, op, ec->OP_EQ)) {
         p->type = dst_side ? DST_PORT_EQ : SRC_PORT_EQ;
         p->port = value;
+    } else if ((*env)->IsSameObject(env, op, ec->OP_MARK)) {
+        p->type = SOCK_MARK;
+        p->port = value;
+        p->mask = (*env)->GetIntField(env, flt, get_mask);
+    } else if ((*env)->IsSameObject(env, op, ec->OP_CGROUP)) {
+        p->type = SOCK_CGROUP;
+        p->cgroup = (*env)->GetLongField(env, flt, get_cgroup);
+    } else if ((*env)->IsSameObject(env, op, ec->OP_DEV)) {
+        p->type = SOCK_DEV;
+        p->port = value;
+    } else if ((*env)->IsSameObject(env, op, ec->OP_HOST)) {
+        jbyteArray address = (jbyteArray) (*env)->GetObjectField(env, flt, get_address);
+        jsize len = address ? (*env)->GetArrayLength(env, address) : 0;
+        if (len != 4 && len != 16) return -1;
+        p->type = dst_side ? DST_HOST : SRC_HOST;
+        p->port = value;
+        p->addr_len = (uint8_t) len;
+        (*env)->GetByteArrayRegion(env, address, 0, len, (jbyte*) p->addr);
     } else {
         if ((*env)->IsSameObject(env, op, ec->OP_OR)) {
             p->type = COND_OR;
@@ -234,6 +335,14 @@ static int ensure_port_filter(JNIEnv *env, jobject flt, struct port_filter *pf,
                   (*env)->GetStaticFieldID(env, port_flt_op_enum, "LE", PORT_FILTER_OP_ENUM_SIG));
     jobject EQ =  (*env)->GetStaticObjectField(env, port_flt_op_enum,
                   (*env)->GetStaticFieldID(env, port_flt_op_enum, "EQ", PORT_FILTER_OP_ENUM_SIG));
+    jobject MARK = (*env)->GetStaticObjectField(env, port_flt_op_enum,
+                   (*env)->GetStaticFieldID(env, port_flt_op_enum, "MARK", PORT_FILTER_OP_ENUM_SIG));
+    jobject CGROUP = (*env)->GetStaticObjectField(env, port_flt_op_enum,
+                     (*env)->GetStaticFieldID(env, port_flt_op_enum, "CGROUP", PORT_FILTER_OP_ENUM_SIG));
+    jobject DEV = (*env)->GetStaticObjectField(env, port_flt_op_enum,
+                  (*env)->GetStaticFieldID(env, port_flt_op_enum, "DEV", PORT_FILTER_OP_ENUM_SIG));
+    jobject HOST = (*env)->GetStaticObjectField(env, port_flt_op_enum,
+                   (*env)->GetStaticFieldID(env, port_flt_op_enum, "HOST", PORT_FILTER_OP_ENUM_SIG));
 
     jobject SRC = (*env)->GetStaticObjectField(env, port_flt_side_enum,
                   (*env)->GetStaticFieldID(env, port_flt_side_enum, "SRC", PORT_FILTER_SIDE_ENUM_SIG));
@@ -242,6 +351,7 @@ static int ensure_port_filter(JNIEnv *env, jobject flt, struct port_filter *pf,
 
     struct pf_enum_ctx ec = {
         .OP_AND = AND, .OP_OR = OR, .OP_NOT = NOT, .OP_GE = GE, .OP_LE = LE, .OP_EQ = EQ,
+        .OP_MARK = MARK, .OP_CGROUP = CGROUP, .OP_DEV = DEV, .OP_HOST = HOST,
         .SIDE_SRC = SRC, .SIDE_DST = DST
     };
 
@@ -256,8 +366,10 @@ static int ensure_port_filter(JNIEnv *env, jobject flt, struct port_filter *pf,
 
 JNIEXPORT int JNICALL Java_com_curioloop_linux_socket_probe_LinuxSocketProbe_collectStat(JNIEnv *env, jobject obj, jobject flt) {
     jmethodID mid = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, obj), TCP_PROBE_CB_NAME, TCP_PROBE_CB_SIG);
-    struct visit_sock_ctx ctx = { .env = env, .obj = obj, .mid = mid };
-    struct sock_visitor visitor = { .visit_ctx = &ctx, .visit_func = visit_sock };
+    jmethodID udp_mid = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, obj), UDP_PROBE_CB_NAME, UDP_PROBE_CB_SIG);
+    jmethodID unix_mid = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, obj), UNIX_PROBE_CB_NAME, UNIX_PROBE_CB_SIG);
+    struct visit_sock_ctx ctx = { .env = env, .obj = obj, .mid = mid, .udp_mid = udp_mid, .unix_mid = unix_mid };
+    struct sock_visitor visitor = { .visit_ctx = &ctx, .visit_func = visit_sock, .unix_visit_func = visit_unix_sock };
     struct sock_filter filter;
     ensure_sock_filter(env, flt, &filter);
 
@@ -268,5 +380,28 @@ JNIEXPORT int JNICALL Java_com_curioloop_linux_socket_probe_LinuxSocketProbe_col
         if (err) return err;
     }
 
-    return collect_sock_stat(&visitor, &filter);
+    int code = collect_sock_stat(&visitor, &filter);
+    jmethodID stat_mid = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, obj), COLLECT_STAT_CB_NAME, COLLECT_STAT_CB_SIG);
+    if (stat_mid) {
+        struct collect_stat *st = &visitor.stat;
+        (*env)->CallVoidMethod(env, obj, stat_mid,
+                               (jlong) st->pid_hash_nanos, (jlong) st->dump_nanos, (jlong) st->visit_nanos,
+                               (jlong) st->recv_bytes, (jint) st->recv_calls, (jint) st->recv_msgs, (jint) st->pid_entries);
+    }
+    return code;
+}
+
+JNIEXPORT jint JNICALL Java_com_curioloop_linux_socket_probe_JniBackend_readTcpInfo(JNIEnv *env, jclass cls, jintArray fds, jint count, jobject slots, jint slot_size) {
+    char *buf = (*env)->GetDirectBufferAddress(env, slots);
+    if (buf == NULL || (*env)->GetDirectBufferCapacity(env, slots) < (jlong) count * slot_size) return -1;
+    // getsockopt may block on the socket lock, so descriptors are copied out instead of pinning the array
+    jint fd[TCP_INFO_BATCH];
+    int filled = 0;
+    for (jint off = 0; off < count; off += TCP_INFO_BATCH) {
+        jint n = count - off < TCP_INFO_BATCH ? count - off : TCP_INFO_BATCH;
+        (*env)->GetIntArrayRegion(env, fds, off, n, fd);
+        if ((*env)->ExceptionCheck(env)) return -1;
+        filled += read_tcp_info(fd, n, buf + (size_t) off * slot_size, slot_size);
+    }
+    return filled;
 }
\ No newline at end of file
@@ -44,6 +44,11 @@ TCP_PROBE_NATIVE__BEGIN_DECLS
 
 #define SOCK_STAT_JAVA_CLASS "com/curioloop/linux/socket/probe/InetSockStat"
 #define TCP_STAT_JAVA_CLASS "com/curioloop/linux/socket/probe/TcpStat"
+#define UNIX_STAT_JAVA_CLASS "com/curioloop/linux/socket/probe/UnixSockStat"
+
+#define UNIX_TYPE_ENUM_CLASS "com/curioloop/linux/socket/probe/UnixSockStat$Type"
+#define UNIX_TYPE_ENUM_SIG "Lcom/curioloop/linux/socket/probe/UnixSockStat$Type;"
+#define UNIX_TYPE_FUNC_SIG "(I)Lcom/curioloop/linux/socket/probe/UnixSockStat$Type;"
 
 #define CONN_STATE_ENUM_CLASS "com/curioloop/linux/socket/probe/ConnState"
 #define CONN_STATE_ENUM_SIG "Lcom/curioloop/linux/socket/probe/ConnState;"
@@ -54,14 +59,26 @@ TCP_PROBE_NATIVE__BEGIN_DECLS
 #define INET_PROTO_ENUM_CLASS "com/curioloop/linux/socket/probe/InetProto"
 #define INET_PROTO_ENUM_SIG "Lcom/curioloop/linux/socket/probe/InetProto;"
 
+/* Descriptors copied from the Java array per batch of getsockopt(TCP_INFO) */
+#define TCP_INFO_BATCH 256
+
 #define CONN_STATE_FUNC_NAME "of"
 #define CONN_STATE_FUNC_SIG "(I)Lcom/curioloop/linux/socket/probe/ConnState;"
 
 #define TCP_PROBE_CB_NAME "visitTcpStat"
 #define TCP_PROBE_CB_SIG "(Lcom/curioloop/linux/socket/probe/InetSockStat;Lcom/curioloop/linux/socket/probe/TcpStat;)V"
 
+#define UDP_PROBE_CB_NAME "visitUdpStat"
+#define UDP_PROBE_CB_SIG "(Lcom/curioloop/linux/socket/probe/InetSockStat;)V"
+
+#define UNIX_PROBE_CB_NAME "visitUnixStat"
+#define UNIX_PROBE_CB_SIG "(Lcom/curioloop/linux/socket/probe/UnixSockStat;)V"
+
+#define COLLECT_STAT_CB_NAME "visitCollectStat"
+#define COLLECT_STAT_CB_SIG "(JJJJIII)V"
+
 struct pf_enum_ctx {
-    jobject OP_AND, OP_OR, OP_NOT, OP_GE, OP_LE, OP_EQ;
+    jobject OP_AND, OP_OR, OP_NOT, OP_GE, OP_LE, OP_EQ, OP_MARK, OP_CGROUP, OP_DEV, OP_HOST;
     jobject SIDE_SRC, SIDE_DST;
 };
 
@@ -69,10 +86,14 @@ struct visit_sock_ctx {
     JNIEnv *env;
     jobject obj;
     jmethodID mid;
+    jmethodID udp_mid;
+    jmethodID unix_mid;
 };
 
 JNIEXPORT int JNICALL Java_com_curioloop_linux_socket_probe_LinuxSocketProbe_collectStat(JNIEnv *, jobject, jobject);
 
+JNIEXPORT jint JNICALL Java_com_curioloop_linux_socket_probe_JniBackend_readTcpInfo(JNIEnv *, jclass, jintArray, jint, jobject, jint);
+
 TCP_PROBE_NATIVE__END_DECLS
 
 #endif // TCP_PROBE_NATIVE_INCLUDED
\ No newline at end of file
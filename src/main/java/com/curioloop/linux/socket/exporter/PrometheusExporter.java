@@ -0,0 +1,501 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.exporter;
+
+import com.curioloop.linux.socket.monitor.CollectStats;
+import com.curioloop.linux.socket.monitor.SockGrouping;
+import com.curioloop.linux.socket.monitor.SockGrouping.Aggregate;
+import com.curioloop.linux.socket.monitor.SockGrouping.Dimension;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.NetCounters;
+import com.curioloop.linux.socket.probe.ProbeStats;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Exports a monitor in the Prometheus text format (version 0.0.4) without Micrometer.
+ * <p>
+ * Keep scrapes cheap for large socket tables by:
+ * <ul>
+ *     <li>Read the latest immutable snapshot and group aggregates without locking collectors</li>
+ *     <li>Render into a reused byte buffer, formatting numbers without intermediate strings</li>
+ *     <li>Cache encoded labels per socket across snapshots and per group across scrapes</li>
+ * </ul>
+ * Serve it with {@link #start(InetSocketAddress)}, or render on demand with {@link #writeTo(OutputStream)}.
+ * The exporter must be configured before it is started.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Accessors(fluent = true)
+public class PrometheusExporter implements HttpHandler, AutoCloseable {
+
+    /** Content type of the Prometheus text format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Path of the endpoint. */
+    public static final String PATH = "/metrics";
+
+    /** Quantiles of group summaries. */
+    static final double[] QUANTILES = SockGrouping.percentiles();
+    static final String[] QUANTILE_LABELS = new String[QUANTILES.length];
+
+    static {
+        for (int q = 0; q < QUANTILES.length; q++) QUANTILE_LABELS[q] = Double.toString(QUANTILES[q]);
+    }
+
+    static final Column[] COLUMNS = Column.values();
+
+    /** Per socket metrics, rendered as gauges except counters. */
+    static final Family[] SOCKET_FAMILIES = {
+            new Family(Column.REQUEST_QUEUE, "request_queue", "gauge", "Pending connections of listeners, or bytes in the receive queue."),
+            new Family(Column.WAITING_QUEUE, "waiting_queue", "gauge", "Backlog of listeners, or bytes in the send queue."),
+            new Family(Column.ROUND_TRIP_TIME, "round_trip_time", "gauge", "Smoothed round trip time."),
+            new Family(Column.ROUND_TRIP_TIME_VAR, "round_trip_time_var", "gauge", "Variance of round trip time."),
+            new Family(Column.RETRANSMIT_TIMEOUT, "retransmit_timeout", "gauge", "Retransmission timeout."),
+            new Family(Column.ACKNOWLEDGE_TIMEOUT, "acknowledge_timeout", "gauge", "Delayed acknowledge timeout."),
+            new Family(Column.CONGESTION_WINDOW, "congestion_window", "gauge", "Congestion window in segments."),
+            new Family(Column.SLOW_START_THRESHOLD, "slow_start_threshold", "gauge", "Slow start threshold in segments."),
+            new Family(Column.TOTAL_RETRANSMIT, "retransmit_total", "counter", "Total retransmitted segments."),
+            new Family(Column.RECEIVE_MEMORY, "receive_memory", "gauge", "Bytes allocated for the receive queue."),
+            new Family(Column.SEND_MEMORY, "send_memory", "gauge", "Bytes allocated for the send queue."),
+    };
+
+    /** The monitor to export. */
+    @Getter private final SockMonitor monitor;
+
+    /** Prefix of metric names. */
+    @Getter private final String prefix;
+
+    /** Whether to export a series per socket, disable for large tables exported by groupings only. */
+    @Getter @Setter private boolean perSocket = true;
+
+    private final List<GroupTable> groupings = new ArrayList<>();
+
+    private byte[] buf = new byte[1 << 16];
+    private int len;
+    private final byte[] digits = new byte[20];
+
+    private SockSnapshot labelled;
+    private byte[][] labels = new byte[0][];
+    private byte[][] spareLabels = new byte[0][];
+
+    private byte[][] counterLabels = new byte[0][];
+    private String[] counterNames = new String[0];
+
+    private HttpServer server;
+
+    /**
+     * Constructs a PrometheusExporter with metric names prefixed by {@code linux_socket}.
+     *
+     * @param monitor the monitor to export.
+     */
+    public PrometheusExporter(SockMonitor monitor) {
+        this(monitor, "linux_socket");
+    }
+
+    /**
+     * Constructs a PrometheusExporter.
+     *
+     * @param monitor the monitor to export.
+     * @param prefix the prefix of metric names.
+     */
+    public PrometheusExporter(SockMonitor monitor, String prefix) {
+        this.monitor = Objects.requireNonNull(monitor);
+        this.prefix = Objects.requireNonNull(prefix);
+    }
+
+    /**
+     * Exports the aggregates of a grouping, which should be registered to the monitor as an observer.
+     *
+     * @param name the value of the {@code grouping} label.
+     * @param grouping the grouping to export.
+     * @return this exporter.
+     */
+    public synchronized PrometheusExporter addGrouping(String name, SockGrouping grouping) {
+        for (GroupTable table : groupings) {
+            if (table.grouping == grouping) throw new IllegalArgumentException("grouping already added");
+        }
+        groupings.add(new GroupTable(name, grouping));
+        return this;
+    }
+
+    /**
+     * Serves the metrics on {@value #PATH} of a local HTTP server, with a single thread so scrapes share the buffer.
+     *
+     * @param address the address to bind.
+     * @return this exporter.
+     * @throws IOException if the server can not be bound.
+     */
+    public synchronized PrometheusExporter start(InetSocketAddress address) throws IOException {
+        if (server != null) throw new IllegalStateException("already started");
+        HttpServer s = HttpServer.create(address, 0);
+        s.createContext(PATH, this);
+        s.start();
+        server = s;
+        return this;
+    }
+
+    /**
+     * Returns the bound address of the server.
+     *
+     * @return the address, or null if not started.
+     */
+    public synchronized InetSocketAddress address() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Stops the server, in-flight scrapes are completed.
+     */
+    @Override
+    public synchronized void close() {
+        HttpServer s = server;
+        server = null;
+        if (s != null) s.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            synchronized (this) {
+                render();
+                if ("HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, len);
+                    exchange.getResponseBody().write(buf, 0, len);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders the latest metrics to the stream.
+     *
+     * @param out the stream to write.
+     * @throws IOException if failed to write.
+     */
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        render();
+        out.write(buf, 0, len);
+    }
+
+    /**
+     * Renders the latest metrics into the buffer.
+     */
+    synchronized void render() {
+        len = 0;
+        SockSnapshot snapshot = monitor.tcpSnapshot();
+        renderCollectStats(monitor.collectStats());
+        renderNetCounters(monitor.netCounters());
+        if (perSocket) renderSockets(snapshot);
+        renderGroupings();
+    }
+
+    private void renderCollectStats(CollectStats stats) {
+        if (stats == null) return;
+        header("collect_generation", "counter", "Generation of the latest snapshot.");
+        name("collect_generation").ascii(' ').number(stats.generation()).ascii('\n');
+        header("collect_sockets", "gauge", "Sockets in the latest snapshot.");
+        name("collect_sockets").ascii(' ').number(stats.sockets()).ascii('\n');
+        header("collect_seconds", "gauge", "Duration of each phase of the latest refresh.");
+        ProbeStats probe = stats.probe();
+        if (probe != null) {
+            phase("pid_hash", probe.pidHashNanos());
+            phase("dump", probe.dumpNanos());
+            phase("marshal", probe.marshalNanos());
+            phase("probe", probe.totalNanos());
+        }
+        phase("build", stats.buildNanos());
+        phase("dispatch", stats.dispatchNanos());
+        phase("observe", stats.observeNanos());
+        if (probe != null) {
+            header("collect_received_bytes", "gauge", "Bytes received from netlink by the latest refresh.");
+            name("collect_received_bytes").ascii(' ').number(probe.receivedBytes()).ascii('\n');
+        }
+    }
+
+    private void renderNetCounters(NetCounters counters) {
+        if (counters == null) return;
+        header("host_counter", "untyped", "Host-wide protocol counters from /proc/net/snmp, netstat and sockstat.");
+        int size = counters.size();
+        if (counterLabels.length < size) {
+            counterLabels = Arrays.copyOf(counterLabels, Math.max(size, counterLabels.length * 2));
+            counterNames = Arrays.copyOf(counterNames, counterLabels.length);
+        }
+        for (int i = 0; i < size; i++) {
+            // names of a probe keep their indexes, so labels are cached by index
+            String counter = counters.name(i);
+            byte[] label = counterLabels[i];
+            if (counterNames[i] != counter) {
+                label = counterLabels[i] = ("{counter=\"" + escape(counter) + "\"}").getBytes(StandardCharsets.UTF_8);
+                counterNames[i] = counter;
+            }
+            name("host_counter").bytes(label).ascii(' ').number(counters.value(i)).ascii('\n');
+        }
+    }
+
+    private void phase(String phase, long nanos) {
+        name("collect_seconds").ascii("{phase=\"").ascii(phase).ascii("\"} ").decimal(nanos, 9).ascii('\n');
+    }
+
+    private void renderSockets(SockSnapshot snapshot) {
+        byte[][] rows = labels(snapshot);
+        int size = snapshot.size();
+        for (Family family : SOCKET_FAMILIES) {
+            header(family.name, family.type, family.help);
+            for (int row = 0; row < size; row++) {
+                name(family.name).bytes(rows[row]).ascii(' ').number(snapshot.value(family.column, row)).ascii('\n');
+            }
+        }
+        header("estimated_bandwidth", "gauge", "Estimated available bandwidth in kilobits per second.");
+        for (int row = 0; row < size; row++) {
+            name("estimated_bandwidth").bytes(rows[row]).ascii(' ').number((long) snapshot.bandwidth(row)).ascii('\n');
+        }
+    }
+
+    /**
+     * Returns encoded labels of each row, reusing those of the same socket in the previous snapshot.
+     */
+    private byte[][] labels(SockSnapshot snapshot) {
+        if (snapshot == labelled) return labels;
+        int size = snapshot.size();
+        byte[][] next = spareLabels.length >= size ? spareLabels : new byte[Math.max(size, labels.length)][];
+        for (int row = 0; row < size; row++) {
+            int localIp = snapshot.localIp(row), remoteIp = snapshot.remoteIp(row);
+            int localPort = (int) snapshot.value(Column.LOCAL_PORT, row), remotePort = (int) snapshot.value(Column.REMOTE_PORT, row);
+            long pid = snapshot.value(Column.PROCESS_ID, row), state = snapshot.value(Column.CONN_STATE, row);
+            int prev = labelled == null ? -1 : labelled.indexOf(localIp, localPort, remoteIp, remotePort);
+            if (prev >= 0 && labelled.value(Column.PROCESS_ID, prev) == pid && labelled.value(Column.CONN_STATE, prev) == state) {
+                next[row] = labels[prev];
+            } else {
+                ConnState connState = ConnState.of((int) state);
+                next[row] = ("{local_ip=\"" + SockSnapshot.formatIpv4(localIp) + "\",local_port=\"" + localPort +
+                        "\",remote_ip=\"" + SockSnapshot.formatIpv4(remoteIp) + "\",remote_port=\"" + remotePort +
+                        "\",pid=\"" + pid + "\",state=\"" + (connState == null ? String.valueOf(state) : connState.name()) + "\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        Arrays.fill(next, size, next.length, null);
+        spareLabels = labels;
+        labels = next;
+        labelled = snapshot;
+        return labels;
+    }
+
+    private void renderGroupings() {
+        if (groupings.isEmpty()) return;
+        for (GroupTable table : groupings) table.refresh();
+        header("group_sockets", "gauge", "Sockets in the group.");
+        for (GroupTable table : groupings) {
+            for (int g = 0; g < table.aggregates.size(); g++) {
+                name("group_sockets").bytes(table.labels[g]).ascii(' ').number(table.aggregates.get(g).sockets()).ascii('\n');
+            }
+        }
+        for (Family family : SOCKET_FAMILIES) {
+            Column column = family.column;
+            boolean present = false;
+            for (GroupTable table : groupings) present |= table.aggregated[column.ordinal()] && !table.aggregates.isEmpty();
+            if (!present) continue;
+            String name = "group_" + family.name;
+            header(name, "summary", family.help);
+            for (GroupTable table : groupings) {
+                if (!table.aggregated[column.ordinal()]) continue;
+                for (int g = 0; g < table.aggregates.size(); g++) {
+                    Aggregate aggregate = table.aggregates.get(g);
+                    byte[] label = table.labels[g];
+                    for (int q = 0; q < QUANTILES.length; q++) {
+                        name(name).bytes(label, label.length - 1).ascii(",quantile=\"").ascii(QUANTILE_LABELS[q]).ascii("\"} ")
+                                .number(aggregate.percentile(column, QUANTILES[q])).ascii('\n');
+                    }
+                    name(name).ascii("_sum").bytes(label).ascii(' ').number(aggregate.sum(column)).ascii('\n');
+                    name(name).ascii("_count").bytes(label).ascii(' ').number(aggregate.count(column)).ascii('\n');
+                }
+            }
+        }
+    }
+
+    private void header(String name, String type, String help) {
+        ascii("# HELP ").name(name).ascii(' ').ascii(help).ascii('\n');
+        ascii("# TYPE ").name(name).ascii(' ').ascii(type).ascii('\n');
+    }
+
+    private PrometheusExporter name(String name) {
+        return ascii(prefix).ascii('_').ascii(name);
+    }
+
+    private PrometheusExporter ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+        return this;
+    }
+
+    private PrometheusExporter ascii(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+        return this;
+    }
+
+    private PrometheusExporter bytes(byte[] b) {
+        return bytes(b, b.length);
+    }
+
+    private PrometheusExporter bytes(byte[] b, int n) {
+        ensure(n);
+        System.arraycopy(b, 0, buf, len, n);
+        len += n;
+        return this;
+    }
+
+    private PrometheusExporter number(long value) {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) return ascii(Long.toString(value));
+            buf[len++] = '-';
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) buf[len++] = digits[--n];
+        return this;
+    }
+
+    /**
+     * Writes {@code value / 10^scale} in plain decimal notation.
+     */
+    private PrometheusExporter decimal(long value, int scale) {
+        long unit = 1;
+        for (int i = 0; i < scale; i++) unit *= 10;
+        if (value < 0) {
+            ascii('-');
+            value = -value;
+        }
+        number(value / unit);
+        long fraction = value % unit;
+        if (fraction == 0) return this;
+        ascii('.');
+        for (long u = unit / 10; u > 0 && fraction > 0; u /= 10) {
+            ascii((char) ('0' + fraction / u));
+            fraction %= u;
+        }
+        return this;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+
+    /**
+     * Metric family of a snapshot column.
+     */
+    static final class Family {
+        final Column column;
+        final String name;
+        final String type;
+        final String help;
+
+        Family(Column column, String name, String type, String help) {
+            this.column = column;
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /**
+     * Latest aggregates of a grouping with their encoded labels.
+     */
+    static final class GroupTable {
+
+        final byte[] name;
+        final SockGrouping grouping;
+
+        /** Whether each column is aggregated, fixed by the grouping. */
+        final boolean[] aggregated = new boolean[COLUMNS.length];
+
+        List<Aggregate> aggregates = Collections.emptyList();
+        byte[][] labels = new byte[16][];
+
+        /** Encoded labels keyed by the label list shared across aggregates of a group. */
+        private Map<List<String>, byte[]> cached = new IdentityHashMap<>();
+        private Map<List<String>, byte[]> spare = new IdentityHashMap<>();
+
+        GroupTable(String name, SockGrouping grouping) {
+            this.name = ("grouping=\"" + escape(name) + '"').getBytes(StandardCharsets.UTF_8);
+            this.grouping = grouping;
+            for (Column column : grouping.columns()) aggregated[column.ordinal()] = true;
+        }
+
+        void refresh() {
+            List<Aggregate> latest = grouping.aggregates();
+            if (latest == aggregates) return;
+            int size = latest.size();
+            if (labels.length < size) labels = new byte[Math.max(size, labels.length * 2)][];
+            for (int g = 0; g < size; g++) {
+                Aggregate aggregate = latest.get(g);
+                byte[] label = cached.get(aggregate.labels());
+                if (label == null) label = encode(aggregate);
+                spare.put(aggregate.labels(), label);
+                labels[g] = label;
+            }
+            Map<List<String>, byte[]> swap = cached;
+            cached = spare;
+            spare = swap;
+            spare.clear();
+            aggregates = latest;
+        }
+
+        byte[] encode(Aggregate aggregate) {
+            StringBuilder sb = new StringBuilder("{").append(new String(name, StandardCharsets.UTF_8));
+            for (Dimension dimension : Dimension.values()) {
+                String label = aggregate.label(dimension);
+                if (label != null) sb.append(',').append(dimension.name().toLowerCase(Locale.ROOT)).append("=\"").append(escape(label)).append('"');
+            }
+            return sb.append('}').toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockAggregator.MatchMode;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.PortFilter;
+
+import java.util.*;
+
+/**
+ * Matches sockets against subnets combined with port ranges.
+ * <p>
+ * Rules are compiled into binary tries over IPv4/IPv6 prefixes kept in primitive arrays,
+ * each prefix node owns a list of port intervals. Lookups of IPv4 sockets are allocation-free
+ * and lock-free since the matcher is immutable once built.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class CidrMatcher implements SockMatcher {
+
+    /** Matching mode for the matcher. */
+    final MatchMode matchMode;
+
+    /** Trie of IPv4 prefixes. */
+    final Trie ipv4;
+
+    /** Trie of IPv6 prefixes. */
+    final Trie ipv6;
+
+    /** All port intervals as sorted and merged [lo, hi] pairs. */
+    final int[] portRanges;
+
+    /** Rules in insertion order as {@code (address, prefix, fromPort, toPort)}. */
+    final List<Rule> rules;
+
+    /** Maximum number of rules exported with their prefixes, the kernel caps the bytecode at 64KiB. */
+    static final int MAX_KERNEL_RULES = 512;
+
+    private CidrMatcher(MatchMode matchMode, Trie ipv4, Trie ipv6, int[] portRanges, List<Rule> rules) {
+        this.matchMode = matchMode;
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.portRanges = portRanges;
+        this.rules = rules;
+    }
+
+    /**
+     * Creates a builder of rules.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the generation of the rules, always 0 since the matcher is immutable.
+     *
+     * @return the generation of the rules.
+     */
+    @Override
+    public long generation() {
+        return 0;
+    }
+
+    @Override
+    public boolean test(SockKey key) {
+        switch (matchMode) {
+            case LOCAL: return test(key.localIp(), key.localPort());
+            case REMOTE: return test(key.remoteIp(), key.remotePort());
+            default: return test(key.localIp(), key.localPort()) || test(key.remoteIp(), key.remotePort());
+        }
+    }
+
+    /**
+     * Matches a row of the snapshot without allocation.
+     *
+     * @param snapshot the snapshot of sockets.
+     * @param row the row of the socket.
+     * @return true if the socket matches any rule.
+     */
+    public boolean test(SockSnapshot snapshot, int row) {
+        int localPort = snapshot.columns[Column.LOCAL_PORT.ordinal()][row];
+        int remotePort = snapshot.columns[Column.REMOTE_PORT.ordinal()][row];
+        switch (matchMode) {
+            case LOCAL: return testIpv4(snapshot.localIps[row], localPort);
+            case REMOTE: return testIpv4(snapshot.remoteIps[row], remotePort);
+            default: return testIpv4(snapshot.localIps[row], localPort) || testIpv4(snapshot.remoteIps[row], remotePort);
+        }
+    }
+
+    /**
+     * Matches an endpoint.
+     *
+     * @param ip the IPv4 or IPv6 address literal.
+     * @param port the port of the endpoint.
+     * @return true if the endpoint matches any rule.
+     */
+    public boolean test(String ip, int port) {
+        long v4 = SockSnapshot.parseIpv4(ip);
+        if (v4 >= 0) return testIpv4((int) v4, port);
+        long[] v6 = parseIpv6(ip);
+        return v6 != null && ipv6.match(v6[0], v6[1], port);
+    }
+
+    /**
+     * Matches an IPv4 endpoint.
+     *
+     * @param ip the IPv4 address as int.
+     * @param port the port of the endpoint.
+     * @return true if the endpoint matches any rule.
+     */
+    public boolean testIpv4(int ip, int port) {
+        return ipv4.match((long) ip << 32, 0, port);
+    }
+
+    /**
+     * Exports the rules as a kernel filter, so sockets outside every subnet and port range are never dumped.
+     * Each rule becomes a host condition on its prefix combined with its port range. Beyond
+     * {@value #MAX_KERNEL_RULES} rules only the merged port ranges are exported to keep the bytecode small.
+     * The kernel also matches IPv4 rules against IPv4-mapped IPv6 addresses, so the filter may
+     * pass a few more sockets than {@link #test(String, int)} which should still be applied.
+     *
+     * @return the kernel filter, or null if the rules cover all addresses and ports.
+     */
+    public PortFilter toPortFilter() {
+        if (portRanges.length == 0) {
+            // nothing matches: an empty range that no port can satisfy
+            return PortFilter.ge(PortFilter.Side.SRC, 1).and(PortFilter.le(PortFilter.Side.SRC, 0));
+        }
+        boolean allPorts = portRanges.length == 2 && portRanges[0] <= 0 && portRanges[1] >= 0xFFFF;
+        if (rules.size() > MAX_KERNEL_RULES) {
+            if (allPorts) return null;
+            switch (matchMode) {
+                case LOCAL: return portFilter(PortFilter.Side.SRC);
+                case REMOTE: return portFilter(PortFilter.Side.DST);
+                default: return portFilter(PortFilter.Side.SRC).or(portFilter(PortFilter.Side.DST));
+            }
+        }
+        for (Rule rule : rules) {
+            if (rule.prefix == 0 && rule.fromPort <= 0 && rule.toPort >= 0xFFFF) return null;
+        }
+        switch (matchMode) {
+            case LOCAL: return ruleFilter(PortFilter.Side.SRC);
+            case REMOTE: return ruleFilter(PortFilter.Side.DST);
+            default: return ruleFilter(PortFilter.Side.SRC).or(ruleFilter(PortFilter.Side.DST));
+        }
+    }
+
+    private PortFilter ruleFilter(PortFilter.Side side) {
+        PortFilter filter = null;
+        for (Rule rule : rules) {
+            PortFilter host = rule.prefix == 0 ? null : PortFilter.host(side, rule.address, rule.prefix);
+            PortFilter ports = rule.fromPort <= 0 && rule.toPort >= 0xFFFF ? null : portRange(side, rule.fromPort, rule.toPort);
+            PortFilter match = host == null ? ports : ports == null ? host : host.and(ports);
+            filter = filter == null ? match : filter.or(match);
+        }
+        return filter;
+    }
+
+    private PortFilter portFilter(PortFilter.Side side) {
+        PortFilter filter = null;
+        for (int i = 0; i < portRanges.length; i += 2) {
+            PortFilter range = portRange(side, portRanges[i], portRanges[i + 1]);
+            filter = filter == null ? range : filter.or(range);
+        }
+        return filter;
+    }
+
+    private static PortFilter portRange(PortFilter.Side side, int lo, int hi) {
+        if (lo == hi) return PortFilter.eq(side, lo);
+        if (lo <= 0) return PortFilter.le(side, hi);
+        if (hi >= 0xFFFF) return PortFilter.ge(side, lo);
+        return PortFilter.ge(side, lo).and(PortFilter.le(side, hi));
+    }
+
+    /**
+     * Rule as added to the builder.
+     */
+    static final class Rule {
+
+        final byte[] address;
+        final int prefix;
+        final int fromPort;
+        final int toPort;
+
+        Rule(byte[] address, int prefix, int fromPort, int toPort) {
+            this.address = address;
+            this.prefix = prefix;
+            this.fromPort = fromPort;
+            this.toPort = toPort;
+        }
+    }
+
+    /**
+     * Builder of subnet and port range rules.
+     */
+    public static final class Builder {
+
+        final Trie.Builder ipv4 = new Trie.Builder(32);
+        final Trie.Builder ipv6 = new Trie.Builder(128);
+        final List<int[]> ranges = new ArrayList<>();
+        final List<Rule> rules = new ArrayList<>();
+
+        /**
+         * Adds a rule matching any port of the subnet.
+         *
+         * @param cidr the subnet such as {@code 10.0.0.0/8} or {@code 2001:db8::/32}, a bare address means a host.
+         * @return this builder.
+         */
+        public Builder rule(String cidr) {
+            return rule(cidr, 0, 0xFFFF);
+        }
+
+        /**
+         * Adds a rule.
+         *
+         * @param cidr the subnet such as {@code 10.0.0.0/8} or {@code 2001:db8::/32}, a bare address means a host.
+         * @param fromPort the lowest port (inclusive).
+         * @param toPort the highest port (inclusive).
+         * @return this builder.
+         */
+        public Builder rule(String cidr, int fromPort, int toPort) {
+            if (fromPort < 0 || toPort > 0xFFFF || fromPort > toPort) throw new IllegalArgumentException("invalid port range");
+            int slash = cidr.indexOf('/');
+            String ip = slash < 0 ? cidr : cidr.substring(0, slash);
+            long v4 = SockSnapshot.parseIpv4(ip);
+            if (v4 >= 0) {
+                int prefix = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+                if (prefix < 0 || prefix > 32) throw new IllegalArgumentException("invalid prefix: " + cidr);
+                ipv4.insert(v4 << 32, 0, prefix, fromPort, toPort);
+                rules.add(new Rule(toBytes(v4 << 32, 0, 4), prefix, fromPort, toPort));
+            } else {
+                long[] v6 = parseIpv6(ip);
+                if (v6 == null) throw new IllegalArgumentException("invalid address: " + cidr);
+                int prefix = slash < 0 ? 128 : Integer.parseInt(cidr.substring(slash + 1));
+                if (prefix < 0 || prefix > 128) throw new IllegalArgumentException("invalid prefix: " + cidr);
+                ipv6.insert(v6[0], v6[1], prefix, fromPort, toPort);
+                rules.add(new Rule(toBytes(v6[0], v6[1], 16), prefix, fromPort, toPort));
+            }
+            ranges.add(new int[]{fromPort, toPort});
+            return this;
+        }
+
+        /**
+         * Builds the immutable matcher.
+         *
+         * @param matchMode the matching mode.
+         * @return the matcher.
+         */
+        public CidrMatcher build(MatchMode matchMode) {
+            ranges.sort(Comparator.comparingInt(r -> r[0]));
+            int[] merged = new int[ranges.size() * 2];
+            int n = 0;
+            for (int[] r : ranges) {
+                if (n > 0 && r[0] <= merged[n - 1] + 1) {
+                    merged[n - 1] = Math.max(merged[n - 1], r[1]);
+                } else {
+                    merged[n++] = r[0];
+                    merged[n++] = r[1];
+                }
+            }
+            return new CidrMatcher(Objects.requireNonNull(matchMode), ipv4.build(), ipv6.build(), Arrays.copyOf(merged, n),
+                    Collections.unmodifiableList(new ArrayList<>(rules)));
+        }
+
+        private static byte[] toBytes(long hi, long lo, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) ((i < 8 ? hi >>> (56 - i * 8) : lo >>> (120 - i * 8)));
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Binary trie whose nodes are stored in primitive arrays.
+     * Addresses are left aligned 128-bit values split into high and low longs.
+     */
+    static final class Trie {
+
+        /** Children of node i at 2i (bit 0) and 2i+1 (bit 1), 0 means absent. */
+        final int[] children;
+
+        /** Port intervals of node i in ranges[rangeStart[i] .. rangeStart[i+1]). */
+        final int[] rangeStart;
+
+        /** Port intervals as [lo, hi] pairs. */
+        final int[] ranges;
+
+        /** Maximum depth of the trie. */
+        final int bits;
+
+        Trie(int[] children, int[] rangeStart, int[] ranges, int bits) {
+            this.children = children;
+            this.rangeStart = rangeStart;
+            this.ranges = ranges;
+            this.bits = bits;
+        }
+
+        boolean match(long hi, long lo, int port) {
+            int node = 0;
+            for (int depth = 0; ; depth++) {
+                for (int r = rangeStart[node]; r < rangeStart[node + 1]; r += 2) {
+                    if (port >= ranges[r] && port <= ranges[r + 1]) return true;
+                }
+                if (depth == bits) return false;
+                long bit = depth < 64 ? (hi >>> (63 - depth)) & 1 : (lo >>> (127 - depth)) & 1;
+                node = children[(node << 1) + (int) bit];
+                if (node == 0) return false;
+            }
+        }
+
+        static final class Builder {
+
+            final int bits;
+            final List<int[]> children = new ArrayList<>();
+            final List<List<int[]>> ranges = new ArrayList<>();
+
+            Builder(int bits) {
+                this.bits = bits;
+                newNode();
+            }
+
+            private int newNode() {
+                children.add(new int[2]);
+                ranges.add(new ArrayList<>());
+                return children.size() - 1;
+            }
+
+            void insert(long hi, long lo, int prefix, int fromPort, int toPort) {
+                int node = 0;
+                for (int depth = 0; depth < prefix; depth++) {
+                    int bit = (int) (depth < 64 ? (hi >>> (63 - depth)) & 1 : (lo >>> (127 - depth)) & 1);
+                    int child = children.get(node)[bit];
+                    if (child == 0) {
+                        child = newNode();
+                        children.get(node)[bit] = child;
+                    }
+                    node = child;
+                }
+                ranges.get(node).add(new int[]{fromPort, toPort});
+            }
+
+            Trie build() {
+                int nodes = children.size();
+                int[] flatChildren = new int[nodes * 2];
+                int[] rangeStart = new int[nodes + 1];
+                int total = 0;
+                for (int i = 0; i < nodes; i++) {
+                    flatChildren[i << 1] = children.get(i)[0];
+                    flatChildren[(i << 1) + 1] = children.get(i)[1];
+                    rangeStart[i] = total;
+                    total += ranges.get(i).size() * 2;
+                }
+                rangeStart[nodes] = total;
+                int[] flatRanges = new int[total];
+                for (int i = 0, r = 0; i < nodes; i++) {
+                    for (int[] range : ranges.get(i)) {
+                        flatRanges[r++] = range[0];
+                        flatRanges[r++] = range[1];
+                    }
+                }
+                return new Trie(flatChildren, rangeStart, flatRanges, bits);
+            }
+        }
+    }
+
+    /**
+     * Parses an IPv6 address literal, embedded IPv4 suffix is supported.
+     *
+     * @param ip the IPv6 address literal.
+     * @return the high and low 64 bits, or null if not a valid IPv6 address.
+     */
+    static long[] parseIpv6(String ip) {
+        if (ip == null || ip.isEmpty()) return null;
+        int[] groups = new int[8];
+        int count = 0, compress = -1, i = 0, len = ip.length();
+        if (ip.startsWith("::")) {
+            compress = 0;
+            i = 2;
+        }
+        while (i < len) {
+            int end = i;
+            while (end < len && ip.charAt(end) != ':') end++;
+            String part = ip.substring(i, end);
+            if (part.indexOf('.') >= 0) {
+                long v4 = SockSnapshot.parseIpv4(part);
+                if (v4 < 0 || end != len || count > 6) return null;
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                break;
+            }
+            if (part.isEmpty() || part.length() > 4 || count >= 8) return null;
+            int group = 0;
+            for (int k = 0; k < part.length(); k++) {
+                // Character.digit alone would also accept non-ASCII digits
+                char ch = part.charAt(k);
+                int digit = ch < 0x80 ? Character.digit(ch, 16) : -1;
+                if (digit < 0) return null;
+                group = (group << 4) | digit;
+            }
+            groups[count++] = group;
+            if (end == len) break;
+            if (end + 1 < len && ip.charAt(end + 1) == ':') {
+                if (compress >= 0) return null;
+                compress = count;
+                i = end + 2;
+            } else {
+                if (end + 1 == len) return null;
+                i = end + 1;
+            }
+        }
+        if (compress >= 0) {
+            int shift = 8 - count;
+            if (shift <= 0) return null;
+            System.arraycopy(groups, compress, groups, compress + shift, count - compress);
+            Arrays.fill(groups, compress, compress + shift, 0);
+        } else if (count != 8) {
+            return null;
+        }
+        long hi = 0, lo = 0;
+        for (int g = 0; g < 4; g++) hi = (hi << 16) | groups[g];
+        for (int g = 4; g < 8; g++) lo = (lo << 16) | groups[g];
+        return new long[]{hi, lo};
+    }
+
+}
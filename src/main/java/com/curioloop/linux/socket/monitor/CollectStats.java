@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.probe.ProbeStats;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.Map;
+
+/**
+ * Represents the cost of each phase of a monitor refresh.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Data
+@Accessors(fluent = true)
+public class CollectStats {
+
+    /** Generation of the snapshot produced by the refresh. */
+    private long generation;
+
+    /** Number of sockets in the snapshot. */
+    private int sockets;
+
+    /** Cost of the native collection, or null if statistics were published externally. */
+    private ProbeStats probe;
+
+    /** Nanoseconds to build the statistics map and the snapshot. */
+    private long buildNanos;
+
+    /** Bytes allocated to build the statistics map and the snapshot, or -1 if unsupported by the JVM. */
+    private long buildAllocatedBytes;
+
+    /** Nanoseconds to dispatch all collectors, only submission if dispatched asynchronously. */
+    private long dispatchNanos;
+
+    /** Nanoseconds of each collector dispatched on the refreshing thread. */
+    private Map<SockCollector<?>, Long> collectorNanos;
+
+    /** Nanoseconds to notify all observers. */
+    private long observeNanos;
+
+}
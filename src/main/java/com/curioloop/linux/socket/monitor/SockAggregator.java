@@ -17,7 +17,10 @@ package com.curioloop.linux.socket.monitor;
 
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,12 +32,13 @@ import java.util.stream.Stream;
  * <ul>
  *     <li>Collect socket direct from pojo</li>
  *     <li>Cache the snapshot of socket set</li>
+ *     <li>Optionally rebuild the snapshot in background while serving the last good one</li>
  * </ul>
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
  */
-public class SockAggregator implements Predicate<SockKey> {
+public class SockAggregator implements SockMatcher {
 
     /** Enumeration for matching modes. */
     public enum MatchMode {
@@ -44,8 +48,35 @@ public class SockAggregator implements Predicate<SockKey> {
     /** Time when the address was last updated. */
     private volatile long addressUpdatedTime;
 
+    /** Time when the next refresh is due, pushed back exponentially while refreshes keep failing. */
+    private volatile long nextRefreshTime;
+
+    /** Number of refreshes failed in a row. */
+    private volatile int consecutiveFailures;
+
+    /** Initial delay before retrying a failed refresh in milliseconds. */
+    static final long MIN_RETRY_DELAY = 1000;
+
+    /** Maximum delay before retrying a failed refresh in milliseconds, unless the refresh interval is longer. */
+    static final long MAX_RETRY_DELAY = 60_000;
+
     /** Cache for aggregated socket addresses. */
-    private volatile Map<Integer, Set<String>> socketAddresses;
+    private volatile Map<Integer, Set<String>> socketAddresses = Collections.emptyMap();
+
+    /** Incremented whenever the aggregated addresses change. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Whether a background refresh is in flight. */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** Number of failed refreshes. */
+    private final AtomicLong failureCount = new AtomicLong();
+
+    /** Duration of the last refresh in nanoseconds. */
+    private volatile long refreshLatency;
+
+    /** Cause of the last failed refresh. */
+    private volatile Throwable lastFailure;
 
     /** Matching mode for the aggregator. */
     final MatchMode matchMode;
@@ -56,6 +87,9 @@ public class SockAggregator implements Predicate<SockKey> {
     /** Supplier for remote address sources. */
     final Supplier<Collection<? extends Supplier<Stream<InetSocketAddress>>>> remoteAddressSources;
 
+    /** Executor for background refresh, or null to refresh inline. */
+    final Executor refreshExecutor;
+
     /**
      * Constructs a SockAggregator with given collection.
      *
@@ -75,48 +109,177 @@ public class SockAggregator implements Predicate<SockKey> {
      * @param remoteAddressSources the supplier for remote address sources.
      */
     public SockAggregator(MatchMode matchMode, long refreshInterval, Supplier<Collection<? extends Supplier<Stream<InetSocketAddress>>>> remoteAddressSources) {
+        this(matchMode, refreshInterval, remoteAddressSources, null);
+    }
+
+    /**
+     * Constructs a SockAggregator refreshing in background with the given supplier.
+     * <p>
+     * Matching never waits for the address sources: a due refresh is submitted to the executor
+     * and the last good addresses are used until it completes. A failed refresh keeps the last
+     * good addresses and is reported by {@link #failureCount()} and {@link #lastFailure()}.
+     * Failed refreshes are retried with exponential backoff from {@value #MIN_RETRY_DELAY} ms
+     * up to {@value #MAX_RETRY_DELAY} ms or the refresh interval if longer.
+     * No socket matches before the first refresh completes.
+     *
+     * @param matchMode the matching mode for the aggregator.
+     * @param refreshInterval the refresh interval for updating socket addresses cache.
+     * @param remoteAddressSources the supplier for remote address sources.
+     * @param refreshExecutor the executor to refresh addresses, or null to refresh inline.
+     */
+    public SockAggregator(MatchMode matchMode, long refreshInterval, Supplier<Collection<? extends Supplier<Stream<InetSocketAddress>>>> remoteAddressSources, Executor refreshExecutor) {
         this.matchMode = Objects.requireNonNull(matchMode);
         this.refreshInterval = refreshInterval;
         this.remoteAddressSources = Objects.requireNonNull(remoteAddressSources);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Returns the duration of the last refresh.
+     *
+     * @return the duration in nanoseconds, including failed refresh.
+     */
+    public long refreshLatency() {
+        return refreshLatency;
+    }
+
+    /**
+     * Returns the number of failed refreshes since creation.
+     *
+     * @return the number of failures.
+     */
+    public long failureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the cause of the last failed refresh.
+     *
+     * @return the cause, or null if never failed.
+     */
+    public Throwable lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns the age of the addresses in use.
+     *
+     * @return milliseconds since the last successful refresh, or -1 if never refreshed.
+     */
+    public long staleness() {
+        long updated = addressUpdatedTime;
+        return updated == 0 ? -1 : System.currentTimeMillis() - updated;
     }
 
     private void aggregateSocketAddress() {
         long now = System.currentTimeMillis();
-        if (now - addressUpdatedTime >= refreshInterval) {
+        if (now >= nextRefreshTime) {
+            if (refreshExecutor != null) {
+                if (refreshing.compareAndSet(false, true)) {
+                    try {
+                        refreshExecutor.execute(this::refreshInBackground);
+                    } catch (RejectedExecutionException e) {
+                        refreshing.set(false);
+                        failureCount.incrementAndGet();
+                        lastFailure = e;
+                        refreshFailed(now);
+                    }
+                }
+                return;
+            }
             synchronized (this) {
-                if (now - addressUpdatedTime >= refreshInterval) {
+                if (now >= nextRefreshTime) {
                     try {
-                        Collection<? extends Supplier<Stream<InetSocketAddress>>> sources = remoteAddressSources.get();
-                        if (sources == null) sources = Collections.emptyList();
-                        socketAddresses = sources.stream().
-                                filter(Objects::nonNull).flatMap(Supplier::get).filter(Objects::nonNull).collect(
-                                        Collectors.groupingBy(InetSocketAddress::getPort,
-                                                Collectors.mapping(sa -> sa.getAddress().getHostAddress(), Collectors.toSet())));
+                        updateSocketAddress(buildSocketAddress());
                     } catch (Exception e) {
-                        socketAddresses = Collections.emptyMap(); // clear address
+                        updateSocketAddress(Collections.emptyMap()); // clear address
+                        refreshFailed(now);
                         throw new RuntimeException(e);
                     }
-                    addressUpdatedTime = now;
+                    refreshSucceeded(now);
                 }
             }
         }
     }
 
+    private void refreshInBackground() {
+        try {
+            updateSocketAddress(buildSocketAddress());
+            refreshSucceeded(System.currentTimeMillis());
+        } catch (Throwable e) {
+            // keep serving the last good addresses
+            refreshFailed(System.currentTimeMillis());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private void refreshSucceeded(long now) {
+        consecutiveFailures = 0;
+        addressUpdatedTime = now;
+        nextRefreshTime = now + refreshInterval;
+    }
+
+    private void refreshFailed(long now) {
+        int failures = consecutiveFailures = Math.min(consecutiveFailures + 1, 30);
+        long delay = Math.min(MIN_RETRY_DELAY << (failures - 1), Math.max(MAX_RETRY_DELAY, refreshInterval));
+        nextRefreshTime = now + delay;
+    }
+
+    private void updateSocketAddress(Map<Integer, Set<String>> addresses) {
+        if (!addresses.equals(socketAddresses)) {
+            socketAddresses = addresses;
+            generation.incrementAndGet();
+        }
+    }
+
+    private Map<Integer, Set<String>> buildSocketAddress() {
+        long start = System.nanoTime();
+        try {
+            Collection<? extends Supplier<Stream<InetSocketAddress>>> sources = remoteAddressSources.get();
+            if (sources == null) sources = Collections.emptyList();
+            Map<Integer, Set<String>> addresses = sources.stream().
+                    filter(Objects::nonNull).flatMap(Supplier::get).filter(Objects::nonNull).collect(
+                            Collectors.groupingBy(InetSocketAddress::getPort,
+                                    Collectors.mapping(sa -> sa.getAddress().getHostAddress(), Collectors.toSet())));
+            addresses.replaceAll((port, hosts) -> Collections.unmodifiableSet(hosts));
+            return Collections.unmodifiableMap(addresses);
+        } catch (Throwable e) {
+            failureCount.incrementAndGet();
+            lastFailure = e;
+            throw e;
+        } finally {
+            refreshLatency = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Returns the generation of aggregated addresses, refreshing them first if due.
+     *
+     * @return the generation which changes whenever the aggregated addresses change.
+     */
+    @Override
+    public long generation() {
+        aggregateSocketAddress();
+        return generation.get();
+    }
+
     @Override
     public boolean test(SockKey key) {
         aggregateSocketAddress();
+        Map<Integer, Set<String>> addresses = socketAddresses;
         Set<String> localSet;
         Set<String> remoteSet;
         if (matchMode == MatchMode.LOCAL) {
-            localSet = socketAddresses.get(key.localPort());
+            localSet = addresses.get(key.localPort());
             return localSet != null && localSet.contains(key.localIp());
         }
         if (matchMode == MatchMode.REMOTE) {
-            remoteSet = socketAddresses.get(key.remotePort());
+            remoteSet = addresses.get(key.remotePort());
             return remoteSet != null && remoteSet.contains(key.remoteIp());
         }
-        localSet = socketAddresses.get(key.localPort());
-        remoteSet = socketAddresses.get(key.remotePort());
+        localSet = addresses.get(key.localPort());
+        remoteSet = addresses.get(key.remotePort());
         return localSet != null && localSet.contains(key.localIp()) ||
                remoteSet != null && remoteSet.contains(key.remoteIp());
     }
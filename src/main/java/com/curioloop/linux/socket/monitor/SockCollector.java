@@ -40,6 +40,12 @@ public abstract class SockCollector<Meter> implements AutoCloseable {
     /** Map to store managed meters. */
     protected final Map<SockKey, Meter> managedMeters = new HashMap<>();
 
+    /** Memoized verdicts of unmanaged sockets, only used when the matcher is a {@link SockMatcher}. */
+    private final Map<SockKey, Boolean> matchVerdicts = new HashMap<>();
+
+    /** Generation of the matcher when verdicts were memoized. */
+    private long verdictGeneration;
+
     /**
      * Creates a meter for the specified socket key and monitor.
      *
@@ -64,14 +70,34 @@ public abstract class SockCollector<Meter> implements AutoCloseable {
      * @return true if any changes were made to the meters, false otherwise.
      */
     public boolean refreshMeters(SockMonitor monitor) {
+        return refreshMeters(monitor, monitor.tcpStats());
+    }
+
+    /**
+     * Refreshes the meters against the specified statistics instead of the latest ones of the monitor,
+     * so a collector dispatched asynchronously sees the snapshot it was dispatched with.
+     *
+     * @param monitor the monitor used for monitoring socket statistics.
+     * @param tcpStats the immutable statistics to refresh against.
+     * @return true if any changes were made to the meters, false otherwise.
+     */
+    public boolean refreshMeters(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats) {
         boolean changed = false;
-        Map<SockKey, InetSockStat<TcpStat>> tcpStats = monitor.tcpStats();
+        boolean memoize = socketMatcher instanceof SockMatcher;
+        if (memoize) {
+            long generation = ((SockMatcher) socketMatcher).generation();
+            if (generation != verdictGeneration) {
+                matchVerdicts.clear();
+                verdictGeneration = generation;
+            }
+        }
         // Add meter when matching socket found
         for (SockKey key : tcpStats.keySet()) {
-            if (socketMatcher.test(key) && !managedMeters.containsKey(key)) {
+            if (!managedMeters.containsKey(key) && (memoize ? matchMemoized(key) : socketMatcher.test(key))) {
                 Meter meter = createMeter(key, monitor);
                 if (meter != null) {
                     managedMeters.put(key, meter);
+                    if (memoize) matchVerdicts.remove(key);
                     changed = true;
                 }
             }
@@ -87,9 +113,22 @@ public abstract class SockCollector<Meter> implements AutoCloseable {
                 changed = true;
             }
         }
+        // Evict verdicts when socket gone
+        if (memoize && matchVerdicts.size() > 0) {
+            matchVerdicts.keySet().retainAll(tcpStats.keySet());
+        }
         return changed;
     }
 
+    private boolean matchMemoized(SockKey key) {
+        Boolean verdict = matchVerdicts.get(key);
+        if (verdict == null) {
+            verdict = socketMatcher.test(key);
+            matchVerdicts.put(key, verdict);
+        }
+        return verdict;
+    }
+
     /**
      * Closes the collector by destroying all managed meters.
      */
@@ -97,6 +136,7 @@ public abstract class SockCollector<Meter> implements AutoCloseable {
     public void close() {
         managedMeters.forEach(this::destroyMeter);
         managedMeters.clear();
+        matchVerdicts.clear();
     }
 
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Dispatches refreshed statistics to a collector and measures its latency.
+ * <p>
+ * Runs of the same collector never overlap. When statistics arrive while the collector
+ * is still running, the {@link OverrunPolicy} decides whether they are dropped or kept
+ * as the latest pending statistics. Once cancelled, queued and pending runs are dropped
+ * without touching the collector.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class SockDispatch {
+
+    /** Enumeration for handling statistics arriving while the collector is running. */
+    public enum OverrunPolicy {
+        /** Drop the new statistics. */
+        SKIP,
+        /** Keep only the latest statistics and refresh against them once the running one completes. */
+        COALESCE
+    }
+
+    final SockCollector<?> collector;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicReference<Map<SockKey, InetSockStat<TcpStat>>> pending = new AtomicReference<>();
+
+    /** Number of refreshes of the collector in progress. */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /** Set when the collector is removed from the monitor. */
+    private volatile boolean cancelled;
+
+    private final AtomicLong dispatchCount = new AtomicLong();
+    private final AtomicLong skipCount = new AtomicLong();
+    private final AtomicLong coalesceCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long lastLatency;
+    private volatile long maxLatency;
+    private volatile Throwable lastFailure;
+
+    SockDispatch(SockCollector<?> collector) {
+        this.collector = collector;
+    }
+
+    /**
+     * Refreshes the collector on the calling thread.
+     */
+    void dispatch(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats) {
+        run(monitor, tcpStats, true);
+    }
+
+    /**
+     * Refreshes the collector on the executor, applying the overrun policy if still running.
+     */
+    void dispatch(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats, Executor executor, OverrunPolicy policy) {
+        if (policy == OverrunPolicy.SKIP) {
+            if (!running.compareAndSet(false, true)) {
+                skipCount.incrementAndGet();
+                return;
+            }
+        } else {
+            if (pending.getAndSet(tcpStats) != null) coalesceCount.incrementAndGet();
+            if (!running.compareAndSet(false, true)) return; // picked up by the running loop
+            tcpStats = pending.getAndSet(null);
+            if (tcpStats == null) {
+                running.set(false);
+                return;
+            }
+        }
+        Map<SockKey, InetSockStat<TcpStat>> first = tcpStats;
+        try {
+            executor.execute(() -> loop(monitor, first));
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            failureCount.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    private void loop(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats) {
+        while (tcpStats != null) {
+            run(monitor, tcpStats, false);
+            tcpStats = pending.getAndSet(null);
+            if (tcpStats == null) {
+                running.set(false);
+                // resume if statistics were set after the check but before releasing
+                if (pending.get() != null && running.compareAndSet(false, true)) {
+                    tcpStats = pending.getAndSet(null);
+                    if (tcpStats == null) running.set(false);
+                }
+            }
+        }
+    }
+
+    private void run(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats, boolean propagate) {
+        // counted before checking the flag, so awaitIdle never misses a run that passed the check
+        active.incrementAndGet();
+        try {
+            if (cancelled) return;
+            long start = System.nanoTime();
+            try {
+                collector.refreshMeters(monitor, tcpStats);
+            } catch (RuntimeException | Error e) {
+                failureCount.incrementAndGet();
+                lastFailure = e;
+                if (propagate) throw e;
+            } finally {
+                long latency = System.nanoTime() - start;
+                lastLatency = latency;
+                if (latency > maxLatency) maxLatency = latency;
+                dispatchCount.incrementAndGet();
+            }
+        } finally {
+            if (active.decrementAndGet() == 0 && cancelled) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops refreshing the collector, queued and pending statistics are dropped.
+     */
+    void cancel() {
+        cancelled = true;
+        pending.set(null);
+    }
+
+    /**
+     * Waits for the refresh in progress after {@link #cancel()}.
+     *
+     * @return true if no refresh is in progress, false if timed out.
+     */
+    synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (long remaining; active.get() > 0; ) {
+            if ((remaining = deadline - System.nanoTime()) <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the collector was removed from the monitor.
+     *
+     * @return true if cancelled.
+     */
+    public boolean cancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the collector of this dispatch.
+     *
+     * @return the collector.
+     */
+    public SockCollector<?> collector() {
+        return collector;
+    }
+
+    /**
+     * Returns the number of completed refreshes of the collector.
+     *
+     * @return the number of refreshes.
+     */
+    public long dispatchCount() {
+        return dispatchCount.get();
+    }
+
+    /**
+     * Returns the number of statistics dropped by {@link OverrunPolicy#SKIP}.
+     *
+     * @return the number of skipped statistics.
+     */
+    public long skipCount() {
+        return skipCount.get();
+    }
+
+    /**
+     * Returns the number of pending statistics replaced by newer ones under {@link OverrunPolicy#COALESCE}.
+     *
+     * @return the number of coalesced statistics.
+     */
+    public long coalesceCount() {
+        return coalesceCount.get();
+    }
+
+    /**
+     * Returns the number of failed or rejected refreshes.
+     *
+     * @return the number of failures.
+     */
+    public long failureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the cause of the last failed refresh.
+     *
+     * @return the cause, or null if never failed.
+     */
+    public Throwable lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns the duration of the last refresh.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long lastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Returns the longest duration of refreshes.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long maxLatency() {
+        return maxLatency;
+    }
+
+}
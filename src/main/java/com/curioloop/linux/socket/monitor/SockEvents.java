@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.probe.ProbeStats;
+
+/**
+ * Emits flight recorder events of refreshes.
+ * <p>
+ * Flight recorder is not available on Java 8, so this version does nothing.
+ * It is replaced by the Java 11 version in the multi-release JAR.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockEvents {
+
+    private SockEvents() {}
+
+    /**
+     * Starts timing a refresh.
+     *
+     * @return the collection event, or null if not recording.
+     */
+    static Object begin() {
+        return null;
+    }
+
+    /**
+     * Ends timing a refresh which failed to collect sockets.
+     *
+     * @param event the collection event returned by {@link #begin()}.
+     * @param probe the cost of the failed collection, or null if unknown.
+     */
+    static void fail(Object event, ProbeStats probe) {}
+
+    /**
+     * Ends timing a refresh and reports sockets exceeding the thresholds.
+     *
+     * @param event the collection event returned by {@link #begin()}.
+     * @param cost the cost of the refresh.
+     * @param previous the previous snapshot.
+     * @param current the refreshed snapshot.
+     * @param thresholds the per-socket thresholds.
+     */
+    static void commit(Object event, CollectStats cost, SockSnapshot previous, SockSnapshot current, SockThresholds thresholds) {}
+
+}
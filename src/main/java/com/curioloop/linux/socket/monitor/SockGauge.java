@@ -15,20 +15,24 @@
  */
 package com.curioloop.linux.socket.monitor;
 
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
 import com.curioloop.linux.socket.probe.InetSockStat;
 import com.curioloop.linux.socket.probe.TcpStat;
-import lombok.RequiredArgsConstructor;
 
+import java.util.Objects;
 import java.util.function.ToDoubleFunction;
 
 
 /**
  * Represents a gauge for monitoring socket statistics.
+ * <p>
+ * A gauge bound to a snapshot column resolves the row of its socket once per snapshot generation
+ * through a {@link Slot}, so reads are array loads instead of hash lookups by socket key.
+ * Gauges of the same socket may share a slot to resolve the row only once for all of them.
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
  */
-@RequiredArgsConstructor(staticName = "of")
 public class SockGauge extends Number {
 
     /** The key associated with the socket. */
@@ -37,9 +41,61 @@ public class SockGauge extends Number {
     /** The monitor used for monitoring socket statistics. */
     final SockMonitor monitor;
 
-    /** The function used to compute the double value. */
+    /** The function used to compute the double value, null if bound to a column. */
     final ToDoubleFunction<InetSockStat<TcpStat>> func;
 
+    /** The slot of the socket in snapshots, null if computed by function. */
+    final Slot slot;
+
+    /** The snapshot column to read. */
+    final Column column;
+
+    /** The value if the socket is absent, or if it lacks {@code tcp_info} for a TCP metric. */
+    final double defaultValue;
+
+    private SockGauge(SockKey key, SockMonitor monitor, ToDoubleFunction<InetSockStat<TcpStat>> func,
+                      Slot slot, Column column, double defaultValue) {
+        this.key = key;
+        this.monitor = monitor;
+        this.func = func;
+        this.slot = slot;
+        this.column = column;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Creates a SockGauge computed from the socket statistics by function.
+     *
+     * @param key the key associated with the socket.
+     * @param monitor the monitor used for monitoring socket statistics.
+     * @param func the function used to compute the double value, the socket may be null.
+     * @return a SockGauge looking up the socket on every read.
+     */
+    public static SockGauge of(SockKey key, SockMonitor monitor, ToDoubleFunction<InetSockStat<TcpStat>> func) {
+        return new SockGauge(key, monitor, Objects.requireNonNull(func), null, null, 0);
+    }
+
+    /**
+     * Creates a SockGauge reading a snapshot column through a shared slot.
+     *
+     * @param slot the slot of the socket.
+     * @param column the snapshot column to read.
+     * @param defaultValue the default value if the socket is absent, or if it lacks {@code tcp_info} for a TCP metric column.
+     * @return a SockGauge resolving the socket once per snapshot generation.
+     */
+    public static SockGauge of(Slot slot, Column column, double defaultValue) {
+        return new SockGauge(slot.key, slot.monitor, null, slot, Objects.requireNonNull(column), defaultValue);
+    }
+
+    /**
+     * Creates a SockGauge reading a snapshot column, falls back to lookup by key if the socket is not IPv4.
+     */
+    static SockGauge of(SockKey key, SockMonitor monitor, Column column, double defaultValue,
+                        ToDoubleFunction<InetSockStat<TcpStat>> fallback) {
+        Slot slot = Slot.of(key, monitor);
+        return slot == null ? of(key, monitor, fallback) : of(slot, column, defaultValue);
+    }
+
     @Override
     public int intValue() {
         return (int) doubleValue();
@@ -57,7 +113,75 @@ public class SockGauge extends Number {
 
     @Override
     public double doubleValue() {
-        return func.applyAsDouble(monitor.tcpStats().get(key));
+        if (slot == null) {
+            return func.applyAsDouble(monitor.tcpStats().get(key));
+        }
+        Resolved resolved = slot.resolve();
+        int row = resolved.row;
+        if (row < 0 || (column.tcpInfo() && !resolved.snapshot.hasTcpInfo(row))) return defaultValue;
+        return resolved.snapshot.value(column, row);
+    }
+
+    /**
+     * The position of a socket in the latest snapshot of a monitor, shared by gauges of the socket.
+     */
+    public static final class Slot {
+
+        final SockKey key;
+        final SockMonitor monitor;
+        final int localIp;
+        final int localPort;
+        final int remoteIp;
+        final int remotePort;
+
+        /** Row resolved against the latest seen snapshot. */
+        private volatile Resolved resolved = new Resolved(null, -1);
+
+        private Slot(SockKey key, SockMonitor monitor, int localIp, int remoteIp) {
+            this.key = key;
+            this.monitor = monitor;
+            this.localIp = localIp;
+            this.localPort = key.localPort();
+            this.remoteIp = remoteIp;
+            this.remotePort = key.remotePort();
+        }
+
+        /**
+         * Creates a slot for the specified socket, the addresses are parsed once here.
+         *
+         * @param key the key associated with the socket.
+         * @param monitor the monitor used for monitoring socket statistics.
+         * @return the slot, or null if the socket is not IPv4 and therefore absent from snapshots.
+         */
+        public static Slot of(SockKey key, SockMonitor monitor) {
+            long localIp = SockSnapshot.parseIpv4(key.localIp());
+            long remoteIp = SockSnapshot.parseIpv4(key.remoteIp());
+            if (localIp < 0 || remoteIp < 0) return null;
+            return new Slot(key, Objects.requireNonNull(monitor), (int) localIp, (int) remoteIp);
+        }
+
+        Resolved resolve() {
+            SockSnapshot snapshot = monitor.tcpSnapshot();
+            Resolved current = resolved;
+            if (current.snapshot != snapshot) {
+                // racing readers resolve to the same row, the last write wins harmlessly
+                current = new Resolved(snapshot, snapshot.indexOf(localIp, localPort, remoteIp, remotePort));
+                resolved = current;
+            }
+            return current;
+        }
+    }
+
+    /** Immutable pair of snapshot and row, published as a whole. */
+    static final class Resolved {
+
+        final SockSnapshot snapshot;
+        final int row;
+
+        Resolved(SockSnapshot snapshot, int row) {
+            this.snapshot = snapshot;
+            this.row = row;
+        }
     }
 
     /**
@@ -69,7 +193,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the transmission queue.
      */
     public static SockGauge txQueue(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.REQUEST_QUEUE, defaultValue, sock -> {
             if (sock == null) return defaultValue;
             return sock.requestQueue();
         });
@@ -84,7 +208,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the receive queue.
      */
     public static SockGauge rxQueue(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.WAITING_QUEUE, defaultValue, sock -> {
             if (sock == null) return defaultValue;
             return sock.waitingQueue();
         });
@@ -99,7 +223,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the round-trip time.
      */
     public static SockGauge rrt(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.ROUND_TRIP_TIME, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().roundTripTime();
         });
@@ -114,7 +238,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the retransmit timeout.
      */
     public static SockGauge rto(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.RETRANSMIT_TIMEOUT, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().retransmitTimeout();
         });
@@ -129,7 +253,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the acknowledge timeout.
      */
     public static SockGauge ano(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.ACKNOWLEDGE_TIMEOUT, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().acknowledgeTimeout();
         });
@@ -144,7 +268,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the total number of retransmissions.
      */
     public static SockGauge reTrans(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.TOTAL_RETRANSMIT, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().totalRetransmit();
         });
@@ -159,7 +283,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the congestion window size.
      */
     public static SockGauge cWnd(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.CONGESTION_WINDOW, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().congestionWindow();
         });
@@ -174,7 +298,7 @@ public class SockGauge extends Number {
      * @return a SockGauge for monitoring the slow start threshold.
      */
     public static SockGauge ssThresh(SockKey key, SockMonitor monitor, double defaultValue) {
-        return SockGauge.of(key, monitor, sock -> {
+        return SockGauge.of(key, monitor, Column.SLOW_START_THRESHOLD, defaultValue, sock -> {
             if (sock == null || sock.info() == null) return defaultValue;
             return sock.info().slowStartThreshold();
         });
@@ -0,0 +1,459 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.ConnState;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates sockets into a bounded number of groups with histograms.
+ * <p>
+ * Keep cardinality of exported series stable by:
+ * <ul>
+ *     <li>Group sockets by configurable dimensions instead of the full socket key</li>
+ *     <li>Fold new groups into an overflow group once the limit is reached</li>
+ *     <li>Reuse histograms of each group across refreshes without allocation</li>
+ *     <li>Publish immutable aggregates per refresh, so readers never block refreshes</li>
+ * </ul>
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockGrouping implements SockObserver {
+
+    /** Enumeration for grouping dimensions. */
+    public enum Dimension {
+        LOCAL_IP, LOCAL_PORT, REMOTE_IP, REMOTE_PORT, PROCESS_ID, CONN_STATE
+    }
+
+    /** Default metrics to aggregate. */
+    static final Column[] DEFAULT_COLUMNS = {
+            Column.ROUND_TRIP_TIME, Column.RETRANSMIT_TIMEOUT, Column.CONGESTION_WINDOW,
+            Column.REQUEST_QUEUE, Column.WAITING_QUEUE
+    };
+
+    /** Label of the overflow group. */
+    public static final String OVERFLOW = "other";
+
+    /** Percentiles computed for each published aggregate. */
+    static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    /** Count, sum, min, max and percentiles per metric of an aggregate. */
+    static final int STATS = 4 + PERCENTILES.length;
+
+    /** Dimensions to group by. */
+    final Dimension[] dimensions;
+
+    /** Metrics to aggregate. */
+    final Column[] columns;
+
+    /** Maximum number of groups excluding the overflow group. */
+    final int maxGroups;
+
+    /** Number of empty refreshes before a group is removed. */
+    final int idleRefreshes;
+
+    /** Groups indexed by dimension values. */
+    private final Map<GroupKey, Group> groups = new HashMap<>();
+
+    /** Group for sockets beyond the group limit. */
+    private final Group overflow;
+
+    /** Reusable key for lookup. */
+    private final GroupKey probe;
+
+    /** Aggregates of the latest snapshot. */
+    private volatile List<Aggregate> aggregates = Collections.emptyList();
+
+    /**
+     * Constructs a SockGrouping with default metrics.
+     *
+     * @param maxGroups the maximum number of groups.
+     * @param dimensions the dimensions to group by.
+     */
+    public SockGrouping(int maxGroups, Dimension... dimensions) {
+        this(maxGroups, 3, DEFAULT_COLUMNS, dimensions);
+    }
+
+    /**
+     * Constructs a SockGrouping.
+     *
+     * @param maxGroups the maximum number of groups.
+     * @param idleRefreshes the number of empty refreshes before a group is removed.
+     * @param columns the metrics to aggregate.
+     * @param dimensions the dimensions to group by.
+     */
+    public SockGrouping(int maxGroups, int idleRefreshes, Column[] columns, Dimension... dimensions) {
+        if (maxGroups < 1) throw new IllegalArgumentException("maxGroups required");
+        if (columns.length == 0) throw new IllegalArgumentException("columns required");
+        this.maxGroups = maxGroups;
+        this.idleRefreshes = idleRefreshes;
+        this.columns = columns.clone();
+        this.dimensions = dimensions.clone();
+        this.probe = new GroupKey(new int[dimensions.length]);
+        this.overflow = new Group(this, null);
+    }
+
+    @Override
+    public synchronized void observe(SockSnapshot snapshot) {
+        for (Group group : groups.values()) group.reset();
+        overflow.reset();
+        int[] lp = snapshot.columns[Column.LOCAL_PORT.ordinal()];
+        int[] rp = snapshot.columns[Column.REMOTE_PORT.ordinal()];
+        int[] pid = snapshot.columns[Column.PROCESS_ID.ordinal()];
+        int[] state = snapshot.columns[Column.CONN_STATE.ordinal()];
+        for (int row = 0; row < snapshot.size; row++) {
+            int[] values = probe.values;
+            for (int d = 0; d < dimensions.length; d++) {
+                switch (dimensions[d]) {
+                    case LOCAL_IP: values[d] = snapshot.localIps[row]; break;
+                    case REMOTE_IP: values[d] = snapshot.remoteIps[row]; break;
+                    case LOCAL_PORT: values[d] = lp[row]; break;
+                    case REMOTE_PORT: values[d] = rp[row]; break;
+                    case PROCESS_ID: values[d] = pid[row]; break;
+                    case CONN_STATE: values[d] = state[row]; break;
+                }
+            }
+            probe.rehash();
+            Group group = groups.get(probe);
+            if (group == null) {
+                if (groups.size() < maxGroups) {
+                    GroupKey key = new GroupKey(values.clone());
+                    group = new Group(this, key);
+                    groups.put(key, group);
+                } else {
+                    group = overflow;
+                }
+            }
+            group.record(snapshot, row);
+        }
+        groups.values().removeIf(group -> group.sockets == 0 && ++group.idle > idleRefreshes);
+        List<Aggregate> published = new ArrayList<>(groups.size() + 1);
+        for (Group group : groups.values()) {
+            if (group.sockets > 0) published.add(new Aggregate(group));
+        }
+        if (overflow.sockets > 0) published.add(new Aggregate(overflow));
+        aggregates = Collections.unmodifiableList(published);
+    }
+
+    /**
+     * Returns the aggregates of all groups with sockets in the latest snapshot, including the overflow group.
+     * The list is replaced by each refresh, so it can be read without blocking the refresh.
+     *
+     * @return the immutable aggregates.
+     */
+    public List<Aggregate> aggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Returns the percentiles computed for each aggregate.
+     *
+     * @return the percentiles in ascending order.
+     */
+    public static double[] percentiles() {
+        return PERCENTILES.clone();
+    }
+
+    /**
+     * Returns the aggregated metrics.
+     *
+     * @return the metric columns.
+     */
+    public Column[] columns() {
+        return columns.clone();
+    }
+
+    /**
+     * Visits all groups with sockets in the latest snapshot, including the overflow group.
+     * The histograms must not be retained after the visit, and refreshes are blocked during the visit.
+     *
+     * @param visitor the visitor of groups.
+     */
+    public synchronized void forEach(Consumer<Group> visitor) {
+        for (Group group : groups.values()) {
+            if (group.sockets > 0) visitor.accept(group);
+        }
+        if (overflow.sockets > 0) visitor.accept(overflow);
+    }
+
+    /**
+     * Returns the number of groups excluding the overflow group.
+     *
+     * @return the number of groups.
+     */
+    public synchronized int size() {
+        return groups.size();
+    }
+
+    /**
+     * Aggregated statistics of a group.
+     */
+    public static final class Group {
+
+        final SockGrouping grouping;
+        final GroupKey key;
+        final SockHistogram[] histograms;
+        final String[] labels;
+        final List<String> labelList;
+
+        long sockets;
+        int idle;
+
+        Group(SockGrouping grouping, GroupKey key) {
+            this.grouping = grouping;
+            this.key = key;
+            this.histograms = new SockHistogram[grouping.columns.length];
+            for (int i = 0; i < histograms.length; i++) histograms[i] = new SockHistogram();
+            this.labels = new String[grouping.dimensions.length];
+            for (int d = 0; d < labels.length; d++) labels[d] = key == null ? OVERFLOW : label(grouping.dimensions[d], key.values[d]);
+            this.labelList = Collections.unmodifiableList(Arrays.asList(labels));
+        }
+
+        void reset() {
+            sockets = 0;
+            for (SockHistogram h : histograms) h.reset();
+        }
+
+        void record(SockSnapshot snapshot, int row) {
+            sockets++;
+            idle = 0;
+            Column[] columns = grouping.columns;
+            for (int c = 0; c < columns.length; c++) {
+                histograms[c].record(snapshot.columns[columns[c].ordinal()][row] & 0xFFFFFFFFL);
+            }
+        }
+
+        /**
+         * Checks whether this is the overflow group.
+         *
+         * @return true if sockets of this group exceed the group limit.
+         */
+        public boolean isOverflow() {
+            return key == null;
+        }
+
+        /**
+         * Returns the number of sockets in the group.
+         *
+         * @return the number of sockets.
+         */
+        public long sockets() {
+            return sockets;
+        }
+
+        /**
+         * Returns the label of the specified dimension.
+         *
+         * @param dimension the grouping dimension.
+         * @return the cached label, or null if not grouped by the dimension.
+         */
+        public String label(Dimension dimension) {
+            int d = indexOf(grouping.dimensions, dimension);
+            return d < 0 ? null : labels[d];
+        }
+
+        /**
+         * Returns the histogram of the specified metric.
+         *
+         * @param column the aggregated metric.
+         * @return the histogram, or null if the metric is not aggregated.
+         */
+        public SockHistogram histogram(Column column) {
+            int c = indexOf(grouping.columns, column);
+            return c < 0 ? null : histograms[c];
+        }
+
+        static String label(Dimension dimension, int value) {
+            switch (dimension) {
+                case LOCAL_IP: case REMOTE_IP:
+                    return SockSnapshot.formatIpv4(value);
+                case CONN_STATE:
+                    ConnState state = ConnState.of(value);
+                    return state == null ? String.valueOf(value) : state.name();
+                default:
+                    return String.valueOf(value);
+            }
+        }
+    }
+
+    /**
+     * Immutable statistics of a group in one snapshot.
+     */
+    public static final class Aggregate {
+
+        final SockGrouping grouping;
+        final List<String> labels;
+        final boolean overflow;
+        final long sockets;
+        final long[] stats;
+
+        Aggregate(Group group) {
+            this.grouping = group.grouping;
+            this.labels = group.labelList;
+            this.overflow = group.isOverflow();
+            this.sockets = group.sockets;
+            this.stats = new long[group.histograms.length * STATS];
+            for (int c = 0; c < group.histograms.length; c++) {
+                SockHistogram h = group.histograms[c];
+                int base = c * STATS;
+                stats[base] = h.count();
+                stats[base + 1] = h.sum();
+                stats[base + 2] = h.min();
+                stats[base + 3] = h.max();
+                for (int p = 0; p < PERCENTILES.length; p++) stats[base + 4 + p] = h.percentile(PERCENTILES[p]);
+            }
+        }
+
+        /**
+         * Checks whether this is the overflow group.
+         *
+         * @return true if sockets of this group exceed the group limit.
+         */
+        public boolean isOverflow() {
+            return overflow;
+        }
+
+        /**
+         * Returns the number of sockets in the group.
+         *
+         * @return the number of sockets.
+         */
+        public long sockets() {
+            return sockets;
+        }
+
+        /**
+         * Returns the labels in order of the grouping dimensions.
+         * The list is shared by aggregates of the same group until the group is removed.
+         *
+         * @return the immutable labels.
+         */
+        public List<String> labels() {
+            return labels;
+        }
+
+        /**
+         * Returns the label of the specified dimension.
+         *
+         * @param dimension the grouping dimension.
+         * @return the label, or null if not grouped by the dimension.
+         */
+        public String label(Dimension dimension) {
+            int d = indexOf(grouping.dimensions, dimension);
+            return d < 0 ? null : labels.get(d);
+        }
+
+        /**
+         * Returns the number of values of the specified metric.
+         *
+         * @param column the aggregated metric.
+         * @return the count, or -1 if the metric is not aggregated.
+         */
+        public long count(Column column) {
+            return stat(column, 0);
+        }
+
+        /**
+         * Returns the sum of the specified metric.
+         *
+         * @param column the aggregated metric.
+         * @return the sum, or -1 if the metric is not aggregated.
+         */
+        public long sum(Column column) {
+            return stat(column, 1);
+        }
+
+        /**
+         * Returns the minimum of the specified metric.
+         *
+         * @param column the aggregated metric.
+         * @return the minimum, or -1 if the metric is not aggregated.
+         */
+        public long min(Column column) {
+            return stat(column, 2);
+        }
+
+        /**
+         * Returns the maximum of the specified metric.
+         *
+         * @param column the aggregated metric.
+         * @return the maximum, or -1 if the metric is not aggregated.
+         */
+        public long max(Column column) {
+            return stat(column, 3);
+        }
+
+        /**
+         * Returns a percentile of the specified metric, see {@link SockHistogram#percentile(double)}.
+         *
+         * @param column the aggregated metric.
+         * @param percentile one of {@link #percentiles()}.
+         * @return the approximate percentile value, or -1 if the metric is not aggregated.
+         * @throws IllegalArgumentException if the percentile is not computed.
+         */
+        public long percentile(Column column, double percentile) {
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                if (PERCENTILES[p] == percentile) return stat(column, 4 + p);
+            }
+            throw new IllegalArgumentException("percentile not computed: " + percentile);
+        }
+
+        private long stat(Column column, int offset) {
+            int c = indexOf(grouping.columns, column);
+            return c < 0 ? -1 : stats[c * STATS + offset];
+        }
+    }
+
+    static int indexOf(Object[] array, Object value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Dimension values of a group.
+     */
+    static final class GroupKey {
+
+        final int[] values;
+        int hash;
+
+        GroupKey(int[] values) {
+            this.values = values;
+            rehash();
+        }
+
+        void rehash() {
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && Arrays.equals(values, ((GroupKey) o).values);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable histogram of unsigned 32-bit values with log-linear buckets.
+ * <p>
+ * Each power of two range is split into {@value #SUB_BUCKETS} linear sub-buckets,
+ * so the relative error of percentiles is bounded by 1/{@value #SUB_BUCKETS}.
+ * Buckets are allocated once and reused after {@link #reset()}.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class SockHistogram {
+
+    /** Number of sub-buckets per power of two. */
+    public static final int SUB_BUCKETS = 8;
+
+    static final int SUB_BITS = 3;
+
+    /** Number of buckets covering [0, 2^32). */
+    public static final int BUCKETS = (32 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    final long[] counts = new long[BUCKETS];
+
+    long count;
+    long sum;
+    long min = Long.MAX_VALUE;
+    long max;
+
+    /**
+     * Records a value.
+     *
+     * @param value the unsigned 32-bit value.
+     */
+    public void record(long value) {
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Merges another histogram into this one.
+     *
+     * @param other the histogram to merge.
+     */
+    public void merge(SockHistogram other) {
+        if (other.count == 0) return;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Clears all recorded values without releasing buckets.
+     */
+    public void reset() {
+        if (count == 0) return;
+        Arrays.fill(counts, 0);
+        count = sum = max = 0;
+        min = Long.MAX_VALUE;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns the number of values in the specified bucket.
+     *
+     * @param bucket the bucket index in range [0, {@link #BUCKETS}).
+     * @return the number of values.
+     */
+    public long bucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * Returns the inclusive upper bound of the specified bucket.
+     *
+     * @param bucket the bucket index in range [0, {@link #BUCKETS}).
+     * @return the largest value falls into the bucket.
+     */
+    public static long bucketUpperBound(int bucket) {
+        return lowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * Computes the percentile, the result is the upper bound of the bucket clamped by max.
+     *
+     * @param percentile the percentile in range [0, 1].
+     * @return the approximate percentile value, or 0 if empty.
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 1) throw new IllegalArgumentException("percentile out of range");
+        if (count == 0) return 0;
+        long rank = Math.max((long) Math.ceil(percentile * count), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(Math.min(bucketUpperBound(i), max), min);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) Math.max(value, 0);
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        if (exp >= 32) return BUCKETS - 1;
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << exp) + ((long) sub << (exp - SUB_BITS));
+    }
+
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Keeps bounded time-series history of watched sockets.
+ * <p>
+ * Each refresh appends one point per watched socket into:
+ * <ul>
+ *     <li>Raw chunks compressed with delta-of-delta timestamps and XOR values</li>
+ *     <li>10 seconds rollup buckets of min/max/sum/count</li>
+ *     <li>1 minute rollup buckets of min/max/sum/count</li>
+ * </ul>
+ * Memory of each series is reserved up front, so total memory never exceeds the byte budget.
+ * The least recently updated series of a socket missing from the refresh, usually a closed connection, is evicted
+ * when the budget is exhausted. If every series is still live, the new socket is not watched until it reappears
+ * after disappearing.
+ * <p>
+ * Series are keyed by the packed address and port columns of the snapshot, so a refresh allocates nothing for known sockets.
+ * The predicate is evaluated once when a socket first appears, sockets it rejects are remembered until they disappear.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockHistory implements SockObserver {
+
+    /** Enumeration for query resolutions. */
+    public enum Resolution {
+        RAW(0), TEN_SECONDS(10_000), ONE_MINUTE(60_000);
+
+        final long width;
+
+        Resolution(long width) {
+            this.width = width;
+        }
+    }
+
+    /** Visitor of queried points. */
+    @FunctionalInterface
+    public interface PointVisitor {
+        /**
+         * Visits a point, raw point has {@code min == max == sum} and {@code count == 1}.
+         *
+         * @param timestamp the start time of the point in milliseconds.
+         * @param min the minimum value.
+         * @param max the maximum value.
+         * @param sum the sum of values.
+         * @param count the number of raw points.
+         */
+        void visit(long timestamp, long min, long max, long sum, long count);
+    }
+
+    /** Default metrics to keep. */
+    static final Column[] DEFAULT_COLUMNS = {
+            Column.ROUND_TRIP_TIME, Column.RETRANSMIT_TIMEOUT, Column.CONGESTION_WINDOW,
+            Column.REQUEST_QUEUE, Column.WAITING_QUEUE, Column.TOTAL_RETRANSMIT
+    };
+
+    /** Size of a raw chunk in bytes. */
+    static final int CHUNK_BYTES = 512;
+
+    /** Predicate to select watched sockets. */
+    final Predicate<SockKey> watched;
+
+    /** Hard limit of reserved memory in bytes. */
+    final long byteBudget;
+
+    /** Number of raw chunks kept per series. */
+    final int rawChunks;
+
+    /** Number of buckets kept per rollup tier. */
+    final int tenSecondBuckets, oneMinuteBuckets;
+
+    /** Metrics to keep. */
+    final Column[] columns;
+
+    /** Series of watched sockets. */
+    private final HashMap<Endpoints, Series> series = new HashMap<>();
+
+    /** Least and most recently updated series, queries do not reorder them. */
+    private Series oldest, newest;
+
+    /** Sockets rejected by the predicate, marked with the last refresh seen. */
+    private final HashMap<Endpoints, Endpoints> rejected = new HashMap<>();
+
+    /** Reusable key to probe the maps. */
+    private final Endpoints probe = new Endpoints();
+
+    /** Number of observed snapshots. */
+    private long refreshes;
+
+    /** Reserved memory of all series in bytes. */
+    private long reservedBytes;
+
+    /**
+     * Constructs a SockHistory with default retention.
+     *
+     * @param watched the predicate to select watched sockets.
+     * @param byteBudget the hard limit of reserved memory in bytes.
+     */
+    public SockHistory(Predicate<SockKey> watched, long byteBudget) {
+        this(watched, byteBudget, 8, 60, 60, DEFAULT_COLUMNS);
+    }
+
+    /**
+     * Constructs a SockHistory.
+     *
+     * @param watched the predicate to select watched sockets.
+     * @param byteBudget the hard limit of reserved memory in bytes.
+     * @param rawChunks the number of raw chunks kept per series.
+     * @param tenSecondBuckets the number of 10 seconds buckets kept per series.
+     * @param oneMinuteBuckets the number of 1 minute buckets kept per series.
+     * @param columns the metrics to keep.
+     */
+    public SockHistory(Predicate<SockKey> watched, long byteBudget, int rawChunks, int tenSecondBuckets, int oneMinuteBuckets, Column... columns) {
+        if (rawChunks < 1 || tenSecondBuckets < 1 || oneMinuteBuckets < 1) throw new IllegalArgumentException("retention required");
+        if (columns.length == 0) throw new IllegalArgumentException("columns required");
+        this.watched = Objects.requireNonNull(watched);
+        this.byteBudget = byteBudget;
+        this.rawChunks = rawChunks;
+        this.tenSecondBuckets = tenSecondBuckets;
+        this.oneMinuteBuckets = oneMinuteBuckets;
+        this.columns = columns.clone();
+    }
+
+    @Override
+    public synchronized void observe(SockSnapshot snapshot) {
+        long timestamp = snapshot.timestamp();
+        long refresh = ++refreshes;
+        long[] values = new long[columns.length];
+        SockSnapshot.Row row = snapshot.row();
+        int unknown = 0;
+        while (row.next()) {
+            probe.set(row.localIp(), row.localPort(), row.remoteIp(), row.remotePort());
+            Series s = series.get(probe);
+            if (s != null) {
+                append(s, row, timestamp, values, refresh);
+                continue;
+            }
+            Endpoints skipped = rejected.get(probe);
+            if (skipped != null) {
+                skipped.seen = refresh;
+            } else {
+                unknown++;
+            }
+        }
+        // new sockets are added after all live series are marked, so they only evict series of missing sockets
+        for (row = snapshot.row(); unknown > 0 && row.next(); ) {
+            probe.set(row.localIp(), row.localPort(), row.remoteIp(), row.remotePort());
+            if (series.containsKey(probe) || rejected.containsKey(probe)) continue;
+            unknown--;
+            Endpoints endpoints = probe.copy();
+            Series s;
+            if (!watched.test(endpoints.key()) || (s = newSeries(endpoints, refresh)) == null) {
+                endpoints.seen = refresh;
+                rejected.put(endpoints, endpoints);
+                continue;
+            }
+            append(s, row, timestamp, values, refresh);
+        }
+        if (!rejected.isEmpty()) {
+            rejected.values().removeIf(e -> e.seen != refresh);
+        }
+    }
+
+    private void append(Series s, SockSnapshot.Row row, long timestamp, long[] values, long refresh) {
+        for (int c = 0; c < columns.length; c++) {
+            values[c] = row.value(columns[c]);
+        }
+        s.append(timestamp, values);
+        s.seen = refresh;
+        if (s != newest) {
+            unlink(s);
+            link(s);
+        }
+    }
+
+    private Series newSeries(Endpoints key, long refresh) {
+        long bytes = Series.reservedBytes(rawChunks, tenSecondBuckets, oneMinuteBuckets, columns.length);
+        if (bytes > byteBudget) return null;
+        // series are ordered by last update, so the ones seen in this refresh are at the newest end
+        while (reservedBytes + bytes > byteBudget && oldest != null && oldest.seen != refresh) {
+            Series evicted = oldest;
+            unlink(evicted);
+            series.remove(evicted.key);
+            reservedBytes -= evicted.bytes;
+        }
+        if (reservedBytes + bytes > byteBudget) return null;
+        Series s = new Series(this, key, bytes);
+        series.put(key, s);
+        link(s);
+        reservedBytes += bytes;
+        return s;
+    }
+
+    private void link(Series s) {
+        s.prev = newest;
+        s.next = null;
+        if (newest == null) oldest = s;
+        else newest.next = s;
+        newest = s;
+    }
+
+    private void unlink(Series s) {
+        if (s.prev == null) oldest = s.next;
+        else s.prev.next = s.next;
+        if (s.next == null) newest = s.prev;
+        else s.next.prev = s.prev;
+        s.prev = s.next = null;
+    }
+
+    /**
+     * Queries the history of a socket.
+     *
+     * @param key the key associated with the socket.
+     * @param column the metric to query, must be one of the kept metrics.
+     * @param from the start time in milliseconds (inclusive).
+     * @param to the end time in milliseconds (exclusive).
+     * @param resolution the resolution of points.
+     * @param visitor the visitor of points in time order.
+     * @return true if the socket has history, false otherwise.
+     */
+    public synchronized boolean query(SockKey key, Column column, long from, long to, Resolution resolution, PointVisitor visitor) {
+        int c = Arrays.asList(columns).indexOf(column);
+        if (c < 0) throw new IllegalArgumentException("column not kept: " + column);
+        long localIp = SockSnapshot.parseIpv4(key.localIp());
+        long remoteIp = SockSnapshot.parseIpv4(key.remoteIp());
+        if (localIp < 0 || remoteIp < 0) return false;
+        Series s = series.get(probe.set((int) localIp, key.localPort(), (int) remoteIp, key.remotePort()));
+        if (s == null) return false;
+        switch (resolution) {
+            case RAW:
+                s.queryRaw(c, from, to, visitor);
+                break;
+            case TEN_SECONDS:
+                s.tenSeconds.query(c, from, to, visitor);
+                break;
+            case ONE_MINUTE:
+                s.oneMinute.query(c, from, to, visitor);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the keys of sockets with history.
+     *
+     * @return a copy of keys from least to most recently updated.
+     */
+    public synchronized List<SockKey> keys() {
+        List<SockKey> keys = new ArrayList<>(series.size());
+        for (Series s = oldest; s != null; s = s.next) {
+            keys.add(s.key.key());
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the reserved memory of all series.
+     *
+     * @return the reserved memory in bytes.
+     */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Drops all history.
+     */
+    public synchronized void clear() {
+        series.clear();
+        oldest = newest = null;
+        rejected.clear();
+        reservedBytes = 0;
+    }
+
+    /**
+     * Endpoints of a socket packed as {@code ip << 16 | port}.
+     */
+    static final class Endpoints {
+
+        long local;
+        long remote;
+
+        /** Last refresh in which a rejected socket was seen. */
+        long seen;
+
+        Endpoints set(int localIp, int localPort, int remoteIp, int remotePort) {
+            this.local = (localIp & 0xFFFFFFFFL) << 16 | (localPort & 0xFFFF);
+            this.remote = (remoteIp & 0xFFFFFFFFL) << 16 | (remotePort & 0xFFFF);
+            return this;
+        }
+
+        Endpoints copy() {
+            Endpoints copy = new Endpoints();
+            copy.local = local;
+            copy.remote = remote;
+            return copy;
+        }
+
+        SockKey key() {
+            return new SockKey(SockSnapshot.formatIpv4((int) (remote >>> 16)), SockSnapshot.formatIpv4((int) (local >>> 16)),
+                    (int) (remote & 0xFFFF), (int) (local & 0xFFFF));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Endpoints)) return false;
+            Endpoints that = (Endpoints) o;
+            return local == that.local && remote == that.remote;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = local * 31 + remote;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * History of a single socket.
+     */
+    static final class Series {
+
+        final Endpoints key;
+        final long bytes;
+        final int columns;
+        final Chunk[] chunks;
+        final Rollup tenSeconds;
+        final Rollup oneMinute;
+
+        /** Index of the newest chunk, -1 if no point appended. */
+        int head = -1;
+        int chunkCount;
+
+        /** Last refresh which appended to the series. */
+        long seen;
+
+        /** Neighbours in the order of last update. */
+        Series prev, next;
+
+        Series(SockHistory h, Endpoints key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+            this.columns = h.columns.length;
+            this.chunks = new Chunk[h.rawChunks];
+            this.tenSeconds = new Rollup(Resolution.TEN_SECONDS.width, h.tenSecondBuckets, columns);
+            this.oneMinute = new Rollup(Resolution.ONE_MINUTE.width, h.oneMinuteBuckets, columns);
+        }
+
+        static long reservedBytes(int rawChunks, int tenSecondBuckets, int oneMinuteBuckets, int columns) {
+            long chunk = 64 + CHUNK_BYTES + columns * 24L;
+            long bucket = 16 + columns * 24L;
+            return 128 + rawChunks * chunk + (tenSecondBuckets + oneMinuteBuckets) * bucket;
+        }
+
+        void append(long timestamp, long[] values) {
+            Chunk chunk = head < 0 ? null : chunks[head];
+            if (chunk != null && timestamp <= chunk.lastTimestamp) return; // out of order
+            if (chunk == null || !chunk.append(timestamp, values)) {
+                head = (head + 1) % chunks.length;
+                chunk = chunks[head];
+                if (chunk == null) {
+                    chunk = chunks[head] = new Chunk(columns);
+                    chunkCount++;
+                } else {
+                    chunk.reset();
+                }
+                chunk.append(timestamp, values);
+            }
+            tenSeconds.add(timestamp, values);
+            oneMinute.add(timestamp, values);
+        }
+
+        void queryRaw(int column, long from, long to, PointVisitor visitor) {
+            long[] values = new long[columns];
+            for (int i = chunkCount - 1; i >= 0; i--) {
+                Chunk chunk = chunks[(head - i + chunks.length) % chunks.length];
+                if (chunk.count == 0 || chunk.lastTimestamp < from || chunk.firstTimestamp >= to) continue;
+                ChunkReader reader = new ChunkReader(chunk);
+                for (int n = 0; n < chunk.count; n++) {
+                    long ts = reader.next(values);
+                    if (ts >= to) break;
+                    if (ts >= from) {
+                        long v = values[column];
+                        visitor.visit(ts, v, v, v, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compressed raw points, timestamps use delta-of-delta and values use XOR against the previous value.
+     */
+    static final class Chunk {
+
+        final byte[] data = new byte[CHUNK_BYTES];
+        final long[] prevValues;
+        final int[] prevLeading;
+        final int[] prevTrailing;
+
+        int bits;
+        int count;
+        long firstTimestamp;
+        long lastTimestamp;
+        long lastDelta;
+
+        Chunk(int columns) {
+            prevValues = new long[columns];
+            prevLeading = new int[columns];
+            prevTrailing = new int[columns];
+        }
+
+        void reset() {
+            Arrays.fill(data, (byte) 0);
+            bits = 0;
+            count = 0;
+            lastDelta = 0;
+        }
+
+        /** Worst case: 4 + 64 bits timestamp, 2 + 5 + 6 + 64 bits per value. */
+        int worstBits() {
+            return 68 + prevValues.length * 77;
+        }
+
+        boolean append(long timestamp, long[] values) {
+            if (bits + worstBits() > CHUNK_BYTES * 8) return false;
+            if (count == 0) {
+                firstTimestamp = timestamp;
+                for (int c = 0; c < values.length; c++) {
+                    long v = Double.doubleToRawLongBits(values[c]);
+                    write(v, 64);
+                    prevValues[c] = v;
+                    prevLeading[c] = -1;
+                }
+            } else {
+                long delta = timestamp - lastTimestamp;
+                long dod = delta - lastDelta;
+                if (dod == 0) {
+                    write(0, 1);
+                } else if (dod >= -64 && dod <= 63) {
+                    write(0b10, 2);
+                    write(dod, 7);
+                } else if (dod >= -256 && dod <= 255) {
+                    write(0b110, 3);
+                    write(dod, 9);
+                } else if (dod >= -2048 && dod <= 2047) {
+                    write(0b1110, 4);
+                    write(dod, 12);
+                } else {
+                    write(0b1111, 4);
+                    write(dod, 64);
+                }
+                lastDelta = delta;
+                for (int c = 0; c < values.length; c++) {
+                    long v = Double.doubleToRawLongBits(values[c]);
+                    long xor = v ^ prevValues[c];
+                    if (xor == 0) {
+                        write(0, 1);
+                    } else {
+                        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                        int trailing = Long.numberOfTrailingZeros(xor);
+                        if (prevLeading[c] >= 0 && leading >= prevLeading[c] && trailing >= prevTrailing[c]) {
+                            write(0b10, 2);
+                            write(xor >>> prevTrailing[c], 64 - prevLeading[c] - prevTrailing[c]);
+                        } else {
+                            int length = 64 - leading - trailing;
+                            write(0b11, 2);
+                            write(leading, 5);
+                            write(length - 1, 6);
+                            write(xor >>> trailing, length);
+                            prevLeading[c] = leading;
+                            prevTrailing[c] = trailing;
+                        }
+                    }
+                    prevValues[c] = v;
+                }
+            }
+            lastTimestamp = timestamp;
+            count++;
+            return true;
+        }
+
+        private void write(long value, int n) {
+            for (int i = n - 1; i >= 0; i--, bits++) {
+                if (((value >>> i) & 1) != 0) {
+                    data[bits >>> 3] |= (byte) (0x80 >>> (bits & 7));
+                }
+            }
+        }
+    }
+
+    /**
+     * Sequential decoder of a chunk.
+     */
+    static final class ChunkReader {
+
+        final Chunk chunk;
+        final long[] prevValues;
+        final int[] prevLeading;
+        final int[] prevTrailing;
+
+        int bits;
+        int read;
+        long lastTimestamp;
+        long lastDelta;
+
+        ChunkReader(Chunk chunk) {
+            this.chunk = chunk;
+            int columns = chunk.prevValues.length;
+            prevValues = new long[columns];
+            prevLeading = new int[columns];
+            prevTrailing = new int[columns];
+        }
+
+        long next(long[] values) {
+            if (read++ == 0) {
+                lastTimestamp = chunk.firstTimestamp;
+                for (int c = 0; c < values.length; c++) {
+                    prevValues[c] = read(64);
+                    values[c] = (long) Double.longBitsToDouble(prevValues[c]);
+                }
+                return lastTimestamp;
+            }
+            long dod;
+            if (read(1) == 0) {
+                dod = 0;
+            } else if (read(1) == 0) {
+                dod = signed(read(7), 7);
+            } else if (read(1) == 0) {
+                dod = signed(read(9), 9);
+            } else if (read(1) == 0) {
+                dod = signed(read(12), 12);
+            } else {
+                dod = read(64);
+            }
+            lastDelta += dod;
+            lastTimestamp += lastDelta;
+            for (int c = 0; c < values.length; c++) {
+                if (read(1) != 0) {
+                    if (read(1) == 0) {
+                        int length = 64 - prevLeading[c] - prevTrailing[c];
+                        prevValues[c] ^= read(length) << prevTrailing[c];
+                    } else {
+                        int leading = (int) read(5);
+                        int length = (int) read(6) + 1;
+                        int trailing = 64 - leading - length;
+                        prevValues[c] ^= read(length) << trailing;
+                        prevLeading[c] = leading;
+                        prevTrailing[c] = trailing;
+                    }
+                }
+                values[c] = (long) Double.longBitsToDouble(prevValues[c]);
+            }
+            return lastTimestamp;
+        }
+
+        private long read(int n) {
+            long value = 0;
+            byte[] data = chunk.data;
+            for (int i = 0; i < n; i++, bits++) {
+                value = (value << 1) | ((data[bits >>> 3] >>> (7 - (bits & 7))) & 1);
+            }
+            return value;
+        }
+
+        private static long signed(long value, int n) {
+            return (value << (64 - n)) >> (64 - n);
+        }
+    }
+
+    /**
+     * Ring of fixed width buckets.
+     */
+    static final class Rollup {
+
+        final long width;
+        final long[] starts;
+        final long[] counts;
+        final long[][] mins;
+        final long[][] maxs;
+        final long[][] sums;
+
+        /** Index of the newest bucket, -1 if empty. */
+        int head = -1;
+        int size;
+
+        Rollup(long width, int buckets, int columns) {
+            this.width = width;
+            this.starts = new long[buckets];
+            this.counts = new long[buckets];
+            this.mins = new long[columns][buckets];
+            this.maxs = new long[columns][buckets];
+            this.sums = new long[columns][buckets];
+        }
+
+        void add(long timestamp, long[] values) {
+            long start = timestamp - Math.floorMod(timestamp, width);
+            if (head < 0 || starts[head] != start) {
+                head = (head + 1) % starts.length;
+                size = Math.min(size + 1, starts.length);
+                starts[head] = start;
+                counts[head] = 0;
+            }
+            int b = head;
+            boolean first = counts[b]++ == 0;
+            for (int c = 0; c < values.length; c++) {
+                long v = values[c];
+                if (first) {
+                    mins[c][b] = maxs[c][b] = sums[c][b] = v;
+                } else {
+                    mins[c][b] = Math.min(mins[c][b], v);
+                    maxs[c][b] = Math.max(maxs[c][b], v);
+                    sums[c][b] += v;
+                }
+            }
+        }
+
+        void query(int column, long from, long to, PointVisitor visitor) {
+            for (int i = size - 1; i >= 0; i--) {
+                int b = (head - i + starts.length) % starts.length;
+                long start = starts[b];
+                if (start + width <= from || start >= to) continue;
+                visitor.visit(start, mins[column][b], maxs[column][b], sums[column][b], counts[b]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.probe.*;
+
+import java.util.*;
+
+/**
+ * Shares one socket dump among monitors with different filters.
+ * <p>
+ * Keep the cost of N monitors close to the cost of one by:
+ * <ul>
+ *     <li>Dump sockets once per refresh with the union of subscribed filters</li>
+ *     <li>Dispatch each socket to the monitors whose filter matches, evaluated in Java</li>
+ * </ul>
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockHub {
+
+    /** Subscribed monitors and their filters. */
+    private final Map<SockMonitor, SockFilter> subscribers = new LinkedHashMap<>();
+
+    /**
+     * Subscribes a monitor to the hub.
+     *
+     * @param monitor the monitor to feed.
+     * @param filter the filter of sockets to feed, null for all sockets.
+     * @return true if subscribed, false if the monitor already subscribed.
+     */
+    public synchronized boolean subscribe(SockMonitor monitor, SockFilter filter) {
+        if (subscribers.containsKey(monitor)) return false;
+        SockFilter copy = SockMonitor.copyOf(filter);
+        subscribers.put(monitor, copy == null ? new SockFilter() : copy);
+        return true;
+    }
+
+    /**
+     * Unsubscribes a monitor from the hub.
+     *
+     * @param monitor the monitor to remove.
+     * @return true if unsubscribed, false otherwise.
+     */
+    public synchronized boolean unsubscribe(SockMonitor monitor) {
+        return subscribers.remove(monitor) != null;
+    }
+
+    /**
+     * Dumps sockets once and feeds every subscribed monitor with its matching sockets.
+     *
+     * @return true if statistics were refreshed successfully, false otherwise.
+     */
+    public synchronized boolean refreshStats() {
+        if (subscribers.isEmpty() || LinuxSocketProbe.unavailabilityCause() != null) return false;
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        if (!probe.collectSocketStat(unionFilter())) {
+            return false;
+        }
+        List<InetSockStat<TcpStat>> tcpSocks = probe.tcpSocks();
+        if (tcpSocks == null) tcpSocks = Collections.emptyList();
+        List<UnixSockStat> unixSocks = probe.unixSocks();
+        for (Map.Entry<SockMonitor, SockFilter> entry : subscribers.entrySet()) {
+            SockFilter filter = entry.getValue();
+            List<InetSockStat<TcpStat>> matched = new ArrayList<>();
+            for (InetSockStat<TcpStat> sock : tcpSocks) {
+                if (filter.test(sock, InetProto.TCP)) matched.add(sock);
+            }
+            List<UnixSockStat> matchedUnix = null;
+            if (filter.unix() && unixSocks != null) {
+                matchedUnix = new ArrayList<>();
+                for (UnixSockStat sock : unixSocks) {
+                    if (filter.test(sock)) matchedUnix.add(sock);
+                }
+            }
+            entry.getKey().publishStats(matched, matchedUnix);
+        }
+        return true;
+    }
+
+    /**
+     * Computes the narrowest filter that passes every socket wanted by any subscriber.
+     *
+     * @return the union filter.
+     */
+    public synchronized SockFilter unionFilter() {
+        SockFilter union = null;
+        Set<PortFilter> portFilters = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean allPorts = false;
+        for (SockFilter filter : subscribers.values()) {
+            if (union == null) {
+                union = new SockFilter().family(filter.family()).protocol(filter.protocol()).unix(filter.unix())
+                        .currentUser(filter.currentUser()).currentProc(filter.currentProc());
+            } else {
+                if (union.family() != filter.family()) union.family(null);
+                if (union.protocol() != filter.protocol()) union.protocol(null);
+                union.unix(union.unix() || filter.unix());
+                union.currentUser(union.currentUser() && filter.currentUser());
+                union.currentProc(union.currentProc() && filter.currentProc());
+            }
+            if (filter.portFilters() == null) allPorts = true;
+            else portFilters.add(filter.portFilters());
+        }
+        if (union == null) return new SockFilter();
+        if (!allPorts) {
+            PortFilter ports = null;
+            for (PortFilter pf : portFilters) {
+                ports = ports == null ? pf : ports.or(pf);
+            }
+            union.portFilters(ports);
+        }
+        return union;
+    }
+
+}
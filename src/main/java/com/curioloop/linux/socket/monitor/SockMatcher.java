@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * A socket predicate whose verdicts only change along with its generation.
+ * <p>
+ * {@link SockCollector} memoizes verdicts of long-lived sockets while the generation stays the same,
+ * so the predicate is evaluated once per socket rather than once per refresh.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public interface SockMatcher extends Predicate<SockKey> {
+
+    /**
+     * Returns the generation of the matching rules, which must change whenever
+     * the verdict of any socket may change.
+     *
+     * @return the generation of the matching rules.
+     */
+    long generation();
+
+    /**
+     * Wraps a predicate whose verdicts never change.
+     *
+     * @param predicate the predicate depends on the socket key only.
+     * @return a matcher with constant generation.
+     */
+    static SockMatcher stable(Predicate<SockKey> predicate) {
+        Objects.requireNonNull(predicate);
+        if (predicate instanceof SockMatcher) return (SockMatcher) predicate;
+        return new SockMatcher() {
+            @Override
+            public long generation() {
+                return 0;
+            }
+
+            @Override
+            public boolean test(SockKey key) {
+                return predicate.test(key);
+            }
+        };
+    }
+
+}
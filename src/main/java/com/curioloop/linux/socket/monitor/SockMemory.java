@@ -0,0 +1,369 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.NetCounters;
+import com.curioloop.linux.socket.probe.NetStatProbe;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Tracks socket memory against the host-wide limits of TCP and UDP.
+ * <p>
+ * Spot memory pressure before every connection slows down by:
+ * <ul>
+ *     <li>Sum the memory of all sockets and of each process and local port in one pass over the snapshot</li>
+ *     <li>Compare pages allocated by {@code /proc/net/sockstat} with the thresholds of {@code tcp_mem} and {@code udp_mem}</li>
+ *     <li>Select the top consumers with bounded primitive heaps</li>
+ * </ul>
+ * Files are read from {@code $PROC_ROOT} or {@code /proc}. The counters of the monitor are reused
+ * when it collects them, otherwise sockstat is read by the observer itself.
+ * <p>
+ * Sums and rankings only cover the sockets of the snapshot, which are the IPv4 and IPv4-mapped TCP sockets
+ * matched by the filter of the refresh. IPv6 sockets and sockets filtered out are not included, while the
+ * pools are host-wide, so compare the allocated pages of a pool rather than the sums against its thresholds.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockMemory implements SockObserver {
+
+    /** Memory thresholds of TCP in pages. */
+    static final String TCP_LIMITS = "sys/net/ipv4/tcp_mem";
+
+    /** Memory thresholds of UDP in pages. */
+    static final String UDP_LIMITS = "sys/net/ipv4/udp_mem";
+
+    /** Mappings of the current process, whose first entry reports the base page size. */
+    static final String SELF_SMAPS = "self/smaps";
+
+    /** Page size assumed if smaps is unreadable, which is 4 KiB on common architectures. */
+    static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /** Memory accounting of a protocol across the host. */
+    @Data
+    @Accessors(fluent = true)
+    public static class Pool {
+        /** Pages allocated by the protocol. */
+        final long pages;
+        /** Pages below which the protocol leaves memory pressure. */
+        final long min;
+        /** Pages above which the protocol enters memory pressure. */
+        final long pressure;
+        /** Pages above which allocations fail. */
+        final long max;
+
+        /**
+         * Returns the pages which can be allocated before entering memory pressure.
+         *
+         * @return the headroom in pages, negative once beyond the pressure threshold.
+         */
+        public long headroom() {
+            return pressure - pages;
+        }
+
+        /**
+         * Returns whether allocated pages exceed the pressure threshold.
+         *
+         * @return true if under memory pressure.
+         */
+        public boolean underPressure() {
+            return pages > pressure;
+        }
+    }
+
+    /** Memory of a group of sockets. */
+    @Data
+    @Accessors(fluent = true)
+    public static class Usage {
+        /** The process ID or the local port shared by the sockets. */
+        final int key;
+        /** Number of sockets in the group. */
+        final int sockets;
+        /** Bytes charged by the sockets. */
+        final long bytes;
+    }
+
+    /** Memory usage of the latest snapshot, summed over the sockets of the snapshot only. */
+    @Data
+    @Accessors(fluent = true)
+    public static class Report {
+        /** Time when the snapshot was taken in milliseconds. */
+        final long timestamp;
+        /** Number of sockets observed, excluding IPv6 sockets and sockets filtered out. */
+        final int sockets;
+        /** Bytes allocated for receive queues. */
+        final long receiveMemory;
+        /** Bytes allocated for send queues. */
+        final long sendMemory;
+        /** Bytes scheduled for future use. */
+        final long forwardAlloc;
+        /** Bytes queued but not yet sent. */
+        final long queuedMemory;
+        /** Bytes charged against {@code tcp_mem} by the observed sockets. */
+        final long chargedBytes;
+        /**
+         * Host-wide TCP accounting, or null if limits are unreadable. If sockstat is unreadable, the allocated
+         * pages are estimated from observed sockets, which is a lower bound.
+         */
+        final Pool tcp;
+        /** Host-wide UDP accounting, or null if unreadable. */
+        final Pool udp;
+        /** Bytes of a page in the pools. */
+        final int pageSize;
+        /** Sockets charging most bytes. */
+        final List<SockTopK.Entry> topSockets;
+        /** Processes charging most bytes. */
+        final List<Usage> topProcesses;
+        /** Local ports charging most bytes. */
+        final List<Usage> topPorts;
+    }
+
+    /** The monitor whose counters are reused, may be null. */
+    final SockMonitor monitor;
+
+    /** Number of consumers to keep in each ranking. */
+    final int k;
+
+    /** The mount point of procfs. */
+    final String root;
+
+    /** Page size of the accounting in bytes. */
+    final int pageSize;
+
+    /** Probe of sockstat when the monitor does not collect counters. */
+    private final NetStatProbe netStatProbe;
+
+    private final SockTopK.Heap heap;
+    private final Sums processes = new Sums();
+    private final Sums ports = new Sums();
+
+    /** Latest report. */
+    private volatile Report report;
+
+    /**
+     * Constructs a SockMemory reading {@code $PROC_ROOT} or {@code /proc}.
+     *
+     * @param monitor the monitor whose counters are reused, may be null.
+     * @param k the number of consumers to keep in each ranking.
+     */
+    public SockMemory(SockMonitor monitor, int k) {
+        this(monitor, k, System.getenv("PROC_ROOT"));
+    }
+
+    /**
+     * Constructs a SockMemory.
+     *
+     * @param monitor the monitor whose counters are reused, may be null.
+     * @param k the number of consumers to keep in each ranking.
+     * @param root the mount point of procfs, or null for {@code /proc}.
+     */
+    public SockMemory(SockMonitor monitor, int k, String root) {
+        if (k < 1) throw new IllegalArgumentException("k required");
+        this.monitor = monitor;
+        this.k = k;
+        this.root = root == null || root.isEmpty() ? "/proc" : root;
+        this.netStatProbe = new NetStatProbe(this.root);
+        this.pageSize = readPageSize();
+        this.heap = new SockTopK.Heap(k);
+    }
+
+    @Override
+    public synchronized void observe(SockSnapshot snapshot) {
+        int[] rmem = snapshot.columns[Column.RECEIVE_MEMORY.ordinal()];
+        int[] wmem = snapshot.columns[Column.SEND_MEMORY.ordinal()];
+        int[] fwd = snapshot.columns[Column.FORWARD_ALLOC.ordinal()];
+        int[] queued = snapshot.columns[Column.QUEUED_MEMORY.ordinal()];
+        int[] pid = snapshot.columns[Column.PROCESS_ID.ordinal()];
+        int[] lp = snapshot.columns[Column.LOCAL_PORT.ordinal()];
+        long receiveMemory = 0, sendMemory = 0, forwardAlloc = 0, queuedMemory = 0;
+        heap.clear();
+        processes.clear();
+        ports.clear();
+        for (int row = 0; row < snapshot.size; row++) {
+            long r = rmem[row] & 0xFFFFFFFFL, f = fwd[row] & 0xFFFFFFFFL, q = queued[row] & 0xFFFFFFFFL;
+            receiveMemory += r;
+            sendMemory += wmem[row] & 0xFFFFFFFFL;
+            forwardAlloc += f;
+            queuedMemory += q;
+            // sk_memory_allocated is charged for rmem_alloc, wmem_queued and the forward allocation
+            long charged = r + q + f;
+            heap.offer(charged, row);
+            processes.add(pid[row], charged);
+            ports.add(lp[row], charged);
+        }
+        long chargedBytes = receiveMemory + queuedMemory + forwardAlloc;
+
+        NetCounters counters = counters(snapshot.timestamp);
+        long tcpPages = counters == null ? -1 : counters.value(NetCounters.TCP_MEM);
+        if (tcpPages < 0) tcpPages = (chargedBytes + pageSize - 1) / pageSize;
+        long udpPages = counters == null ? -1 : counters.value(NetCounters.UDP_MEM);
+
+        report = new Report(snapshot.timestamp, snapshot.size, receiveMemory, sendMemory, forwardAlloc, queuedMemory,
+                chargedBytes, pool(TCP_LIMITS, tcpPages), udpPages < 0 ? null : pool(UDP_LIMITS, udpPages), pageSize,
+                heap.drain(snapshot, 1), processes.top(heap), ports.top(heap));
+    }
+
+    /**
+     * Returns the memory usage of the latest snapshot.
+     *
+     * @return the report, or null before the first snapshot.
+     */
+    public Report report() {
+        return report;
+    }
+
+    private NetCounters counters(long timestamp) {
+        NetCounters counters = monitor == null ? null : monitor.netCounters();
+        if (counters != null && counters.timestamp() == timestamp) return counters;
+        try {
+            return netStatProbe.collect(timestamp);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Pool pool(String file, long pages) {
+        long[] limits = readLimits(file);
+        return limits == null ? null : new Pool(pages, limits[0], limits[1], limits[2]);
+    }
+
+    /**
+     * Reads the {@code min pressure max} thresholds in pages.
+     */
+    long[] readLimits(String file) {
+        String content;
+        try (InputStream in = new FileInputStream(root + '/' + file)) {
+            // procfs reports a size of 0, so read until EOF
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            byte[] chunk = new byte[64];
+            for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+            content = new String(out.toByteArray(), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        }
+        String[] fields = content.split("\\s+");
+        if (fields.length != 3) return null;
+        try {
+            return new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the base page size from {@code KernelPageSize} of the first mapping,
+     * since kernels may be built with 16 KiB or 64 KiB pages.
+     */
+    int readPageSize() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(root + '/' + SELF_SMAPS), StandardCharsets.US_ASCII))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!line.startsWith("KernelPageSize:")) continue;
+                String[] fields = line.substring("KernelPageSize:".length()).trim().split("\\s+");
+                if (fields.length != 2 || !"kB".equals(fields[1])) break;
+                long bytes = Long.parseLong(fields[0]) * 1024;
+                return bytes > 0 && bytes <= Integer.MAX_VALUE ? (int) bytes : DEFAULT_PAGE_SIZE;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // assume the common page size
+        }
+        return DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Sums of sockets and bytes per int key in a reusable open-addressing table.
+     */
+    static final class Sums {
+
+        int[] keys = new int[64];
+        int[] sockets = new int[64];
+        long[] bytes = new long[64];
+        /** Slot of each entry + 1 (0 means empty slot). */
+        int[] slots = new int[128];
+        int size;
+
+        void clear() {
+            Arrays.fill(slots, 0);
+            size = 0;
+        }
+
+        void add(int key, long value) {
+            int mask = slots.length - 1;
+            int i = hash(key) & mask;
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                int e = slots[i] - 1;
+                if (keys[e] == key) {
+                    sockets[e]++;
+                    bytes[e] += value;
+                    return;
+                }
+            }
+            if (size == keys.length) {
+                grow();
+                add(key, value);
+                return;
+            }
+            int e = size++;
+            slots[i] = e + 1;
+            keys[e] = key;
+            sockets[e] = 1;
+            bytes[e] = value;
+        }
+
+        private void grow() {
+            int capacity = keys.length << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            sockets = Arrays.copyOf(sockets, capacity);
+            bytes = Arrays.copyOf(bytes, capacity);
+            slots = new int[capacity << 1];
+            int mask = slots.length - 1;
+            for (int e = 0; e < size; e++) {
+                int i = hash(keys[e]) & mask;
+                while (slots[i] != 0) i = (i + 1) & mask;
+                slots[i] = e + 1;
+            }
+        }
+
+        List<Usage> top(SockTopK.Heap heap) {
+            heap.clear();
+            for (int e = 0; e < size; e++) heap.offer(bytes[e], e);
+            Usage[] usages = new Usage[heap.size];
+            for (int i = 0; i < heap.size; i++) {
+                int e = heap.rows[i];
+                usages[i] = new Usage(keys[e], sockets[e], bytes[e]);
+            }
+            Arrays.sort(usages, (a, b) -> Long.compare(b.bytes, a.bytes));
+            return Collections.unmodifiableList(Arrays.asList(usages));
+        }
+
+        static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+}
@@ -16,19 +16,40 @@
 package com.curioloop.linux.socket.monitor;
 
 import com.curioloop.linux.socket.probe.*;
+import com.curioloop.linux.socket.probe.utils.OsUtils;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Monitors socket statistics and manages socket collectors.
+ * <p>
+ * Refresh is single-flight: concurrent callers with an equal filter share one collection,
+ * and callers within the freshness window reuse the latest completed collection.
+ * Collectors and observers are dispatched serially, so they never see concurrent refreshes.
+ * Collectors may instead be dispatched on an executor with {@link #dispatchAsync(Executor, SockDispatch.OverrunPolicy)}.
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
@@ -36,12 +57,74 @@ import java.util.regex.Pattern;
 @Accessors(fluent = true)
 public class SockMonitor {
 
-    /** Snapshot of TCP socket statistics. */
+    /** Snapshot of TCP socket statistics, an unmodifiable view over {@link #tcpSnapshot} whose keys are created on iteration. */
     @Getter private volatile Map<SockKey, InetSockStat<TcpStat>> tcpStats = Collections.emptyMap();
 
+    /** Columnar snapshot of TCP socket statistics. */
+    @Getter private volatile SockSnapshot tcpSnapshot = SockSnapshot.EMPTY;
+
+    /** UNIX domain sockets of the latest refresh, empty unless enabled by its filter. */
+    @Getter private volatile List<UnixSockStat> unixStats = Collections.emptyList();
+
+    /** Cost of the latest refresh. */
+    @Getter private volatile CollectStats collectStats;
+
+    /** Probe of host-wide protocol counters collected along with each refresh, or null to skip them. */
+    @Getter @Setter private volatile NetStatProbe netStatProbe;
+
+    /** Host-wide protocol counters sharing the timestamp of {@link #tcpSnapshot}, or null if not collected. */
+    @Getter private volatile NetCounters netCounters;
+
+    /** Per-socket thresholds reported as flight recorder events on Java 11+. */
+    @Getter @Setter private volatile SockThresholds eventThresholds = new SockThresholds();
+
+    /** Generation of the latest snapshot. */
+    private final AtomicLong generation = new AtomicLong();
+
     /** Socket collectors associated with this monitor. */
     private final List<SockCollector<?>> collectors = new CopyOnWriteArrayList<>();
 
+    /** Dispatch state of each collector. */
+    private final Map<SockCollector<?>, SockDispatch> dispatches = new ConcurrentHashMap<>();
+
+    /** Executor to dispatch collectors, or null to dispatch on the refreshing thread. */
+    private volatile Executor dispatchExecutor;
+
+    /** Policy for statistics arriving while an asynchronous collector is still running. */
+    private volatile SockDispatch.OverrunPolicy overrunPolicy = SockDispatch.OverrunPolicy.COALESCE;
+
+    /** Snapshot observers associated with this monitor. */
+    private final List<SockObserver> observers = new CopyOnWriteArrayList<>();
+
+    /** Milliseconds a completed collection can be reused by callers with an equal filter. */
+    final long freshnessWindow;
+
+    /** Guards {@link #lastFlight}. */
+    private final Object flightLock = new Object();
+
+    /** The latest collection, in flight or completed. */
+    private Flight lastFlight;
+
+    /** Serializes publishing and dispatching of snapshots. */
+    private final Object dispatchLock = new Object();
+
+    /**
+     * Constructs a SockMonitor sharing only in-flight collections.
+     */
+    public SockMonitor() {
+        this(0);
+    }
+
+    /**
+     * Constructs a SockMonitor.
+     *
+     * @param freshnessWindow the milliseconds a completed collection can be reused by callers with an equal filter.
+     */
+    public SockMonitor(long freshnessWindow) {
+        if (freshnessWindow < 0) throw new IllegalArgumentException("negative freshness window");
+        this.freshnessWindow = freshnessWindow;
+    }
+
     /**
      * Checks if socket statistics monitoring is supported.
      *
@@ -58,25 +141,276 @@ public class SockMonitor {
      * @return true if statistics were refreshed successfully, false otherwise.
      */
     public boolean refreshStats(SockFilter sockFilter) {
-        if (!isSupported()) return false;
+        return refreshSnapshot(sockFilter) != null;
+    }
+
+    /**
+     * Refreshes socket statistics based on the provided socket filter, joining the in-flight
+     * or fresh collection of an equal filter instead of dumping sockets again.
+     *
+     * @param sockFilter the filter used to collect socket statistics.
+     * @return the snapshot of the shared collection, or null if failed to collect.
+     */
+    public SockSnapshot refreshSnapshot(SockFilter sockFilter) {
+        if (!isSupported()) return null;
+        Flight flight;
+        boolean leader = false;
+        synchronized (flightLock) {
+            flight = lastFlight;
+            if (flight == null || !flight.joinable(sockFilter, System.currentTimeMillis(), freshnessWindow)) {
+                flight = new Flight(copyOf(sockFilter));
+                lastFlight = flight;
+                leader = true;
+            }
+        }
+        if (leader) {
+            try {
+                flight.complete(collect(sockFilter), null);
+            } catch (RuntimeException | Error e) {
+                flight.complete(null, e);
+            }
+        }
+        return flight.await();
+    }
+
+    /**
+     * Refreshes socket statistics asynchronously on a shared daemon thread pool.
+     *
+     * @param sockFilter the filter used to collect socket statistics.
+     * @return the future of the shared snapshot, completed exceptionally if failed to collect.
+     */
+    public CompletableFuture<SockSnapshot> refreshAsync(SockFilter sockFilter) {
+        return refreshAsync(sockFilter, AsyncHolder.EXECUTOR);
+    }
+
+    /**
+     * Refreshes socket statistics asynchronously on the executor, sharing collections like {@link #refreshSnapshot(SockFilter)}.
+     *
+     * @param sockFilter the filter used to collect socket statistics.
+     * @param executor the executor to run the collection, which blocks on the kernel dump.
+     * @return the future of the shared snapshot, completed exceptionally if failed to collect.
+     */
+    public CompletableFuture<SockSnapshot> refreshAsync(SockFilter sockFilter, Executor executor) {
+        SockFilter filter = copyOf(sockFilter);
+        return CompletableFuture.supplyAsync(() -> {
+            SockSnapshot snapshot = refreshSnapshot(filter);
+            if (snapshot == null) throw new IllegalStateException("failed to collect socket statistics");
+            return snapshot;
+        }, executor);
+    }
+
+    private SockSnapshot collect(SockFilter sockFilter) {
+        Object event = SockEvents.begin();
         LinuxSocketProbe probe = new LinuxSocketProbe();
-        if (!probe.collectSocketStat(sockFilter)) {
-            return false;
-        }
-        Map<SockKey,InetSockStat<TcpStat>> newSocks = new HashMap<>();
-        for (InetSockStat<TcpStat> sock : probe.tcpSocks()) {
-            String remoteIP = transferToIpv4(sock.inetFamily(), sock.remoteIP());
-            String localIP = transferToIpv4(sock.inetFamily(), sock.localIP());
-            if (remoteIP != null && localIP != null) {
-                SockKey sockKey = new SockKey(remoteIP, localIP, sock.remotePort(), sock.localPort());
-                newSocks.put(sockKey, sock);
+        boolean success = false;
+        try {
+            success = probe.collectSocketStat(sockFilter);
+        } finally {
+            if (!success) SockEvents.fail(event, probe.probeStats());
+        }
+        if (!success) return null;
+        return publish(probe.tcpSocks(), probe.unixSocks(), probe.probeStats(), event);
+    }
+
+    /**
+     * Publishes TCP socket statistics collected elsewhere, e.g. by a {@link SockHub} shared across monitors.
+     * Collectors and observers are dispatched as if the statistics were collected by this monitor.
+     *
+     * @param tcpSocks the TCP socket statistics.
+     * @return the snapshot of the published statistics.
+     */
+    public SockSnapshot publishStats(Collection<InetSockStat<TcpStat>> tcpSocks) {
+        return publishStats(tcpSocks, null);
+    }
+
+    /**
+     * Publishes TCP and UNIX domain socket statistics collected elsewhere, see {@link #publishStats(Collection)}.
+     *
+     * @param tcpSocks the TCP socket statistics.
+     * @param unixSocks the UNIX domain socket statistics, or null if not collected.
+     * @return the snapshot of the published statistics.
+     */
+    public SockSnapshot publishStats(Collection<InetSockStat<TcpStat>> tcpSocks, List<UnixSockStat> unixSocks) {
+        return publish(tcpSocks, unixSocks, null, SockEvents.begin());
+    }
+
+    private SockSnapshot publish(Collection<InetSockStat<TcpStat>> tcpSocks, List<UnixSockStat> unixSocks,
+                                 ProbeStats probeStats, Object event) {
+        long timestamp = System.currentTimeMillis();
+        NetCounters counters = collectCounters(timestamp);
+        long allocated = OsUtils.currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(tcpSocks.size());
+        @SuppressWarnings("unchecked")
+        InetSockStat<TcpStat>[] rows = new InetSockStat[tcpSocks.size()];
+        for (InetSockStat<TcpStat> sock : tcpSocks) {
+            int row = builder.append(sock);
+            if (row >= 0) rows[row] = sock;
+        }
+        synchronized (dispatchLock) {
+            SockSnapshot previous = this.tcpSnapshot;
+            SockSnapshot snapshot = builder.build(generation.incrementAndGet(), timestamp);
+            this.tcpSnapshot = snapshot;
+            this.tcpStats = new SnapshotStats(snapshot, rows);
+            this.netCounters = counters;
+            this.unixStats = unixSocks == null ? Collections.emptyList() : Collections.unmodifiableList(unixSocks);
+            CollectStats cost = new CollectStats().generation(snapshot.generation()).sockets(snapshot.size()).probe(probeStats)
+                    .buildNanos(System.nanoTime() - start)
+                    .buildAllocatedBytes(allocated < 0 ? -1 : OsUtils.currentThreadAllocatedBytes() - allocated);
+            Map<SockKey, InetSockStat<TcpStat>> stats = this.tcpStats;
+            Map<SockCollector<?>, Long> collectorNanos = new LinkedHashMap<>();
+            Executor executor = dispatchExecutor;
+            long dispatchStart = System.nanoTime();
+            for (SockCollector<?> collector : collectors) {
+                SockDispatch dispatch = dispatches.get(collector);
+                if (dispatch == null) continue; // removed concurrently
+                if (executor == null) {
+                    long collectorStart = System.nanoTime();
+                    dispatch.dispatch(this, stats);
+                    collectorNanos.put(collector, System.nanoTime() - collectorStart);
+                } else {
+                    dispatch.dispatch(this, stats, executor, overrunPolicy);
+                }
             }
+            long observeStart = System.nanoTime();
+            cost.dispatchNanos(observeStart - dispatchStart).collectorNanos(Collections.unmodifiableMap(collectorNanos));
+            for (SockObserver observer : observers) {
+                observer.observe(snapshot);
+            }
+            this.collectStats = cost.observeNanos(System.nanoTime() - observeStart);
+            SockEvents.commit(event, cost, previous, snapshot, eventThresholds);
+            return snapshot;
+        }
+    }
+
+    private NetCounters collectCounters(long timestamp) {
+        NetStatProbe probe = netStatProbe;
+        if (probe == null) return null;
+        try {
+            return probe.collect(timestamp);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Unmodifiable map view of a snapshot, locating statistics by the index of the snapshot
+     * instead of hashing keys, so no key is created unless iterated.
+     */
+    static final class SnapshotStats extends AbstractMap<SockKey, InetSockStat<TcpStat>> {
+
+        final SockSnapshot snapshot;
+        final InetSockStat<TcpStat>[] rows;
+
+        SnapshotStats(SockSnapshot snapshot, InetSockStat<TcpStat>[] rows) {
+            this.snapshot = snapshot;
+            this.rows = rows;
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof SockKey && snapshot.indexOf((SockKey) key) >= 0;
+        }
+
+        @Override
+        public InetSockStat<TcpStat> get(Object key) {
+            int row = key instanceof SockKey ? snapshot.indexOf((SockKey) key) : -1;
+            return row < 0 ? null : rows[row];
+        }
+
+        @Override
+        public Set<Entry<SockKey, InetSockStat<TcpStat>>> entrySet() {
+            return new AbstractSet<Entry<SockKey, InetSockStat<TcpStat>>>() {
+                @Override
+                public Iterator<Entry<SockKey, InetSockStat<TcpStat>>> iterator() {
+                    return new Iterator<Entry<SockKey, InetSockStat<TcpStat>>>() {
+                        int row;
+
+                        @Override
+                        public boolean hasNext() {
+                            return row < snapshot.size();
+                        }
+
+                        @Override
+                        public Entry<SockKey, InetSockStat<TcpStat>> next() {
+                            if (row >= snapshot.size()) throw new NoSuchElementException();
+                            int r = row++;
+                            return new SimpleImmutableEntry<>(snapshot.key(r), rows[r]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return snapshot.size();
+                }
+            };
+        }
+    }
+
+    /** Lazily created executor for {@link #refreshAsync(SockFilter)}. */
+    static final class AsyncHolder {
+        static final Executor EXECUTOR = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "sock-monitor-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static SockFilter copyOf(SockFilter filter) {
+        if (filter == null) return null;
+        return new SockFilter().family(filter.family()).protocol(filter.protocol()).unix(filter.unix())
+                .currentUser(filter.currentUser()).currentProc(filter.currentProc()).portFilters(filter.portFilters());
+    }
+
+    /**
+     * A collection shared by callers with an equal filter.
+     */
+    static final class Flight {
+
+        final SockFilter filter;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile long completedTime;
+        volatile SockSnapshot snapshot;
+        volatile Throwable failure;
+
+        Flight(SockFilter filter) {
+            this.filter = filter;
+        }
+
+        boolean joinable(SockFilter other, long now, long freshnessWindow) {
+            if (!Objects.equals(filter, copyOf(other))) return false;
+            if (done.getCount() > 0) return true;
+            return snapshot != null && now - completedTime < freshnessWindow;
+        }
+
+        void complete(SockSnapshot snapshot, Throwable failure) {
+            this.snapshot = snapshot;
+            this.failure = failure;
+            this.completedTime = System.currentTimeMillis();
+            done.countDown();
         }
-        this.tcpStats = Collections.unmodifiableMap(newSocks);
-        for (SockCollector<?> collector : collectors) {
-            collector.refreshMeters(this);
+
+        SockSnapshot await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+            return snapshot;
         }
-        return true;
     }
 
     /**
@@ -87,39 +421,120 @@ public class SockMonitor {
      */
     public synchronized boolean addCollector(SockCollector<?> collector) {
         boolean existed = collectors.contains(collector);
-        return !existed && collectors.add(collector);
+        if (existed) return false;
+        dispatches.put(collector, new SockDispatch(collector));
+        return collectors.add(collector);
     }
 
     /**
      * Removes a socket collector from the monitor.
+     * Statistics already queued or pending for the collector are dropped, while a refresh
+     * in progress completes in background, see {@link #removeCollector(SockCollector, long, TimeUnit)}.
      *
      * @param collector the collector to remove.
      * @return true if removed successfully, false otherwise.
      */
     public synchronized boolean removeCollector(SockCollector<?> collector) {
+        SockDispatch dispatch = dispatches.remove(collector);
+        if (dispatch != null) dispatch.cancel();
         return collectors.remove(collector);
     }
 
+    /**
+     * Removes a socket collector from the monitor and waits for its refresh in progress,
+     * so the caller may safely release the resources used by the collector.
+     * Must not be called from the collector itself.
+     *
+     * @param collector the collector to remove.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if removed and no refresh of the collector is in progress, false otherwise.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean removeCollector(SockCollector<?> collector, long timeout, TimeUnit unit) throws InterruptedException {
+        SockDispatch dispatch;
+        synchronized (this) {
+            dispatch = dispatches.get(collector);
+            if (!removeCollector(collector) || dispatch == null) return false;
+        }
+        // wait outside the lock since the collector may call back into the monitor
+        return dispatch.awaitIdle(timeout, unit);
+    }
+
+    /**
+     * Dispatches collectors on the executor after each refresh, so slow collectors never delay
+     * collection or each other. Each collector refreshes against the immutable statistics
+     * it was dispatched with, and runs of the same collector never overlap.
+     * Virtual threads can be used by passing a virtual thread per task executor on Java 21+.
+     *
+     * @param executor the executor to dispatch collectors, or null to dispatch on the refreshing thread.
+     * @param policy the policy for statistics arriving while a collector is still running.
+     */
+    public synchronized void dispatchAsync(Executor executor, SockDispatch.OverrunPolicy policy) {
+        this.overrunPolicy = Objects.requireNonNull(policy);
+        this.dispatchExecutor = executor;
+    }
+
+    /**
+     * Returns the dispatch metrics of a collector.
+     *
+     * @param collector the collector added to this monitor.
+     * @return the dispatch metrics, or null if the collector is not added.
+     */
+    public SockDispatch dispatchStats(SockCollector<?> collector) {
+        return dispatches.get(collector);
+    }
+
+    /**
+     * Creates a reactive publisher of snapshots with latest-value-wins backpressure, to be added as an observer.
+     * <p>
+     * Each subscriber holds at most one undelivered snapshot, so slow subscribers skip intermediate snapshots
+     * instead of queueing them. Closing the publisher completes all subscribers.
+     *
+     * @param executor the executor to deliver signals to subscribers.
+     * @return an observer which is also a {@code java.util.concurrent.Flow.Publisher<SockSnapshot>} and {@link AutoCloseable}.
+     * @throws UnsupportedOperationException before Java 9.
+     */
+    public static SockObserver flowPublisher(Executor executor) {
+        return SockPublishers.create(Objects.requireNonNull(executor));
+    }
+
+    /**
+     * Adds a snapshot observer to the monitor.
+     *
+     * @param observer the observer to add.
+     * @return true if added successfully, false if the observer already exists.
+     */
+    public synchronized boolean addObserver(SockObserver observer) {
+        boolean existed = observers.contains(observer);
+        return !existed && observers.add(observer);
+    }
+
+    /**
+     * Removes a snapshot observer from the monitor.
+     *
+     * @param observer the observer to remove.
+     * @return true if removed successfully, false otherwise.
+     */
+    public synchronized boolean removeObserver(SockObserver observer) {
+        return observers.remove(observer);
+    }
+
     /** The IPv6 prefix for IPV4-compatibility. */
     static final String COMP_IPV6_PREFIX = "::ffff:";
 
-    /** Pattern to match IPv4 format. */
-    static final Pattern IPV4_FMT = Pattern.compile("^\\d+\\.\\d+\\.\\d+\\.\\d+$");
-
     /**
-     * Transfer given ip to IPv4 if possible.
+     * Parses given ip as IPv4 if possible, without allocation.
      *
      * @param family the InetFamily of the address.
      * @param ip the IP address.
-     * @return the IPv4 address if available, otherwise null.
+     * @return the IPv4 address as unsigned int if available, otherwise -1.
      */
-    static String transferToIpv4(InetFamily family, String ip) {
-        if (family == InetFamily.IPv4) return ip;
-        if (ip.startsWith(COMP_IPV6_PREFIX)) {
-            ip = ip.substring(COMP_IPV6_PREFIX.length());
-            if (IPV4_FMT.matcher(ip).matches()) return ip;
-        }
-        return null;
+    static long parseIpv4(InetFamily family, String ip) {
+        if (ip == null) return -1;
+        if (family == InetFamily.IPv4) return SockSnapshot.parseIpv4(ip, 0);
+        if (ip.startsWith(COMP_IPV6_PREFIX)) return SockSnapshot.parseIpv4(ip, COMP_IPV6_PREFIX.length());
+        return -1;
     }
 
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+/**
+ * Receives every columnar snapshot produced by {@link SockMonitor}.
+ * <p>
+ * Unlike {@link SockCollector} which manages one meter per socket,
+ * an observer consumes the whole snapshot at once.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@FunctionalInterface
+public interface SockObserver {
+
+    /**
+     * Called after each successful refresh.
+     *
+     * @param snapshot the latest snapshot of TCP sockets.
+     */
+    void observe(SockSnapshot snapshot);
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Creates reactive publishers of snapshots.
+ * <p>
+ * {@code java.util.concurrent.Flow} is not available on Java 8, so this version refuses to create one.
+ * It is replaced by the Java 9 version in the multi-release JAR.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockPublishers {
+
+    private SockPublishers() {}
+
+    /**
+     * Creates a publisher delivering on the executor.
+     *
+     * @param executor the executor to deliver signals to subscribers.
+     * @return the publisher.
+     * @throws UnsupportedOperationException before Java 9.
+     */
+    static SockObserver create(Executor executor) {
+        throw new UnsupportedOperationException("Flow publisher requires Java 9+");
+    }
+
+}
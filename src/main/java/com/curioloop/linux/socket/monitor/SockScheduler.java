@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.SockFilter;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiPredicate;
+
+/**
+ * Polls a monitor with an interval adapted to the collection cost.
+ * <p>
+ * Keep polling overhead bounded while reacting quickly to incidents by:
+ * <ul>
+ *     <li>Derive the interval from the CPU time of the last collection and the CPU budget</li>
+ *     <li>Poll at the minimum interval for a while once an anomaly is detected</li>
+ *     <li>Schedule the next run after completion with jitter, so runs never overlap</li>
+ * </ul>
+ * The scheduler must be configured before {@link #start()}.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Accessors(fluent = true)
+public class SockScheduler implements AutoCloseable {
+
+    /** The monitor to refresh. */
+    @Getter private final SockMonitor monitor;
+
+    /** The filter used to collect socket statistics. */
+    @Getter private final SockFilter filter;
+
+    /** Fraction of one core the collection may consume, e.g. 0.01 for 1%. */
+    @Getter @Setter private double cpuBudget = 0.01;
+
+    /** Minimum interval in milliseconds. */
+    @Getter @Setter private long minInterval = TimeUnit.SECONDS.toMillis(1);
+
+    /** Maximum interval in milliseconds. */
+    @Getter @Setter private long maxInterval = TimeUnit.MINUTES.toMillis(1);
+
+    /** Random deviation of the interval as a fraction, e.g. 0.1 for ±10%. */
+    @Getter @Setter private double jitter = 0.1;
+
+    /** Milliseconds to poll at the minimum interval after an anomaly. */
+    @Getter @Setter private long boostDuration = TimeUnit.MINUTES.toMillis(1);
+
+    /** Detects anomaly between the previous and current snapshots. */
+    @Getter @Setter private BiPredicate<SockSnapshot, SockSnapshot> anomalyDetector = SockScheduler::risingQueueOrRetransmit;
+
+    /** Whether to run on a virtual thread when supported by the runtime (Java 21+). */
+    @Getter @Setter private boolean virtualThread;
+
+    /** The latest interval in milliseconds. */
+    @Getter private volatile long interval;
+
+    /** The CPU time of the latest collection in nanoseconds, or wall time if CPU time is unavailable such as on virtual threads. */
+    @Getter private volatile long lastCost;
+
+    /** The cause of the last failed collection. */
+    @Getter private volatile Throwable lastFailure;
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long boostUntil;
+    private volatile Thread thread;
+
+    /**
+     * Constructs a SockScheduler.
+     *
+     * @param monitor the monitor to refresh.
+     * @param filter the filter used to collect socket statistics.
+     */
+    public SockScheduler(SockMonitor monitor, SockFilter filter) {
+        this.monitor = Objects.requireNonNull(monitor);
+        this.filter = filter;
+    }
+
+    /**
+     * Starts polling on a daemon thread, the first collection runs immediately.
+     *
+     * @return this scheduler.
+     */
+    public synchronized SockScheduler start() {
+        if (thread != null) throw new IllegalStateException("already started");
+        if (cpuBudget <= 0 || cpuBudget > 1) throw new IllegalArgumentException("cpuBudget out of range");
+        if (minInterval <= 0 || maxInterval < minInterval) throw new IllegalArgumentException("invalid interval range");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter out of range");
+        Thread t = virtualThread ? newVirtualThread(this::loop) : null;
+        if (t == null) {
+            t = new Thread(this::loop);
+            t.setDaemon(true);
+        }
+        t.setName("sock-scheduler");
+        thread = t;
+        t.start();
+        return this;
+    }
+
+    /**
+     * Stops polling, an in-flight collection is completed in background.
+     */
+    @Override
+    public synchronized void close() {
+        Thread t = thread;
+        thread = null;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * Returns the number of collections since start.
+     *
+     * @return the number of collections.
+     */
+    public long runCount() {
+        return runCount.get();
+    }
+
+    /**
+     * Returns the number of failed collections since start.
+     *
+     * @return the number of failures.
+     */
+    public long failureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Checks whether polling is sped up due to an anomaly.
+     *
+     * @return true if polling at the minimum interval.
+     */
+    public boolean boosted() {
+        return System.currentTimeMillis() < boostUntil;
+    }
+
+    private void loop() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Thread self = Thread.currentThread();
+        // the CPU time of a virtual thread is reported as -1
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled() && !isVirtual(self);
+        SockSnapshot previous = null;
+        while (thread == self) {
+            long startCpu = cpuTime ? threads.getCurrentThreadCpuTime() : -1;
+            long startWall = System.nanoTime();
+            SockSnapshot current = null;
+            try {
+                current = monitor.refreshSnapshot(filter);
+                if (current == null) failureCount.incrementAndGet();
+            } catch (Throwable e) {
+                failureCount.incrementAndGet();
+                lastFailure = e;
+            }
+            runCount.incrementAndGet();
+            long endCpu = startCpu < 0 ? -1 : threads.getCurrentThreadCpuTime();
+            long cost = endCpu < 0 ? System.nanoTime() - startWall : endCpu - startCpu;
+            lastCost = cost;
+            if (current != null && previous != null && anomalyDetector.test(previous, current)) {
+                boostUntil = System.currentTimeMillis() + boostDuration;
+            }
+            if (current != null) previous = current;
+            interval = nextInterval(cost);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            for (long remaining; thread == self && (remaining = deadline - System.nanoTime()) > 0; ) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+
+    long nextInterval(long costNanos) {
+        long interval;
+        if (boosted()) {
+            interval = minInterval;
+        } else {
+            long budgeted = (long) (costNanos / 1e6 / cpuBudget);
+            interval = Math.max(minInterval, Math.min(maxInterval, budgeted));
+        }
+        if (jitter > 0) {
+            double deviation = ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+            interval = Math.max(1, interval + (long) (interval * deviation));
+        }
+        return interval;
+    }
+
+    /** Minimum growth in bytes of the send queue of a socket to be reported as rising. */
+    public static final long RISING_QUEUE_FLOOR = 64 * 1024;
+
+    /**
+     * Default anomaly detector which reports a rising send queue or any retransmit increase of a socket.
+     * The send queue is {@link Column#WAITING_QUEUE}, the bytes not yet acknowledged by the peer.
+     * It rises when it more than doubles and grows by at least {@link #RISING_QUEUE_FLOOR},
+     * listening sockets are skipped since their queue is the accept backlog rather than bytes.
+     *
+     * @param previous the previous snapshot.
+     * @param current the current snapshot.
+     * @return true if anomaly detected.
+     */
+    public static boolean risingQueueOrRetransmit(SockSnapshot previous, SockSnapshot current) {
+        int listen = ConnState.LISTEN.ordinal();
+        int[] lp = current.columns[Column.LOCAL_PORT.ordinal()];
+        int[] rp = current.columns[Column.REMOTE_PORT.ordinal()];
+        int[] states = current.columns[Column.CONN_STATE.ordinal()];
+        int[] queues = current.columns[Column.WAITING_QUEUE.ordinal()];
+        int[] retrans = current.columns[Column.TOTAL_RETRANSMIT.ordinal()];
+        int[] prevQueues = previous.columns[Column.WAITING_QUEUE.ordinal()];
+        int[] prevRetrans = previous.columns[Column.TOTAL_RETRANSMIT.ordinal()];
+        for (int row = 0; row < current.size; row++) {
+            long queue = states[row] == listen ? 0 : queues[row] & 0xFFFFFFFFL;
+            if (queue < RISING_QUEUE_FLOOR && retrans[row] == 0) continue;
+            int prevRow = previous.indexOf(current.localIps[row], lp[row], current.remoteIps[row], rp[row]);
+            long prevQueue = prevRow < 0 ? 0 : prevQueues[prevRow] & 0xFFFFFFFFL;
+            if (queue - prevQueue >= RISING_QUEUE_FLOOR && queue > prevQueue * 2) return true;
+            if (prevRow >= 0 && Integer.compareUnsigned(retrans[row], prevRetrans[prevRow]) > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the thread is virtual through reflection, so the class still runs on Java 8.
+     *
+     * @param thread the thread to check.
+     * @return true if the thread is virtual.
+     */
+    static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an unstarted virtual thread through reflection, so the class still runs on Java 8.
+     *
+     * @param task the task to run.
+     * @return the virtual thread, or null if not supported.
+     */
+    static Thread newVirtualThread(Runnable task) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            return (Thread) unstarted.invoke(builder, task);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+}
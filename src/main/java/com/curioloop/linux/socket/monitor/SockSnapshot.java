@@ -0,0 +1,640 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Columnar snapshot of TCP socket statistics.
+ * <p>
+ * Reduce memory footprint of large socket tables by:
+ * <ul>
+ *     <li>Keep one primitive column per metric instead of one object per socket</li>
+ *     <li>Store IPv4 addresses as int instead of string</li>
+ *     <li>Locate socket with an open-addressing index over primitive keys</li>
+ * </ul>
+ * All metric columns hold unsigned 32-bit values which are widened to {@code long} on read.
+ * The snapshot is immutable once built and can be shared between threads.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class SockSnapshot {
+
+    /** Enumeration for metric columns. */
+    public enum Column {
+        LOCAL_PORT, REMOTE_PORT, PROCESS_ID, CONN_STATE,
+        REQUEST_QUEUE, WAITING_QUEUE,
+        ROUND_TRIP_TIME, ROUND_TRIP_TIME_VAR,
+        RETRANSMIT_TIMEOUT, ACKNOWLEDGE_TIMEOUT,
+        CONGESTION_WINDOW, SLOW_START_THRESHOLD,
+        TOTAL_RETRANSMIT,
+        RECEIVE_MEMORY, SEND_MEMORY,
+        FORWARD_ALLOC, QUEUED_MEMORY;
+
+        static final Column[] columns = values();
+
+        /** Whether the column is read from {@code tcp_info}. */
+        boolean tcpInfo() {
+            return compareTo(ROUND_TRIP_TIME) >= 0 && compareTo(TOTAL_RETRANSMIT) <= 0;
+        }
+    }
+
+    /** Snapshot without any socket. */
+    public static final SockSnapshot EMPTY = new Builder(0).build(0, 0);
+
+    /** Generation of the snapshot, increased by each refresh. */
+    final long generation;
+
+    /** Time when the snapshot was taken in milliseconds. */
+    final long timestamp;
+
+    /** Number of sockets in the snapshot. */
+    final int size;
+
+    /** IPv4 address of the local endpoint. */
+    final int[] localIps;
+
+    /** IPv4 address of the remote endpoint. */
+    final int[] remoteIps;
+
+    /** Metric columns indexed by {@link Column#ordinal()}. */
+    final int[][] columns;
+
+    /** The estimated available bandwidth in kilobits per second. */
+    final double[] bandwidths;
+
+    /** Bit flags of each row, see {@link #FLAG_TCP_INFO}. */
+    final int[] flags;
+
+    /** Flag set if the row carries {@code tcp_info}, otherwise its TCP metric columns read 0. */
+    static final int FLAG_TCP_INFO = 1;
+
+    /** Open-addressing index which stores row + 1 (0 means empty slot). */
+    final int[] slots;
+
+    /** Lazily sorted copies of columns for percentiles, with the sign bit flipped to sort as unsigned. */
+    private final AtomicReferenceArray<int[]> sortedColumns = new AtomicReferenceArray<>(Column.columns.length);
+
+    private SockSnapshot(Builder builder, long generation, long timestamp) {
+        int size = builder.size;
+        this.generation = generation;
+        this.timestamp = timestamp;
+        this.size = size;
+        this.localIps = trim(builder.localIps, size);
+        this.remoteIps = trim(builder.remoteIps, size);
+        this.bandwidths = builder.bandwidths.length == size ? builder.bandwidths : Arrays.copyOf(builder.bandwidths, size);
+        this.flags = trim(builder.flags, size);
+        this.columns = new int[builder.columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = trim(builder.columns[c], size);
+        }
+        this.slots = builder.slots;
+    }
+
+    private static int[] trim(int[] values, int size) {
+        return values.length == size ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the generation of the snapshot.
+     *
+     * @return the generation of the snapshot.
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the time when the snapshot was taken.
+     *
+     * @return the timestamp in milliseconds.
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the number of sockets in the snapshot.
+     *
+     * @return the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row of the specified socket key.
+     *
+     * @param key the key associated with the socket.
+     * @return the row of the socket, or -1 if absent.
+     */
+    public int indexOf(SockKey key) {
+        long localIp = parseIpv4(key.localIp());
+        long remoteIp = parseIpv4(key.remoteIp());
+        if (localIp < 0 || remoteIp < 0) return -1;
+        return indexOf((int) localIp, key.localPort(), (int) remoteIp, key.remotePort());
+    }
+
+    /**
+     * Finds the row of the specified socket endpoints.
+     *
+     * @param localIp the IPv4 address of the local endpoint.
+     * @param localPort the port of the local endpoint.
+     * @param remoteIp the IPv4 address of the remote endpoint.
+     * @param remotePort the port of the remote endpoint.
+     * @return the row of the socket, or -1 if absent.
+     */
+    public int indexOf(int localIp, int localPort, int remoteIp, int remotePort) {
+        int mask = slots.length - 1;
+        if (mask < 0) return -1;
+        int[] lp = columns[Column.LOCAL_PORT.ordinal()];
+        int[] rp = columns[Column.REMOTE_PORT.ordinal()];
+        for (int i = hash(localIp, localPort, remoteIp, remotePort) & mask; ; i = (i + 1) & mask) {
+            int row = slots[i] - 1;
+            if (row < 0) return -1;
+            if (localIps[row] == localIp && remoteIps[row] == remoteIp && lp[row] == localPort && rp[row] == remotePort)
+                return row;
+        }
+    }
+
+    /**
+     * Returns the socket key of the specified row.
+     *
+     * @param row the row of the socket.
+     * @return a new key associated with the socket.
+     */
+    public SockKey key(int row) {
+        return new SockKey(formatIpv4(remoteIps[row]), formatIpv4(localIps[row]),
+                columns[Column.REMOTE_PORT.ordinal()][row], columns[Column.LOCAL_PORT.ordinal()][row]);
+    }
+
+    /**
+     * Returns the local IPv4 address of the specified row.
+     *
+     * @param row the row of the socket.
+     * @return the IPv4 address as int.
+     */
+    public int localIp(int row) {
+        return localIps[row];
+    }
+
+    /**
+     * Returns the remote IPv4 address of the specified row.
+     *
+     * @param row the row of the socket.
+     * @return the IPv4 address as int.
+     */
+    public int remoteIp(int row) {
+        return remoteIps[row];
+    }
+
+    /**
+     * Returns the metric value of the specified row.
+     *
+     * @param column the metric column.
+     * @param row the row of the socket.
+     * @return the unsigned metric value.
+     */
+    public long value(Column column, int row) {
+        return columns[column.ordinal()][row] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the estimated bandwidth of the specified row.
+     *
+     * @param row the row of the socket.
+     * @return the estimated bandwidth in kilobits per second.
+     */
+    public double bandwidth(int row) {
+        return bandwidths[row];
+    }
+
+    /**
+     * Returns whether the specified row carries {@code tcp_info}.
+     *
+     * @param row the row of the socket.
+     * @return true if the TCP metric columns were reported, false if they read 0 for lack of {@code tcp_info}.
+     */
+    public boolean hasTcpInfo(int row) {
+        return (flags[row] & FLAG_TCP_INFO) != 0;
+    }
+
+    /**
+     * Sums the values of the specified column.
+     *
+     * @param column the metric column.
+     * @return the sum of all rows.
+     */
+    public long sum(Column column) {
+        int[] values = columns[column.ordinal()];
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i] & 0xFFFFFFFFL;
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the maximum value of the specified column.
+     *
+     * @param column the metric column.
+     * @return the maximum value, or 0 if the snapshot is empty.
+     */
+    public long max(Column column) {
+        int[] values = columns[column.ordinal()];
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, values[i] & 0xFFFFFFFFL);
+        }
+        return max;
+    }
+
+    /**
+     * Finds the minimum value of the specified column.
+     *
+     * @param column the metric column.
+     * @return the minimum value, or 0 if the snapshot is empty.
+     */
+    public long min(Column column) {
+        if (size == 0) return 0;
+        int[] values = columns[column.ordinal()];
+        long min = 0xFFFFFFFFL;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, values[i] & 0xFFFFFFFFL);
+        }
+        return min;
+    }
+
+    /**
+     * Computes the percentile of the specified column with nearest-rank method.
+     * The column is sorted once on the first call and reused by later calls.
+     *
+     * @param column the metric column.
+     * @param percentile the percentile in range [0, 1].
+     * @return the percentile value, or 0 if the snapshot is empty.
+     */
+    public long percentile(Column column, double percentile) {
+        if (percentile < 0 || percentile > 1) throw new IllegalArgumentException("percentile out of range");
+        if (size == 0) return 0;
+        int[] sorted = sortedColumns.get(column.ordinal());
+        if (sorted == null) {
+            int[] values = columns[column.ordinal()];
+            sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = values[i] ^ Integer.MIN_VALUE;
+            }
+            Arrays.sort(sorted);
+            sortedColumns.set(column.ordinal(), sorted);
+        }
+        int rank = (int) Math.ceil(percentile * size);
+        return (sorted[Math.max(rank - 1, 0)] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Creates a flyweight view over the rows of this snapshot.
+     *
+     * @return a new row view positioned before the first row.
+     */
+    public Row row() {
+        return new Row();
+    }
+
+    /**
+     * A reusable flyweight view of a single row.
+     */
+    public final class Row {
+
+        /** Current row index. */
+        int row = -1;
+
+        /**
+         * Moves the view to the specified row.
+         *
+         * @param row the row of the socket.
+         * @return this view.
+         */
+        public Row moveTo(int row) {
+            if (row < 0 || row >= size) throw new IndexOutOfBoundsException("row: " + row);
+            this.row = row;
+            return this;
+        }
+
+        /**
+         * Moves the view to the next row.
+         *
+         * @return true if the view is positioned on a valid row, false otherwise.
+         */
+        public boolean next() {
+            if (row + 1 >= size) return false;
+            row++;
+            return true;
+        }
+
+        public int index() {
+            return row;
+        }
+
+        public SockKey key() {
+            return SockSnapshot.this.key(row);
+        }
+
+        public int localIp() {
+            return localIps[row];
+        }
+
+        public int remoteIp() {
+            return remoteIps[row];
+        }
+
+        public int localPort() {
+            return columns[Column.LOCAL_PORT.ordinal()][row];
+        }
+
+        public int remotePort() {
+            return columns[Column.REMOTE_PORT.ordinal()][row];
+        }
+
+        public int processID() {
+            return columns[Column.PROCESS_ID.ordinal()][row];
+        }
+
+        public ConnState connState() {
+            return ConnState.of(columns[Column.CONN_STATE.ordinal()][row]);
+        }
+
+        public long value(Column column) {
+            return SockSnapshot.this.value(column, row);
+        }
+
+        public double bandwidth() {
+            return bandwidths[row];
+        }
+
+        public boolean hasTcpInfo() {
+            return SockSnapshot.this.hasTcpInfo(row);
+        }
+    }
+
+    /**
+     * Builder which appends sockets into growable columns.
+     */
+    public static final class Builder {
+
+        int size;
+        int[] localIps;
+        int[] remoteIps;
+        int[][] columns;
+        double[] bandwidths;
+        int[] flags;
+        int[] slots;
+
+        /**
+         * Constructs a builder with the given initial capacity.
+         *
+         * @param capacity the expected number of sockets.
+         */
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 0);
+            localIps = new int[capacity];
+            remoteIps = new int[capacity];
+            bandwidths = new double[capacity];
+            flags = new int[capacity];
+            columns = new int[Column.columns.length][capacity];
+            slots = new int[slotsFor(capacity)];
+        }
+
+        /**
+         * Appends the socket into the snapshot.
+         * The later one wins if duplicated key found.
+         *
+         * @param sock the socket statistics.
+         * @return true if appended, false if the socket is not an IPv4 (compatible) socket.
+         */
+        public boolean add(InetSockStat<TcpStat> sock) {
+            return append(sock) >= 0;
+        }
+
+        /**
+         * Appends the socket into the snapshot and returns its row.
+         *
+         * @param sock the socket statistics.
+         * @return the row of the socket, or -1 if the socket is not an IPv4 (compatible) socket.
+         */
+        int append(InetSockStat<TcpStat> sock) {
+            long localIp = SockMonitor.parseIpv4(sock.inetFamily(), sock.localIP());
+            long remoteIp = SockMonitor.parseIpv4(sock.inetFamily(), sock.remoteIP());
+            if (localIp < 0 || remoteIp < 0) return -1;
+            int row = insert((int) localIp, sock.localPort(), (int) remoteIp, sock.remotePort());
+            set(Column.PROCESS_ID, row, sock.processID());
+            set(Column.CONN_STATE, row, sock.connState() == null ? 0 : sock.connState().ordinal());
+            set(Column.REQUEST_QUEUE, row, (int) sock.requestQueue());
+            set(Column.WAITING_QUEUE, row, (int) sock.waitingQueue());
+            set(Column.RECEIVE_MEMORY, row, (int) sock.receiveMemory());
+            set(Column.SEND_MEMORY, row, (int) sock.sendMemory());
+            set(Column.FORWARD_ALLOC, row, (int) sock.forwardAlloc());
+            set(Column.QUEUED_MEMORY, row, (int) sock.queuedMemory());
+            TcpStat tcp = sock.info();
+            if (tcp != null) {
+                set(Column.ROUND_TRIP_TIME, row, tcp.roundTripTime());
+                set(Column.ROUND_TRIP_TIME_VAR, row, tcp.roundTripTimeVar());
+                set(Column.RETRANSMIT_TIMEOUT, row, tcp.retransmitTimeout());
+                set(Column.ACKNOWLEDGE_TIMEOUT, row, tcp.acknowledgeTimeout());
+                set(Column.CONGESTION_WINDOW, row, tcp.congestionWindow());
+                set(Column.SLOW_START_THRESHOLD, row, tcp.slowStartThreshold());
+                set(Column.TOTAL_RETRANSMIT, row, tcp.totalRetransmit());
+                setBandwidth(row, tcp.estimatedBandwidth());
+            }
+            setTcpInfo(row, tcp != null);
+            return row;
+        }
+
+        /**
+         * Sets the metric value of the specified row.
+         *
+         * @param column the metric column.
+         * @param row the row returned by {@link #insert(int, int, int, int)}.
+         * @param value the unsigned metric value.
+         */
+        public void set(Column column, int row, int value) {
+            ensureOpen();
+            columns[column.ordinal()][row] = value;
+        }
+
+        /**
+         * Sets the estimated bandwidth of the specified row.
+         *
+         * @param row the row returned by {@link #insert(int, int, int, int)}.
+         * @param value the estimated bandwidth in kilobits per second.
+         */
+        public void setBandwidth(int row, double value) {
+            ensureOpen();
+            bandwidths[row] = value;
+        }
+
+        /**
+         * Sets whether the specified row carries {@code tcp_info}.
+         *
+         * @param row the row returned by {@link #insert(int, int, int, int)}.
+         * @param present true if the TCP metric columns are reported.
+         */
+        public void setTcpInfo(int row, boolean present) {
+            ensureOpen();
+            flags[row] = present ? flags[row] | FLAG_TCP_INFO : flags[row] & ~FLAG_TCP_INFO;
+        }
+
+        /**
+         * Inserts the socket endpoints and returns its row.
+         * All metric columns of a new row are zero and it carries no {@code tcp_info}.
+         *
+         * @param localIp the IPv4 address of the local endpoint.
+         * @param localPort the port of the local endpoint.
+         * @param remoteIp the IPv4 address of the remote endpoint.
+         * @param remotePort the port of the remote endpoint.
+         * @return the row of the socket.
+         */
+        public int insert(int localIp, int localPort, int remoteIp, int remotePort) {
+            ensureOpen();
+            if (size == localIps.length || slotsFor(size + 1) > slots.length) {
+                grow();
+            }
+            int[] lp = columns[Column.LOCAL_PORT.ordinal()];
+            int[] rp = columns[Column.REMOTE_PORT.ordinal()];
+            int mask = slots.length - 1;
+            int i = hash(localIp, localPort, remoteIp, remotePort) & mask;
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                int row = slots[i] - 1;
+                if (localIps[row] == localIp && remoteIps[row] == remoteIp && lp[row] == localPort && rp[row] == remotePort)
+                    return row;
+            }
+            int row = size++;
+            slots[i] = row + 1;
+            localIps[row] = localIp;
+            remoteIps[row] = remoteIp;
+            lp[row] = localPort;
+            rp[row] = remotePort;
+            return row;
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, localIps.length << 1);
+            localIps = Arrays.copyOf(localIps, capacity);
+            remoteIps = Arrays.copyOf(remoteIps, capacity);
+            bandwidths = Arrays.copyOf(bandwidths, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = Arrays.copyOf(columns[c], capacity);
+            }
+            int[] lp = columns[Column.LOCAL_PORT.ordinal()];
+            int[] rp = columns[Column.REMOTE_PORT.ordinal()];
+            slots = new int[slotsFor(capacity)];
+            int mask = slots.length - 1;
+            for (int row = 0; row < size; row++) {
+                int i = hash(localIps[row], lp[row], remoteIps[row], rp[row]) & mask;
+                while (slots[i] != 0) i = (i + 1) & mask;
+                slots[i] = row + 1;
+            }
+        }
+
+        private void ensureOpen() {
+            if (columns == null) throw new IllegalStateException("snapshot already built");
+        }
+
+        /**
+         * Builds the immutable snapshot, trimming the columns to the number of sockets.
+         * The builder is invalidated and throws {@link IllegalStateException} if used afterwards.
+         *
+         * @param generation the generation of the snapshot.
+         * @param timestamp the time when the snapshot was taken in milliseconds.
+         * @return the snapshot.
+         */
+        public SockSnapshot build(long generation, long timestamp) {
+            ensureOpen();
+            SockSnapshot snapshot = new SockSnapshot(this, generation, timestamp);
+            localIps = remoteIps = flags = slots = null;
+            bandwidths = null;
+            columns = null;
+            return snapshot;
+        }
+    }
+
+    /** Keep load factor of the index no more than 0.5. */
+    static int slotsFor(int capacity) {
+        int n = 2;
+        while (n < (capacity << 1)) n <<= 1;
+        return n;
+    }
+
+    static int hash(int localIp, int localPort, int remoteIp, int remotePort) {
+        int h = localIp * 31 + remoteIp;
+        h = h * 31 + ((localPort << 16) | (remotePort & 0xFFFF));
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parses the IPv4 address without allocation.
+     *
+     * @param ip the IPv4 address in dotted decimal format.
+     * @return the address as unsigned int, or -1 if not a valid IPv4 address.
+     */
+    public static long parseIpv4(CharSequence ip) {
+        return ip == null ? -1 : parseIpv4(ip, 0);
+    }
+
+    /**
+     * Parses the IPv4 address starting from the offset without allocation.
+     *
+     * @param ip the text containing the IPv4 address in dotted decimal format till its end.
+     * @param offset the index of the first character of the address.
+     * @return the address as unsigned int, or -1 if not a valid IPv4 address.
+     */
+    static long parseIpv4(CharSequence ip, int offset) {
+        int len = ip.length();
+        long addr = 0;
+        int octet = -1, dots = 0;
+        for (int i = offset; i < len; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) return -1;
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                addr = (addr << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) return -1;
+        return (addr << 8) | octet;
+    }
+
+    /**
+     * Formats the IPv4 address in dotted decimal format.
+     *
+     * @param ip the IPv4 address as int.
+     * @return the dotted decimal string.
+     */
+    public static String formatIpv4(int ip) {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+
+/**
+ * Layout of the memory-mapped snapshot file shared by
+ * {@link SockSnapshotWriter} and {@link SockSnapshotReader}.
+ * <pre>
+ * header (64 bytes, native byte order):
+ *   0  int   magic
+ *   4  int   version
+ *   8  long  sequence    (odd while the writer is publishing)
+ *   16 long  generation
+ *   24 long  timestamp
+ *   32 int   record count
+ *   36 int   record capacity
+ *   40 int   record size
+ * records (fixed width):
+ *   0  int   local ip
+ *   4  int   remote ip
+ *   8  int[] one value per {@link Column}
+ *   .. double estimated bandwidth
+ *   .. int   flags       (bit 0 set if tcp_info was reported)
+ * </pre>
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockSnapshotFile {
+
+    static final int MAGIC = 0x534F434B; // "SOCK"
+    static final int VERSION = 3;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int GENERATION_OFFSET = 16;
+    static final int TIMESTAMP_OFFSET = 24;
+    static final int COUNT_OFFSET = 32;
+    static final int CAPACITY_OFFSET = 36;
+    static final int RECORD_SIZE_OFFSET = 40;
+    static final int HEADER_SIZE = 64;
+
+    static final int LOCAL_IP_OFFSET = 0;
+    static final int REMOTE_IP_OFFSET = 4;
+    static final int COLUMN_OFFSET = 8;
+    static final int BANDWIDTH_OFFSET = COLUMN_OFFSET + Column.columns.length * 4;
+    static final int FLAGS_OFFSET = BANDWIDTH_OFFSET + 8;
+    static final int RECORD_SIZE = (FLAGS_OFFSET + 4 + 7) & ~7;
+
+    /** Maximum number of records, so every offset fits the int index of a mapped buffer. */
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    /** Volatile access used as a full fence around the seqlock since Java 8 lacks VarHandle. */
+    private static volatile int fence;
+
+    static void fullFence() {
+        fence = 0;
+        int ignore = fence;
+    }
+
+    static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    private SockSnapshotFile() {
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.curioloop.linux.socket.monitor.SockSnapshotFile.*;
+
+/**
+ * Reads snapshots published by {@link SockSnapshotWriter} without copying.
+ * <p>
+ * Records are read directly from the mapped file with optimistic reads:
+ * <pre>{@code
+ * long seq = reader.begin();
+ * ... read records via reader.record() ...
+ * if (!reader.validate(seq)) ... retry, the data above may be torn
+ * }</pre>
+ * Or simply use {@link #snapshot()} to copy out a consistent snapshot.
+ * A reader is not thread-safe, create one per thread.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockSnapshotReader implements AutoCloseable {
+
+    /** Channel of the mapped file. */
+    private final FileChannel channel;
+
+    /** Mapped region of the file. */
+    private MappedByteBuffer buffer;
+
+    /** Number of records the mapped region can hold. */
+    private int capacity;
+
+    /** The latest consistent snapshot copied out, returned if the writer stalls while publishing. */
+    private SockSnapshot lastSnapshot;
+
+    /** Default milliseconds to retry {@link #snapshot()} before giving up on a stalled writer. */
+    static final long SPIN_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Constructs a SockSnapshotReader over the file published by a writer.
+     *
+     * @param path the path of the mapped file.
+     * @throws IOException if the file could not be mapped or is not a snapshot file.
+     */
+    public SockSnapshotReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) throw new IOException("Not a snapshot file: " + path);
+            remap();
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC) throw new IOException("Not a snapshot file: " + path);
+            if (buffer.getInt(VERSION_OFFSET) != VERSION || buffer.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE)
+                throw new IOException("Unsupported snapshot version: " + path);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void remap() throws IOException {
+        long size = Math.min(channel.size(), fileSize(MAX_CAPACITY));
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        mapped.order(ByteOrder.nativeOrder());
+        buffer = mapped;
+        capacity = (int) ((size - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * Starts an optimistic read.
+     *
+     * @return the sequence to validate, or -1 if the writer is publishing.
+     * @throws IOException if the grown file could not be remapped.
+     */
+    public long begin() throws IOException {
+        long seq = buffer.getLong(SEQUENCE_OFFSET);
+        if ((seq & 1) != 0) return -1;
+        fullFence();
+        if (buffer.getInt(CAPACITY_OFFSET) > capacity) {
+            remap();
+        }
+        return seq;
+    }
+
+    /**
+     * Checks whether no snapshot was published since {@link #begin()}.
+     *
+     * @param seq the sequence returned by {@link #begin()}.
+     * @return true if all data read after begin is consistent, false otherwise.
+     */
+    public boolean validate(long seq) {
+        fullFence();
+        return seq >= 0 && buffer.getLong(SEQUENCE_OFFSET) == seq;
+    }
+
+    /**
+     * Returns the generation of the published snapshot.
+     *
+     * @return the generation, only valid after {@link #validate(long)} succeeds.
+     */
+    public long generation() {
+        return buffer.getLong(GENERATION_OFFSET);
+    }
+
+    /**
+     * Returns the time when the published snapshot was taken.
+     *
+     * @return the timestamp in milliseconds, only valid after {@link #validate(long)} succeeds.
+     */
+    public long timestamp() {
+        return buffer.getLong(TIMESTAMP_OFFSET);
+    }
+
+    /**
+     * Returns the number of records in the published snapshot.
+     *
+     * @return the number of records, only valid after {@link #validate(long)} succeeds.
+     */
+    public int size() {
+        return Math.min(Math.max(buffer.getInt(COUNT_OFFSET), 0), capacity);
+    }
+
+    /**
+     * Creates a flyweight view over the mapped records.
+     *
+     * @return a new record view.
+     */
+    public Record record() {
+        return new Record();
+    }
+
+    /**
+     * Copies out a consistent snapshot, spinning while the writer is publishing, see {@link #snapshot(long)}.
+     *
+     * @return the latest published snapshot, or the last one copied out if the writer stalls.
+     * @throws IOException if the grown file could not be remapped, or no consistent snapshot was ever read.
+     */
+    public SockSnapshot snapshot() throws IOException {
+        return snapshot(SPIN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Copies out a consistent snapshot, spinning while the writer is publishing.
+     * A writer which died while publishing leaves the sequence odd forever,
+     * so the spin gives up after the timeout.
+     *
+     * @param timeoutMillis the milliseconds to retry before giving up.
+     * @return the latest published snapshot, or the last one copied out if the writer stalls.
+     * @throws IOException if the grown file could not be remapped, or no consistent snapshot was ever read.
+     */
+    public SockSnapshot snapshot(long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        for (;;) {
+            long seq = begin();
+            if (seq < 0) {
+                if (System.nanoTime() - deadline > 0) return stalled();
+                Thread.yield();
+                continue;
+            }
+            int size = size();
+            long generation = generation();
+            long timestamp = timestamp();
+            SockSnapshot.Builder builder = new SockSnapshot.Builder(size);
+            Record record = record();
+            for (int i = 0; i < size; i++) {
+                record.moveTo(i);
+                int row = builder.insert(record.localIp(), record.localPort(), record.remoteIp(), record.remotePort());
+                for (Column column : Column.columns) {
+                    builder.set(column, row, (int) record.value(column));
+                }
+                builder.setBandwidth(row, record.bandwidth());
+                builder.setTcpInfo(row, record.hasTcpInfo());
+            }
+            if (validate(seq)) {
+                return lastSnapshot = builder.build(generation, timestamp);
+            }
+            if (System.nanoTime() - deadline > 0) return stalled();
+        }
+    }
+
+    private SockSnapshot stalled() throws IOException {
+        if (lastSnapshot == null) throw new IOException("Writer stalled while publishing");
+        return lastSnapshot;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A reusable flyweight view of a single mapped record.
+     */
+    public final class Record {
+
+        /** Offset of current record. */
+        int offset = -1;
+
+        /**
+         * Moves the view to the specified record.
+         *
+         * @param index the index of the record.
+         * @return this view.
+         */
+        public Record moveTo(int index) {
+            if (index < 0 || index >= capacity) throw new IndexOutOfBoundsException("index: " + index);
+            offset = (int) fileSize(index);
+            return this;
+        }
+
+        public int localIp() {
+            return buffer.getInt(offset + LOCAL_IP_OFFSET);
+        }
+
+        public int remoteIp() {
+            return buffer.getInt(offset + REMOTE_IP_OFFSET);
+        }
+
+        public int localPort() {
+            return (int) value(Column.LOCAL_PORT);
+        }
+
+        public int remotePort() {
+            return (int) value(Column.REMOTE_PORT);
+        }
+
+        public long value(Column column) {
+            return buffer.getInt(offset + COLUMN_OFFSET + (column.ordinal() << 2)) & 0xFFFFFFFFL;
+        }
+
+        public double bandwidth() {
+            return buffer.getDouble(offset + BANDWIDTH_OFFSET);
+        }
+
+        public boolean hasTcpInfo() {
+            return (buffer.getInt(offset + FLAGS_OFFSET) & SockSnapshot.FLAG_TCP_INFO) != 0;
+        }
+
+        public SockKey key() {
+            return new SockKey(SockSnapshot.formatIpv4(remoteIp()), SockSnapshot.formatIpv4(localIp()), remotePort(), localPort());
+        }
+    }
+
+}
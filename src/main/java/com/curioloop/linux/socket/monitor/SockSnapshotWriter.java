@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.curioloop.linux.socket.monitor.SockSnapshotFile.*;
+
+/**
+ * Publishes each snapshot into a memory-mapped file for local readers.
+ * <p>
+ * One collector can feed any number of {@link SockSnapshotReader} in other processes
+ * without extra kernel work. The header is guarded by a seqlock, so readers never block the writer.
+ * Register it to {@link SockMonitor#addObserver(SockObserver)} to publish every refresh.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockSnapshotWriter implements SockObserver, AutoCloseable {
+
+    /** Channel of the mapped file. */
+    private final FileChannel channel;
+
+    /** Mapped region of the file. */
+    private MappedByteBuffer buffer;
+
+    /** Number of records the mapped region can hold. */
+    private int capacity;
+
+    /** Sequence of the seqlock, odd while publishing. */
+    private long sequence;
+
+    /**
+     * Constructs a SockSnapshotWriter which creates the given file or reopens a snapshot file.
+     * <p>
+     * A reopened file is never shrunk, since readers may still map its whole length,
+     * and the sequence continues from the one on disk, so readers never validate a stale sequence.
+     *
+     * @param path the path of the mapped file, usually under {@code /dev/shm}.
+     * @param capacity the initial number of records, the file grows when exceeded up to the mappable limit.
+     * @throws IOException if the file could not be mapped or is not a snapshot file.
+     */
+    public SockSnapshotWriter(Path path, int capacity) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > 0) {
+                if (size < HEADER_SIZE) throw new IOException("Not a snapshot file: " + path);
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.nativeOrder());
+                if (header.getInt(MAGIC_OFFSET) != MAGIC) throw new IOException("Not a snapshot file: " + path);
+                // an odd sequence left by a dead writer stays odd until the first publish completes
+                sequence = header.getLong(SEQUENCE_OFFSET) & ~1L;
+                capacity = Math.max(capacity, (int) Math.min((size - HEADER_SIZE) / RECORD_SIZE, MAX_CAPACITY));
+            }
+            remap(Math.min(Math.max(capacity, 1), MAX_CAPACITY));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(newCapacity));
+        mapped.order(ByteOrder.nativeOrder());
+        mapped.putInt(MAGIC_OFFSET, MAGIC);
+        mapped.putInt(VERSION_OFFSET, VERSION);
+        mapped.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        mapped.putInt(CAPACITY_OFFSET, newCapacity);
+        buffer = mapped;
+        capacity = newCapacity;
+    }
+
+    @Override
+    public void observe(SockSnapshot snapshot) {
+        try {
+            publish(snapshot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Publishes the snapshot into the mapped file.
+     *
+     * @param snapshot the snapshot to publish.
+     * @throws IOException if the file could not be grown, or the snapshot exceeds the mappable limit.
+     */
+    public synchronized void publish(SockSnapshot snapshot) throws IOException {
+        if (!channel.isOpen()) throw new IllegalStateException("writer closed");
+        int size = snapshot.size();
+        if (size > capacity) {
+            if (size > MAX_CAPACITY) throw new IOException("Too many sockets to map: " + size);
+            remap((int) Math.min(Math.max(size, capacity + (capacity >> 1)), MAX_CAPACITY));
+        }
+        MappedByteBuffer b = buffer;
+        b.putLong(SEQUENCE_OFFSET, ++sequence);
+        fullFence();
+        for (int row = 0, offset = HEADER_SIZE; row < size; row++, offset += RECORD_SIZE) {
+            b.putInt(offset + LOCAL_IP_OFFSET, snapshot.localIps[row]);
+            b.putInt(offset + REMOTE_IP_OFFSET, snapshot.remoteIps[row]);
+            for (int c = 0; c < snapshot.columns.length; c++) {
+                b.putInt(offset + COLUMN_OFFSET + (c << 2), snapshot.columns[c][row]);
+            }
+            b.putDouble(offset + BANDWIDTH_OFFSET, snapshot.bandwidths[row]);
+            b.putInt(offset + FLAGS_OFFSET, snapshot.flags[row]);
+        }
+        b.putLong(GENERATION_OFFSET, snapshot.generation());
+        b.putLong(TIMESTAMP_OFFSET, snapshot.timestamp());
+        b.putInt(COUNT_OFFSET, size);
+        fullFence();
+        b.putLong(SEQUENCE_OFFSET, ++sequence);
+    }
+
+    /**
+     * Closes the mapped file. Readers keep the last published snapshot.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * Represents the per-socket thresholds reported as flight recorder events, 0 disables a threshold.
+ * <p>
+ * Threshold events are emitted only when the {@code com.curioloop.socket.Threshold} event
+ * is enabled in a running recording on Java 11+, otherwise sockets exceeding the thresholds
+ * can be visited with {@link #check(SockSnapshot, SockSnapshot, CrossingVisitor)}.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Data
+@Accessors(fluent = true)
+public class SockThresholds {
+
+    /** The round trip time in milliseconds. */
+    private long roundTripTime;
+
+    /** The bytes in the send queue. */
+    private long sendQueue;
+
+    /** The retransmits between two refreshes. */
+    private long retransmitBurst;
+
+    /** Visitor of sockets exceeding a threshold. */
+    @FunctionalInterface
+    public interface CrossingVisitor {
+        /**
+         * Visits a socket exceeding a threshold.
+         *
+         * @param row the row of the socket in the current snapshot.
+         * @param metric the name of the threshold: {@code roundTripTime}, {@code sendQueue} or {@code retransmitBurst}.
+         * @param value the value of the socket.
+         * @param threshold the exceeded threshold.
+         */
+        void visit(int row, String metric, long value, long threshold);
+    }
+
+    /**
+     * Visits sockets of the current snapshot exceeding the thresholds.
+     * <p>
+     * Round trip time and retransmits are only checked for sockets with {@code tcp_info},
+     * and retransmit bursts are not checked until the previous snapshot is refreshed.
+     *
+     * @param previous the previous snapshot, the baseline of retransmit bursts.
+     * @param current the refreshed snapshot.
+     * @param visitor the visitor of sockets exceeding a threshold.
+     */
+    public void check(SockSnapshot previous, SockSnapshot current, CrossingVisitor visitor) {
+        long burst = previous.generation == 0 ? 0 : retransmitBurst; // no baseline on the first refresh
+        int[] lp = current.columns[Column.LOCAL_PORT.ordinal()];
+        int[] rp = current.columns[Column.REMOTE_PORT.ordinal()];
+        int[] rtts = current.columns[Column.ROUND_TRIP_TIME.ordinal()];
+        int[] queues = current.columns[Column.WAITING_QUEUE.ordinal()];
+        int[] retrans = current.columns[Column.TOTAL_RETRANSMIT.ordinal()];
+        int[] prevRetrans = previous.columns[Column.TOTAL_RETRANSMIT.ordinal()];
+        for (int row = 0; row < current.size; row++) {
+            if (sendQueue > 0 && (queues[row] & 0xFFFFFFFFL) > sendQueue) {
+                visitor.visit(row, "sendQueue", queues[row] & 0xFFFFFFFFL, sendQueue);
+            }
+            if (!current.hasTcpInfo(row)) continue;
+            if (roundTripTime > 0 && (rtts[row] & 0xFFFFFFFFL) > roundTripTime) {
+                visitor.visit(row, "roundTripTime", rtts[row] & 0xFFFFFFFFL, roundTripTime);
+            }
+            if (burst > 0 && retrans[row] != 0) {
+                int prevRow = previous.indexOf(current.localIps[row], lp[row], current.remoteIps[row], rp[row]);
+                long delta = (retrans[row] & 0xFFFFFFFFL) - (prevRow < 0 ? 0 : prevRetrans[prevRow] & 0xFFFFFFFFL);
+                if (delta >= burst) visitor.visit(row, "retransmitBurst", delta, burst);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.*;
+
+/**
+ * Tracks the worst sockets of each metric.
+ * <p>
+ * Avoid sorting or registering the whole socket table by:
+ * <ul>
+ *     <li>Select top K of gauge metrics with bounded primitive heaps</li>
+ *     <li>Derive per second rates of counter metrics against the previous snapshot</li>
+ *     <li>Accumulate counter increments across refreshes with a space-saving sketch</li>
+ * </ul>
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public class SockTopK implements SockObserver {
+
+    /** A socket ranked by a metric. */
+    @Data
+    @Accessors(fluent = true)
+    public static class Entry {
+        /** The key associated with the socket. */
+        final SockKey key;
+        /** The metric value, or the accumulated increment for heavy hitters. */
+        final double value;
+        /** The maximum overestimation of the value, always 0 except for heavy hitters. */
+        final double error;
+    }
+
+    /** Number of sockets to keep per metric. */
+    final int k;
+
+    /** Gauge metrics ranked by value. */
+    final Column[] gauges;
+
+    /** Counter metrics ranked by rate and accumulated increment. */
+    final Column[] counters;
+
+    /** Reusable heaps, one per gauge then one per counter. */
+    private final Heap[] heaps;
+
+    /** Space-saving sketches, one per counter. */
+    private final SpaceSaving[] sketches;
+
+    /** Previous snapshot to derive rates. */
+    private SockSnapshot previous;
+
+    /** Latest results, one per gauge then one per counter. */
+    private volatile List<List<Entry>> results;
+
+    /**
+     * Constructs a SockTopK.
+     *
+     * @param k the number of sockets to keep per metric.
+     * @param gauges the metrics ranked by current value, e.g. queues and RTT.
+     * @param counters the metrics ranked by rate, e.g. total retransmits.
+     */
+    public SockTopK(int k, Column[] gauges, Column[] counters) {
+        if (k < 1) throw new IllegalArgumentException("k required");
+        this.k = k;
+        this.gauges = gauges.clone();
+        this.counters = counters.clone();
+        this.heaps = new Heap[gauges.length + counters.length];
+        for (int i = 0; i < heaps.length; i++) heaps[i] = new Heap(k);
+        this.sketches = new SpaceSaving[counters.length];
+        for (int i = 0; i < sketches.length; i++) sketches[i] = new SpaceSaving(k * 4);
+        this.results = Collections.nCopies(heaps.length, Collections.emptyList());
+    }
+
+    @Override
+    public synchronized void observe(SockSnapshot snapshot) {
+        for (Heap heap : heaps) heap.clear();
+        for (int g = 0; g < gauges.length; g++) {
+            int[] values = snapshot.columns[gauges[g].ordinal()];
+            Heap heap = heaps[g];
+            for (int row = 0; row < snapshot.size; row++) {
+                heap.offer(values[row] & 0xFFFFFFFFL, row);
+            }
+        }
+        SockSnapshot prev = previous;
+        long elapsed = prev == null ? 0 : snapshot.timestamp - prev.timestamp;
+        if (elapsed > 0 && counters.length > 0) {
+            int[] lp = snapshot.columns[Column.LOCAL_PORT.ordinal()];
+            int[] rp = snapshot.columns[Column.REMOTE_PORT.ordinal()];
+            for (int row = 0; row < snapshot.size; row++) {
+                int prevRow = prev.indexOf(snapshot.localIps[row], lp[row], snapshot.remoteIps[row], rp[row]);
+                if (prevRow < 0) continue;
+                for (int c = 0; c < counters.length; c++) {
+                    int ordinal = counters[c].ordinal();
+                    long delta = (snapshot.columns[ordinal][row] & 0xFFFFFFFFL) - (prev.columns[ordinal][prevRow] & 0xFFFFFFFFL);
+                    if (delta <= 0) continue;
+                    // rate is kept as increments per elapsed time, scaled on export
+                    heaps[gauges.length + c].offer(delta, row);
+                    sketches[c].offer(snapshot.localIps[row], lp[row], snapshot.remoteIps[row], rp[row], delta);
+                }
+            }
+        }
+        List<List<Entry>> newResults = new ArrayList<>(heaps.length);
+        for (int h = 0; h < heaps.length; h++) {
+            double scale = h < gauges.length ? 1 : 1000.0 / elapsed;
+            newResults.add(heaps[h].drain(snapshot, scale));
+        }
+        previous = snapshot;
+        results = Collections.unmodifiableList(newResults);
+    }
+
+    /**
+     * Returns the sockets with the highest value of a gauge metric in the latest snapshot.
+     *
+     * @param gauge the gauge metric.
+     * @return the entries in descending order.
+     */
+    public List<Entry> top(Column gauge) {
+        int g = SockGrouping.indexOf(gauges, gauge);
+        if (g < 0) throw new IllegalArgumentException("gauge not tracked: " + gauge);
+        return results.get(g);
+    }
+
+    /**
+     * Returns the sockets with the highest per second rate of a counter metric between the latest two snapshots.
+     *
+     * @param counter the counter metric.
+     * @return the entries in descending order.
+     */
+    public List<Entry> topRate(Column counter) {
+        int c = SockGrouping.indexOf(counters, counter);
+        if (c < 0) throw new IllegalArgumentException("counter not tracked: " + counter);
+        return results.get(gauges.length + c);
+    }
+
+    /**
+     * Returns the sockets with the highest accumulated increment of a counter metric since creation.
+     *
+     * @param counter the counter metric.
+     * @return the entries in descending order, with overestimation bound as error.
+     */
+    public synchronized List<Entry> heavyHitters(Column counter) {
+        int c = SockGrouping.indexOf(counters, counter);
+        if (c < 0) throw new IllegalArgumentException("counter not tracked: " + counter);
+        return sketches[c].top(k);
+    }
+
+    /**
+     * Bounded min-heap of (value, row) pairs.
+     */
+    static final class Heap {
+
+        final long[] values;
+        final int[] rows;
+        int size;
+
+        Heap(int k) {
+            values = new long[k];
+            rows = new int[k];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void offer(long value, int row) {
+            if (size < values.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (values[parent] <= value) break;
+                    values[i] = values[parent];
+                    rows[i] = rows[parent];
+                    i = parent;
+                }
+                values[i] = value;
+                rows[i] = row;
+            } else if (value > values[0]) {
+                int i = 0;
+                for (;;) {
+                    int child = (i << 1) + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && values[child + 1] < values[child]) child++;
+                    if (values[child] >= value) break;
+                    values[i] = values[child];
+                    rows[i] = rows[child];
+                    i = child;
+                }
+                values[i] = value;
+                rows[i] = row;
+            }
+        }
+
+        List<Entry> drain(SockSnapshot snapshot, double scale) {
+            Entry[] entries = new Entry[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = new Entry(snapshot.key(rows[i]), values[i] * scale, 0);
+            }
+            Arrays.sort(entries, (a, b) -> Double.compare(b.value, a.value));
+            return Arrays.asList(entries);
+        }
+    }
+
+    /**
+     * Space-saving sketch over primitive socket keys.
+     */
+    static final class SpaceSaving {
+
+        final long[] addresses;
+        final int[] ports;
+        final long[] counts;
+        final long[] errors;
+        int size;
+
+        SpaceSaving(int capacity) {
+            addresses = new long[capacity];
+            ports = new int[capacity];
+            counts = new long[capacity];
+            errors = new long[capacity];
+        }
+
+        void offer(int localIp, int localPort, int remoteIp, int remotePort, long weight) {
+            long address = ((long) localIp << 32) | (remoteIp & 0xFFFFFFFFL);
+            int port = (localPort << 16) | (remotePort & 0xFFFF);
+            int min = 0;
+            for (int i = 0; i < size; i++) {
+                if (addresses[i] == address && ports[i] == port) {
+                    counts[i] += weight;
+                    return;
+                }
+                if (counts[i] < counts[min]) min = i;
+            }
+            if (size < counts.length) {
+                min = size++;
+                errors[min] = 0;
+                counts[min] = weight;
+            } else {
+                errors[min] = counts[min];
+                counts[min] += weight;
+            }
+            addresses[min] = address;
+            ports[min] = port;
+        }
+
+        List<Entry> top(int k) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+            List<Entry> entries = new ArrayList<>(Math.min(k, size));
+            for (int i = 0; i < size && i < k; i++) {
+                int e = order[i];
+                SockKey key = new SockKey(
+                        SockSnapshot.formatIpv4((int) addresses[e]), SockSnapshot.formatIpv4((int) (addresses[e] >>> 32)),
+                        ports[e] & 0xFFFF, ports[e] >>> 16);
+                entries.add(new Entry(key, counts[e], errors[e]));
+            }
+            return entries;
+        }
+    }
+
+}
@@ -21,7 +21,7 @@ import lombok.experimental.Accessors;
 /**
  * The {@code InetSockStat} class represents socket statistics for Internet Protocol (IP) connections.
  * It encapsulates information such as connection state, IP family, remote and local IP addresses and ports, process ID,
- * request and waiting queues, socket information, and debugging details.
+ * request and waiting queues, memory usage, socket information, and debugging details.
  *
  * @param <SockInfo> the type of additional socket information to be stored
  * @author curioloops@gmail.com
@@ -66,6 +66,26 @@ public class InetSockStat<SockInfo> {
      */
     private int processID;
 
+    /**
+     * The user ID owning the socket.
+     */
+    private int userID;
+
+    /**
+     * The index of the interface the socket is bound to, or 0 if not bound.
+     */
+    private int interfaceIndex;
+
+    /**
+     * The {@code SO_MARK} of the socket, only reported to {@code CAP_NET_ADMIN} (0 otherwise).
+     */
+    private int mark;
+
+    /**
+     * The ID of the cgroup v2 owning the socket, only reported since Linux 5.9 (0 otherwise).
+     */
+    private long cgroupID;
+
     /**
      * The number of requests in the socket's request queue.
      */
@@ -76,6 +96,36 @@ public class InetSockStat<SockInfo> {
      */
     private long waitingQueue;
 
+    /**
+     * The bytes allocated for the receive queue.
+     */
+    private long receiveMemory;
+
+    /**
+     * The bytes allocated for the send queue.
+     */
+    private long sendMemory;
+
+    /**
+     * The receive buffer size as set by {@code SO_RCVBUF}.
+     */
+    private long receiveBuffer;
+
+    /**
+     * The send buffer size as set by {@code SO_SNDBUF}.
+     */
+    private long sendBuffer;
+
+    /**
+     * The bytes scheduled for future use (TCP only).
+     */
+    private long forwardAlloc;
+
+    /**
+     * The bytes queued by TCP but not yet sent.
+     */
+    private long queuedMemory;
+
     /**
      * Additional information about the socket.
      */
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import com.curioloop.linux.socket.probe.utils.NativeUtils;
+import com.curioloop.linux.socket.probe.utils.OsUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Backend which dumps sockets through the JNI library bundled for each architecture.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class JniBackend extends ProbeBackend {
+
+    static final String NAME = "jni";
+
+    private final ThreadLocal<ByteBuffer> slots = new ThreadLocal<>();
+
+    static native int readTcpInfo(int[] fds, int count, ByteBuffer slots, int slotSize);
+
+    /**
+     * Loads the JNI library, see {@link NativeUtils#loadLibrary(String, String)}.
+     *
+     * @return the backend.
+     * @throws IOException if the library can not be extracted.
+     */
+    static JniBackend load() throws IOException {
+        String sharedLibName = "linux_socket_probe_" + OsUtils.NORMALIZED_ARCH;
+        String sharedLibFile = "lib" + sharedLibName + ".so";
+        String sharedLibPath = "/META-INF/native/" + sharedLibFile;
+        NativeUtils.loadLibrary(sharedLibName, sharedLibPath);
+        return new JniBackend();
+    }
+
+    @Override
+    String name() {
+        return NAME;
+    }
+
+    @Override
+    int collect(LinuxSocketProbe probe, SockFilter filter) {
+        return probe.collectStat(filter);
+    }
+
+    @Override
+    ByteBuffer readTcpInfo(int[] fds, int count) {
+        if (count > fds.length) throw new IndexOutOfBoundsException("count exceeds fds");
+        ByteBuffer buf = slots.get();
+        if (buf == null || buf.capacity() < count * SockDiag.TCP_INFO_SLOT) {
+            buf = ByteBuffer.allocateDirect(Math.max(16, Integer.highestOneBit(count * 2 - 1)) * SockDiag.TCP_INFO_SLOT)
+                    .order(ByteOrder.nativeOrder());
+            slots.set(buf);
+        }
+        if (readTcpInfo(fds, count, buf, SockDiag.TCP_INFO_SLOT) < 0) throw new IllegalStateException("failed to read tcp_info");
+        return buf;
+    }
+
+}
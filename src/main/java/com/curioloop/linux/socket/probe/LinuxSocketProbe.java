@@ -15,16 +15,22 @@
  */
 package com.curioloop.linux.socket.probe;
 
-import com.curioloop.linux.socket.probe.utils.NativeUtils;
 import com.curioloop.linux.socket.probe.utils.OsUtils;
+import com.curioloop.linux.socket.probe.utils.SocketUtils;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 
 /**
  * The {@code LinuxSocketProbe} class provides functionality to collect statistics about Linux network sockets.
- * It includes methods to collect socket statistics for both TCP and UDP protocols based on specified filters.
+ * It includes methods to collect socket statistics for both TCP and UDP protocols, as well as UNIX domain sockets,
+ * based on specified filters.
+ * <p>
+ * Results are kept in the instance until the next collection, so an instance should be confined to one thread.
+ * Collections on a shared instance are serialized, but results may be replaced before they are read.
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
@@ -39,10 +45,16 @@ public class LinuxSocketProbe {
     /** The list of UDP socket statistics. */
     private List<InetSockStat<Void>> udpSocks;
 
-    private native int collectStat(SockFilter filter);
+    /** The list of UNIX domain socket statistics, collected if enabled by the filter. */
+    private List<UnixSockStat> unixSocks;
+
+    /** The cost of the last collection. */
+    private ProbeStats probeStats;
+
+    native int collectStat(SockFilter filter);
 
     @SuppressWarnings("all")
-    private void visitTcpStat(InetSockStat sock, TcpStat tcp) {
+    void visitTcpStat(InetSockStat sock, TcpStat tcp) {
         try {
             if (tcpSocks != null) {
                 tcpSocks.add(sock.info(tcp));
@@ -51,7 +63,7 @@ public class LinuxSocketProbe {
     }
 
     @SuppressWarnings("all")
-    private void visitUdpStat(InetSockStat sock) {
+    void visitUdpStat(InetSockStat sock) {
         try {
             if (udpSocks != null) {
                 udpSocks.add(sock);
@@ -59,17 +71,119 @@ public class LinuxSocketProbe {
         } catch (Throwable ignore) {}
     }
 
+    @SuppressWarnings("all")
+    void visitUnixStat(UnixSockStat sock) {
+        try {
+            if (unixSocks != null) {
+                unixSocks.add(sock);
+            }
+        } catch (Throwable ignore) {}
+    }
+
+    @SuppressWarnings("all")
+    void visitCollectStat(long pidHashNanos, long dumpNanos, long marshalNanos,
+                                  long receivedBytes, int receiveCalls, int receivedMessages, int pidEntries) {
+        if (probeStats != null) {
+            probeStats.pidHashNanos(pidHashNanos).dumpNanos(dumpNanos).marshalNanos(marshalNanos)
+                    .receivedBytes(receivedBytes).receiveCalls(receiveCalls).receivedMessages(receivedMessages).pidEntries(pidEntries);
+        }
+    }
+
     /**
      * Collects socket statistics based on the provided filter.
      *
      * @param filter the filter to apply when collecting socket statistics
      * @return {@code true} if the statistics are collected successfully, {@code false} otherwise
+     * @throws UnsupportedOperationException if a mark, cgroup or device filter is unsupported by the kernel
      */
-    public boolean collectSocketStat(SockFilter filter) {
+    public synchronized boolean collectSocketStat(SockFilter filter) {
+        if (BACKEND == null) {
+            throw (UnsatisfiedLinkError) new UnsatisfiedLinkError("socket probe unavailable").initCause(UNAVAILABILITY_CAUSE);
+        }
         filter = ensureFilter(filter);
         if (filter.protocol != InetProto.UDP) tcpSocks = new ArrayList<>();
         if (filter.protocol != InetProto.TCP) udpSocks = new ArrayList<>();
-        return collectStat(filter) == 0;
+        unixSocks = filter.unix ? new ArrayList<>() : null;
+        probeStats = new ProbeStats().backend(BACKEND.name());
+        long allocated = OsUtils.currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        boolean success = BACKEND.collect(this, filter) == 0;
+        if (unixSocks != null) pairUnixPeers(unixSocks);
+        probeStats.totalNanos(System.nanoTime() - start);
+        probeStats.allocatedBytes(allocated < 0 ? -1 : OsUtils.currentThreadAllocatedBytes() - allocated);
+        return success;
+    }
+
+    /**
+     * Reads TCP statistics of a socket owned by this process with a single {@code getsockopt(TCP_INFO)},
+     * instead of dumping all sockets.
+     *
+     * @param fd the file descriptor of a TCP socket, see {@link SocketUtils}
+     * @param stat the statistics to fill, reset on failure
+     * @return {@code true} if filled, {@code false} if the descriptor is not an open TCP socket
+     */
+    public static boolean tcpInfo(int fd, TcpStat stat) {
+        return tcpInfo(new int[]{fd}, 1, new TcpStat[]{stat}, null) == 1;
+    }
+
+    /**
+     * Reads TCP statistics of a channel, see {@link #tcpInfo(int, TcpStat)}.
+     *
+     * @param channel the connected channel
+     * @param stat the statistics to fill, reset on failure
+     * @return {@code true} if filled, {@code false} if the channel is closed
+     * @throws UnsupportedOperationException if the file descriptor is inaccessible, see {@link SocketUtils}
+     */
+    public static boolean tcpInfo(SocketChannel channel, TcpStat stat) {
+        return tcpInfo(SocketUtils.fileDescriptor(channel), stat);
+    }
+
+    /**
+     * Reads TCP statistics of a socket, see {@link #tcpInfo(int, TcpStat)}.
+     *
+     * @param socket the connected socket
+     * @param stat the statistics to fill, reset on failure
+     * @return {@code true} if filled, {@code false} if the socket is closed
+     * @throws UnsupportedOperationException if the file descriptor is inaccessible, see {@link SocketUtils}
+     */
+    public static boolean tcpInfo(Socket socket, TcpStat stat) {
+        return tcpInfo(SocketUtils.fileDescriptor(socket), stat);
+    }
+
+    /**
+     * Reads TCP statistics of many sockets owned by this process within one native call.
+     * <p>
+     * Descriptors should be extracted once per connection, e.g. when added to a pool, and must not be
+     * used after the socket is closed, since the number may be reused by another file.
+     *
+     * @param fds the file descriptors of TCP sockets
+     * @param count the number of leading descriptors to read
+     * @param stats the statistics to fill in order of descriptors, reset on failure
+     * @param errors receives the errno of each descriptor or 0 on success, nullable
+     * @return the number of statistics filled
+     */
+    public static int tcpInfo(int[] fds, int count, TcpStat[] stats, int[] errors) {
+        if (BACKEND == null) {
+            throw (UnsatisfiedLinkError) new UnsatisfiedLinkError("socket probe unavailable").initCause(UNAVAILABILITY_CAUSE);
+        }
+        if (count < 0 || count > fds.length || count > stats.length || errors != null && count > errors.length) {
+            throw new IndexOutOfBoundsException("count out of range: " + count);
+        }
+        return BACKEND.tcpInfo(fds, count, stats, errors);
+    }
+
+    /**
+     * Resolves the process of each connected peer from the sockets collected together.
+     *
+     * @param socks the UNIX domain sockets of one collection
+     */
+    static void pairUnixPeers(List<UnixSockStat> socks) {
+        Map<Long, UnixSockStat> inodes = new HashMap<>(socks.size() * 2);
+        for (UnixSockStat sock : socks) inodes.put(sock.inode(), sock);
+        for (UnixSockStat sock : socks) {
+            UnixSockStat peer = sock.peerInode() == 0 ? null : inodes.get(sock.peerInode());
+            if (peer != null) sock.peerProcessID(peer.processID());
+        }
     }
 
     /**
@@ -95,6 +209,13 @@ public class LinuxSocketProbe {
                     case EQ: case GE: case LE:
                         if (pf.side() == null) throw new IllegalArgumentException("side required");
                         break;
+                    case HOST:
+                        if (pf.side() == null) throw new IllegalArgumentException("side required");
+                        if (pf.address() == null || (pf.address().length != 4 && pf.address().length != 16))
+                            throw new IllegalArgumentException("invalid address");
+                        if (pf.value() < 0 || pf.value() > pf.address().length * 8)
+                            throw new IllegalArgumentException("invalid prefix: " + pf.value());
+                        break;
                     case AND: case OR:
                         if (pf.curr() == null || pf.next() == null) throw new IllegalArgumentException("sub-filter required");
                         break;
@@ -102,30 +223,37 @@ public class LinuxSocketProbe {
                         if (pf.curr() == null) throw new IllegalArgumentException("sub-filter required");
                         if (pf.next() != null) throw new IllegalArgumentException("sub-filter redundant");
                         break;
+                    case MARK: case CGROUP: case DEV:
+                        // the kernel rejects the whole bytecode with EINVAL, which would read as no socket at all
+                        if (OsUtils.KERNEL_VERSION < pf.op().minKernel())
+                            throw new UnsupportedOperationException("unsupported op by kernel " + System.getProperty("os.version") + ": " + pf.op());
+                        if (pf.op() == PortFilter.Op.MARK && !OsUtils.hasCapability(OsUtils.CAP_NET_ADMIN))
+                            throw new UnsupportedOperationException("CAP_NET_ADMIN required by op: " + pf.op());
+                        break;
                 }
             }
             portFilterNum = visited.size();
         }
-        return copy.family(filter.family).protocol(filter.protocol).currentUser(filter.currentUser).currentProc(filter.currentProc)
-                .portFilters(filter.portFilters).portFilterNum(portFilterNum);
+        return copy.family(filter.family).protocol(filter.protocol).unix(filter.unix)
+                .currentUser(filter.currentUser).currentProc(filter.currentProc).portFilters(filter.portFilters).portFilterNum(portFilterNum);
     }
 
+    private static final ProbeBackend BACKEND;
     private static final Throwable UNAVAILABILITY_CAUSE;
 
     static {
+        ProbeBackend backend = null;
         Throwable cause = null;
         if (!"linux".equals(OsUtils.NORMALIZED_OS)) {
             cause = new UnsatisfiedLinkError("Only supported on Linux");
         } else {
-            String sharedLibName = "linux_socket_probe_" + OsUtils.NORMALIZED_ARCH;
-            String sharedLibFile = "lib" + sharedLibName + ".so";
-            String sharedLibPath = "/META-INF/native/" + sharedLibFile;
             try {
-                NativeUtils.loadLibraryFromJar(sharedLibPath);
+                backend = ProbeBackends.select();
             } catch (Throwable ex) {
                 cause = ex;
             }
         }
+        BACKEND = backend;
         UNAVAILABILITY_CAUSE = cause;
     }
 
@@ -138,4 +266,14 @@ public class LinuxSocketProbe {
         return UNAVAILABILITY_CAUSE;
     }
 
+    /**
+     * Returns the name of the backend selected at class initialization,
+     * which can be chosen with the {@code linux.socket.probe.backend} system property.
+     *
+     * @return {@code jni}, {@code ffm} on Java 22+ with native access enabled, or {@code null} if unavailable
+     */
+    public static String backend() {
+        return BACKEND == null ? null : BACKEND.name();
+    }
+
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import java.util.Map;
+
+/**
+ * Host-wide protocol counters parsed by {@link NetStatProbe}, immutable once collected.
+ * <p>
+ * Counters are named {@code <section>.<field>} after their source line, e.g. {@code TcpExt.ListenOverflows}
+ * from /proc/net/netstat, {@code Tcp.RetransSegs} from /proc/net/snmp, and {@code TCP.inuse} or {@code TCP6.inuse}
+ * from /proc/net/sockstat(6). Rates are derived from the previous collection of the same probe.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class NetCounters {
+
+    /** Times the accept queue of a listener overflowed. */
+    public static final String LISTEN_OVERFLOWS = "TcpExt.ListenOverflows";
+    /** SYNs or connections dropped by listeners, including overflows. */
+    public static final String LISTEN_DROPS = "TcpExt.ListenDrops";
+    /** Segments dropped since the socket backlog was full. */
+    public static final String TCP_BACKLOG_DROP = "TcpExt.TCPBacklogDrop";
+    /** Retransmission timeouts. */
+    public static final String TCP_TIMEOUTS = "TcpExt.TCPTimeouts";
+    /** Retransmitted SYNs. */
+    public static final String TCP_SYN_RETRANS = "TcpExt.TCPSynRetrans";
+    /** Retransmitted TCP segments. */
+    public static final String RETRANS_SEGS = "Tcp.RetransSegs";
+    /** TCP segments received in error. */
+    public static final String TCP_IN_ERRS = "Tcp.InErrs";
+    /** UDP datagrams received in error. */
+    public static final String UDP_IN_ERRORS = "Udp.InErrors";
+    /** UDP datagrams dropped since the receive buffer was full. */
+    public static final String UDP_RCVBUF_ERRORS = "Udp.RcvbufErrors";
+    /** IPv4 TCP sockets in use. */
+    public static final String TCP_INUSE = "TCP.inuse";
+    /** IPv6 TCP sockets in use. */
+    public static final String TCP6_INUSE = "TCP6.inuse";
+    /** Pages allocated by TCP across the host. */
+    public static final String TCP_MEM = "TCP.mem";
+    /** Pages allocated by UDP across the host. */
+    public static final String UDP_MEM = "UDP.mem";
+    /** Times TCP entered memory pressure. */
+    public static final String TCP_MEMORY_PRESSURES = "TcpExt.TCPMemoryPressures";
+
+    /** Time when the counters were collected in milliseconds. */
+    final long timestamp;
+
+    /** Names of counters, may be longer than {@link #size}. */
+    final String[] names;
+
+    /** Index of counter names. */
+    final Map<String, Integer> index;
+
+    /** Number of counters. */
+    final int size;
+
+    final long[] values;
+    final double[] rates;
+
+    NetCounters(long timestamp, String[] names, Map<String, Integer> index, int size, long[] values, double[] rates) {
+        this.timestamp = timestamp;
+        this.names = names;
+        this.index = index;
+        this.size = size;
+        this.values = values;
+        this.rates = rates;
+    }
+
+    /**
+     * Returns the time when the counters were collected.
+     *
+     * @return the timestamp in milliseconds.
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the number of counters.
+     *
+     * @return the number of counters.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of a counter.
+     *
+     * @param name the counter name, e.g. {@link #LISTEN_OVERFLOWS}.
+     * @return the index, or -1 if absent.
+     */
+    public int indexOf(String name) {
+        Integer i = index.get(name);
+        return i == null || i >= size ? -1 : i;
+    }
+
+    /**
+     * Returns the name of a counter.
+     *
+     * @param i the index of the counter.
+     * @return the name.
+     */
+    public String name(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(String.valueOf(i));
+        return names[i];
+    }
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param i the index of the counter.
+     * @return the value.
+     */
+    public long value(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(String.valueOf(i));
+        return values[i];
+    }
+
+    /**
+     * Returns the change per second of a counter since the previous collection.
+     *
+     * @param i the index of the counter.
+     * @return the change per second, or NaN if unavailable.
+     */
+    public double rate(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(String.valueOf(i));
+        return rates[i];
+    }
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param name the counter name.
+     * @return the value, or -1 if absent.
+     */
+    public long value(String name) {
+        int i = indexOf(name);
+        return i < 0 ? -1 : values[i];
+    }
+
+    /**
+     * Returns the change per second of a counter since the previous collection.
+     *
+     * @param name the counter name.
+     * @return the change per second, or NaN if absent or unavailable.
+     */
+    public double rate(String name) {
+        int i = indexOf(name);
+        return i < 0 ? Double.NaN : rates[i];
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects host-wide protocol counters from /proc/net/snmp, /proc/net/netstat and /proc/net/sockstat(6).
+ * <p>
+ * Keep collection cheap enough for every refresh by:
+ * <ul>
+ *     <li>Read files into a reused buffer and parse tokens in place</li>
+ *     <li>Resolve names through a byte-keyed open-addressing table, allocating only for new names</li>
+ *     <li>Derive per-second rates from the previous collection</li>
+ * </ul>
+ * Files are read from {@code $PROC_ROOT} or {@code /proc}, missing files are skipped.
+ * Collections are serialized on the probe.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class NetStatProbe {
+
+    /** Files with header and value lines, e.g. {@code Tcp: RtoAlgorithm ...} then {@code Tcp: 1 ...}. */
+    static final String[] TABLE_FILES = {"net/snmp", "net/netstat"};
+
+    /** Files with name value pairs, e.g. {@code TCP: inuse 5 orphan 0 ...}. */
+    static final String[] PAIR_FILES = {"net/sockstat", "net/sockstat6"};
+
+    final String root;
+
+    private byte[] buf = new byte[16384];
+    private int len;
+
+    private byte[][] keys = new byte[256][];
+    private String[] names = new String[256];
+    private int size;
+    private int[] table = new int[1024];
+    private Map<String, Integer> index = Collections.emptyMap();
+
+    private long[] values = new long[256];
+    private int[] columns = new int[128];
+
+    private NetCounters previous;
+
+    /**
+     * Constructs a NetStatProbe reading {@code $PROC_ROOT} or {@code /proc}.
+     */
+    public NetStatProbe() {
+        this(System.getenv("PROC_ROOT"));
+    }
+
+    /**
+     * Constructs a NetStatProbe.
+     *
+     * @param root the mount point of procfs, or null for {@code /proc}.
+     */
+    public NetStatProbe(String root) {
+        this.root = root == null || root.isEmpty() ? "/proc" : root;
+    }
+
+    /**
+     * Collects the counters.
+     *
+     * @param timestamp the time of collection in milliseconds, e.g. shared with a socket snapshot.
+     * @return the counters, with rates against the previous collection.
+     * @throws IOException if no file is readable.
+     */
+    public synchronized NetCounters collect(long timestamp) throws IOException {
+        Arrays.fill(values, 0, size, 0);
+        int read = 0;
+        for (String file : TABLE_FILES) {
+            if (read(file)) {
+                parseTable();
+                read++;
+            }
+        }
+        for (String file : PAIR_FILES) {
+            if (read(file)) {
+                parsePairs();
+                read++;
+            }
+        }
+        if (read == 0) throw new IOException("no counters readable under " + root);
+
+        long[] current = Arrays.copyOf(values, size);
+        double[] rates = new double[size];
+        Arrays.fill(rates, Double.NaN);
+        NetCounters prev = previous;
+        if (prev != null && timestamp > prev.timestamp) {
+            double seconds = (timestamp - prev.timestamp) / 1000.;
+            for (int i = 0; i < prev.size; i++) rates[i] = (current[i] - prev.values[i]) / seconds;
+        }
+        NetCounters counters = new NetCounters(timestamp, names, index, size, current, rates);
+        previous = counters;
+        return counters;
+    }
+
+    private boolean read(String file) throws IOException {
+        len = 0;
+        try (InputStream in = new FileInputStream(root + '/' + file)) {
+            for (int n; (n = in.read(buf, len, buf.length - len)) > 0; ) {
+                len += n;
+                if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses pairs of header and value lines sharing a section prefix.
+     */
+    void parseTable() {
+        int pos = 0;
+        while (pos < len) {
+            int headerEnd = lineEnd(pos);
+            int valueStart = headerEnd + 1;
+            if (valueStart >= len) break;
+            int valueEnd = lineEnd(valueStart);
+            int colon = indexOf(pos, headerEnd, (byte) ':');
+            if (colon > pos) {
+                int n = 0;
+                for (int t = colon + 1; (t = skipSpaces(t, headerEnd)) < headerEnd; ) {
+                    int e = tokenEnd(t, headerEnd);
+                    if (n == columns.length) columns = Arrays.copyOf(columns, n * 2);
+                    columns[n++] = lookup(pos, colon, t, e);
+                    t = e;
+                }
+                int c = 0;
+                for (int t = indexOf(valueStart, valueEnd, (byte) ':') + 1; c < n && (t = skipSpaces(t, valueEnd)) < valueEnd; c++) {
+                    int e = tokenEnd(t, valueEnd);
+                    values[columns[c]] = parseLong(t, e);
+                    t = e;
+                }
+            }
+            pos = valueEnd + 1;
+        }
+    }
+
+    /**
+     * Parses lines of a section prefix followed by name value pairs.
+     */
+    void parsePairs() {
+        for (int pos = 0; pos < len; ) {
+            int end = lineEnd(pos);
+            int colon = indexOf(pos, end, (byte) ':');
+            if (colon > pos) {
+                for (int t = colon + 1; (t = skipSpaces(t, end)) < end; ) {
+                    int e = tokenEnd(t, end);
+                    int v = skipSpaces(e, end);
+                    if (v >= end) break;
+                    int ve = tokenEnd(v, end);
+                    values[lookup(pos, colon, t, e)] = parseLong(v, ve);
+                    t = ve;
+                }
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Returns the index of the name {@code <section>.<field>}, registering it if absent.
+     */
+    private int lookup(int sectionStart, int sectionEnd, int fieldStart, int fieldEnd) {
+        int h = 1;
+        for (int i = sectionStart; i < sectionEnd; i++) h = 31 * h + buf[i];
+        h = 31 * h + '.';
+        for (int i = fieldStart; i < fieldEnd; i++) h = 31 * h + buf[i];
+        h ^= h >>> 16;
+        int mask = table.length - 1;
+        int sectionLen = sectionEnd - sectionStart, fieldLen = fieldEnd - fieldStart;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) break;
+            byte[] key = keys[entry - 1];
+            if (key.length == sectionLen + 1 + fieldLen && regionMatches(key, 0, sectionStart, sectionLen)
+                    && key[sectionLen] == '.' && regionMatches(key, sectionLen + 1, fieldStart, fieldLen)) {
+                return entry - 1;
+            }
+        }
+        return register(sectionStart, sectionEnd, fieldStart, fieldEnd);
+    }
+
+    private int register(int sectionStart, int sectionEnd, int fieldStart, int fieldEnd) {
+        int sectionLen = sectionEnd - sectionStart, fieldLen = fieldEnd - fieldStart;
+        byte[] key = new byte[sectionLen + 1 + fieldLen];
+        System.arraycopy(buf, sectionStart, key, 0, sectionLen);
+        key[sectionLen] = '.';
+        System.arraycopy(buf, fieldStart, key, sectionLen + 1, fieldLen);
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        String name = new String(key, StandardCharsets.US_ASCII);
+        // counters hold the published array, so names are appended to a copy
+        String[] newNames = size == names.length ? Arrays.copyOf(names, size * 2) : names.clone();
+        newNames[size] = name;
+        names = newNames;
+        keys[size] = key;
+        Map<String, Integer> newIndex = new HashMap<>(index);
+        newIndex.put(name, size);
+        index = Collections.unmodifiableMap(newIndex);
+        int i = size++;
+        if (size * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int k = 0; k < size; k++) insert(keys[k], k);
+        } else {
+            insert(key, i);
+        }
+        return i;
+    }
+
+    private void insert(byte[] key, int i) {
+        int h = 1;
+        for (byte b : key) h = 31 * h + b;
+        h ^= h >>> 16;
+        int mask = table.length - 1;
+        int slot = h & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = i + 1;
+    }
+
+    private boolean regionMatches(byte[] key, int offset, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (key[offset + i] != buf[start + i]) return false;
+        }
+        return true;
+    }
+
+    private int lineEnd(int pos) {
+        int end = indexOf(pos, len, (byte) '\n');
+        return end < 0 ? len : end;
+    }
+
+    private int indexOf(int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int pos, int end) {
+        while (pos < end && buf[pos] == ' ') pos++;
+        return pos;
+    }
+
+    private int tokenEnd(int pos, int end) {
+        while (pos < end && buf[pos] != ' ') pos++;
+        return pos;
+    }
+
+    private long parseLong(int start, int end) {
+        boolean negative = start < end && buf[start] == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) break;
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+}
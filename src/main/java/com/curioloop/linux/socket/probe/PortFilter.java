@@ -18,9 +18,13 @@ package com.curioloop.linux.socket.probe;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 /**
  * The {@code PortFilter} class represents a filter for network ports based on their attributes.
- * It allows filtering based on port values, operations, and sides (source or destination).
+ * It allows filtering based on port values, operations, and sides (source or destination),
+ * as well as on the address prefix, the socket mark, the cgroup v2 and the bound device of a socket.
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
@@ -36,8 +40,42 @@ public class PortFilter {
 
     /**
      * Enumeration representing operations for port filtering.
+     * <p>
+     * {@code MARK}, {@code CGROUP} and {@code DEV} match the socket rather than its ports,
+     * and are only understood by newer kernels, see {@link #minKernel()}.
      */
-    public enum Op { AND, OR, NOT, GE, LE, EQ }
+    public enum Op {
+        AND, OR, NOT, GE, LE, EQ,
+        /** Matches the address of a side against a prefix, an IPv4 prefix also matches IPv4-mapped IPv6 addresses. */
+        HOST,
+        /** Matches {@code SO_MARK} of the socket under a mask, since Linux 4.10 and requires {@code CAP_NET_ADMIN}. */
+        MARK(4, 10),
+        /** Matches the ID of the cgroup v2 owning the socket, since Linux 5.9. */
+        CGROUP(5, 9),
+        /** Matches the interface index the socket is bound to by {@code SO_BINDTODEVICE}, since Linux 4.9. */
+        DEV(4, 9);
+
+        private final int major;
+        private final int minor;
+
+        Op() {
+            this(0, 0);
+        }
+
+        Op(int major, int minor) {
+            this.major = major;
+            this.minor = minor;
+        }
+
+        /**
+         * Returns the first kernel version whose {@code inet_diag} bytecode supports the operation.
+         *
+         * @return the version as {@code major << 16 | minor << 8}, or 0 if always supported.
+         */
+        public int minKernel() {
+            return major << 16 | minor << 8;
+        }
+    }
 
     /** The operation to be performed by the filter. */
     private Op op;
@@ -45,9 +83,21 @@ public class PortFilter {
     /** The side of the connection to filter (source or destination). */
     private Side side;
 
-    /** The value to compare against when filtering. */
+    /**
+     * The value to compare against when filtering, which is the prefix length for {@code HOST},
+     * the mark for {@code MARK} or the interface index for {@code DEV}.
+     */
     private int value;
 
+    /** The IPv4 or IPv6 address in network byte order to match by {@code HOST}. */
+    private byte[] address;
+
+    /** The mask applied to the socket mark before comparing with the value. */
+    private int mask;
+
+    /** The ID of the cgroup v2 to match. */
+    private long cgroupID;
+
     /** Reference to the current filter. */
     private PortFilter curr;
 
@@ -87,6 +137,53 @@ public class PortFilter {
         return new PortFilter().op(Op.LE).side(side).value(value);
     }
 
+    /**
+     * Creates a new PortFilter instance matching sockets whose address of the side is within a prefix.
+     *
+     * @param side the side of the connection to filter (source or destination)
+     * @param address the IPv4 or IPv6 address in network byte order
+     * @param prefixLen the number of leading bits to match
+     * @return a PortFilter instance with the HOST operation
+     * @throws IllegalArgumentException if the address or the prefix length is invalid
+     */
+    public static PortFilter host(Side side, byte[] address, int prefixLen) {
+        if (address == null || (address.length != 4 && address.length != 16)) throw new IllegalArgumentException("invalid address");
+        if (prefixLen < 0 || prefixLen > address.length * 8) throw new IllegalArgumentException("invalid prefix: " + prefixLen);
+        return new PortFilter().op(Op.HOST).side(side).address(address.clone()).value(prefixLen);
+    }
+
+    /**
+     * Creates a new PortFilter instance matching sockets whose {@code SO_MARK} equals the mark under the mask.
+     *
+     * @param mark the mark to match after masking
+     * @param mask the mask applied to the socket mark, {@code -1} to match the whole mark
+     * @return a PortFilter instance with the MARK operation
+     */
+    public static PortFilter mark(int mark, int mask) {
+        return new PortFilter().op(Op.MARK).value(mark).mask(mask);
+    }
+
+    /**
+     * Creates a new PortFilter instance matching sockets owned by a cgroup v2,
+     * whose ID is the inode number of the cgroup directory.
+     *
+     * @param id the ID of the cgroup
+     * @return a PortFilter instance with the CGROUP operation
+     */
+    public static PortFilter cgroup(long id) {
+        return new PortFilter().op(Op.CGROUP).cgroupID(id);
+    }
+
+    /**
+     * Creates a new PortFilter instance matching sockets bound to an interface.
+     *
+     * @param ifindex the interface index, see {@link java.net.NetworkInterface#getIndex()}
+     * @return a PortFilter instance with the DEV operation
+     */
+    public static PortFilter dev(int ifindex) {
+        return new PortFilter().op(Op.DEV).value(ifindex);
+    }
+
     /**
      * Creates a new PortFilter instance with the logical NOT operation.
      *
@@ -116,4 +213,61 @@ public class PortFilter {
         return new PortFilter().op(Op.AND).curr(this).next(other);
     }
 
+    /**
+     * Evaluates the filter in Java with the same semantics as the compiled kernel bytecode.
+     *
+     * @param srcPort the local port of the socket
+     * @param dstPort the remote port of the socket
+     * @return {@code true} if the socket passes the filter
+     * @throws IllegalStateException if the filter matches the mark, cgroup or device of a socket
+     */
+    public boolean test(int srcPort, int dstPort) {
+        switch (op) {
+            case AND: return curr.test(srcPort, dstPort) && next.test(srcPort, dstPort);
+            case OR: return curr.test(srcPort, dstPort) || next.test(srcPort, dstPort);
+            case NOT: return !curr.test(srcPort, dstPort);
+            case GE: return (side == Side.SRC ? srcPort : dstPort) >= value;
+            case LE: return (side == Side.SRC ? srcPort : dstPort) <= value;
+            case EQ: return (side == Side.SRC ? srcPort : dstPort) == value;
+            case HOST: case MARK: case CGROUP: case DEV: throw new IllegalStateException("socket required by op: " + op);
+            default: throw new IllegalStateException("unknown op: " + op);
+        }
+    }
+
+    /**
+     * Evaluates the filter on a socket in Java with the same semantics as the compiled kernel bytecode.
+     *
+     * @param sock the socket statistics, the mark is only reported to {@code CAP_NET_ADMIN}
+     * @return {@code true} if the socket passes the filter
+     */
+    public boolean test(InetSockStat<?> sock) {
+        switch (op) {
+            case AND: return curr.test(sock) && next.test(sock);
+            case OR: return curr.test(sock) || next.test(sock);
+            case NOT: return !curr.test(sock);
+            case HOST: return matchHost(side == Side.SRC ? sock.localIP() : sock.remoteIP());
+            case MARK: return (sock.mark() & mask) == value;
+            case CGROUP: return sock.cgroupID() == cgroupID;
+            case DEV: return sock.interfaceIndex() == value;
+            default: return test(sock.localPort(), sock.remotePort());
+        }
+    }
+
+    private boolean matchHost(String ip) {
+        if (value == 0) return true;
+        byte[] addr;
+        try {
+            // IPv4-mapped IPv6 literals are returned as IPv4 like the kernel does
+            addr = ip == null ? null : InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        if (addr == null || addr.length != address.length) return false;
+        int bytes = value >>> 3, bits = value & 7;
+        for (int i = 0; i < bytes; i++) {
+            if (addr[i] != address[i]) return false;
+        }
+        return bits == 0 || ((addr[bytes] ^ address[bytes]) & (0xFF00 >>> bits)) == 0;
+    }
+
 }
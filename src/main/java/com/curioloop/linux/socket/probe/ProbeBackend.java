@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Backend which dumps sockets from the kernel and visits them on a probe.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+abstract class ProbeBackend {
+
+    /**
+     * Returns the name of the backend.
+     *
+     * @return the name, e.g. {@code jni} or {@code ffm}.
+     */
+    abstract String name();
+
+    /**
+     * Collects sockets and visits them on the probe, followed by the cost of the collection.
+     *
+     * @param probe the probe to visit sockets.
+     * @param filter the filter prepared by the probe.
+     * @return 0 if collected successfully.
+     */
+    abstract int collect(LinuxSocketProbe probe, SockFilter filter);
+
+    /**
+     * Reads {@code struct tcp_info} of sockets with {@code getsockopt(TCP_INFO)}.
+     *
+     * @param fds the file descriptors of sockets.
+     * @param count the number of file descriptors to read.
+     * @return a buffer in native byte order holding a slot of {@link SockDiag#TCP_INFO_SLOT} bytes per socket,
+     *         reused by the next read of the calling thread.
+     */
+    abstract ByteBuffer readTcpInfo(int[] fds, int count);
+
+    /**
+     * Fills statistics of sockets with {@code getsockopt(TCP_INFO)}.
+     *
+     * @param fds the file descriptors of sockets.
+     * @param count the number of file descriptors to read.
+     * @param stats the statistics to fill, reset on failure.
+     * @param errors the errno of each socket or 0 on success, nullable.
+     * @return the number of statistics filled.
+     */
+    final int tcpInfo(int[] fds, int count, TcpStat[] stats, int[] errors) {
+        ByteBuffer slots = readTcpInfo(fds, count);
+        int filled = 0;
+        for (int i = 0, slot = 0; i < count; i++, slot += SockDiag.TCP_INFO_SLOT) {
+            int len = slots.getInt(slot);
+            TcpStat tcp = stats[i];
+            tcp.reset();
+            if (len >= 0) {
+                SockDiag.decodeTcpInfo(slots, slot + 4, len, -1, 0, tcp);
+                filled++;
+            }
+            if (errors != null) errors[i] = len >= 0 ? 0 : -len;
+        }
+        return filled;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * The {@code ProbeStats} class represents the cost of each phase of a native socket collection.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Data
+@Accessors(fluent = true)
+public class ProbeStats {
+
+    /** Name of the backend which collected the sockets. */
+    private String backend;
+
+    /** Nanoseconds to build the socket inode to process ID hash by walking /proc. */
+    private long pidHashNanos;
+
+    /** Nanoseconds to request and receive netlink dumps, excluding marshalling. */
+    private long dumpNanos;
+
+    /** Nanoseconds to marshal sockets into Java objects. */
+    private long marshalNanos;
+
+    /** Nanoseconds of the whole collection observed from Java. */
+    private long totalNanos;
+
+    /** Bytes received from netlink. */
+    private long receivedBytes;
+
+    /** Number of recvmsg calls. */
+    private int receiveCalls;
+
+    /** Number of netlink messages received. */
+    private int receivedMessages;
+
+    /** Number of socket inodes found in /proc. */
+    private int pidEntries;
+
+    /** Bytes allocated by the collecting thread, or -1 if unsupported by the JVM. */
+    private long allocatedBytes;
+
+}
@@ -0,0 +1,730 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import com.curioloop.linux.socket.probe.utils.OsUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes sock_diag requests and decodes the dumped sockets in Java, with the same semantics as {@code sock_probe.c}.
+ * <p>
+ * Backends only provide a {@link Transport} over a netlink socket, records are decoded in place
+ * from the buffers returned by the transport, which may be views of native memory.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockDiag {
+
+    static final int AF_UNIX = 1;
+    static final int AF_INET = 2;
+    static final int AF_INET6 = 10;
+    static final int AF_NETLINK = 16;
+    static final int SOCK_DGRAM = 2;
+    static final int NETLINK_SOCK_DIAG = 4;
+    static final int IPPROTO_TCP = 6;
+    static final int IPPROTO_UDP = 17;
+
+    static final int NLMSG_HDRLEN = 16;
+    static final int NLMSG_ERROR = 2;
+    static final int NLMSG_DONE = 3;
+    static final int NLM_F_REQUEST = 0x1;
+    static final int NLM_F_DUMP = 0x300;
+    static final int SOCK_DIAG_BY_FAMILY = 20;
+    static final int EOPNOTSUPP = 95;
+
+    static final int INET_DIAG_REQ_V2_LEN = 56;
+    static final int INET_DIAG_MSG_LEN = 72;
+    static final int INET_DIAG_REQ_BYTECODE = 1;
+    static final int INET_DIAG_MEMINFO = 1;
+    static final int INET_DIAG_INFO = 2;
+    static final int INET_DIAG_VEGASINFO = 3;
+    static final int INET_DIAG_CONG = 4;
+    static final int INET_DIAG_SKMEMINFO = 7;
+    static final int INET_DIAG_MARK = 15;
+    static final int INET_DIAG_CGROUP_ID = 21;
+
+    static final int SK_MEMINFO_RMEM_ALLOC = 0;
+    static final int SK_MEMINFO_RCVBUF = 1;
+    static final int SK_MEMINFO_WMEM_ALLOC = 2;
+    static final int SK_MEMINFO_SNDBUF = 3;
+    static final int SK_MEMINFO_FWD_ALLOC = 4;
+    static final int SK_MEMINFO_WMEM_QUEUED = 5;
+
+    static final int UNIX_DIAG_REQ_LEN = 24;
+    static final int UNIX_DIAG_MSG_LEN = 16;
+    static final int UNIX_DIAG_NAME = 0;
+    static final int UNIX_DIAG_PEER = 2;
+    static final int UNIX_DIAG_RQLEN = 4;
+    static final int UNIX_DIAG_MEMINFO = 5;
+    static final int UNIX_DIAG_UID = 7;
+
+    static final int UDIAG_SHOW_NAME = 0x01;
+    static final int UDIAG_SHOW_PEER = 0x04;
+    static final int UDIAG_SHOW_RQLEN = 0x10;
+    static final int UDIAG_SHOW_MEMINFO = 0x20;
+    static final int UDIAG_SHOW_UID = 0x40;
+
+    static final int INET_DIAG_BC_JMP = 1;
+    static final int INET_DIAG_BC_S_GE = 2;
+    static final int INET_DIAG_BC_S_LE = 3;
+    static final int INET_DIAG_BC_D_GE = 4;
+    static final int INET_DIAG_BC_D_LE = 5;
+    static final int INET_DIAG_BC_S_COND = 7;
+    static final int INET_DIAG_BC_D_COND = 8;
+    static final int INET_DIAG_BC_DEV_COND = 9;
+    static final int INET_DIAG_BC_MARK_COND = 10;
+    static final int INET_DIAG_BC_CGROUP_COND = 13;
+
+    /** All states except SYN-RECV, TIME-WAIT and CLOSE. */
+    static final int STATES = 0xFFF & ~((1 << 3) | (1 << 6) | (1 << 7));
+
+    /** Attributes of UNIX domain sockets, the UID is ignored before Linux 5.3. */
+    static final int UNIX_SHOW = UDIAG_SHOW_NAME | UDIAG_SHOW_PEER | UDIAG_SHOW_RQLEN | UDIAG_SHOW_MEMINFO | UDIAG_SHOW_UID;
+
+    static final int EXTENSIONS = (1 << (INET_DIAG_MEMINFO - 1)) | (1 << (INET_DIAG_SKMEMINFO - 1)) |
+            (1 << (INET_DIAG_INFO - 1)) | (1 << (INET_DIAG_VEGASINFO - 1)) | (1 << (INET_DIAG_CONG - 1));
+
+    static final int SOL_TCP = 6;
+    static final int TCP_INFO = 11;
+
+    /** Length of {@code struct tcp_info} up to {@code tcpi_total_retrans}, the last field decoded. */
+    static final int TCP_INFO_LEN = 104;
+
+    /** Slot of {@code getsockopt(TCP_INFO)}: the length read or -errno, followed by {@code struct tcp_info}. */
+    static final int TCP_INFO_SLOT = 4 + TCP_INFO_LEN;
+
+    /** Netlink socket exchanging requests and dumps. */
+    interface Transport extends Closeable {
+
+        /**
+         * Returns a zeroed buffer in native byte order to hold a request.
+         *
+         * @param size the size of the request.
+         * @return the buffer with position 0 and limit of the size.
+         */
+        ByteBuffer request(int size);
+
+        /**
+         * Sends the request held in the buffer.
+         *
+         * @param request the buffer returned by {@link #request(int)}.
+         * @throws IOException if failed to send.
+         */
+        void send(ByteBuffer request) throws IOException;
+
+        /**
+         * Receives the next part of the dump, the buffer may be reused by the next call.
+         *
+         * @return the received bytes in native byte order with position 0, empty on EOF.
+         * @throws IOException if failed to receive.
+         */
+        ByteBuffer receive() throws IOException;
+    }
+
+    final LinuxSocketProbe probe;
+    final SockFilter filter;
+    final PidTable pids;
+
+    long visitNanos;
+    long receivedBytes;
+    int receiveCalls;
+    int receivedMessages;
+
+    private SockDiag(LinuxSocketProbe probe, SockFilter filter, PidTable pids) {
+        this.probe = probe;
+        this.filter = filter;
+        this.pids = pids;
+    }
+
+    /**
+     * Collects sockets through the transport and visits them on the probe.
+     *
+     * @param probe the probe to visit sockets.
+     * @param filter the filter prepared by the probe.
+     * @param transport the transport over a netlink socket.
+     * @return 0 if collected successfully.
+     */
+    static int collect(LinuxSocketProbe probe, SockFilter filter, Transport transport) {
+        long start = System.nanoTime();
+        PidTable pids = PidTable.build();
+        long pidHashNanos = System.nanoTime() - start;
+        SockDiag diag = new SockDiag(probe, filter, pids);
+        byte[] bytecode = filter.portFilters == null ? null : compile(filter.portFilters);
+        long dumpNanos = 0;
+        int code = 0;
+        for (int family : new int[]{AF_INET, AF_INET6}) {
+            if (filter.family != null && (filter.family == InetFamily.IPv4) != (family == AF_INET)) continue;
+            for (int protocol : new int[]{IPPROTO_TCP, IPPROTO_UDP}) {
+                if (filter.protocol != null && (filter.protocol == InetProto.TCP) != (protocol == IPPROTO_TCP)) continue;
+                if (code != 0) break;
+                long dumpStart = System.nanoTime();
+                long visitStart = diag.visitNanos;
+                code = diag.dump(transport, family, protocol, bytecode);
+                dumpNanos += System.nanoTime() - dumpStart - (diag.visitNanos - visitStart);
+            }
+        }
+        if (code == 0 && filter.unix) {
+            long dumpStart = System.nanoTime();
+            long visitStart = diag.visitNanos;
+            code = diag.dump(transport, AF_UNIX, 0, null);
+            dumpNanos += System.nanoTime() - dumpStart - (diag.visitNanos - visitStart);
+        }
+        probe.visitCollectStat(pidHashNanos, dumpNanos, diag.visitNanos,
+                diag.receivedBytes, diag.receiveCalls, diag.receivedMessages, pids.size);
+        return code;
+    }
+
+    private int dump(Transport transport, int family, int protocol, byte[] bytecode) {
+        try {
+            transport.send(family == AF_UNIX ? unixRequest(transport) : request(transport, family, protocol, bytecode));
+            for (;;) {
+                ByteBuffer buf = transport.receive();
+                receiveCalls++;
+                receivedBytes += buf.remaining();
+                if (!buf.hasRemaining()) return 0; // EOF on netlink
+                int result = decode(buf, family, protocol);
+                if (result >= 0) return result;
+            }
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Writes a dump request into a buffer of the transport.
+     */
+    static ByteBuffer request(Transport transport, int family, int protocol, byte[] bytecode) {
+        int attrLen = bytecode == null ? 0 : 4 + bytecode.length;
+        int length = NLMSG_HDRLEN + INET_DIAG_REQ_V2_LEN + attrLen;
+        ByteBuffer buf = transport.request(length);
+        // struct nlmsghdr
+        buf.putInt(0, length);
+        buf.putShort(4, (short) SOCK_DIAG_BY_FAMILY);
+        buf.putShort(6, (short) (NLM_F_REQUEST | NLM_F_DUMP));
+        // struct inet_diag_req_v2
+        int req = NLMSG_HDRLEN;
+        buf.put(req, (byte) family);
+        buf.put(req + 1, (byte) protocol);
+        buf.put(req + 2, (byte) EXTENSIONS);
+        buf.putInt(req + 4, STATES);
+        if (bytecode != null) {
+            // struct rtattr followed by the bytecode
+            int attr = req + INET_DIAG_REQ_V2_LEN;
+            buf.putShort(attr, (short) attrLen);
+            buf.putShort(attr + 2, (short) INET_DIAG_REQ_BYTECODE);
+            for (int i = 0; i < bytecode.length; i++) buf.put(attr + 4 + i, bytecode[i]);
+        }
+        return buf;
+    }
+
+    /**
+     * Writes a dump request of UNIX domain sockets into a buffer of the transport.
+     */
+    static ByteBuffer unixRequest(Transport transport) {
+        int length = NLMSG_HDRLEN + UNIX_DIAG_REQ_LEN;
+        ByteBuffer buf = transport.request(length);
+        // struct nlmsghdr
+        buf.putInt(0, length);
+        buf.putShort(4, (short) SOCK_DIAG_BY_FAMILY);
+        buf.putShort(6, (short) (NLM_F_REQUEST | NLM_F_DUMP));
+        // struct unix_diag_req
+        int req = NLMSG_HDRLEN;
+        buf.put(req, (byte) AF_UNIX);
+        buf.putInt(req + 4, STATES);
+        buf.putInt(req + 12, UNIX_SHOW);
+        return buf;
+    }
+
+    /**
+     * Decodes netlink messages of a received buffer.
+     *
+     * @return -1 if more messages follow, otherwise the result code of the dump.
+     */
+    int decode(ByteBuffer buf, int family, int protocol) {
+        int limit = buf.limit();
+        for (int msg = buf.position(); msg + NLMSG_HDRLEN <= limit; ) {
+            int len = buf.getInt(msg);
+            if (len < NLMSG_HDRLEN || msg + len > limit) break;
+            receivedMessages++;
+            int type = buf.getShort(msg + 4) & 0xFFFF;
+            if (type == NLMSG_DONE) return 0;
+            if (type == NLMSG_ERROR) {
+                if (len < NLMSG_HDRLEN + 20) return 0; // truncated
+                return -buf.getInt(msg + NLMSG_HDRLEN) == EOPNOTSUPP ? 1 : 0;
+            }
+            if (family == AF_UNIX) {
+                if (len >= NLMSG_HDRLEN + UNIX_DIAG_MSG_LEN) visitUnix(buf, msg + NLMSG_HDRLEN, msg + len);
+            } else if (len >= NLMSG_HDRLEN + INET_DIAG_MSG_LEN) {
+                visit(buf, msg + NLMSG_HDRLEN, msg + len, protocol);
+            }
+            msg += align(len);
+        }
+        return -1;
+    }
+
+    private void visit(ByteBuffer buf, int r, int end, int protocol) {
+        int family = buf.get(r) & 0xFF;
+        if (family != AF_INET && family != AF_INET6) return;
+        int uid = buf.getInt(r + 64);
+        if (filter.currentUser && uid != OsUtils.CURRENT_UID) return;
+        int pid = pids.get(buf.getInt(r + 68));
+        if (filter.currentProc && (pid == 0 || pid != OsUtils.CURRENT_PID)) return;
+
+        long visitStart = System.nanoTime();
+        InetSockStat<?> sock = new InetSockStat<>()
+                .inetFamily(family == AF_INET ? InetFamily.IPv4 : InetFamily.IPv6)
+                .localPort(port(buf, r + 4))
+                .remotePort(port(buf, r + 6))
+                .localIP(family == AF_INET ? formatIpv4(buf, r + 8) : formatIpv6(buf, r + 8))
+                .remoteIP(family == AF_INET ? formatIpv4(buf, r + 24) : formatIpv6(buf, r + 24))
+                .connState(ConnState.of(buf.get(r + 1) & 0xFF))
+                .requestQueue(buf.getInt(r + 56) & 0xFFFFFFFFL)
+                .waitingQueue(buf.getInt(r + 60) & 0xFFFFFFFFL)
+                .interfaceIndex(buf.getInt(r + 40))
+                .processID(pid)
+                .userID(uid);
+
+        int info = -1, infoLen = 0, vegas = -1, vegasLen = 0;
+        for (int attr = r + INET_DIAG_MSG_LEN; attr + 4 <= end; ) {
+            int attrLen = buf.getShort(attr) & 0xFFFF;
+            if (attrLen < 4 || attr + attrLen > end) break;
+            int attrType = buf.getShort(attr + 2) & 0xFFFF;
+            if (attrType == INET_DIAG_INFO) {
+                info = attr + 4;
+                infoLen = attrLen - 4;
+            } else if (attrType == INET_DIAG_VEGASINFO) {
+                vegas = attr + 4;
+                vegasLen = attrLen - 4;
+            } else if (attrType == INET_DIAG_SKMEMINFO) {
+                decodeMemInfo(buf, attr + 4, attrLen - 4, sock);
+            } else if (attrType == INET_DIAG_MARK && attrLen >= 8) {
+                sock.mark(buf.getInt(attr + 4));
+            } else if (attrType == INET_DIAG_CGROUP_ID && attrLen >= 12) {
+                sock.cgroupID(buf.getLong(attr + 4));
+            }
+            attr += align(attrLen);
+        }
+
+        if (protocol != IPPROTO_TCP) {
+            probe.visitUdpStat(sock);
+        } else {
+            TcpStat tcp = new TcpStat();
+            if (info >= 0) decodeTcpInfo(buf, info, infoLen, vegas, vegasLen, tcp);
+            probe.visitTcpStat(sock, tcp);
+        }
+        visitNanos += System.nanoTime() - visitStart;
+    }
+
+    private void visitUnix(ByteBuffer buf, int r, int end) {
+        if ((buf.get(r) & 0xFF) != AF_UNIX) return;
+        int inode = buf.getInt(r + 4);
+        int pid = pids.get(inode);
+        if (filter.currentProc && (pid == 0 || pid != OsUtils.CURRENT_PID)) return;
+
+        long visitStart = System.nanoTime();
+        UnixSockStat sock = new UnixSockStat()
+                .type(UnixSockStat.Type.of(buf.get(r + 1) & 0xFF))
+                .connState(ConnState.of(buf.get(r + 2) & 0xFF))
+                .inode(inode & 0xFFFFFFFFL)
+                .processID(pid);
+        for (int attr = r + UNIX_DIAG_MSG_LEN; attr + 4 <= end; ) {
+            int attrLen = buf.getShort(attr) & 0xFFFF;
+            if (attrLen < 4 || attr + attrLen > end) break;
+            int attrType = buf.getShort(attr + 2) & 0xFFFF;
+            int data = attr + 4, dataLen = attrLen - 4;
+            if (attrType == UNIX_DIAG_NAME) {
+                sock.path(formatUnixPath(buf, data, dataLen));
+            } else if (attrType == UNIX_DIAG_PEER) {
+                sock.peerInode(u32(buf, data, dataLen, 0) & 0xFFFFFFFFL);
+            } else if (attrType == UNIX_DIAG_RQLEN) {
+                sock.requestQueue(u32(buf, data, dataLen, 0) & 0xFFFFFFFFL)
+                        .waitingQueue(u32(buf, data, dataLen, 4) & 0xFFFFFFFFL);
+            } else if (attrType == UNIX_DIAG_MEMINFO) {
+                sock.receiveMemory(u32(buf, data, dataLen, SK_MEMINFO_RMEM_ALLOC << 2) & 0xFFFFFFFFL)
+                        .receiveBuffer(u32(buf, data, dataLen, SK_MEMINFO_RCVBUF << 2) & 0xFFFFFFFFL)
+                        .sendMemory(u32(buf, data, dataLen, SK_MEMINFO_WMEM_ALLOC << 2) & 0xFFFFFFFFL)
+                        .sendBuffer(u32(buf, data, dataLen, SK_MEMINFO_SNDBUF << 2) & 0xFFFFFFFFL);
+            } else if (attrType == UNIX_DIAG_UID && dataLen >= 4) {
+                sock.userID(buf.getInt(data));
+            }
+            attr += align(attrLen);
+        }
+        // UNIX_DIAG_UID is reported since Linux 5.3, otherwise sockets are owned by the user of their process
+        if (sock.userID() < 0 && pid > 0) sock.userID(pids.uid(pid));
+        if (!filter.currentUser || sock.userID() >= 0 && sock.userID() == OsUtils.CURRENT_UID) {
+            probe.visitUnixStat(sock);
+        }
+        visitNanos += System.nanoTime() - visitStart;
+    }
+
+    /**
+     * Formats {@code sun_path} like ss, abstract names start with {@code @}.
+     */
+    static String formatUnixPath(ByteBuffer buf, int offset, int len) {
+        if (len <= 0) return null;
+        boolean abstractName = buf.get(offset) == 0;
+        StringBuilder sb = new StringBuilder(len);
+        if (abstractName) sb.append('@');
+        byte[] bytes = new byte[len];
+        int n = 0;
+        for (int i = abstractName ? 1 : 0; i < len; i++) {
+            byte b = buf.get(offset + i);
+            if (b == 0 && !abstractName) break; // trailing NUL of pathnames
+            bytes[n++] = b;
+        }
+        return sb.append(new String(bytes, 0, n, StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Decodes the {@code SK_MEMINFO_*} array of socket memory usage.
+     */
+    static void decodeMemInfo(ByteBuffer buf, int mem, int len, InetSockStat<?> sock) {
+        sock.receiveMemory(u32(buf, mem, len, SK_MEMINFO_RMEM_ALLOC << 2) & 0xFFFFFFFFL)
+                .receiveBuffer(u32(buf, mem, len, SK_MEMINFO_RCVBUF << 2) & 0xFFFFFFFFL)
+                .sendMemory(u32(buf, mem, len, SK_MEMINFO_WMEM_ALLOC << 2) & 0xFFFFFFFFL)
+                .sendBuffer(u32(buf, mem, len, SK_MEMINFO_SNDBUF << 2) & 0xFFFFFFFFL)
+                .forwardAlloc(u32(buf, mem, len, SK_MEMINFO_FWD_ALLOC << 2) & 0xFFFFFFFFL)
+                .queuedMemory(u32(buf, mem, len, SK_MEMINFO_WMEM_QUEUED << 2) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decodes {@code struct tcp_info}, fields beyond the payload of older kernels read as 0.
+     */
+    static void decodeTcpInfo(ByteBuffer buf, int info, int len, int vegas, int vegasLen, TcpStat tcp) {
+        int rto = u32(buf, info, len, 8);
+        int ato = u32(buf, info, len, 12);
+        int sndMss = u32(buf, info, len, 16);
+        int rtt = u32(buf, info, len, 68);
+        int rttVar = u32(buf, info, len, 72);
+        int ssthresh = u32(buf, info, len, 76);
+        int cwnd = u32(buf, info, len, 80);
+        if (rto != 0 && rto != 3000000) tcp.retransmitTimeout = rto;
+        if (ato != 0) tcp.acknowledgeTimeout = ato;
+        if (rtt != 0) {
+            tcp.roundTripTime = rtt;
+            tcp.roundTripTimeVar = rttVar;
+        }
+        tcp.totalRetransmit = u32(buf, info, len, 100);
+        if (cwnd != 2) tcp.congestionWindow = cwnd;
+        if (Integer.compareUnsigned(ssthresh, 0xFFFF) < 0) tcp.slowStartThreshold = ssthresh;
+
+        double rttUs = rtt & 0xFFFFFFFFL;
+        if (vegas >= 0 && vegasLen >= 12) {
+            int enabled = buf.getInt(vegas);
+            int vegasRtt = buf.getInt(vegas + 8);
+            if (enabled != 0 && vegasRtt != 0 && vegasRtt != 0x7fffffff) rttUs = vegasRtt & 0xFFFFFFFFL;
+        }
+        if (rttUs > 0 && sndMss != 0 && cwnd != 0) {
+            tcp.estimatedBandwidth = (cwnd & 0xFFFFFFFFL) * (double) (sndMss & 0xFFFFFFFFL) * 8000000. / rttUs;
+        }
+    }
+
+    private static int u32(ByteBuffer buf, int base, int len, int offset) {
+        return offset + 4 <= len ? buf.getInt(base + offset) : 0;
+    }
+
+    private static int port(ByteBuffer buf, int offset) {
+        return (buf.get(offset) & 0xFF) << 8 | (buf.get(offset + 1) & 0xFF);
+    }
+
+    static int align(int len) {
+        return (len + 3) & ~3;
+    }
+
+    static String formatIpv4(ByteBuffer buf, int offset) {
+        StringBuilder sb = new StringBuilder(15);
+        for (int i = 0; i < 4; i++) {
+            if (i > 0) sb.append('.');
+            sb.append(buf.get(offset + i) & 0xFF);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats an IPv6 address like glibc {@code inet_ntop}, e.g. {@code ::ffff:127.0.0.1}.
+     */
+    static String formatIpv6(ByteBuffer buf, int offset) {
+        int[] words = new int[8];
+        for (int i = 0; i < 8; i++) words[i] = port(buf, offset + i * 2);
+        // find the longest run of at least two zero words
+        int bestBase = -1, bestLen = 0;
+        for (int i = 0; i < 8; ) {
+            if (words[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < 8 && words[j] == 0) j++;
+            if (j - i > bestLen && j - i >= 2) {
+                bestBase = i;
+                bestLen = j - i;
+            }
+            i = j;
+        }
+        StringBuilder sb = new StringBuilder(45);
+        for (int i = 0; i < 8; i++) {
+            if (bestBase >= 0 && i >= bestBase && i < bestBase + bestLen) {
+                if (i == bestBase) sb.append(':');
+                continue;
+            }
+            if (i > 0) sb.append(':');
+            if (i == 6 && bestBase == 0 && (bestLen == 6 || (bestLen == 5 && words[5] == 0xffff))) {
+                sb.append(words[6] >>> 8).append('.').append(words[6] & 0xFF).append('.')
+                  .append(words[7] >>> 8).append('.').append(words[7] & 0xFF);
+                return sb.toString();
+            }
+            sb.append(Integer.toHexString(words[i]));
+        }
+        if (bestBase >= 0 && bestBase + bestLen == 8) sb.append(':');
+        return sb.toString();
+    }
+
+    /**
+     * Compiles port filters into inet_diag bytecode, ported from {@code filter_compile} of iproute2/ss.
+     *
+     * @param f the port filter validated by the probe.
+     * @return the bytecode in native byte order.
+     */
+    static byte[] compile(PortFilter f) {
+        switch (f.op()) {
+            case GE:
+                return compare(f.side() == PortFilter.Side.SRC ? INET_DIAG_BC_S_GE : INET_DIAG_BC_D_GE, f.value());
+            case LE:
+                return compare(f.side() == PortFilter.Side.SRC ? INET_DIAG_BC_S_LE : INET_DIAG_BC_D_LE, f.value());
+            case EQ:
+                return and(compile(PortFilter.ge(f.side(), f.value())), compile(PortFilter.le(f.side(), f.value())));
+            case HOST: {
+                // struct inet_diag_hostcond followed by the address, port -1 matches any port
+                byte[] addr = f.address();
+                ByteBuffer b = condition(f.side() == PortFilter.Side.SRC ? INET_DIAG_BC_S_COND : INET_DIAG_BC_D_COND, 8 + addr.length);
+                b.put(4, (byte) (addr.length == 4 ? AF_INET : AF_INET6)).put(5, (byte) f.value()).putInt(8, -1);
+                System.arraycopy(addr, 0, b.array(), 12, addr.length);
+                return b.array();
+            }
+            case DEV:
+                return condition(INET_DIAG_BC_DEV_COND, 4).putInt(4, f.value()).array();
+            case MARK:
+                return condition(INET_DIAG_BC_MARK_COND, 8).putInt(4, f.value()).putInt(8, f.mask()).array();
+            case CGROUP:
+                return condition(INET_DIAG_BC_CGROUP_COND, 8).putLong(4, f.cgroupID()).array();
+            case AND:
+                return and(compile(f.curr()), compile(f.next()));
+            case OR: {
+                byte[] a1 = compile(f.curr()), a2 = compile(f.next());
+                byte[] a = new byte[a1.length + a2.length + 4];
+                System.arraycopy(a1, 0, a, 0, a1.length);
+                putOp(a, a1.length, INET_DIAG_BC_JMP, 4, a2.length + 4);
+                System.arraycopy(a2, 0, a, a1.length + 4, a2.length);
+                return a;
+            }
+            case NOT: {
+                byte[] a1 = compile(f.curr());
+                byte[] a = new byte[a1.length + 4];
+                System.arraycopy(a1, 0, a, 0, a1.length);
+                putOp(a, a1.length, INET_DIAG_BC_JMP, 4, 8);
+                return a;
+            }
+            default:
+                throw new IllegalArgumentException("unknown op: " + f.op());
+        }
+    }
+
+    private static byte[] compare(int code, int port) {
+        byte[] a = new byte[8];
+        putOp(a, 0, code, 8, 12);
+        putOp(a, 4, 0, 0, port);
+        return a;
+    }
+
+    /** Allocates a condition followed by its argument, which rejects the socket by jumping 4 bytes beyond the end. */
+    private static ByteBuffer condition(int code, int argLen) {
+        byte[] a = new byte[4 + argLen];
+        putOp(a, 0, code, a.length, a.length + 4);
+        return ByteBuffer.wrap(a).order(java.nio.ByteOrder.nativeOrder());
+    }
+
+    private static byte[] and(byte[] a1, byte[] a2) {
+        byte[] a = new byte[a1.length + a2.length];
+        System.arraycopy(a1, 0, a, 0, a1.length);
+        System.arraycopy(a2, 0, a, a1.length, a2.length);
+        // failure of the first operand jumps beyond the second one
+        for (int len = a1.length, off = 0; len > 0; ) {
+            int yes = a[off + 1] & 0xFF;
+            if (getNo(a, off) == len + 4) putNo(a, off, len + 4 + a2.length);
+            len -= yes;
+            off += yes;
+        }
+        return a;
+    }
+
+    /** Writes {@code struct inet_diag_bc_op} whose {@code no} is a native order 16-bit integer. */
+    private static void putOp(byte[] a, int off, int code, int yes, int no) {
+        a[off] = (byte) code;
+        a[off + 1] = (byte) yes;
+        putNo(a, off, no);
+    }
+
+    private static int getNo(byte[] a, int off) {
+        return ByteBuffer.wrap(a).order(java.nio.ByteOrder.nativeOrder()).getShort(off + 2) & 0xFFFF;
+    }
+
+    private static void putNo(byte[] a, int off, int no) {
+        ByteBuffer.wrap(a).order(java.nio.ByteOrder.nativeOrder()).putShort(off + 2, (short) no);
+    }
+
+    /**
+     * Open-addressing map from socket inode to process ID, built by walking {@code /proc/<pid>/fd}.
+     */
+    static final class PidTable {
+
+        int[] inodes = new int[1024];
+        int[] pids = new int[1024];
+        int size;
+
+        /** The mount point of procfs, or null if not readable. */
+        File proc;
+
+        /** Owners of processes looked up so far. */
+        private Map<Integer, Integer> uids;
+
+        /**
+         * Builds the table from {@code $PROC_ROOT} or {@code /proc}.
+         *
+         * @return the table, empty if /proc is not readable.
+         */
+        static PidTable build() {
+            PidTable table = new PidTable();
+            String root = System.getenv("PROC_ROOT");
+            File proc = new File(root == null || root.isEmpty() ? "/proc" : root);
+            String[] processes = proc.list();
+            if (processes == null) return table;
+            table.proc = proc;
+            for (String process : processes) {
+                int pid = parseInt(process);
+                if (pid <= 0) continue;
+                Path fdDir = Paths.get(proc.getPath(), process, "fd");
+                String[] fds = fdDir.toFile().list();
+                if (fds == null) continue;
+                for (String fd : fds) {
+                    String link;
+                    try {
+                        link = Files.readSymbolicLink(fdDir.resolve(fd)).toString();
+                    } catch (IOException | UnsupportedOperationException e) {
+                        continue;
+                    }
+                    if (link.startsWith("socket:[") && link.endsWith("]")) {
+                        long inode = parseUnsigned(link, 8, link.length() - 1);
+                        if (inode > 0) table.put((int) inode, pid);
+                    }
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Returns the process ID owning the socket inode.
+         *
+         * @param inode the socket inode.
+         * @return the process ID, or 0 if not found.
+         */
+        int get(int inode) {
+            if (inode == 0) return 0;
+            int mask = inodes.length - 1;
+            for (int i = mix(inode) & mask; inodes[i] != 0; i = (i + 1) & mask) {
+                if (inodes[i] == inode) return pids[i];
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the user owning the process, which is the owner of {@code /proc/<pid>}.
+         *
+         * @param pid the process ID.
+         * @return the user ID, or -1 if unknown.
+         */
+        int uid(int pid) {
+            if (proc == null) return -1;
+            if (uids == null) uids = new HashMap<>();
+            return uids.computeIfAbsent(pid, p -> {
+                try {
+                    Object uid = Files.getAttribute(Paths.get(proc.getPath(), Integer.toString(p)), "unix:uid", LinkOption.NOFOLLOW_LINKS);
+                    return uid instanceof Integer ? (Integer) uid : -1;
+                } catch (IOException | UnsupportedOperationException | IllegalArgumentException | SecurityException e) {
+                    return -1;
+                }
+            });
+        }
+
+        void put(int inode, int pid) {
+            if ((size + 1) * 2 > inodes.length) resize();
+            int mask = inodes.length - 1;
+            int i = mix(inode) & mask;
+            for (; inodes[i] != 0; i = (i + 1) & mask) {
+                if (inodes[i] == inode) {
+                    pids[i] = pid; // the last process wins like a chained hash
+                    return;
+                }
+            }
+            inodes[i] = inode;
+            pids[i] = pid;
+            size++;
+        }
+
+        private void resize() {
+            int[] oldInodes = inodes, oldPids = pids;
+            inodes = new int[oldInodes.length * 2];
+            pids = new int[oldPids.length * 2];
+            size = 0;
+            for (int i = 0; i < oldInodes.length; i++) {
+                if (oldInodes[i] != 0) put(oldInodes[i], oldPids[i]);
+            }
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private static int parseInt(String s) {
+            long value = parseUnsigned(s, 0, s.length());
+            return value > Integer.MAX_VALUE ? -1 : (int) value;
+        }
+
+        private static long parseUnsigned(String s, int from, int to) {
+            if (from >= to || to - from > 10) return -1;
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                value = value * 10 + (c - '0');
+            }
+            return value > 0xFFFFFFFFL ? -1 : value;
+        }
+    }
+
+}
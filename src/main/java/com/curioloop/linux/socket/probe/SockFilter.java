@@ -15,12 +15,13 @@
  */
 package com.curioloop.linux.socket.probe;
 
+import com.curioloop.linux.socket.probe.utils.OsUtils;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
 /**
  * The {@code SockFilter} class represents a filter for network sockets based on various attributes.
- * It includes filters for Internet Protocol (IP) family, protocol, user ownership, process ownership, port filtering, and port filter count.
+ * It includes filters for Internet Protocol (IP) family, protocol, UNIX domain sockets, user ownership, process ownership, port filtering, and port filter count.
  *
  * @author curioloops@gmail.com
  * @since 2024/4/20
@@ -41,11 +42,41 @@ public class SockFilter {
     /** Indicates whether to filter sockets based on the current process. */
     boolean currentProc;
 
+    /** Indicates whether to collect UNIX domain sockets as well, which are only filtered by user and process. */
+    boolean unix;
+
     /** The port filters to apply. */
     PortFilter portFilters;
 
     /** The number of port filters. */
     transient int portFilterNum;
 
+    /**
+     * Evaluates the filter in Java with the same semantics as the native collection,
+     * so sockets dumped once by a wider filter can be dispatched to narrower ones.
+     *
+     * @param sock the socket statistics, the user ID is required if filtered by current user.
+     * @param proto the protocol of the socket.
+     * @return true if the socket passes the filter.
+     */
+    public boolean test(InetSockStat<?> sock, InetProto proto) {
+        if (family != null && family != sock.inetFamily()) return false;
+        if (protocol != null && protocol != proto) return false;
+        if (currentUser && sock.userID() != OsUtils.CURRENT_UID) return false;
+        if (currentProc && sock.processID() != OsUtils.CURRENT_PID) return false;
+        return portFilters == null || portFilters.test(sock);
+    }
+
+    /**
+     * Evaluates the filter on a UNIX domain socket in Java with the same semantics as the native collection.
+     *
+     * @param sock the socket statistics.
+     * @return true if UNIX domain sockets are enabled and the socket passes user and process filters.
+     */
+    public boolean test(UnixSockStat sock) {
+        if (!unix) return false;
+        if (currentUser && sock.userID() != OsUtils.CURRENT_UID) return false;
+        return !currentProc || sock.processID() == OsUtils.CURRENT_PID;
+    }
 
 }
@@ -53,5 +53,13 @@ public class TcpStat {
     /** The estimated available bandwidth in kilobits per second. */
     double estimatedBandwidth;
 
+    /**
+     * Resets all statistics before reusing the instance.
+     */
+    void reset() {
+        roundTripTime = roundTripTimeVar = retransmitTimeout = acknowledgeTimeout = 0;
+        congestionWindow = slowStartThreshold = totalRetransmit = 0;
+        estimatedBandwidth = 0;
+    }
 
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * The {@code UnixSockStat} class represents socket statistics for UNIX domain sockets.
+ * It encapsulates information such as socket type, connection state, bound path, inodes of the socket and its peer,
+ * owning processes, queues and memory usage.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+@Data
+@Accessors(fluent = true)
+public class UnixSockStat {
+
+    /** The {@code UnixSockStat.Type} enum represents types of UNIX domain sockets. */
+    public enum Type {
+        UNKNOWN, STREAM, DGRAM, SEQPACKET;
+
+        /**
+         * Returns the type of the given {@code SOCK_*} value.
+         *
+         * @param value the socket type of the kernel
+         * @return the socket type, or {@link #UNKNOWN} if not supported
+         */
+        public static Type of(int value) {
+            switch (value) {
+                case 1: return STREAM;
+                case 2: return DGRAM;
+                case 5: return SEQPACKET;
+                default: return UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * The type of the socket.
+     */
+    private Type type;
+
+    /**
+     * The connection state of the socket, one of {@code ESTABLISHED}, {@code LISTEN} or {@code CLOSE}.
+     */
+    private ConnState connState;
+
+    /**
+     * The bound path, prefixed by {@code @} for abstract names, or null if unnamed.
+     */
+    private String path;
+
+    /**
+     * The inode of the socket.
+     */
+    private long inode;
+
+    /**
+     * The inode of the peer socket, or 0 if not connected.
+     */
+    private long peerInode;
+
+    /**
+     * The process ID associated with the socket.
+     */
+    private int processID;
+
+    /**
+     * The process ID associated with the peer socket, or 0 if the peer is not collected.
+     */
+    private int peerProcessID;
+
+    /**
+     * The user ID owning the socket. Before Linux 5.3 the kernel does not report it, so it is the user
+     * of the owning process instead, or -1 if the process is unknown.
+     */
+    private int userID = -1;
+
+    /**
+     * For listening sockets: the number of pending connections.
+     * For other sockets: the bytes in the receive queue.
+     */
+    private long requestQueue;
+
+    /**
+     * For listening sockets: the backlog length.
+     * For other sockets: the bytes sent but not yet received by the peer.
+     */
+    private long waitingQueue;
+
+    /**
+     * The bytes allocated for the receive queue.
+     */
+    private long receiveMemory;
+
+    /**
+     * The bytes allocated for the send queue.
+     */
+    private long sendMemory;
+
+    /**
+     * The receive buffer size as set by {@code SO_RCVBUF}.
+     */
+    private long receiveBuffer;
+
+    /**
+     * The send buffer size as set by {@code SO_SNDBUF}.
+     */
+    private long sendBuffer;
+
+}
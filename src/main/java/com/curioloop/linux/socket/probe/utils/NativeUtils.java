@@ -2,11 +2,12 @@ package com.curioloop.linux.socket.probe.utils;
 
 
 import java.io.*;
-import java.nio.file.FileSystemNotFoundException;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.ProviderNotFoundException;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * A simple library class which helps with loading dynamic libraries stored in the
@@ -25,6 +26,18 @@ public class NativeUtils {
     private static final int MIN_PREFIX_LENGTH = 3;
     public static final String NATIVE_FOLDER_PATH_PREFIX = "nativeutils";
 
+    /**
+     * System property of the directory caching extracted libraries, or {@code none} to extract into a new
+     * temporary directory on every start. Defaults to {@code linux-socket-probe-<user>} under {@code java.io.tmpdir}.
+     * The directory must be owned by the current user and not writable by others, otherwise it is not used.
+     */
+    public static final String CACHE_DIR_PROPERTY = "linux.socket.probe.native.cacheDir";
+
+    /**
+     * System property to load a library preinstalled in {@code java.library.path} before extracting the JAR one.
+     */
+    public static final String PREINSTALLED_PROPERTY = "linux.socket.probe.native.preinstalled";
+
     /**
      * Temporary directory which will contain the DLLs.
      */
@@ -96,6 +109,138 @@ public class NativeUtils {
         }
     }
 
+    /**
+     * Loads library preinstalled or from current JAR archive
+     *
+     * If enabled by {@link #PREINSTALLED_PROPERTY}, the library is loaded from {@code java.library.path} first.
+     * Otherwise the file from JAR is extracted into the cache directory as named by its SHA-256 digest, so later starts
+     * reuse it once the cached content is verified. The file is written aside and renamed, so concurrent starts never
+     * load a partially written library. The cache directory and file must be owned by the current user and not writable
+     * by others, so the verified file can not be replaced before it is loaded.
+     * If the cache directory is unusable, falls back to {@link #loadLibraryFromJar},
+     * and if the file is not inside JAR, falls back to {@link System#loadLibrary}.
+     *
+     * @param name The name of library, e.g. name for libname.so
+     * @param path The path of file inside JAR as absolute path (beginning with '/'), e.g. /package/libname.so
+     * @throws IOException If the library can not be extracted
+     * @throws UnsatisfiedLinkError If the library can not be found or loaded
+     */
+    public static void loadLibrary(String name, String path) throws IOException {
+        if (Boolean.getBoolean(PREINSTALLED_PROPERTY)) {
+            try {
+                System.loadLibrary(name);
+                return;
+            } catch (UnsatisfiedLinkError ignore) {
+                // extract from JAR instead
+            }
+        }
+
+        byte[] content;
+        try (InputStream is = NativeUtils.class.getResourceAsStream(path)) {
+            if (is == null) {
+                System.loadLibrary(name);
+                return;
+            }
+            content = readAll(is);
+        }
+
+        Path cached = null;
+        try {
+            cached = extractToCache(path, content);
+        } catch (IOException | SecurityException ignore) {
+            // cache directory unusable
+        }
+        if (cached == null) {
+            loadLibraryFromJar(path);
+        } else {
+            System.load(cached.toAbsolutePath().toString());
+        }
+    }
+
+    /**
+     * Extracts the content into the cache directory unless an identical file is cached already.
+     *
+     * @return the cached file, or null if caching is disabled or the cache directory is not private.
+     */
+    static Path extractToCache(String path, byte[] content) throws IOException {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if ("none".equals(dir)) return null;
+        if (!isPosixCompliant()) return null; // ownership can not be verified
+        Path cacheDir = dir != null ? Paths.get(dir) :
+                Paths.get(System.getProperty("java.io.tmpdir"), "linux-socket-probe-" + System.getProperty("user.name", "default"));
+        if (!Files.exists(cacheDir, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                Files.createDirectories(cacheDir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (FileAlreadyExistsException ignore) {
+                // created concurrently
+            }
+        }
+        // others could replace the cached file between verifying and loading it
+        if (!isPrivate(cacheDir, true)) return null;
+
+        String filename = path.substring(path.lastIndexOf('/') + 1);
+        String digest = sha256(content);
+        int dot = filename.lastIndexOf('.');
+        Path cached = cacheDir.resolve(dot < 0 ? filename + '-' + digest : filename.substring(0, dot) + '-' + digest + filename.substring(dot));
+
+        if (isPrivate(cached, false) && Files.size(cached) == content.length && digest.equals(sha256(Files.readAllBytes(cached)))) {
+            return cached;
+        }
+
+        Path temp = Files.createTempFile(cacheDir, filename, ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return cached;
+    }
+
+    /**
+     * Checks the file is not a link, is owned by the current user and is not writable by group or others.
+     */
+    private static boolean isPrivate(Path file, boolean directory) throws IOException {
+        PosixFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (directory ? !attrs.isDirectory() : !attrs.isRegularFile()) return false;
+        if (attrs.permissions().contains(PosixFilePermission.GROUP_WRITE) || attrs.permissions().contains(PosixFilePermission.OTHERS_WRITE)) {
+            return false;
+        }
+        try {
+            Object uid = Files.getAttribute(file, "unix:uid", LinkOption.NOFOLLOW_LINKS);
+            return OsUtils.CURRENT_UID >= 0 && Integer.valueOf(OsUtils.CURRENT_UID).equals(uid);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+        byte[] buf = new byte[8192];
+        for (int n; (n = is.read(buf)) > 0; ) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private static boolean isPosixCompliant() {
         try {
             return FileSystems.getDefault()
@@ -109,12 +254,10 @@ public class NativeUtils {
     }
 
     private static File createTempDirectory(String prefix) throws IOException {
-        String tempDir = System.getProperty("java.io.tmpdir");
-        File generatedDir = new File(tempDir, prefix + System.nanoTime());
-
-        if (!generatedDir.mkdir())
-            throw new IOException("Failed to create temp directory " + generatedDir.getName());
-
-        return generatedDir;
+        // not shared with other users, who could replace the library before it is loaded
+        if (isPosixCompliant()) {
+            return Files.createTempDirectory(prefix, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"))).toFile();
+        }
+        return Files.createTempDirectory(prefix).toFile();
     }
 }
@@ -1,5 +1,11 @@
 package com.curioloop.linux.socket.probe.utils;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Locale;
 
 /**
@@ -11,6 +17,98 @@ public final class OsUtils {
     public static final String NORMALIZED_ARCH = normalizeArch(System.getProperty("os.arch", ""));
     public static final String NORMALIZED_OS = normalizeOs(System.getProperty("os.name", ""));
 
+    /** Process ID of the JVM, or -1 if unavailable. */
+    public static final int CURRENT_PID = currentPid();
+
+    /** Real user ID of the JVM, or -1 if unavailable. */
+    public static final int CURRENT_UID = currentUid();
+
+    /** Effective capabilities of the JVM as a bit set indexed by capability number, or 0 if unavailable. */
+    public static final long CURRENT_CAPABILITIES = currentCapabilities();
+
+    /** Version of the running kernel as {@code major << 16 | minor << 8 | patch}, or 0 if unavailable. */
+    public static final int KERNEL_VERSION = kernelVersion(System.getProperty("os.version", ""));
+
+    /** Capability number of {@code CAP_NET_ADMIN}. */
+    public static final int CAP_NET_ADMIN = 12;
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Returns the bytes allocated by the current thread so far.
+     *
+     * @return the allocated bytes, or -1 if unsupported by the JVM.
+     */
+    public static long currentThreadAllocatedBytes() {
+        try {
+            if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) THREAD_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch (Throwable ignore) {}
+        return -1;
+    }
+
+    static int currentPid() {
+        try {
+            return Integer.parseInt(Files.readSymbolicLink(Paths.get("/proc/self")).toString());
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    static int currentUid() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("Uid:")) {
+                    return Integer.parseInt(line.substring(4).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | RuntimeException ignore) {}
+        return -1;
+    }
+
+    static long currentCapabilities() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("CapEff:")) {
+                    return Long.parseUnsignedLong(line.substring(7).trim(), 16);
+                }
+            }
+        } catch (IOException | RuntimeException ignore) {}
+        return 0;
+    }
+
+    /**
+     * Returns whether the JVM holds an effective capability.
+     *
+     * @param capability the capability number, e.g. {@link #CAP_NET_ADMIN}.
+     * @return true if the capability is effective.
+     */
+    public static boolean hasCapability(int capability) {
+        return (CURRENT_CAPABILITIES >>> capability & 1) != 0;
+    }
+
+    /**
+     * Parses a kernel release such as {@code 5.15.0-91-generic}.
+     *
+     * @param release the kernel release.
+     * @return the version as {@code major << 16 | minor << 8 | patch}, or 0 if malformed.
+     */
+    static int kernelVersion(String release) {
+        int version = 0, parts = 0, i = 0;
+        while (parts < 3) {
+            int start = i, n = 0;
+            while (i < release.length() && Character.isDigit(release.charAt(i))) {
+                n = n * 10 + (release.charAt(i++) - '0');
+            }
+            if (i == start) break;
+            version |= Math.min(n, 255) << (16 - 8 * parts++);
+            if (i == release.length() || release.charAt(i) != '.') break;
+            i++;
+        }
+        return parts < 2 ? 0 : version;
+    }
+
     private static String normalize(String value) {
         return value.toLowerCase(Locale.US).replaceAll("[^a-z0-9]+", "");
     }
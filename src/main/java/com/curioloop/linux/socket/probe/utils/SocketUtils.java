@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.utils;
+
+import java.io.FileDescriptor;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.net.SocketImpl;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Extracts file descriptors of JDK sockets through reflection.
+ * <p>
+ * On Java 9+ the internals must be opened to the caller, e.g. with
+ * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED} for channels, and
+ * {@code --add-opens java.base/java.net=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED} for sockets.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+public final class SocketUtils {
+
+    private static final Field FD_VALUE = field(FileDescriptor.class, "fd", int.class);
+    private static final Field SOCKET_IMPL = field(Socket.class, "impl", null);
+
+    private SocketUtils() {}
+
+    /**
+     * Returns the file descriptor of a channel, which stays valid until the channel is closed.
+     *
+     * @param channel the socket channel.
+     * @return the file descriptor, or -1 if closed.
+     * @throws UnsupportedOperationException if the descriptor is inaccessible.
+     */
+    public static int fileDescriptor(SocketChannel channel) {
+        if (!channel.isOpen()) return -1;
+        Field fd = field(channel.getClass(), "fdVal", int.class);
+        if (fd != null) return getInt(fd, channel);
+        return fileDescriptor((FileDescriptor) get(field(channel.getClass(), "fd", FileDescriptor.class), channel));
+    }
+
+    /**
+     * Returns the file descriptor of a socket, which stays valid until the socket is closed.
+     *
+     * @param socket the socket.
+     * @return the file descriptor, or -1 if closed or not created yet.
+     * @throws UnsupportedOperationException if the descriptor is inaccessible.
+     */
+    public static int fileDescriptor(Socket socket) {
+        if (socket.getChannel() != null) return fileDescriptor(socket.getChannel());
+        if (socket.isClosed()) return -1;
+        Object impl = get(SOCKET_IMPL, socket);
+        // SocksSocketImpl of Java 13+ delegates to NioSocketImpl
+        for (Field delegate; impl != null && (delegate = field(impl.getClass(), "delegate", SocketImpl.class)) != null; ) {
+            impl = get(delegate, impl);
+        }
+        // SocketImpl#fd on Java 8, while NioSocketImpl shadows it with its own field
+        for (Class<?> c = impl == null ? null : impl.getClass(); c != null; c = c.getSuperclass()) {
+            Field fd = field(c, "fd", FileDescriptor.class);
+            if (fd == null) continue;
+            FileDescriptor value = (FileDescriptor) get(fd, impl);
+            if (value != null) return fileDescriptor(value);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of a file descriptor.
+     *
+     * @param fd the file descriptor.
+     * @return the value, or -1 if invalid.
+     * @throws UnsupportedOperationException if the value is inaccessible.
+     */
+    public static int fileDescriptor(FileDescriptor fd) {
+        return fd == null || !fd.valid() ? -1 : getInt(FD_VALUE, fd);
+    }
+
+    private static Field field(Class<?> type, String name, Class<?> fieldType) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                Field f = c.getDeclaredField(name);
+                if (fieldType != null && f.getType() != fieldType) return null;
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException ignore) {
+                // look up the superclass
+            } catch (RuntimeException e) {
+                // InaccessibleObjectException on Java 9+ without --add-opens
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Object get(Field field, Object target) {
+        if (field == null) throw new UnsupportedOperationException("file descriptor inaccessible, open the JDK internals with --add-opens");
+        try {
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("file descriptor inaccessible", e);
+        }
+    }
+
+    private static int getInt(Field field, Object target) {
+        return (Integer) get(field, target);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.ProbeStats;
+import jdk.jfr.*;
+
+/**
+ * Emits flight recorder events of refreshes.
+ * <p>
+ * Both event types are disabled by default, enable them in a recording with:
+ * <pre>
+ * -XX:StartFlightRecording:settings=profile,+com.curioloop.socket.Collection#enabled=true
+ * </pre>
+ * When disabled, a refresh only checks whether the events are enabled.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockEvents {
+
+    private SockEvents() {}
+
+    @Name("com.curioloop.socket.Collection")
+    @Label("Socket Collection")
+    @Description("Refresh of socket statistics with the cost of each phase")
+    @Category({"Socket Probe"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CollectionEvent extends Event {
+        @Label("Failed") boolean failed;
+        @Label("Generation") long generation;
+        @Label("Sockets") int sockets;
+        @Label("Pid Hash") @Timespan long pidHash;
+        @Label("Dump") @Timespan long dump;
+        @Label("Marshal") @Timespan long marshal;
+        @Label("Build") @Timespan long build;
+        @Label("Dispatch") @Timespan long dispatch;
+        @Label("Observe") @Timespan long observe;
+        @Label("Received") @DataAmount long received;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    @Name("com.curioloop.socket.Threshold")
+    @Label("Socket Threshold")
+    @Description("Socket exceeding a threshold when refreshed")
+    @Category({"Socket Probe"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ThresholdEvent extends Event {
+        @Label("Metric") String metric;
+        @Label("Local Address") String localAddress;
+        @Label("Local Port") int localPort;
+        @Label("Remote Address") String remoteAddress;
+        @Label("Remote Port") int remotePort;
+        @Label("Process ID") int processID;
+        @Label("Value") long value;
+        @Label("Threshold") long threshold;
+    }
+
+    /**
+     * Starts timing a refresh.
+     *
+     * @return the collection event, or null if not recording.
+     */
+    static Object begin() {
+        CollectionEvent event = new CollectionEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends timing a refresh which failed to collect sockets.
+     *
+     * @param event the collection event returned by {@link #begin()}.
+     * @param probe the cost of the failed collection, or null if unknown.
+     */
+    static void fail(Object event, ProbeStats probe) {
+        if (event == null) return;
+        CollectionEvent collection = (CollectionEvent) event;
+        collection.end();
+        if (collection.shouldCommit()) {
+            collection.failed = true;
+            if (probe != null) {
+                collection.pidHash = probe.pidHashNanos();
+                collection.dump = probe.dumpNanos();
+                collection.marshal = probe.marshalNanos();
+                collection.received = probe.receivedBytes();
+                collection.allocated = Math.max(0, probe.allocatedBytes());
+            }
+            collection.commit();
+        }
+    }
+
+    /**
+     * Ends timing a refresh and reports sockets exceeding the thresholds.
+     *
+     * @param event the collection event returned by {@link #begin()}.
+     * @param cost the cost of the refresh.
+     * @param previous the previous snapshot.
+     * @param current the refreshed snapshot.
+     * @param thresholds the per-socket thresholds.
+     */
+    static void commit(Object event, CollectStats cost, SockSnapshot previous, SockSnapshot current, SockThresholds thresholds) {
+        if (event != null) {
+            CollectionEvent collection = (CollectionEvent) event;
+            collection.end();
+            if (collection.shouldCommit()) {
+                collection.generation = cost.generation();
+                collection.sockets = cost.sockets();
+                ProbeStats probe = cost.probe();
+                if (probe != null) {
+                    collection.pidHash = probe.pidHashNanos();
+                    collection.dump = probe.dumpNanos();
+                    collection.marshal = probe.marshalNanos();
+                    collection.received = probe.receivedBytes();
+                    collection.allocated = Math.max(0, probe.allocatedBytes());
+                }
+                collection.build = cost.buildNanos();
+                collection.dispatch = cost.dispatchNanos();
+                collection.observe = cost.observeNanos();
+                collection.allocated += Math.max(0, cost.buildAllocatedBytes());
+                collection.commit();
+            }
+        }
+        if (thresholds == null || !new ThresholdEvent().isEnabled()) return;
+        thresholds.check(previous, current, (row, metric, value, threshold) -> emit(current, row, metric, value, threshold));
+    }
+
+    private static void emit(SockSnapshot snapshot, int row, String metric, long value, long threshold) {
+        ThresholdEvent event = new ThresholdEvent();
+        if (!event.shouldCommit()) return;
+        event.metric = metric;
+        event.localAddress = SockSnapshot.formatIpv4(snapshot.localIps[row]);
+        event.localPort = snapshot.columns[Column.LOCAL_PORT.ordinal()][row];
+        event.remoteAddress = SockSnapshot.formatIpv4(snapshot.remoteIps[row]);
+        event.remotePort = snapshot.columns[Column.REMOTE_PORT.ordinal()][row];
+        event.processID = snapshot.columns[Column.PROCESS_ID.ordinal()][row];
+        event.value = value;
+        event.threshold = threshold;
+        event.commit();
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import java.io.IOException;
+import java.lang.foreign.*;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Backend which talks to netlink with FFM downcalls, without the JNI library.
+ * <p>
+ * Each thread reuses its own native buffers, and {@link SockDiag} decodes records in place
+ * through byte buffer views of them, so no dumped byte is copied onto the heap.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class FfmBackend extends ProbeBackend {
+
+    static final String NAME = "ffm";
+
+    static final int EINTR = 4;
+    static final int EBADF = 9;
+
+    /** Large enough for the kernel to batch many records per dump message. */
+    static final int RECEIVE_BUFFER_SIZE = 32768;
+
+    /** struct sockaddr_nl */
+    static final StructLayout SOCKADDR_NL = MemoryLayout.structLayout(
+            JAVA_SHORT.withName("nl_family"), JAVA_SHORT.withName("nl_pad"),
+            JAVA_INT.withName("nl_pid"), JAVA_INT.withName("nl_groups"));
+
+    /** struct iovec */
+    static final StructLayout IOVEC = MemoryLayout.structLayout(
+            ADDRESS.withName("iov_base"), JAVA_LONG.withName("iov_len"));
+
+    /** struct msghdr */
+    static final StructLayout MSGHDR = MemoryLayout.structLayout(
+            ADDRESS.withName("msg_name"), JAVA_INT.withName("msg_namelen"), MemoryLayout.paddingLayout(4),
+            ADDRESS.withName("msg_iov"), JAVA_LONG.withName("msg_iovlen"),
+            ADDRESS.withName("msg_control"), JAVA_LONG.withName("msg_controllen"),
+            JAVA_INT.withName("msg_flags"), MemoryLayout.paddingLayout(4));
+
+    static final long NL_FAMILY = SOCKADDR_NL.byteOffset(PathElement.groupElement("nl_family"));
+    static final long IOV_BASE = IOVEC.byteOffset(PathElement.groupElement("iov_base"));
+    static final long IOV_LEN = IOVEC.byteOffset(PathElement.groupElement("iov_len"));
+    static final long MSG_NAME = MSGHDR.byteOffset(PathElement.groupElement("msg_name"));
+    static final long MSG_NAMELEN = MSGHDR.byteOffset(PathElement.groupElement("msg_namelen"));
+    static final long MSG_IOV = MSGHDR.byteOffset(PathElement.groupElement("msg_iov"));
+    static final long MSG_IOVLEN = MSGHDR.byteOffset(PathElement.groupElement("msg_iovlen"));
+
+    static final StructLayout CAPTURE = Linker.Option.captureStateLayout();
+    static final long ERRNO = CAPTURE.byteOffset(PathElement.groupElement("errno"));
+
+    final MethodHandle socket;
+    final MethodHandle close;
+    final MethodHandle sendmsg;
+    final MethodHandle recvmsg;
+    final MethodHandle getsockopt;
+
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    FfmBackend() {
+        if (ADDRESS.byteSize() != 8) throw new UnsupportedOperationException("only 64-bit runtime supported");
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup libc = linker.defaultLookup();
+        Linker.Option errno = Linker.Option.captureCallState("errno");
+        socket = linker.downcallHandle(find(libc, "socket"),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT), errno);
+        close = linker.downcallHandle(find(libc, "close"),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT), errno);
+        sendmsg = linker.downcallHandle(find(libc, "sendmsg"),
+                FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_INT), errno);
+        recvmsg = linker.downcallHandle(find(libc, "recvmsg"),
+                FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_INT), errno);
+        getsockopt = linker.downcallHandle(find(libc, "getsockopt"),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS), errno);
+    }
+
+    private static MemorySegment find(SymbolLookup lookup, String name) {
+        return lookup.find(name).orElseThrow(() -> new UnsatisfiedLinkError("symbol not found: " + name));
+    }
+
+    @Override
+    String name() {
+        return NAME;
+    }
+
+    @Override
+    int collect(LinuxSocketProbe probe, SockFilter filter) {
+        Buffers b = buffers.get();
+        int fd;
+        try {
+            fd = (int) socket.invokeExact(b.capture, SockDiag.AF_NETLINK, SockDiag.SOCK_DGRAM, SockDiag.NETLINK_SOCK_DIAG);
+        } catch (Throwable e) {
+            return 1;
+        }
+        if (fd < 0) return 1;
+        try (Channel channel = new Channel(b, fd)) {
+            return SockDiag.collect(probe, filter, channel);
+        }
+    }
+
+    @Override
+    ByteBuffer readTcpInfo(int[] fds, int count) {
+        if (count > fds.length) throw new IndexOutOfBoundsException("count exceeds fds");
+        Buffers b = buffers.get();
+        long size = (long) count * SockDiag.TCP_INFO_SLOT;
+        if (b.slots.byteSize() < size) b.slots = b.arena.allocate(size, 8);
+        for (int i = 0; i < count; i++) {
+            MemorySegment slot = b.slots.asSlice((long) i * SockDiag.TCP_INFO_SLOT, SockDiag.TCP_INFO_SLOT);
+            b.length.set(JAVA_INT, 0, SockDiag.TCP_INFO_LEN);
+            int code;
+            try {
+                code = (int) getsockopt.invokeExact(b.capture, fds[i], SockDiag.SOL_TCP, SockDiag.TCP_INFO, slot.asSlice(4), b.length);
+            } catch (Throwable e) {
+                throw new IllegalStateException("failed to read tcp_info", e);
+            }
+            slot.set(JAVA_INT, 0, code == 0 ? b.length.get(JAVA_INT, 0) : -b.capture.get(JAVA_INT, ERRNO));
+        }
+        return b.slots.asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Native buffers reused by the collections of a thread.
+     */
+    static final class Buffers {
+        final Arena arena = Arena.ofAuto();
+        final MemorySegment capture = arena.allocate(CAPTURE);
+        final MemorySegment address = arena.allocate(SOCKADDR_NL);
+        final MemorySegment iov = arena.allocate(IOVEC);
+        final MemorySegment msg = arena.allocate(MSGHDR);
+        final MemorySegment response = arena.allocate(RECEIVE_BUFFER_SIZE, 8);
+        final MemorySegment length = arena.allocate(JAVA_INT);
+        MemorySegment request = arena.allocate(256, 8);
+        MemorySegment slots = arena.allocate(16L * SockDiag.TCP_INFO_SLOT, 8);
+    }
+
+    /**
+     * Netlink socket exchanging messages through the buffers of the calling thread.
+     */
+    final class Channel implements SockDiag.Transport {
+
+        final Buffers b;
+        final int fd;
+
+        Channel(Buffers b, int fd) {
+            this.b = b;
+            this.fd = fd;
+        }
+
+        @Override
+        public ByteBuffer request(int size) {
+            if (b.request.byteSize() < size) b.request = b.arena.allocate(size, 8);
+            return b.request.asSlice(0, size).fill((byte) 0).asByteBuffer().order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void send(ByteBuffer request) throws IOException {
+            transfer(sendmsg, b.request, request.limit());
+        }
+
+        @Override
+        public ByteBuffer receive() throws IOException {
+            long n = transfer(recvmsg, b.response, b.response.byteSize());
+            return b.response.asSlice(0, n).asByteBuffer().order(ByteOrder.nativeOrder());
+        }
+
+        private long transfer(MethodHandle handle, MemorySegment data, long length) throws IOException {
+            b.address.fill((byte) 0);
+            b.address.set(JAVA_SHORT, NL_FAMILY, (short) SockDiag.AF_NETLINK); // a PID of 0 means the kernel
+            b.iov.set(ADDRESS, IOV_BASE, data);
+            b.iov.set(JAVA_LONG, IOV_LEN, length);
+            b.msg.fill((byte) 0);
+            b.msg.set(ADDRESS, MSG_NAME, b.address);
+            b.msg.set(JAVA_INT, MSG_NAMELEN, (int) SOCKADDR_NL.byteSize());
+            b.msg.set(ADDRESS, MSG_IOV, b.iov);
+            b.msg.set(JAVA_LONG, MSG_IOVLEN, 1L);
+            for (;;) {
+                long n;
+                try {
+                    n = (long) handle.invokeExact(b.capture, fd, b.msg, 0);
+                } catch (Throwable e) {
+                    throw new IOException(e);
+                }
+                if (n >= 0) return n;
+                int errno = b.capture.get(JAVA_INT, ERRNO);
+                if (errno != EINTR) throw new IOException("netlink transfer failed with errno " + errno);
+            }
+        }
+
+        @Override
+        public void close() {
+            int code;
+            try {
+                code = (int) close.invokeExact(b.capture, fd);
+            } catch (Throwable e) {
+                throw new IllegalStateException("failed to close netlink socket", e);
+            }
+            // Linux releases the descriptor even if close fails, only a descriptor closed elsewhere is a bug
+            if (code != 0 && b.capture.get(JAVA_INT, ERRNO) == EBADF) {
+                throw new IllegalStateException("netlink socket " + fd + " closed elsewhere");
+            }
+        }
+    }
+
+}
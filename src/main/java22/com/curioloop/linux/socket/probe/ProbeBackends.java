@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import java.io.IOException;
+
+/**
+ * Selects the backend of the probe.
+ * <p>
+ * The FFM backend is selected when native access is enabled, e.g. with
+ * {@code --enable-native-access=ALL-UNNAMED}, so no warning is printed for restricted methods.
+ * Otherwise the JNI backend is selected unless the FFM backend is explicitly chosen.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class ProbeBackends {
+
+    /** System property to choose the backend: {@code jni}, {@code ffm} or {@code auto} by default. */
+    static final String BACKEND_PROPERTY = "linux.socket.probe.backend";
+
+    private ProbeBackends() {}
+
+    /**
+     * Selects the backend.
+     *
+     * @return the backend.
+     * @throws IOException if the JNI library can not be extracted.
+     * @throws UnsatisfiedLinkError if no backend is available.
+     */
+    static ProbeBackend select() throws IOException {
+        String choice = System.getProperty(BACKEND_PROPERTY, "auto");
+        boolean forced = FfmBackend.NAME.equals(choice);
+        if (forced || "auto".equals(choice) && ProbeBackends.class.getModule().isNativeAccessEnabled()) {
+            try {
+                return new FfmBackend();
+            } catch (RuntimeException | LinkageError e) {
+                if (forced) throw e;
+            }
+        }
+        return JniBackend.load();
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.monitor;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes snapshots to reactive subscribers with latest-value-wins backpressure.
+ * <p>
+ * Each subscriber holds at most one undelivered snapshot: a newer snapshot replaces the
+ * undelivered one, so slow subscribers skip intermediate snapshots instead of queueing them.
+ * A new subscriber receives the latest snapshot first once it requests.
+ * Deltas can be derived by subscribers from consecutive snapshots with {@link SockSnapshot#indexOf}.
+ * <p>
+ * Created by {@link SockMonitor#flowPublisher(Executor)} and registered to a monitor with
+ * {@link SockMonitor#addObserver(SockObserver)}. Only available on Java 9+ from the multi-release JAR,
+ * so the class is not public.
+ *
+ * @author curioloops@gmail.com
+ * @since 2024/4/20
+ */
+final class SockPublisher implements Flow.Publisher<SockSnapshot>, SockObserver, AutoCloseable {
+
+    /** Executor to deliver signals to subscribers. */
+    final Executor executor;
+
+    /** Active subscriptions. */
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /** The latest published snapshot. */
+    private volatile SockSnapshot latest;
+
+    /** Whether the publisher is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a SockPublisher.
+     *
+     * @param executor the executor to deliver signals to subscribers.
+     */
+    SockPublisher(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SockSnapshot> subscriber) {
+        Subscription subscription = new Subscription(Objects.requireNonNull(subscriber));
+        subscriptions.add(subscription);
+        SockSnapshot snapshot = latest;
+        if (snapshot != null) subscription.pending.compareAndSet(null, snapshot);
+        if (closed) subscription.done = true;
+        subscription.signal(true);
+    }
+
+    @Override
+    public void observe(SockSnapshot snapshot) {
+        if (closed) return;
+        latest = snapshot;
+        for (Subscription subscription : subscriptions) {
+            subscription.pending.set(snapshot);
+            subscription.signal(false);
+        }
+    }
+
+    /**
+     * Completes all subscribers after their latest snapshot is delivered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Subscription subscription : subscriptions) {
+            subscription.done = true;
+            subscription.signal(false);
+        }
+    }
+
+    /**
+     * Returns the number of active subscribers.
+     *
+     * @return the number of subscribers.
+     */
+    int subscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Subscription holding at most one undelivered snapshot.
+     */
+    final class Subscription implements Flow.Subscription, Runnable {
+
+        final Flow.Subscriber<? super SockSnapshot> subscriber;
+        final AtomicReference<SockSnapshot> pending = new AtomicReference<>();
+        final AtomicLong requested = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+
+        volatile boolean subscribed;
+        volatile boolean done;
+        volatile boolean cancelled;
+        volatile Throwable error;
+
+        /** Whether onSubscribe was called, only accessed by the draining thread. */
+        boolean started;
+
+        Subscription(Flow.Subscriber<? super SockSnapshot> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                for (long r, u; (r = requested.get()) != Long.MAX_VALUE; ) {
+                    u = r + n < 0 ? Long.MAX_VALUE : r + n;
+                    if (requested.compareAndSet(r, u)) break;
+                }
+            }
+            signal(false);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal(boolean subscribe) {
+            if (subscribe) subscribed = true;
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (; ; ) {
+                if (!started && subscribed) {
+                    started = true;
+                    try {
+                        subscriber.onSubscribe(this);
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                }
+                if (started && !cancelled) {
+                    if (error != null) {
+                        cancel();
+                        subscriber.onError(error);
+                    } else if (requested.get() > 0) {
+                        SockSnapshot snapshot = pending.getAndSet(null);
+                        if (snapshot != null) {
+                            if (requested.get() != Long.MAX_VALUE) requested.decrementAndGet();
+                            try {
+                                subscriber.onNext(snapshot);
+                            } catch (Throwable e) {
+                                cancel();
+                                subscriber.onError(e);
+                            }
+                            continue;
+                        }
+                    }
+                    if (!cancelled && done && pending.get() == null) {
+                        cancel();
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) break;
+            }
+        }
+    }
+
+}
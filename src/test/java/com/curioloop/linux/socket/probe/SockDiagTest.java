@@ -0,0 +1,436 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe;
+
+import com.curioloop.linux.socket.probe.utils.OsUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+public class SockDiagTest {
+
+    static ByteBuffer bytes(byte[] bytecode) {
+        return ByteBuffer.wrap(bytecode).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void testCompile() {
+        ByteBuffer eq = bytes(SockDiag.compile(PortFilter.eq(PortFilter.Side.SRC, 80)));
+        Assertions.assertEquals(16, eq.limit());
+        // S_GE 80 jumps beyond S_LE on failure
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_S_GE, eq.get(0));
+        Assertions.assertEquals(8, eq.get(1));
+        Assertions.assertEquals(20, eq.getShort(2));
+        Assertions.assertEquals(80, eq.getShort(6));
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_S_LE, eq.get(8));
+        Assertions.assertEquals(12, eq.getShort(10));
+
+        ByteBuffer or = bytes(SockDiag.compile(PortFilter.ge(PortFilter.Side.DST, 1000).or(PortFilter.le(PortFilter.Side.DST, 10))));
+        Assertions.assertEquals(20, or.limit());
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_JMP, or.get(8));
+        Assertions.assertEquals(12, or.getShort(10));
+
+        ByteBuffer not = bytes(SockDiag.compile(PortFilter.ge(PortFilter.Side.DST, 1000).not()));
+        Assertions.assertEquals(12, not.limit());
+        Assertions.assertEquals(8, not.getShort(10));
+
+        // MARK with its markcond jumps beyond DEV on failure
+        ByteBuffer cond = bytes(SockDiag.compile(PortFilter.mark(0x100, 0xF00).and(PortFilter.dev(3))));
+        Assertions.assertEquals(20, cond.limit());
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_MARK_COND, cond.get(0));
+        Assertions.assertEquals(12, cond.get(1));
+        Assertions.assertEquals(24, cond.getShort(2));
+        Assertions.assertEquals(0x100, cond.getInt(4));
+        Assertions.assertEquals(0xF00, cond.getInt(8));
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_DEV_COND, cond.get(12));
+        Assertions.assertEquals(8, cond.get(13));
+        Assertions.assertEquals(12, cond.getShort(14));
+        Assertions.assertEquals(3, cond.getInt(16));
+
+        ByteBuffer cgroup = bytes(SockDiag.compile(PortFilter.cgroup(0x1_0000_2345L).not()));
+        Assertions.assertEquals(16, cgroup.limit());
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_CGROUP_COND, cgroup.get(0));
+        Assertions.assertEquals(16, cgroup.getShort(2));
+        Assertions.assertEquals(0x1_0000_2345L, cgroup.getLong(4));
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_JMP, cgroup.get(12));
+
+        // HOST with its hostcond and IPv4 address
+        ByteBuffer host = bytes(SockDiag.compile(PortFilter.host(PortFilter.Side.DST, new byte[]{10, 1, 0, 0}, 16)));
+        Assertions.assertEquals(16, host.limit());
+        Assertions.assertEquals(SockDiag.INET_DIAG_BC_D_COND, host.get(0));
+        Assertions.assertEquals(16, host.get(1));
+        Assertions.assertEquals(20, host.getShort(2));
+        Assertions.assertEquals(SockDiag.AF_INET, host.get(4));
+        Assertions.assertEquals(16, host.get(5));
+        Assertions.assertEquals(-1, host.getInt(8));
+        Assertions.assertEquals(10, host.get(12));
+        Assertions.assertEquals(1, host.get(13));
+    }
+
+    @Test
+    public void testFormatIpv6() {
+        Assertions.assertEquals("::ffff:127.0.0.1", ipv6(0, 0, 0, 0, 0, 0xffff, 0x7f00, 0x0001));
+        Assertions.assertEquals("::", ipv6(0, 0, 0, 0, 0, 0, 0, 0));
+        Assertions.assertEquals("::1", ipv6(0, 0, 0, 0, 0, 0, 0, 1));
+        Assertions.assertEquals("fe80::1:2", ipv6(0xfe80, 0, 0, 0, 0, 0, 1, 2));
+        Assertions.assertEquals("2001:db8:0:1:1:1:1:1", ipv6(0x2001, 0xdb8, 0, 1, 1, 1, 1, 1));
+        Assertions.assertEquals("2001:db8::1:0:0:1", ipv6(0x2001, 0xdb8, 0, 0, 1, 0, 0, 1));
+        Assertions.assertEquals("1::", ipv6(1, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    static String ipv6(int... words) {
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        for (int word : words) buf.putShort((short) word);
+        return SockDiag.formatIpv6(buf, 0);
+    }
+
+    @Test
+    public void testCollect() {
+        ByteBuffer dump = ByteBuffer.allocate(512).order(ByteOrder.nativeOrder());
+        int tcpInfoLen = 104, memInfoLen = 36;
+        int len = SockDiag.NLMSG_HDRLEN + SockDiag.INET_DIAG_MSG_LEN + 4 + tcpInfoLen + 4 + memInfoLen + 8 + 12;
+        dump.putInt(0, len);
+        dump.putShort(4, (short) SockDiag.SOCK_DIAG_BY_FAMILY);
+        int r = SockDiag.NLMSG_HDRLEN;
+        dump.put(r, (byte) SockDiag.AF_INET);
+        dump.put(r + 1, (byte) 1); // ESTABLISHED
+        dump.put(r + 4, (byte) 0x1F).put(r + 5, (byte) 0x90); // 8080
+        dump.put(r + 6, (byte) 0xC3).put(r + 7, (byte) 0x50); // 50000
+        dump.put(r + 8, (byte) 10).put(r + 9, (byte) 0).put(r + 10, (byte) 0).put(r + 11, (byte) 1);
+        dump.put(r + 24, (byte) 192).put(r + 25, (byte) 168).put(r + 26, (byte) 1).put(r + 27, (byte) 2);
+        dump.putInt(r + 40, 2);          // ifindex
+        dump.putInt(r + 56, 3);
+        dump.putInt(r + 60, 4096);
+        dump.putInt(r + 64, 1000);
+        int attr = r + SockDiag.INET_DIAG_MSG_LEN;
+        dump.putShort(attr, (short) (4 + tcpInfoLen));
+        dump.putShort(attr + 2, (short) SockDiag.INET_DIAG_INFO);
+        int info = attr + 4;
+        dump.putInt(info + 8, 204000);   // rto
+        dump.putInt(info + 16, 1000);    // snd_mss
+        dump.putInt(info + 68, 800);     // rtt
+        dump.putInt(info + 72, 400);     // rttvar
+        dump.putInt(info + 76, 0x7FFFFFFF); // infinite ssthresh
+        dump.putInt(info + 80, 10);      // cwnd
+        dump.putInt(info + 100, 7);      // total retrans
+        int mem = info + tcpInfoLen;
+        dump.putShort(mem, (short) (4 + memInfoLen));
+        dump.putShort(mem + 2, (short) SockDiag.INET_DIAG_SKMEMINFO);
+        dump.putInt(mem + 4, 2304);      // rmem_alloc
+        dump.putInt(mem + 8, 131072);    // rcvbuf
+        dump.putInt(mem + 12, 0);        // wmem_alloc
+        dump.putInt(mem + 16, 87040);    // sndbuf
+        dump.putInt(mem + 20, 1792);     // fwd_alloc
+        dump.putInt(mem + 24, 4096);     // wmem_queued
+        int mark = mem + 4 + memInfoLen;
+        dump.putShort(mark, (short) 8);
+        dump.putShort(mark + 2, (short) SockDiag.INET_DIAG_MARK);
+        dump.putInt(mark + 4, 0x2A);
+        dump.putShort(mark + 8, (short) 12);
+        dump.putShort(mark + 10, (short) SockDiag.INET_DIAG_CGROUP_ID);
+        dump.putLong(mark + 12, 0x1_0000_2345L);
+        dump.putInt(len, SockDiag.NLMSG_HDRLEN);
+        dump.putShort(len + 4, (short) SockDiag.NLMSG_DONE);
+        dump.limit(len + SockDiag.NLMSG_HDRLEN);
+
+        List<ByteBuffer> requests = new ArrayList<>();
+        Deque<ByteBuffer> responses = new ArrayDeque<>();
+        responses.add(dump);
+        SockDiag.Transport transport = new SockDiag.Transport() {
+            @Override
+            public ByteBuffer request(int size) {
+                return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            }
+
+            @Override
+            public void send(ByteBuffer request) {
+                requests.add(request);
+            }
+
+            @Override
+            public ByteBuffer receive() {
+                return responses.isEmpty() ? ByteBuffer.allocate(0) : responses.poll();
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        List<InetSockStat<TcpStat>> socks = new ArrayList<>();
+        LinuxSocketProbe probe = new LinuxSocketProbe() {
+            @Override
+            @SuppressWarnings("all")
+            void visitTcpStat(InetSockStat sock, TcpStat tcp) {
+                socks.add(sock.info(tcp));
+            }
+        };
+        SockFilter filter = new SockFilter().family(InetFamily.IPv4).protocol(InetProto.TCP)
+                .portFilters(PortFilter.eq(PortFilter.Side.SRC, 8080));
+        Assertions.assertEquals(0, SockDiag.collect(probe, filter, transport));
+
+        Assertions.assertEquals(1, requests.size());
+        ByteBuffer request = requests.get(0);
+        Assertions.assertEquals(SockDiag.NLMSG_HDRLEN + SockDiag.INET_DIAG_REQ_V2_LEN + 4 + 16, request.getInt(0));
+        Assertions.assertEquals(SockDiag.AF_INET, request.get(SockDiag.NLMSG_HDRLEN));
+        Assertions.assertEquals(SockDiag.IPPROTO_TCP, request.get(SockDiag.NLMSG_HDRLEN + 1));
+
+        Assertions.assertEquals(1, socks.size());
+        InetSockStat<TcpStat> sock = socks.get(0);
+        Assertions.assertEquals("10.0.0.1", sock.localIP());
+        Assertions.assertEquals("192.168.1.2", sock.remoteIP());
+        Assertions.assertEquals(8080, sock.localPort());
+        Assertions.assertEquals(50000, sock.remotePort());
+        Assertions.assertEquals(ConnState.ESTABLISHED, sock.connState());
+        Assertions.assertEquals(3, sock.requestQueue());
+        Assertions.assertEquals(4096, sock.waitingQueue());
+        Assertions.assertEquals(1000, sock.userID());
+        Assertions.assertEquals(2304, sock.receiveMemory());
+        Assertions.assertEquals(131072, sock.receiveBuffer());
+        Assertions.assertEquals(87040, sock.sendBuffer());
+        Assertions.assertEquals(1792, sock.forwardAlloc());
+        Assertions.assertEquals(4096, sock.queuedMemory());
+        Assertions.assertEquals(2, sock.interfaceIndex());
+        Assertions.assertEquals(0x2A, sock.mark());
+        Assertions.assertEquals(0x1_0000_2345L, sock.cgroupID());
+        TcpStat tcp = sock.info();
+        Assertions.assertEquals(204000, tcp.retransmitTimeout());
+        Assertions.assertEquals(800, tcp.roundTripTime());
+        Assertions.assertEquals(400, tcp.roundTripTimeVar());
+        Assertions.assertEquals(0, tcp.slowStartThreshold());
+        Assertions.assertEquals(10, tcp.congestionWindow());
+        Assertions.assertEquals(7, tcp.totalRetransmit());
+        Assertions.assertEquals(10 * 1000 * 8000000. / 800, tcp.estimatedBandwidth());
+    }
+
+    @Test
+    public void testCollectUnix() {
+        ByteBuffer done = ByteBuffer.allocate(SockDiag.NLMSG_HDRLEN).order(ByteOrder.nativeOrder());
+        done.putInt(0, SockDiag.NLMSG_HDRLEN);
+        done.putShort(4, (short) SockDiag.NLMSG_DONE);
+
+        ByteBuffer dump = ByteBuffer.allocate(512).order(ByteOrder.nativeOrder());
+        int r = SockDiag.NLMSG_HDRLEN;
+        dump.put(r, (byte) SockDiag.AF_UNIX);
+        dump.put(r + 1, (byte) 1); // SOCK_STREAM
+        dump.put(r + 2, (byte) 1); // ESTABLISHED
+        dump.putInt(r + 4, 4242);  // inode
+        int attr = r + SockDiag.UNIX_DIAG_MSG_LEN;
+        byte[] name = "\0envoy-admin".getBytes(StandardCharsets.US_ASCII);
+        dump.putShort(attr, (short) (4 + name.length));
+        dump.putShort(attr + 2, (short) SockDiag.UNIX_DIAG_NAME);
+        for (int i = 0; i < name.length; i++) dump.put(attr + 4 + i, name[i]);
+        attr += SockDiag.align(4 + name.length);
+        dump.putShort(attr, (short) 8);
+        dump.putShort(attr + 2, (short) SockDiag.UNIX_DIAG_PEER);
+        dump.putInt(attr + 4, 4343);
+        attr += 8;
+        dump.putShort(attr, (short) 12);
+        dump.putShort(attr + 2, (short) SockDiag.UNIX_DIAG_RQLEN);
+        dump.putInt(attr + 4, 100);
+        dump.putInt(attr + 8, 200);
+        attr += 12;
+        dump.putShort(attr, (short) (4 + 36));
+        dump.putShort(attr + 2, (short) SockDiag.UNIX_DIAG_MEMINFO);
+        dump.putInt(attr + 4, 768);     // rmem_alloc
+        dump.putInt(attr + 8, 212992);  // rcvbuf
+        dump.putInt(attr + 12, 1280);   // wmem_alloc
+        dump.putInt(attr + 16, 212992); // sndbuf
+        attr += 40;
+        dump.putShort(attr, (short) 8);
+        dump.putShort(attr + 2, (short) SockDiag.UNIX_DIAG_UID);
+        dump.putInt(attr + 4, 1000);
+        attr += 8;
+        int len = attr;
+        dump.putInt(0, len);
+        dump.putShort(4, (short) SockDiag.SOCK_DIAG_BY_FAMILY);
+        dump.putInt(len, SockDiag.NLMSG_HDRLEN);
+        dump.putShort(len + 4, (short) SockDiag.NLMSG_DONE);
+        dump.limit(len + SockDiag.NLMSG_HDRLEN);
+
+        List<ByteBuffer> requests = new ArrayList<>();
+        Deque<ByteBuffer> responses = new ArrayDeque<>();
+        responses.add(done);
+        responses.add(dump);
+        SockDiag.Transport transport = new SockDiag.Transport() {
+            @Override
+            public ByteBuffer request(int size) {
+                return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            }
+
+            @Override
+            public void send(ByteBuffer request) {
+                requests.add(request);
+            }
+
+            @Override
+            public ByteBuffer receive() {
+                return responses.isEmpty() ? ByteBuffer.allocate(0) : responses.poll();
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        List<UnixSockStat> socks = new ArrayList<>();
+        LinuxSocketProbe probe = new LinuxSocketProbe() {
+            @Override
+            void visitUnixStat(UnixSockStat sock) {
+                socks.add(sock);
+            }
+        };
+        SockFilter filter = new SockFilter().family(InetFamily.IPv4).protocol(InetProto.TCP).unix(true);
+        Assertions.assertEquals(0, SockDiag.collect(probe, filter, transport));
+
+        Assertions.assertEquals(2, requests.size());
+        ByteBuffer request = requests.get(1);
+        Assertions.assertEquals(SockDiag.NLMSG_HDRLEN + SockDiag.UNIX_DIAG_REQ_LEN, request.getInt(0));
+        Assertions.assertEquals(SockDiag.AF_UNIX, request.get(SockDiag.NLMSG_HDRLEN));
+        Assertions.assertEquals(SockDiag.UNIX_SHOW, request.getInt(SockDiag.NLMSG_HDRLEN + 12));
+
+        Assertions.assertEquals(1, socks.size());
+        UnixSockStat sock = socks.get(0);
+        Assertions.assertEquals(UnixSockStat.Type.STREAM, sock.type());
+        Assertions.assertEquals(ConnState.ESTABLISHED, sock.connState());
+        Assertions.assertEquals("@envoy-admin", sock.path());
+        Assertions.assertEquals(4242, sock.inode());
+        Assertions.assertEquals(4343, sock.peerInode());
+        Assertions.assertEquals(100, sock.requestQueue());
+        Assertions.assertEquals(200, sock.waitingQueue());
+        Assertions.assertEquals(768, sock.receiveMemory());
+        Assertions.assertEquals(1280, sock.sendMemory());
+        Assertions.assertEquals(212992, sock.sendBuffer());
+        Assertions.assertEquals(1000, sock.userID());
+    }
+
+    @Test
+    public void testUnixOwnerFallback() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            int inode = ownSocketInodes().get(0);
+            // messages without UNIX_DIAG_UID like kernels before 5.3, of a socket owned by this process and of an unknown one
+            int msgLen = SockDiag.NLMSG_HDRLEN + SockDiag.UNIX_DIAG_MSG_LEN;
+            ByteBuffer dump = ByteBuffer.allocate(msgLen * 2 + SockDiag.NLMSG_HDRLEN).order(ByteOrder.nativeOrder());
+            int[] inodes = {inode, 7};
+            for (int i = 0; i < inodes.length; i++) {
+                int h = i * msgLen;
+                dump.putInt(h, msgLen);
+                dump.putShort(h + 4, (short) SockDiag.SOCK_DIAG_BY_FAMILY);
+                dump.put(h + SockDiag.NLMSG_HDRLEN, (byte) SockDiag.AF_UNIX);
+                dump.put(h + SockDiag.NLMSG_HDRLEN + 1, (byte) 1); // SOCK_STREAM
+                dump.putInt(h + SockDiag.NLMSG_HDRLEN + 4, inodes[i]);
+            }
+            dump.putInt(msgLen * 2, SockDiag.NLMSG_HDRLEN);
+            dump.putShort(msgLen * 2 + 4, (short) SockDiag.NLMSG_DONE);
+            ByteBuffer done = ByteBuffer.allocate(SockDiag.NLMSG_HDRLEN).order(ByteOrder.nativeOrder());
+            done.putInt(0, SockDiag.NLMSG_HDRLEN);
+            done.putShort(4, (short) SockDiag.NLMSG_DONE);
+
+            List<UnixSockStat> socks = new ArrayList<>();
+            LinuxSocketProbe probe = new LinuxSocketProbe() {
+                @Override
+                void visitUnixStat(UnixSockStat sock) {
+                    socks.add(sock);
+                }
+            };
+            SockFilter filter = new SockFilter().family(InetFamily.IPv4).protocol(InetProto.TCP).unix(true).currentUser(true);
+            Assertions.assertEquals(0, SockDiag.collect(probe, filter, replay(new ArrayList<>(), done, dump)));
+
+            // the owner of the process stands in for the missing attribute, unknown owners are not the current user
+            Assertions.assertEquals(1, socks.size());
+            Assertions.assertEquals(inode & 0xFFFFFFFFL, socks.get(0).inode());
+            Assertions.assertEquals(OsUtils.CURRENT_PID, socks.get(0).processID());
+            Assertions.assertEquals(OsUtils.CURRENT_UID, socks.get(0).userID());
+        }
+    }
+
+    @Test
+    public void testPairUnixPeers() {
+        UnixSockStat client = new UnixSockStat().inode(1).peerInode(2).processID(100);
+        UnixSockStat server = new UnixSockStat().inode(2).peerInode(1).processID(200);
+        UnixSockStat orphan = new UnixSockStat().inode(3).peerInode(9).processID(300);
+        LinuxSocketProbe.pairUnixPeers(Arrays.asList(client, server, orphan));
+        Assertions.assertEquals(200, client.peerProcessID());
+        Assertions.assertEquals(100, server.peerProcessID());
+        Assertions.assertEquals(0, orphan.peerProcessID());
+        Assertions.assertEquals("/run/app.sock", SockDiag.formatUnixPath(
+                ByteBuffer.wrap("/run/app.sock\0".getBytes(StandardCharsets.US_ASCII)), 0, 14));
+    }
+
+    @Test
+    public void testPidTable() throws Exception {
+        Assertions.assertTrue(new File("/proc/self/fd").isDirectory(), "procfs required");
+        try (ServerSocket server = new ServerSocket(0)) {
+            SockDiag.PidTable table = SockDiag.PidTable.build();
+            List<Integer> inodes = ownSocketInodes();
+            for (int inode : inodes) {
+                Assertions.assertEquals(OsUtils.CURRENT_PID, table.get(inode));
+            }
+            Assertions.assertFalse(inodes.isEmpty());
+            Assertions.assertEquals(OsUtils.CURRENT_UID, table.uid(OsUtils.CURRENT_PID));
+            Assertions.assertEquals(-1, table.uid(Integer.MAX_VALUE));
+        }
+    }
+
+    static List<Integer> ownSocketInodes() {
+        List<Integer> inodes = new ArrayList<>();
+        for (String fd : new File("/proc/self/fd").list()) {
+            String link;
+            try {
+                link = Files.readSymbolicLink(Paths.get("/proc/self/fd", fd)).toString();
+            } catch (Exception e) {
+                continue;
+            }
+            if (!link.startsWith("socket:[")) continue;
+            inodes.add((int) Long.parseLong(link.substring(8, link.length() - 1)));
+        }
+        return inodes;
+    }
+
+    static SockDiag.Transport replay(List<ByteBuffer> requests, ByteBuffer... responses) {
+        Deque<ByteBuffer> pending = new ArrayDeque<>(Arrays.asList(responses));
+        return new SockDiag.Transport() {
+            @Override
+            public ByteBuffer request(int size) {
+                return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            }
+
+            @Override
+            public void send(ByteBuffer request) {
+                requests.add(request);
+            }
+
+            @Override
+            public ByteBuffer receive() {
+                return pending.isEmpty() ? ByteBuffer.allocate(0) : pending.poll();
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+}
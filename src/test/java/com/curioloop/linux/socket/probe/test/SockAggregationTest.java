@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.CidrMatcher;
+import com.curioloop.linux.socket.monitor.SockAggregator;
+import com.curioloop.linux.socket.monitor.SockAggregator.MatchMode;
+import com.curioloop.linux.socket.monitor.SockGrouping;
+import com.curioloop.linux.socket.monitor.SockGrouping.Aggregate;
+import com.curioloop.linux.socket.monitor.SockGrouping.Dimension;
+import com.curioloop.linux.socket.monitor.SockHistogram;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.monitor.SockTopK;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.PortFilter;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public class SockAggregationTest {
+
+    static SockSnapshot snapshot(long generation, int sockets, int remotePorts) {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(sockets);
+        for (int i = 0; i < sockets; i++) {
+            int row = builder.insert(0x7F000001, 30000 + i, 0x0A000001, 8000 + i % remotePorts);
+            builder.set(Column.ROUND_TRIP_TIME, row, i);
+            builder.set(Column.REQUEST_QUEUE, row, i % 7);
+        }
+        return builder.build(generation, generation * 1000);
+    }
+
+    @Test
+    public void testHistogram() {
+        SockHistogram h = new SockHistogram();
+        for (int i = 1; i <= 1000; i++) h.record(i);
+        Assertions.assertEquals(1000, h.count());
+        Assertions.assertEquals(500500, h.sum());
+        Assertions.assertEquals(1, h.min());
+        Assertions.assertEquals(1000, h.max());
+        long p50 = h.percentile(0.5);
+        Assertions.assertTrue(p50 >= 500 && p50 <= 500 * (1 + 1.0 / SockHistogram.SUB_BUCKETS), "p50=" + p50);
+        Assertions.assertEquals(1000, h.percentile(1));
+        Assertions.assertEquals(0xFFFFFFFFL, SockHistogram.bucketUpperBound(SockHistogram.BUCKETS - 1));
+
+        SockHistogram other = new SockHistogram();
+        other.record(0xFFFFFFFFL);
+        h.merge(other);
+        Assertions.assertEquals(1001, h.count());
+        Assertions.assertEquals(0xFFFFFFFFL, h.max());
+        h.reset();
+        Assertions.assertEquals(0, h.count());
+        Assertions.assertEquals(0, h.percentile(0.9));
+    }
+
+    @Test
+    public void testGrouping() {
+        SockGrouping grouping = new SockGrouping(3, Dimension.REMOTE_IP, Dimension.REMOTE_PORT);
+        for (int gen = 1; gen <= 2; gen++) {
+            grouping.observe(snapshot(gen, 1000, 5));
+            Map<String, Long> sockets = new HashMap<>();
+            grouping.forEach(group -> {
+                Assertions.assertEquals(group.sockets(), group.histogram(Column.ROUND_TRIP_TIME).count());
+                Assertions.assertNull(group.histogram(Column.TOTAL_RETRANSMIT));
+                if (!group.isOverflow()) Assertions.assertEquals("10.0.0.1", group.label(Dimension.REMOTE_IP));
+                sockets.put(group.label(Dimension.REMOTE_PORT), group.sockets());
+            });
+            Assertions.assertEquals(4, sockets.size());
+            Assertions.assertEquals(200L, sockets.get("8000"));
+            Assertions.assertEquals(400L, sockets.get(SockGrouping.OVERFLOW));
+            Assertions.assertEquals(4, grouping.aggregates().size());
+            for (Aggregate aggregate : grouping.aggregates()) {
+                Assertions.assertEquals(sockets.get(aggregate.label(Dimension.REMOTE_PORT)).longValue(), aggregate.sockets());
+                Assertions.assertEquals(aggregate.sockets(), aggregate.count(Column.ROUND_TRIP_TIME));
+                Assertions.assertEquals(-1, aggregate.count(Column.TOTAL_RETRANSMIT));
+            }
+        }
+        // published aggregates are not mutated by later refreshes
+        Aggregate overflow = grouping.aggregates().get(3);
+        Assertions.assertTrue(overflow.isOverflow());
+        grouping.observe(snapshot(3, 0, 1));
+        Assertions.assertTrue(grouping.aggregates().isEmpty());
+        Assertions.assertEquals(400L, overflow.sockets());
+        Assertions.assertEquals(400L, overflow.count(Column.ROUND_TRIP_TIME));
+        for (int gen = 4; gen <= 6; gen++) {
+            grouping.observe(snapshot(gen, 0, 1));
+        }
+        Assertions.assertEquals(0, grouping.size());
+    }
+
+    @Test
+    public void testTopK() {
+        SockTopK topK = new SockTopK(3, new Column[]{Column.ROUND_TRIP_TIME}, new Column[]{Column.TOTAL_RETRANSMIT});
+        for (int gen = 1; gen <= 3; gen++) {
+            SockSnapshot.Builder builder = new SockSnapshot.Builder(0);
+            for (int i = 0; i < 1000; i++) {
+                int row = builder.insert(0x7F000001, 30000 + i, 0x0A000001, 80);
+                builder.set(Column.ROUND_TRIP_TIME, row, (i * 7919) % 1000);
+                // socket 30042 retransmits 200 segments per refresh, even sockets retransmit once
+                builder.set(Column.TOTAL_RETRANSMIT, row, i == 42 ? gen * 200 : (i % 2 == 0 ? gen : 0));
+            }
+            topK.observe(builder.build(gen, gen * 2000L));
+        }
+        List<SockTopK.Entry> rtt = topK.top(Column.ROUND_TRIP_TIME);
+        Assertions.assertEquals(3, rtt.size());
+        Assertions.assertEquals(999, rtt.get(0).value());
+        Assertions.assertEquals(998, rtt.get(1).value());
+        Assertions.assertEquals(997, rtt.get(2).value());
+
+        SockKey worst = new SockKey("10.0.0.1", "127.0.0.1", 80, 30042);
+        List<SockTopK.Entry> rate = topK.topRate(Column.TOTAL_RETRANSMIT);
+        Assertions.assertEquals(worst, rate.get(0).key());
+        Assertions.assertEquals(100.0, rate.get(0).value());
+
+        List<SockTopK.Entry> hitters = topK.heavyHitters(Column.TOTAL_RETRANSMIT);
+        Assertions.assertEquals(worst, hitters.get(0).key());
+        Assertions.assertTrue(hitters.get(0).value() >= 400);
+    }
+
+    static InetSockStat<TcpStat> remote(String ip, int port) {
+        return new InetSockStat<TcpStat>().remoteIP(ip).remotePort(port).localIP("127.0.0.1").localPort(1234);
+    }
+
+    @Test
+    public void testCidrMatcher() {
+        CidrMatcher matcher = CidrMatcher.builder()
+                .rule("10.0.0.0/8", 8000, 8999)
+                .rule("10.1.2.3", 9000, 9000)
+                .rule("2001:db8::/32", 443, 443)
+                .build(MatchMode.REMOTE);
+        Assertions.assertTrue(matcher.test(new SockKey("10.20.30.40", "127.0.0.1", 8080, 1234)));
+        Assertions.assertFalse(matcher.test(new SockKey("11.20.30.40", "127.0.0.1", 8080, 1234)));
+        Assertions.assertFalse(matcher.test(new SockKey("10.20.30.40", "127.0.0.1", 9000, 1234)));
+        Assertions.assertTrue(matcher.test(new SockKey("10.1.2.3", "127.0.0.1", 9000, 1234)));
+        Assertions.assertTrue(matcher.test("2001:db8:1::7", 443));
+        Assertions.assertFalse(matcher.test("2001:db9::7", 443));
+        Assertions.assertFalse(matcher.test("::ffff:10.0.0.1", 8080));
+
+        SockSnapshot snapshot = snapshot(1, 10, 3);
+        Assertions.assertTrue(matcher.test(snapshot, 0));
+
+        PortFilter filter = matcher.toPortFilter();
+        Assertions.assertEquals(PortFilter.Op.OR, filter.op());
+        Assertions.assertTrue(filter.test(remote("10.20.30.40", 8080)));
+        Assertions.assertTrue(filter.test(remote("10.1.2.3", 9000)));
+        Assertions.assertTrue(filter.test(remote("2001:db8:1::7", 443)));
+        Assertions.assertFalse(filter.test(remote("11.20.30.40", 8080)));
+        Assertions.assertFalse(filter.test(remote("10.20.30.40", 9000)));
+        Assertions.assertFalse(filter.test(remote("2001:db9::7", 443)));
+        Assertions.assertNull(CidrMatcher.builder().rule("0.0.0.0/0").build(MatchMode.LOCAL).toPortFilter());
+        Assertions.assertEquals(PortFilter.Op.GE, CidrMatcher.builder().rule("0.0.0.0/0", 1024, 0xFFFF).build(MatchMode.LOCAL).toPortFilter().op());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CidrMatcher.builder().rule("2001:+db8::/32"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CidrMatcher.builder().rule("2001:-db8::/32"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CidrMatcher.builder().rule("2001:0db80::/32"));
+        Assertions.assertFalse(matcher.test("2001:db8:+1::7", 443));
+    }
+
+    @Test
+    public void testAsyncAggregator() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Stream<InetSocketAddress>> source = () -> {
+            if (calls.incrementAndGet() > 1) throw new IllegalStateException("discovery down");
+            return Stream.of(new InetSocketAddress("10.0.0.1", 8080));
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SockAggregator aggregator = new SockAggregator(MatchMode.REMOTE, 0, () -> Collections.singletonList(source), executor);
+            SockKey key = new SockKey("10.0.0.1", "127.0.0.1", 8080, 1234);
+            Assertions.assertFalse(aggregator.test(key)); // served before the first refresh completes
+            Assertions.assertEquals(-1, aggregator.staleness());
+            awaitRefresh(executor);
+            Assertions.assertTrue(aggregator.test(key)); // triggers a failing refresh
+            awaitRefresh(executor);
+            Assertions.assertTrue(aggregator.test(key)); // last good addresses are kept
+            awaitRefresh(executor);
+            Assertions.assertEquals(2, calls.get()); // failed refresh backs off instead of retrying on every match
+            Assertions.assertEquals(1, aggregator.failureCount());
+            Assertions.assertTrue(aggregator.lastFailure() instanceof IllegalStateException);
+            Assertions.assertTrue(aggregator.staleness() >= 0);
+            Assertions.assertTrue(aggregator.refreshLatency() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static void awaitRefresh(ExecutorService executor) throws Exception {
+        executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+    }
+
+}
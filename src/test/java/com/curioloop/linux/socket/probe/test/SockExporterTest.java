@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.exporter.PrometheusExporter;
+import com.curioloop.linux.socket.monitor.SockGrouping;
+import com.curioloop.linux.socket.monitor.SockGrouping.Dimension;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SockExporterTest {
+
+    static InetSockStat<TcpStat> sock(int localPort, int remotePort, int rtt) {
+        return SockFilterTest.sock(localPort, remotePort).connState(ConnState.ESTABLISHED)
+                .info(new TcpStat().roundTripTime(rtt).totalRetransmit(3));
+    }
+
+    static String render(PrometheusExporter exporter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRender() throws Exception {
+        SockMonitor monitor = new SockMonitor();
+        SockGrouping grouping = new SockGrouping(10, Dimension.REMOTE_PORT);
+        monitor.addObserver(grouping);
+        PrometheusExporter exporter = new PrometheusExporter(monitor).addGrouping("remote", grouping);
+        Assertions.assertFalse(render(exporter).contains("linux_socket_collect"));
+
+        monitor.publishStats(Arrays.asList(sock(40000, 3306, 100), sock(40001, 3306, 300)));
+        String text = render(exporter);
+        String labels = "{local_ip=\"127.0.0.1\",local_port=\"40000\",remote_ip=\"10.0.0.1\",remote_port=\"3306\",pid=\"";
+        Assertions.assertTrue(text.contains("# TYPE linux_socket_retransmit_total counter\n"), text);
+        Assertions.assertTrue(text.contains("linux_socket_round_trip_time" + labels), text);
+        Assertions.assertTrue(text.contains("\",state=\"ESTABLISHED\"} 100\n"), text);
+        Assertions.assertTrue(text.contains("linux_socket_collect_sockets 2\n"), text);
+        Assertions.assertTrue(text.contains("linux_socket_group_sockets{grouping=\"remote\",remote_port=\"3306\"} 2\n"), text);
+        Assertions.assertTrue(text.contains("linux_socket_group_round_trip_time_sum{grouping=\"remote\",remote_port=\"3306\"} 400\n"), text);
+        Assertions.assertTrue(text.contains("linux_socket_group_round_trip_time{grouping=\"remote\",remote_port=\"3306\",quantile=\"0.99\"} 300\n"), text);
+        Assertions.assertTrue(text.matches("(?s).*linux_socket_collect_seconds\\{phase=\"build\"} [0-9]+(\\.[0-9]+)?\n.*"), text);
+
+        // labels of unchanged sockets are reused, the closed one is gone
+        monitor.publishStats(Collections.singletonList(sock(40001, 3306, 500)));
+        text = render(exporter);
+        Assertions.assertFalse(text.contains("local_port=\"40000\""), text);
+        Assertions.assertTrue(text.contains("local_port=\"40001\""), text);
+        Assertions.assertTrue(text.contains("\",state=\"ESTABLISHED\"} 500\n"), text);
+
+        exporter.perSocket(false);
+        Assertions.assertFalse(render(exporter).contains("local_port"));
+    }
+
+    @Test
+    public void testServe() throws Exception {
+        SockMonitor monitor = new SockMonitor();
+        monitor.publishStats(Collections.singletonList(sock(40000, 3306, 100)));
+        try (PrometheusExporter exporter = new PrometheusExporter(monitor).start(new InetSocketAddress("127.0.0.1", 0))) {
+            URL url = new URL("http://127.0.0.1:" + exporter.address().getPort() + PrometheusExporter.PATH);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assertions.assertEquals(200, connection.getResponseCode());
+            Assertions.assertEquals(PrometheusExporter.CONTENT_TYPE, connection.getContentType());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buf = new byte[4096];
+                for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+            }
+            Assertions.assertEquals(render(exporter), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            Assertions.assertEquals(405, connection.getResponseCode());
+        }
+    }
+
+}
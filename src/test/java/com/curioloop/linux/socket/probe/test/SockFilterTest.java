@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockHub;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.probe.*;
+import com.curioloop.linux.socket.probe.utils.OsUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class SockFilterTest {
+
+    static InetSockStat<TcpStat> sock(int localPort, int remotePort) {
+        return new InetSockStat<TcpStat>().inetFamily(InetFamily.IPv4)
+                .localIP("127.0.0.1").localPort(localPort).remoteIP("10.0.0.1").remotePort(remotePort)
+                .processID(OsUtils.CURRENT_PID).userID(OsUtils.CURRENT_UID);
+    }
+
+    @Test
+    public void testJavaEvaluation() {
+        PortFilter ports = PortFilter.eq(PortFilter.Side.DST, 3306)
+                .or(PortFilter.ge(PortFilter.Side.SRC, 8000).and(PortFilter.le(PortFilter.Side.SRC, 8999)).and(PortFilter.eq(PortFilter.Side.DST, 80).not()));
+        SockFilter filter = new SockFilter().family(InetFamily.IPv4).protocol(InetProto.TCP).currentProc(true).portFilters(ports);
+        Assertions.assertTrue(filter.test(sock(40000, 3306), InetProto.TCP));
+        Assertions.assertTrue(filter.test(sock(8080, 443), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(8080, 80), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 443), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 3306), InetProto.UDP));
+        Assertions.assertFalse(filter.test(sock(40000, 3306).processID(OsUtils.CURRENT_PID + 1), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 3306).inetFamily(InetFamily.IPv6), InetProto.TCP));
+    }
+
+    @Test
+    public void testSocketConditions() {
+        PortFilter tagged = PortFilter.mark(0x100, 0xF00).and(PortFilter.cgroup(4242).or(PortFilter.dev(2)))
+                .and(PortFilter.eq(PortFilter.Side.DST, 3306));
+        SockFilter filter = new SockFilter().portFilters(tagged);
+        Assertions.assertTrue(filter.test(sock(40000, 3306).mark(0x1FF).cgroupID(4242), InetProto.TCP));
+        Assertions.assertTrue(filter.test(sock(40000, 3306).mark(0x100).interfaceIndex(2), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 3306).mark(0x200).cgroupID(4242), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 3306).mark(0x100), InetProto.TCP));
+        Assertions.assertFalse(filter.test(sock(40000, 6379).mark(0x100).cgroupID(4242), InetProto.TCP));
+        Assertions.assertThrows(IllegalStateException.class, () -> tagged.test(40000, 3306));
+
+        Assertions.assertEquals(5 << 16 | 9 << 8, PortFilter.Op.CGROUP.minKernel());
+        Assertions.assertEquals(0, PortFilter.Op.EQ.minKernel());
+        Assertions.assertTrue(OsUtils.KERNEL_VERSION >= 2 << 16);
+    }
+
+    @Test
+    public void testHubUnion() {
+        SockHub hub = new SockHub();
+        PortFilter db = PortFilter.eq(PortFilter.Side.DST, 3306);
+        PortFilter cache = PortFilter.eq(PortFilter.Side.DST, 6379);
+        hub.subscribe(new SockMonitor(), new SockFilter().protocol(InetProto.TCP).currentProc(true).portFilters(db));
+        hub.subscribe(new SockMonitor(), new SockFilter().protocol(InetProto.TCP).portFilters(cache));
+        SockFilter union = hub.unionFilter();
+        Assertions.assertEquals(InetProto.TCP, union.protocol());
+        Assertions.assertFalse(union.currentProc());
+        Assertions.assertTrue(union.portFilters().test(1, 3306));
+        Assertions.assertTrue(union.portFilters().test(1, 6379));
+        Assertions.assertFalse(union.portFilters().test(1, 80));
+
+        hub.subscribe(new SockMonitor(), null);
+        Assertions.assertNull(hub.unionFilter().portFilters());
+    }
+
+    @Test
+    public void testPublishStats() {
+        SockMonitor monitor = new SockMonitor();
+        SockSnapshot snapshot = monitor.publishStats(Arrays.asList(sock(40000, 3306), sock(40001, 6379)));
+        Assertions.assertEquals(2, snapshot.size());
+        Assertions.assertSame(snapshot, monitor.tcpSnapshot());
+        Assertions.assertEquals(2, monitor.tcpStats().size());
+        Assertions.assertEquals(2, monitor.collectStats().sockets());
+        Assertions.assertEquals(snapshot.generation(), monitor.collectStats().generation());
+        Assertions.assertNull(monitor.collectStats().probe());
+    }
+
+}
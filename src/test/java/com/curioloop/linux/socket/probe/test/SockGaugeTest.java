@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockGauge;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SockGaugeTest {
+
+    @Test
+    public void testResolvedSlot() {
+        SockMonitor monitor = new SockMonitor();
+        SockKey key = new SockKey("10.0.0.1", "127.0.0.1", 80, 8080);
+        SockGauge.Slot slot = SockGauge.Slot.of(key, monitor);
+        Assertions.assertNotNull(slot);
+        SockGauge rtt = SockGauge.of(slot, SockSnapshot.Column.ROUND_TRIP_TIME, -1);
+        SockGauge queue = SockGauge.of(slot, SockSnapshot.Column.REQUEST_QUEUE, -1);
+        Assertions.assertEquals(-1, rtt.doubleValue()); // absent before the first refresh
+
+        InetSockStat<TcpStat> sock = SockFilterTest.sock(8080, 80).requestQueue(7);
+        sock.info(new TcpStat().roundTripTime(1500));
+        monitor.publishStats(Arrays.asList(sock, SockFilterTest.sock(8081, 80)));
+        Assertions.assertEquals(1500, rtt.doubleValue());
+        Assertions.assertEquals(7, queue.doubleValue());
+
+        // without tcp_info the TCP metrics fall back to the default while queues are still reported
+        sock.info(null);
+        monitor.publishStats(Collections.singletonList(sock));
+        Assertions.assertEquals(-1, rtt.doubleValue());
+        Assertions.assertEquals(-1, SockGauge.rrt(key, monitor, -1).doubleValue());
+        Assertions.assertEquals(7, queue.doubleValue());
+        Assertions.assertEquals(7, SockGauge.txQueue(key, monitor, -1).doubleValue());
+
+        // the socket is gone
+        monitor.publishStats(Collections.singletonList(SockFilterTest.sock(8081, 80)));
+        Assertions.assertEquals(-1, queue.doubleValue());
+        Assertions.assertNull(SockGauge.Slot.of(new SockKey("::1", "::1", 80, 8080), monitor));
+    }
+
+}
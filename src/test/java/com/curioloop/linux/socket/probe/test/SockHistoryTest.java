@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockHistory;
+import com.curioloop.linux.socket.monitor.SockHistory.Resolution;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SockHistoryTest {
+
+    static SockSnapshot snapshot(long timestamp, int sockets, long[] rtt) {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(sockets);
+        for (int i = 0; i < sockets; i++) {
+            int row = builder.insert(0x7F000001, 30000 + i, 0x0A000001, 80);
+            builder.set(Column.ROUND_TRIP_TIME, row, (int) rtt[i]);
+            builder.set(Column.REQUEST_QUEUE, row, i);
+        }
+        return builder.build(timestamp, timestamp);
+    }
+
+    @Test
+    public void testRawAndRollup() {
+        SockHistory history = new SockHistory(key -> key.localPort() != 30001, 1 << 20);
+        Random random = new Random(1);
+        List<long[]> expected = new ArrayList<>();
+        long start = 1_000_000;
+        for (int t = 0; t < 600; t++) {
+            long[] rtt = {random.nextInt(1 << 20), 5000 + t};
+            expected.add(rtt);
+            // jitter on poll interval
+            history.observe(snapshot(start + t * 1000L + random.nextInt(50), 2, rtt));
+        }
+        SockKey watched = new SockKey("10.0.0.1", "127.0.0.1", 80, 30000);
+        SockKey ignored = new SockKey("10.0.0.1", "127.0.0.1", 80, 30001);
+        Assertions.assertFalse(history.query(ignored, Column.ROUND_TRIP_TIME, 0, Long.MAX_VALUE, Resolution.RAW, (ts, min, max, sum, count) -> {}));
+
+        List<Long> raw = new ArrayList<>();
+        Assertions.assertTrue(history.query(watched, Column.ROUND_TRIP_TIME, 0, Long.MAX_VALUE, Resolution.RAW,
+                (ts, min, max, sum, count) -> raw.add(min)));
+        Assertions.assertFalse(raw.isEmpty());
+        int offset = expected.size() - raw.size();
+        for (int i = 0; i < raw.size(); i++) {
+            Assertions.assertEquals(expected.get(offset + i)[0], (long) raw.get(i));
+        }
+
+        long[] total = new long[2];
+        history.query(watched, Column.ROUND_TRIP_TIME, 0, Long.MAX_VALUE, Resolution.ONE_MINUTE, (ts, min, max, sum, count) -> {
+            Assertions.assertEquals(0, ts % 60_000);
+            Assertions.assertTrue(min <= max);
+            total[0] += sum;
+            total[1] += count;
+        });
+        Assertions.assertEquals(600, total[1]);
+        Assertions.assertEquals(expected.stream().mapToLong(v -> v[0]).sum(), total[0]);
+
+        List<Long> tens = new ArrayList<>();
+        history.query(watched, Column.REQUEST_QUEUE, start + 100_000, start + 200_000, Resolution.TEN_SECONDS,
+                (ts, min, max, sum, count) -> tens.add(ts));
+        Assertions.assertEquals(10, tens.size());
+    }
+
+    @Test
+    public void testByteBudget() {
+        SockHistory probe = new SockHistory(key -> true, Long.MAX_VALUE);
+        probe.observe(snapshot(1000, 1, new long[]{1}));
+        long perSeries = probe.reservedBytes();
+
+        SockHistory history = new SockHistory(key -> true, perSeries * 3);
+        history.observe(snapshot(1000, 2, new long[]{1, 2}));
+        Assertions.assertEquals(2, history.keys().size());
+        history.observe(snapshot(2000, 5, new long[]{1, 2, 3, 4, 5}));
+        Assertions.assertEquals(3, history.keys().size());
+        Assertions.assertTrue(history.reservedBytes() <= perSeries * 3);
+    }
+
+    @Test
+    public void testPredicateOnce() {
+        List<SockKey> tested = new ArrayList<>();
+        SockHistory history = new SockHistory(key -> tested.add(key) && key.localPort() == 30000, 1 << 20);
+        for (int t = 0; t < 10; t++) {
+            history.observe(snapshot(1000 + t * 1000L, 3, new long[]{1, 2, 3}));
+        }
+        Assertions.assertEquals(3, tested.size());
+        Assertions.assertEquals(1, history.keys().size());
+        Assertions.assertEquals(new SockKey("10.0.0.1", "127.0.0.1", 80, 30000), history.keys().get(0));
+
+        // rejected sockets are forgotten once they disappear
+        history.observe(snapshot(20_000, 1, new long[]{1}));
+        history.observe(snapshot(21_000, 3, new long[]{1, 2, 3}));
+        Assertions.assertEquals(5, tested.size());
+    }
+
+    static SockSnapshot ports(long timestamp, int... ports) {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(ports.length);
+        for (int port : ports) {
+            builder.set(Column.ROUND_TRIP_TIME, builder.insert(0x7F000001, port, 0x0A000001, 80), port);
+        }
+        return builder.build(timestamp, timestamp);
+    }
+
+    static int points(SockHistory history, int port) {
+        int[] count = new int[1];
+        history.query(new SockKey("10.0.0.1", "127.0.0.1", 80, port), Column.ROUND_TRIP_TIME, 0, Long.MAX_VALUE,
+                Resolution.RAW, (ts, min, max, sum, n) -> count[0]++);
+        return count[0];
+    }
+
+    @Test
+    public void testEvictOnlyMissing() {
+        SockHistory probe = new SockHistory(key -> true, Long.MAX_VALUE);
+        probe.observe(ports(1000, 30000));
+        SockHistory history = new SockHistory(key -> true, probe.reservedBytes() * 2);
+
+        // live series are kept, the socket beyond the budget is not watched
+        for (int t = 1; t <= 5; t++) {
+            history.observe(ports(t * 1000L, 30000, 30001, 30002));
+        }
+        Assertions.assertEquals(5, points(history, 30000));
+        Assertions.assertEquals(5, points(history, 30001));
+        Assertions.assertEquals(0, points(history, 30002));
+
+        // queries do not protect the least recently updated series from eviction
+        history.observe(ports(6000, 30001));
+        Assertions.assertEquals(5, points(history, 30000));
+        history.observe(ports(7000, 30003));
+        Assertions.assertEquals(0, points(history, 30000));
+        Assertions.assertEquals(6, points(history, 30001));
+        Assertions.assertEquals(1, points(history, 30003));
+        Assertions.assertEquals(30001, history.keys().get(0).localPort());
+        Assertions.assertEquals(30003, history.keys().get(1).localPort());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockMemory;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.NetStatProbe;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class SockMemoryTest {
+
+    static InetSockStat<TcpStat> sock(int localPort, int remotePort, int pid, long rmem, long queued, long fwd) {
+        return SockFilterTest.sock(localPort, remotePort).processID(pid)
+                .receiveMemory(rmem).queuedMemory(queued).forwardAlloc(fwd).sendMemory(queued / 2);
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        SockNetStatTest.write(root, "sys/net/ipv4/tcp_mem", "10 20 30\n");
+        SockNetStatTest.write(root, "sys/net/ipv4/udp_mem", "100\t200\t300\n");
+        SockNetStatTest.write(root, "net/sockstat",
+                "sockets: used 290\n" +
+                "TCP: inuse 4 orphan 0 tw 2 alloc 9 mem 25\n" +
+                "UDP: inuse 3 mem 2\n");
+
+        SockMonitor monitor = new SockMonitor();
+        SockMemory memory = new SockMemory(monitor, 2, root.toString());
+        monitor.addObserver(memory);
+        Assertions.assertNull(memory.report());
+        List<InetSockStat<TcpStat>> socks = Arrays.asList(
+                sock(8080, 50000, 100, 4096, 0, 0),
+                sock(8080, 50001, 100, 0, 8192, 0),
+                sock(9090, 50002, 200, 1000, 0, 3000),
+                sock(40000, 3306, 300, 0, 0, 100));
+        monitor.publishStats(socks);
+
+        SockMemory.Report report = memory.report();
+        Assertions.assertEquals(4, report.sockets());
+        Assertions.assertEquals(5096, report.receiveMemory());
+        Assertions.assertEquals(8192, report.queuedMemory());
+        Assertions.assertEquals(4096, report.sendMemory());
+        Assertions.assertEquals(3100, report.forwardAlloc());
+        Assertions.assertEquals(16388, report.chargedBytes());
+
+        SockMemory.Pool tcp = report.tcp();
+        Assertions.assertEquals(new SockMemory.Pool(25, 10, 20, 30), tcp);
+        Assertions.assertEquals(-5, tcp.headroom());
+        Assertions.assertTrue(tcp.underPressure());
+        Assertions.assertEquals(new SockMemory.Pool(2, 100, 200, 300), report.udp());
+        Assertions.assertFalse(report.udp().underPressure());
+
+        Assertions.assertEquals(2, report.topSockets().size());
+        Assertions.assertEquals(50001, report.topSockets().get(0).key().remotePort());
+        Assertions.assertEquals(8192, report.topSockets().get(0).value());
+        Assertions.assertEquals(50000, report.topSockets().get(1).key().remotePort());
+        Assertions.assertEquals(Arrays.asList(new SockMemory.Usage(100, 2, 12288), new SockMemory.Usage(200, 1, 4000)),
+                report.topProcesses());
+        Assertions.assertEquals(Arrays.asList(new SockMemory.Usage(8080, 2, 12288), new SockMemory.Usage(9090, 1, 4000)),
+                report.topPorts());
+
+        // counters collected by the monitor are reused
+        SockNetStatTest.write(root, "net/sockstat", "TCP: inuse 1 orphan 0 tw 0 alloc 1 mem 5\n");
+        monitor.netStatProbe(new NetStatProbe(root.toString()));
+        monitor.publishStats(socks.subList(3, 4));
+        report = memory.report();
+        Assertions.assertEquals(1, report.sockets());
+        Assertions.assertEquals(15, report.tcp().headroom());
+        Assertions.assertNull(report.udp());
+        Assertions.assertEquals(Arrays.asList(new SockMemory.Usage(40000, 1, 100)), report.topPorts());
+
+        // allocated pages are estimated from observed sockets without sockstat
+        Files.delete(root.resolve("net/sockstat"));
+        monitor.netStatProbe(null);
+        monitor.publishStats(socks);
+        Assertions.assertEquals(5, memory.report().tcp().pages());
+        Assertions.assertEquals(4096, memory.report().pageSize());
+
+        // estimated with the page size of the kernel
+        SockNetStatTest.write(root, "self/smaps",
+                "00400000-00401000 r-xp 00000000 08:01 1 /usr/bin/java\n" +
+                "Size:                 64 kB\n" +
+                "KernelPageSize:       64 kB\n" +
+                "MMUPageSize:          64 kB\n");
+        memory = new SockMemory(null, 2, root.toString());
+        memory.observe(monitor.publishStats(socks));
+        Assertions.assertEquals(65536, memory.report().pageSize());
+        Assertions.assertEquals(1, memory.report().tcp().pages());
+    }
+
+    @Test
+    public void testProcfs() {
+        Assertions.assertTrue(new File("/proc/sys/net/ipv4/tcp_mem").canRead(), "procfs required");
+        SockMemory memory = new SockMemory(null, 5);
+        memory.observe(new SockMonitor().publishStats(Arrays.asList(sock(8080, 50000, 100, 4096, 0, 0))));
+        SockMemory.Report report = memory.report();
+        Assertions.assertNotNull(report.tcp());
+        Assertions.assertTrue(report.tcp().pressure() > 0);
+        Assertions.assertTrue(report.tcp().pages() >= 0);
+        Assertions.assertTrue(report.pageSize() >= 4096 && Integer.bitCount(report.pageSize()) == 1);
+    }
+
+}
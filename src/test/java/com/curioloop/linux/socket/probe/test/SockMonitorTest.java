@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockCollector;
+import com.curioloop.linux.socket.monitor.SockDispatch;
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.curioloop.linux.socket.probe.test.SockFilterTest.sock;
+
+public class SockMonitorTest {
+
+    static class KeyCollector extends SockCollector<Object> {
+
+        final AtomicInteger refreshes = new AtomicInteger();
+
+        KeyCollector() {
+            super(key -> true);
+        }
+
+        @Override
+        protected Object createMeter(SockKey key, SockMonitor monitor) {
+            return key;
+        }
+
+        @Override
+        protected void destroyMeter(SockKey key, Object meter) {}
+
+        @Override
+        public boolean refreshMeters(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats) {
+            boolean changed = super.refreshMeters(monitor, tcpStats);
+            refreshes.incrementAndGet();
+            return changed;
+        }
+    }
+
+    @Test
+    public void testAsyncDispatch() {
+        List<Runnable> tasks = new ArrayList<>();
+        KeyCollector collector = new KeyCollector();
+        SockMonitor monitor = new SockMonitor();
+        monitor.addCollector(collector);
+        monitor.dispatchAsync(tasks::add, SockDispatch.OverrunPolicy.COALESCE);
+
+        monitor.publishStats(Collections.singletonList(sock(40000, 3306)));
+        monitor.publishStats(Arrays.asList(sock(40000, 3306), sock(40001, 3306)));
+        monitor.publishStats(Arrays.asList(sock(40000, 3306), sock(40001, 3306), sock(40002, 3306)));
+        Assertions.assertEquals(1, tasks.size()); // the collector is still running
+        tasks.get(0).run();
+
+        SockDispatch dispatch = monitor.dispatchStats(collector);
+        Assertions.assertEquals(2, dispatch.dispatchCount()); // the first and the latest
+        Assertions.assertEquals(1, dispatch.coalesceCount());
+        Assertions.assertEquals(0, dispatch.failureCount());
+
+        monitor.dispatchAsync(tasks::add, SockDispatch.OverrunPolicy.SKIP);
+        tasks.clear();
+        monitor.publishStats(Collections.singletonList(sock(40000, 3306)));
+        monitor.publishStats(Collections.singletonList(sock(40000, 3306)));
+        Assertions.assertEquals(1, tasks.size());
+        Assertions.assertEquals(1, dispatch.skipCount());
+        tasks.get(0).run();
+        Assertions.assertEquals(3, dispatch.dispatchCount());
+    }
+
+    @Test
+    public void testRemoveQueuedCollector() {
+        List<Runnable> tasks = new ArrayList<>();
+        KeyCollector collector = new KeyCollector();
+        SockMonitor monitor = new SockMonitor();
+        monitor.addCollector(collector);
+        monitor.dispatchAsync(tasks::add, SockDispatch.OverrunPolicy.COALESCE);
+        monitor.publishStats(Collections.singletonList(sock(40000, 3306)));
+        SockDispatch dispatch = monitor.dispatchStats(collector);
+
+        Assertions.assertTrue(monitor.removeCollector(collector));
+        Assertions.assertTrue(dispatch.cancelled());
+        tasks.get(0).run(); // queued before removal
+        Assertions.assertEquals(0, collector.refreshes.get());
+        Assertions.assertEquals(0, dispatch.dispatchCount());
+    }
+
+    @Test
+    public void testRemoveRunningCollector() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyCollector collector = new KeyCollector() {
+            @Override
+            public boolean refreshMeters(SockMonitor monitor, Map<SockKey, InetSockStat<TcpStat>> tcpStats) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.refreshMeters(monitor, tcpStats);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SockMonitor monitor = new SockMonitor();
+            monitor.addCollector(collector);
+            monitor.dispatchAsync(executor, SockDispatch.OverrunPolicy.COALESCE);
+            monitor.publishStats(Collections.singletonList(sock(40000, 3306)));
+            Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            monitor.publishStats(Collections.singletonList(sock(40001, 3306))); // pending behind the running one
+
+            new Thread(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                release.countDown();
+            }).start();
+            Assertions.assertTrue(monitor.removeCollector(collector, 5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, collector.refreshes.get()); // returns once the running refresh completes
+            Assertions.assertFalse(monitor.removeCollector(collector, 5, TimeUnit.SECONDS));
+            executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, collector.refreshes.get()); // the pending statistics are dropped
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
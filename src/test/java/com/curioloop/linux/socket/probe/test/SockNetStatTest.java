@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.probe.NetCounters;
+import com.curioloop.linux.socket.probe.NetStatProbe;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+public class SockNetStatTest {
+
+    static void write(Path root, String file, String content) throws Exception {
+        Path path = root.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static void prepare(Path root, int overflows, int retrans, int inuse) throws Exception {
+        write(root, "net/snmp",
+                "Tcp: RtoAlgorithm RtoMin MaxConn RetransSegs InErrs\n" +
+                "Tcp: 1 200 -1 " + retrans + " 0\n" +
+                "Udp: InDatagrams InErrors RcvbufErrors\n" +
+                "Udp: 10 2 1\n");
+        write(root, "net/netstat",
+                "TcpExt: SyncookiesSent ListenOverflows ListenDrops\n" +
+                "TcpExt: 0 " + overflows + " " + overflows + "\n");
+        write(root, "net/sockstat",
+                "sockets: used 290\n" +
+                "TCP: inuse " + inuse + " orphan 0 tw 2 alloc 9 mem 3\n" +
+                "UDP: inuse 3 mem 2\n");
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        prepare(root, 5, 100, 7);
+        NetStatProbe probe = new NetStatProbe(root.toString());
+        NetCounters first = probe.collect(1000);
+        Assertions.assertEquals(5, first.value(NetCounters.LISTEN_OVERFLOWS));
+        Assertions.assertEquals(100, first.value(NetCounters.RETRANS_SEGS));
+        Assertions.assertEquals(-1, first.value("Tcp.MaxConn"));
+        Assertions.assertEquals(1, first.value(NetCounters.UDP_RCVBUF_ERRORS));
+        Assertions.assertEquals(7, first.value(NetCounters.TCP_INUSE));
+        Assertions.assertEquals(3, first.value(NetCounters.TCP_MEM));
+        Assertions.assertEquals(290, first.value("sockets.used"));
+        Assertions.assertEquals(-1, first.value(NetCounters.TCP6_INUSE)); // sockstat6 missing
+        Assertions.assertTrue(Double.isNaN(first.rate(NetCounters.LISTEN_OVERFLOWS)));
+
+        prepare(root, 9, 150, 5);
+        NetCounters second = probe.collect(3000);
+        Assertions.assertEquals(2.0, second.rate(NetCounters.LISTEN_OVERFLOWS));
+        Assertions.assertEquals(25.0, second.rate(NetCounters.RETRANS_SEGS));
+        Assertions.assertEquals(-1.0, second.rate(NetCounters.TCP_INUSE));
+        Assertions.assertEquals(first.size(), second.size());
+        // the first collection is immutable
+        Assertions.assertEquals(5, first.value(NetCounters.LISTEN_OVERFLOWS));
+
+        SockMonitor monitor = new SockMonitor();
+        monitor.netStatProbe(probe);
+        SockSnapshot snapshot = monitor.publishStats(Collections.singletonList(SockFilterTest.sock(40000, 3306)));
+        Assertions.assertEquals(snapshot.timestamp(), monitor.netCounters().timestamp());
+    }
+
+    @Test
+    public void testProcfs() throws Exception {
+        Assertions.assertTrue(new File("/proc/net/netstat").canRead(), "procfs required");
+        NetCounters counters = new NetStatProbe().collect(System.currentTimeMillis());
+        Assertions.assertTrue(counters.indexOf(NetCounters.LISTEN_OVERFLOWS) >= 0);
+        Assertions.assertTrue(counters.indexOf(NetCounters.RETRANS_SEGS) >= 0);
+        Assertions.assertTrue(counters.value(NetCounters.TCP_INUSE) >= 0);
+        Assertions.assertTrue(counters.size() > 100, "size=" + counters.size());
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockScheduler;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.SockFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SockSchedulerTest {
+
+    @Test
+    public void testSchedulerAnomaly() {
+        SockSnapshot previous = SockAggregationTest.snapshot(1, 10, 3);
+        Assertions.assertFalse(SockScheduler.risingQueueOrRetransmit(previous, SockAggregationTest.snapshot(2, 10, 3)));
+
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(1);
+        int row = builder.insert(0x7F000001, 30000, 0x0A000001, 8000);
+        builder.set(Column.TOTAL_RETRANSMIT, row, 3);
+        Assertions.assertTrue(SockScheduler.risingQueueOrRetransmit(previous, builder.build(2, 2000)));
+    }
+
+    @Test
+    public void testRisingSendQueue() {
+        SockSnapshot previous = queued(1, Column.WAITING_QUEUE, 100_000);
+        Assertions.assertFalse(SockScheduler.risingQueueOrRetransmit(previous, queued(2, Column.WAITING_QUEUE, 150_000)));
+        Assertions.assertTrue(SockScheduler.risingQueueOrRetransmit(previous, queued(2, Column.WAITING_QUEUE, 300_000)));
+        // a growing receive queue is the application reading slowly, not the network
+        Assertions.assertFalse(SockScheduler.risingQueueOrRetransmit(previous, queued(2, Column.REQUEST_QUEUE, 1_000_000)));
+        // a few bytes queued on an idle host is not an anomaly
+        SockSnapshot idle = queued(1, Column.WAITING_QUEUE, 0);
+        Assertions.assertFalse(SockScheduler.risingQueueOrRetransmit(idle, queued(2, Column.WAITING_QUEUE, 1)));
+        Assertions.assertTrue(SockScheduler.risingQueueOrRetransmit(idle, queued(2, Column.WAITING_QUEUE, (int) SockScheduler.RISING_QUEUE_FLOOR)));
+    }
+
+    @Test
+    public void testListenBacklog() {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(1);
+        int row = builder.insert(0x7F000001, 30000, 0, 0);
+        builder.set(Column.CONN_STATE, row, ConnState.LISTEN.ordinal());
+        builder.set(Column.WAITING_QUEUE, row, 1_000_000);
+        Assertions.assertFalse(SockScheduler.risingQueueOrRetransmit(queued(1, Column.WAITING_QUEUE, 0), builder.build(2, 2000)));
+    }
+
+    static SockSnapshot queued(long generation, Column column, int bytes) {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(1);
+        int row = builder.insert(0x7F000001, 30000, 0x0A000001, 8000);
+        if (column != Column.WAITING_QUEUE) builder.set(Column.WAITING_QUEUE, row, 100_000);
+        builder.set(column, row, bytes);
+        return builder.build(generation, generation * 1000);
+    }
+
+    @Test
+    public void testCollectionCost() throws Exception {
+        SockMonitor monitor = new SockMonitor();
+        try (SockScheduler scheduler = new SockScheduler(monitor, new SockFilter()).minInterval(10).maxInterval(20).start()) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (scheduler.runCount() < 2 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+            Assertions.assertTrue(scheduler.runCount() >= 2);
+            Assertions.assertTrue(scheduler.lastCost() >= 0);
+            Assertions.assertTrue(scheduler.interval() >= 9 && scheduler.interval() <= 22);
+        }
+    }
+
+}
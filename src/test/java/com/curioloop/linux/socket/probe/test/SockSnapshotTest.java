@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockKey;
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockSnapshot.Column;
+import com.curioloop.linux.socket.monitor.SockSnapshotReader;
+import com.curioloop.linux.socket.monitor.SockSnapshotWriter;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.InetFamily;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+public class SockSnapshotTest {
+
+    static InetSockStat<TcpStat> sock(String remoteIp, int remotePort, int localPort, int rtt, long txQueue) {
+        return new InetSockStat<TcpStat>()
+                .inetFamily(InetFamily.IPv4).connState(ConnState.ESTABLISHED)
+                .remoteIP(remoteIp).remotePort(remotePort)
+                .localIP("127.0.0.1").localPort(localPort)
+                .requestQueue(txQueue)
+                .info(new TcpStat().roundTripTime(rtt));
+    }
+
+    @Test
+    public void testIndexAndScan() {
+        int n = 10_000;
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(0);
+        for (int i = 0; i < n; i++) {
+            Assertions.assertTrue(builder.add(sock("10.0." + (i >> 8) + "." + (i & 0xFF), 80, 20000 + i % 40000, i, i % 10)));
+        }
+        Assertions.assertFalse(builder.add(sock("fe80::1", 80, 1, 1, 1).inetFamily(InetFamily.IPv6).localIP("fe80::2")));
+        SockSnapshot snapshot = builder.build(1, 42);
+
+        Assertions.assertEquals(n, snapshot.size());
+        Assertions.assertEquals(42, snapshot.timestamp());
+        for (int i = 0; i < n; i += 97) {
+            SockKey key = new SockKey("10.0." + (i >> 8) + "." + (i & 0xFF), "127.0.0.1", 80, 20000 + i % 40000);
+            int row = snapshot.indexOf(key);
+            Assertions.assertTrue(row >= 0);
+            Assertions.assertEquals(key, snapshot.key(row));
+            Assertions.assertEquals(i, snapshot.value(Column.ROUND_TRIP_TIME, row));
+        }
+        Assertions.assertEquals(-1, snapshot.indexOf(new SockKey("10.1.0.0", "127.0.0.1", 80, 20000)));
+
+        Assertions.assertEquals((long) n * (n - 1) / 2, snapshot.sum(Column.ROUND_TRIP_TIME));
+        Assertions.assertEquals(n - 1, snapshot.max(Column.ROUND_TRIP_TIME));
+        Assertions.assertEquals(0, snapshot.min(Column.ROUND_TRIP_TIME));
+        Assertions.assertEquals(n / 2 - 1, snapshot.percentile(Column.ROUND_TRIP_TIME, 0.5));
+        Assertions.assertEquals(9, snapshot.max(Column.REQUEST_QUEUE));
+
+        SockSnapshot.Row row = snapshot.row();
+        int count = 0;
+        while (row.next()) {
+            Assertions.assertEquals(ConnState.ESTABLISHED, row.connState());
+            count++;
+        }
+        Assertions.assertEquals(n, count);
+    }
+
+    @Test
+    public void testBuildOnce() {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(64);
+        builder.add(sock("10.0.0.1", 80, 20000, 300, 0));
+        builder.add(sock("10.0.0.2", 80, 20001, -1, 0)); // unsigned 0xFFFFFFFF
+        builder.add(sock("10.0.0.3", 80, 20002, 100, 0).inetFamily(InetFamily.IPv6).localIP("::ffff:127.0.0.1").remoteIP("::ffff:10.0.0.3"));
+        SockSnapshot snapshot = builder.build(1, 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> builder.add(sock("10.0.0.4", 80, 20003, 1, 0)));
+        Assertions.assertThrows(IllegalStateException.class, () -> builder.build(2, 2));
+        Assertions.assertEquals(3, snapshot.size());
+        Assertions.assertTrue(snapshot.indexOf(new SockKey("10.0.0.3", "127.0.0.1", 80, 20002)) >= 0);
+        Assertions.assertEquals(100, snapshot.percentile(Column.ROUND_TRIP_TIME, 0));
+        Assertions.assertEquals(300, snapshot.percentile(Column.ROUND_TRIP_TIME, 0.5));
+        Assertions.assertEquals(0xFFFFFFFFL, snapshot.percentile(Column.ROUND_TRIP_TIME, 1));
+
+        SockMonitor monitor = new SockMonitor();
+        monitor.publishStats(Arrays.asList(sock("10.0.0.1", 80, 20000, 1, 0), sock("10.0.0.2", 80, 20001, 2, 0),
+                sock("fe80::1", 80, 1, 3, 0).inetFamily(InetFamily.IPv6).localIP("fe80::2")));
+        Map<SockKey, InetSockStat<TcpStat>> stats = monitor.tcpStats();
+        Assertions.assertEquals(2, stats.size());
+        Assertions.assertEquals(2, stats.get(new SockKey("10.0.0.2", "127.0.0.1", 80, 20001)).info().roundTripTime());
+        Assertions.assertFalse(stats.containsKey(new SockKey("10.0.0.3", "127.0.0.1", 80, 20001)));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(new SockKey("10.0.0.1", "127.0.0.1", 80, 20000),
+                new SockKey("10.0.0.2", "127.0.0.1", 80, 20001))), stats.keySet());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> stats.remove(new SockKey("10.0.0.1", "127.0.0.1", 80, 20000)));
+    }
+
+    @Test
+    public void testIpv4Format() {
+        Assertions.assertEquals(0x7F000001L, SockSnapshot.parseIpv4("127.0.0.1"));
+        Assertions.assertEquals(0xFFFFFFFFL, SockSnapshot.parseIpv4("255.255.255.255"));
+        Assertions.assertEquals(-1, SockSnapshot.parseIpv4("256.0.0.1"));
+        Assertions.assertEquals(-1, SockSnapshot.parseIpv4("1.2.3"));
+        Assertions.assertEquals(-1, SockSnapshot.parseIpv4("1..2.3"));
+        Assertions.assertEquals("192.168.1.254", SockSnapshot.formatIpv4((int) SockSnapshot.parseIpv4("192.168.1.254")));
+    }
+
+    @Test
+    public void testMappedExport(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("sock.snapshot");
+        try (SockSnapshotWriter writer = new SockSnapshotWriter(file, 1);
+             SockSnapshotReader reader = new SockSnapshotReader(file)) {
+            Assertions.assertEquals(0, reader.snapshot().size());
+            for (int gen = 1; gen <= 3; gen++) {
+                SockSnapshot.Builder builder = new SockSnapshot.Builder(0);
+                for (int i = 0; i < gen * 100; i++) {
+                    InetSockStat<TcpStat> sock = sock("10.0.0." + (i & 0xFF), 80, 30000 + i, i * gen, i);
+                    builder.add(i == 8 ? sock.info(null) : sock);
+                }
+                writer.publish(builder.build(gen, gen * 1000L));
+
+                SockSnapshot copy = reader.snapshot();
+                Assertions.assertEquals(gen, copy.generation());
+                Assertions.assertEquals(gen * 1000L, copy.timestamp());
+                Assertions.assertEquals(gen * 100, copy.size());
+                int row = copy.indexOf(new SockKey("10.0.0.7", "127.0.0.1", 80, 30007));
+                Assertions.assertEquals(7L * gen, copy.value(Column.ROUND_TRIP_TIME, row));
+                Assertions.assertTrue(copy.hasTcpInfo(row));
+                Assertions.assertFalse(copy.hasTcpInfo(copy.indexOf(new SockKey("10.0.0.8", "127.0.0.1", 80, 30008))));
+
+                long seq = reader.begin();
+                SockSnapshotReader.Record record = reader.record().moveTo(reader.size() - 1);
+                Assertions.assertEquals(30000 + gen * 100 - 1, record.localPort());
+                Assertions.assertTrue(reader.validate(seq));
+            }
+        }
+    }
+
+    @Test
+    public void testMaxCapacity(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("sock.snapshot");
+        // the file is sparse, only the header and the published records are touched
+        try (SockSnapshotWriter writer = new SockSnapshotWriter(file, Integer.MAX_VALUE);
+             SockSnapshotReader reader = new SockSnapshotReader(file)) {
+            Assertions.assertTrue(Files.size(file) <= Integer.MAX_VALUE, "size=" + Files.size(file));
+            SockSnapshot.Builder builder = new SockSnapshot.Builder(0);
+            builder.add(sock("10.0.0.1", 80, 30000, 1, 0));
+            writer.publish(builder.build(1, 1000));
+            Assertions.assertEquals(1, reader.snapshot().size());
+            Assertions.assertThrows(IndexOutOfBoundsException.class, () -> reader.record().moveTo(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testReopenAfterCrash(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("sock.snapshot");
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(0);
+        for (int i = 0; i < 100; i++) builder.add(sock("10.0.0.1", 80, 30000 + i, i, 0));
+        SockSnapshot large = builder.build(1, 1000);
+        try (SockSnapshotWriter writer = new SockSnapshotWriter(file, 1)) {
+            writer.publish(large);
+        }
+        long length = Files.size(file);
+        try (SockSnapshotReader reader = new SockSnapshotReader(file)) {
+            long seq = reader.begin();
+            Assertions.assertEquals(100, reader.snapshot().size());
+            // the writer died while publishing
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer odd = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder()).putLong(0, seq + 1);
+                channel.write(odd, 8);
+            }
+            Assertions.assertEquals(1, reader.snapshot(10).generation()); // the last good one
+            try (SockSnapshotReader fresh = new SockSnapshotReader(file)) {
+                Assertions.assertThrows(IOException.class, () -> fresh.snapshot(10));
+            }
+
+            try (SockSnapshotWriter writer = new SockSnapshotWriter(file, 1)) {
+                Assertions.assertEquals(length, Files.size(file)); // never shrunk under mapped readers
+                Assertions.assertEquals(-1, reader.begin());
+                SockSnapshot.Builder small = new SockSnapshot.Builder(0);
+                small.add(sock("10.0.0.2", 80, 40000, 1, 0));
+                writer.publish(small.build(2, 2000));
+                long next = reader.begin();
+                Assertions.assertTrue(next > seq + 1);
+                SockSnapshot copy = reader.snapshot();
+                Assertions.assertEquals(2, copy.generation());
+                Assertions.assertEquals(1, copy.size());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import com.curioloop.linux.socket.monitor.SockThresholds;
+import com.curioloop.linux.socket.probe.ConnState;
+import com.curioloop.linux.socket.probe.InetFamily;
+import com.curioloop.linux.socket.probe.InetSockStat;
+import com.curioloop.linux.socket.probe.TcpStat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SockThresholdsTest {
+
+    static InetSockStat<TcpStat> sock(int localPort, int rtt, long sendQueue, int retransmit) {
+        return new InetSockStat<TcpStat>()
+                .inetFamily(InetFamily.IPv4).connState(ConnState.ESTABLISHED)
+                .remoteIP("10.0.0.1").remotePort(80)
+                .localIP("127.0.0.1").localPort(localPort)
+                .waitingQueue(sendQueue)
+                .info(new TcpStat().roundTripTime(rtt).totalRetransmit(retransmit));
+    }
+
+    @SafeVarargs
+    static SockSnapshot snapshot(long generation, InetSockStat<TcpStat>... socks) {
+        SockSnapshot.Builder builder = new SockSnapshot.Builder(socks.length);
+        for (InetSockStat<TcpStat> sock : socks) builder.add(sock);
+        return builder.build(generation, generation);
+    }
+
+    static List<String> check(SockThresholds thresholds, SockSnapshot previous, SockSnapshot current) {
+        List<String> crossings = new ArrayList<>();
+        thresholds.check(previous, current, (row, metric, value, threshold) ->
+                crossings.add(current.value(SockSnapshot.Column.LOCAL_PORT, row) + ":" + metric + "=" + value + ">" + threshold));
+        Collections.sort(crossings);
+        return crossings;
+    }
+
+    @Test
+    public void testCrossing() {
+        SockThresholds thresholds = new SockThresholds().roundTripTime(100).sendQueue(4096).retransmitBurst(3);
+        SockSnapshot first = snapshot(1, sock(20001, 100, 4096, 5), sock(20002, 101, 4097, 9));
+
+        // thresholds are exclusive, and bursts have no baseline on the first refresh
+        Assertions.assertEquals(Arrays.asList("20002:roundTripTime=101>100", "20002:sendQueue=4097>4096"),
+                check(thresholds, SockSnapshot.EMPTY, first));
+
+        SockSnapshot second = snapshot(2, sock(20001, 50, 0, 7), sock(20002, 50, 0, 12), sock(20003, 50, 0, 3));
+        // bursts are inclusive, 20001 retransmits 2, 20002 retransmits 3 and new socket 20003 retransmits 3
+        Assertions.assertEquals(Arrays.asList("20002:retransmitBurst=3>3", "20003:retransmitBurst=3>3"),
+                check(thresholds, first, second));
+
+        Assertions.assertEquals(Collections.emptyList(), check(new SockThresholds(), first, second));
+    }
+
+    @Test
+    public void testMissingTcpInfo() {
+        SockThresholds thresholds = new SockThresholds().roundTripTime(1).sendQueue(1).retransmitBurst(1);
+        InetSockStat<TcpStat> sock = sock(20001, 0, 2, 0).info(null);
+        Assertions.assertEquals(Collections.singletonList("20001:sendQueue=2>1"),
+                check(thresholds, snapshot(1), snapshot(2, sock)));
+    }
+
+}
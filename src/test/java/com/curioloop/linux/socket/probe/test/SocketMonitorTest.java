@@ -17,11 +17,13 @@ package com.curioloop.linux.socket.probe.test;
 
 import com.curioloop.linux.socket.monitor.SockCollector;
 import com.curioloop.linux.socket.probe.InetProto;
+import com.curioloop.linux.socket.probe.PortFilter;
 import com.curioloop.linux.socket.probe.SockFilter;
 import com.curioloop.linux.socket.monitor.SockAggregator;
 import com.curioloop.linux.socket.monitor.SockAggregator.MatchMode;
 import com.curioloop.linux.socket.monitor.SockKey;
 import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -30,7 +32,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -40,6 +46,7 @@ public class SocketMonitorTest extends LinuxSocketTest {
 
     static final int portPlain = 5353;
     static final int portAgg = 5454;
+    static final int portAsync = 5555;
 
     static class MockCollector extends SockCollector<Object> {
 
@@ -158,4 +165,36 @@ public class SocketMonitorTest extends LinuxSocketTest {
         done.countDown();
     }
 
+    @Test
+    public void testRefreshAsync() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        prepareSocket("127.0.0.1", portAsync, done);
+
+        SockMonitor monitor = new SockMonitor(TimeUnit.MINUTES.toMillis(1));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SockFilter filter = new SockFilter().protocol(InetProto.TCP).portFilters(PortFilter.eq(PortFilter.Side.SRC, portAsync));
+            CompletableFuture<SockSnapshot> first = monitor.refreshAsync(filter, executor);
+            CompletableFuture<SockSnapshot> second = monitor.refreshAsync(new SockFilter().protocol(InetProto.TCP).portFilters(PortFilter.eq(PortFilter.Side.SRC, portAsync)), executor);
+            SockSnapshot snapshot = first.get(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(snapshot);
+            Assertions.assertSame(snapshot, second.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(snapshot.size() > 0);
+
+            // an equal filter within the freshness window reuses the completed collection
+            Assertions.assertSame(snapshot, monitor.refreshAsync(filter, executor).get(5, TimeUnit.SECONDS));
+
+            // a different filter collects again
+            SockSnapshot other = monitor.refreshAsync(new SockFilter().protocol(InetProto.TCP), executor).get(5, TimeUnit.SECONDS);
+            Assertions.assertNotSame(snapshot, other);
+
+            CompletableFuture<SockSnapshot> failed = monitor.refreshAsync(new SockFilter().portFilters(new PortFilter()), executor);
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        } finally {
+            executor.shutdown();
+            done.countDown();
+        }
+    }
+
 }
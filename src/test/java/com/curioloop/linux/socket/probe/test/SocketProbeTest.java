@@ -15,14 +15,28 @@
  */
 package com.curioloop.linux.socket.probe.test;
 
+import com.curioloop.linux.socket.probe.ConnState;
 import com.curioloop.linux.socket.probe.InetProto;
 import com.curioloop.linux.socket.probe.LinuxSocketProbe;
 import com.curioloop.linux.socket.probe.SockFilter;
 import com.curioloop.linux.socket.probe.PortFilter;
+import com.curioloop.linux.socket.probe.ProbeStats;
+import com.curioloop.linux.socket.probe.TcpStat;
+import com.curioloop.linux.socket.probe.UnixSockStat;
+import com.curioloop.linux.socket.probe.utils.OsUtils;
+import com.curioloop.linux.socket.probe.utils.SocketUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
 @Slf4j
@@ -44,7 +58,129 @@ public class SocketProbeTest extends LinuxSocketTest {
             Assertions.assertEquals(3, probe.tcpSocks().size());
         }
         probe.tcpSocks().forEach(s -> log.info("{}", s));
+        probe.tcpSocks().forEach(s -> Assertions.assertTrue(s.receiveBuffer() > 0 && s.sendBuffer() > 0));
         done.countDown();
     }
 
+    @Test
+    public void testProbeStats() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        prepareSocket("127.0.0.1", port + 2, done);
+
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        PortFilter ports = PortFilter.eq(PortFilter.Side.DST, port + 2).or(PortFilter.eq(PortFilter.Side.SRC, port + 2));
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports)));
+        Assertions.assertEquals(3, probe.tcpSocks().size());
+        ProbeStats stats = probe.probeStats();
+        log.info("{}", stats);
+        Assertions.assertNotNull(stats.backend());
+        Assertions.assertTrue(stats.pidHashNanos() > 0);
+        Assertions.assertTrue(stats.dumpNanos() > 0);
+        Assertions.assertTrue(stats.totalNanos() > 0);
+        Assertions.assertTrue(stats.receiveCalls() > 0);
+        Assertions.assertTrue(stats.receivedMessages() > 0);
+        Assertions.assertTrue(stats.receivedBytes() > 0);
+        // the fixture sockets are owned by this process, so their inodes are found in /proc
+        Assertions.assertTrue(stats.pidEntries() >= probe.tcpSocks().size());
+        done.countDown();
+    }
+
+    @Test
+    public void testSocketConditions() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        prepareSocket("127.0.0.1", port + 1, done);
+
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        PortFilter ports = PortFilter.eq(PortFilter.Side.DST, port + 1).or(PortFilter.eq(PortFilter.Side.SRC, port + 1));
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports)));
+        Assertions.assertEquals(3, probe.tcpSocks().size());
+        long cgroup = probe.tcpSocks().get(0).cgroupID();
+
+        // none of the sockets is bound to a device
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.dev(0)))));
+        Assertions.assertEquals(3, probe.tcpSocks().size());
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.dev(1)))));
+        Assertions.assertEquals(0, probe.tcpSocks().size());
+        // both ends of the connection are on loopback, while the listener is bound to the wildcard address
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.host(PortFilter.Side.SRC, new byte[]{127, 0, 0, 0}, 8)))));
+        Assertions.assertEquals(2, probe.tcpSocks().size());
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.host(PortFilter.Side.SRC, new byte[]{10, 0, 0, 0}, 8)))));
+        Assertions.assertEquals(0, probe.tcpSocks().size());
+        if (OsUtils.KERNEL_VERSION >= PortFilter.Op.CGROUP.minKernel() && cgroup != 0) {
+            Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(PortFilter.cgroup(cgroup).and(ports))));
+            Assertions.assertEquals(3, probe.tcpSocks().size());
+        }
+        if (OsUtils.hasCapability(OsUtils.CAP_NET_ADMIN)) {
+            Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.mark(0, -1)))));
+            Assertions.assertEquals(3, probe.tcpSocks().size());
+            Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).portFilters(ports.and(PortFilter.mark(1, 1)))));
+            Assertions.assertEquals(0, probe.tcpSocks().size());
+        } else {
+            Assertions.assertThrows(UnsupportedOperationException.class,
+                    () -> probe.collectSocketStat(new SockFilter().portFilters(PortFilter.mark(0, -1))));
+        }
+        done.countDown();
+    }
+
+    @Test
+    public void testUnix() throws Exception {
+        // listeners have __SO_ACCEPTCON in flags of /proc/net/unix
+        Set<Long> listeners = new HashSet<>();
+        for (String line : Files.readAllLines(Paths.get("/proc/net/unix"))) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length >= 7 && "00010000".equals(fields[3])) listeners.add(Long.parseLong(fields[6]));
+        }
+        LinuxSocketProbe probe = new LinuxSocketProbe();
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP).unix(true)));
+        Assertions.assertNotNull(probe.unixSocks());
+        probe.unixSocks().forEach(s -> log.info("{}", s));
+        for (UnixSockStat sock : probe.unixSocks()) {
+            Assertions.assertTrue(sock.inode() > 0);
+            Assertions.assertNotNull(sock.type());
+            if (sock.connState() == ConnState.LISTEN) listeners.remove(sock.inode());
+        }
+        Assertions.assertTrue(listeners.isEmpty(), "listeners not collected: " + listeners);
+        Assertions.assertTrue(probe.collectSocketStat(new SockFilter().protocol(InetProto.TCP)));
+        Assertions.assertNull(probe.unixSocks());
+    }
+
+    @Test
+    public void testTcpInfo() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel accepted = server.accept();
+             Socket socket = new Socket("127.0.0.1", ((InetSocketAddress) server.getLocalAddress()).getPort());
+             SocketChannel peer = server.accept()) {
+            TcpStat stat = new TcpStat();
+            Assertions.assertTrue(LinuxSocketProbe.tcpInfo(client, stat));
+            Assertions.assertTrue(stat.retransmitTimeout() > 0);
+            Assertions.assertTrue(stat.congestionWindow() > 0);
+            Assertions.assertTrue(LinuxSocketProbe.tcpInfo(socket, stat));
+            Assertions.assertTrue(stat.retransmitTimeout() > 0);
+
+            int[] fds = {SocketUtils.fileDescriptor(client), SocketUtils.fileDescriptor(accepted),
+                    SocketUtils.fileDescriptor(socket), SocketUtils.fileDescriptor(peer), -1};
+            TcpStat[] stats = {new TcpStat(), new TcpStat(), new TcpStat(), new TcpStat(), new TcpStat().totalRetransmit(1)};
+            int[] errors = new int[fds.length];
+            Assertions.assertEquals(4, LinuxSocketProbe.tcpInfo(fds, fds.length, stats, errors));
+            Assertions.assertTrue(stats[1].retransmitTimeout() > 0);
+            Assertions.assertEquals(0, errors[0]);
+            Assertions.assertEquals(9, errors[4]); // EBADF
+            Assertions.assertEquals(new TcpStat(), stats[4]);
+
+            // descriptors beyond the first native batch
+            int[] many = new int[300];
+            TcpStat[] manyStats = new TcpStat[many.length];
+            for (int i = 0; i < many.length; i++) {
+                many[i] = i == 299 ? fds[1] : -1;
+                manyStats[i] = new TcpStat();
+            }
+            Assertions.assertEquals(1, LinuxSocketProbe.tcpInfo(many, many.length, manyStats, null));
+            Assertions.assertTrue(manyStats[299].retransmitTimeout() > 0);
+
+            client.close();
+            Assertions.assertFalse(LinuxSocketProbe.tcpInfo(client, stat));
+        }
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+
+public class NativeUtilsTest {
+
+    @Test
+    public void testExtractToCache() throws Exception {
+        Path dir = Files.createTempDirectory("native-cache");
+        String origin = System.getProperty(NativeUtils.CACHE_DIR_PROPERTY);
+        System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, dir.resolve("cache").toString());
+        try {
+            byte[] v1 = "v1".getBytes(StandardCharsets.US_ASCII);
+            Path cached = NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1);
+            Assertions.assertNotNull(cached);
+            Assertions.assertTrue(cached.getFileName().toString().matches("libfoo-[0-9a-f]{64}\\.so"));
+            Assertions.assertArrayEquals(v1, Files.readAllBytes(cached));
+
+            // reused if valid
+            FileTime modified = FileTime.fromMillis(0);
+            Files.setLastModifiedTime(cached, modified);
+            Assertions.assertEquals(cached, NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+            Assertions.assertEquals(modified, Files.getLastModifiedTime(cached));
+
+            // replaced if corrupted
+            Files.write(cached, "v0".getBytes(StandardCharsets.US_ASCII));
+            Assertions.assertEquals(cached, NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+            Assertions.assertArrayEquals(v1, Files.readAllBytes(cached));
+
+            // keyed by content
+            Path other = NativeUtils.extractToCache("/META-INF/native/libfoo.so", "v2".getBytes(StandardCharsets.US_ASCII));
+            Assertions.assertNotEquals(cached, other);
+            try (Stream<Path> files = Files.list(cached.getParent())) {
+                Assertions.assertEquals(2, files.count());
+            }
+
+            // replaced if writable by others
+            Files.setPosixFilePermissions(cached, PosixFilePermissions.fromString("rw-rw-rw-"));
+            Assertions.assertEquals(cached, NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+            Assertions.assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(cached));
+
+            System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, "none");
+            Assertions.assertNull(NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+        } finally {
+            if (origin == null) System.clearProperty(NativeUtils.CACHE_DIR_PROPERTY);
+            else System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, origin);
+        }
+    }
+
+    @Test
+    public void testSharedCacheDir() throws Exception {
+        Path dir = Files.createTempDirectory("native-cache");
+        String origin = System.getProperty(NativeUtils.CACHE_DIR_PROPERTY);
+        try {
+            byte[] v1 = "v1".getBytes(StandardCharsets.US_ASCII);
+            Path shared = Files.createDirectory(dir.resolve("shared"));
+            Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+            System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, shared.toString());
+            Assertions.assertNull(NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+
+            Path link = Files.createSymbolicLink(dir.resolve("link"), Files.createDirectory(dir.resolve("target")));
+            System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, link.toString());
+            Assertions.assertNull(NativeUtils.extractToCache("/META-INF/native/libfoo.so", v1));
+            try (Stream<Path> files = Files.list(shared)) {
+                Assertions.assertEquals(0, files.count());
+            }
+        } finally {
+            if (origin == null) System.clearProperty(NativeUtils.CACHE_DIR_PROPERTY);
+            else System.setProperty(NativeUtils.CACHE_DIR_PROPERTY, origin);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2024 CurioLoop (curioloops@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.curioloop.linux.socket.probe.test;
+
+import com.curioloop.linux.socket.monitor.SockMonitor;
+import com.curioloop.linux.socket.monitor.SockObserver;
+import com.curioloop.linux.socket.monitor.SockSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+public class SockPublisherTest {
+
+    static class Recorder implements Flow.Subscriber<SockSnapshot> {
+        final List<SockSnapshot> received = new ArrayList<>();
+        Flow.Subscription subscription;
+        int subscribes;
+        int completes;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribes++;
+        }
+        @Override
+        public void onNext(SockSnapshot item) {
+            received.add(item);
+        }
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+        @Override
+        public void onComplete() {
+            completes++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Flow.Publisher<SockSnapshot> publisher(Executor executor) {
+        return (Flow.Publisher<SockSnapshot>) SockMonitor.flowPublisher(executor);
+    }
+
+    static SockSnapshot snapshot(long time) {
+        return new SockSnapshot.Builder(0).build(time, 0);
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        Flow.Publisher<SockSnapshot> publisher = publisher(Runnable::run);
+        SockObserver observer = (SockObserver) publisher;
+        SockSnapshot first = snapshot(1), second = snapshot(2), third = snapshot(3);
+
+        observer.observe(first);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        Assertions.assertEquals(1, recorder.subscribes);
+        Assertions.assertTrue(recorder.received.isEmpty()); // nothing without demand
+
+        recorder.subscription.request(1);
+        Assertions.assertEquals(Collections.singletonList(first), recorder.received);
+
+        observer.observe(second);
+        observer.observe(third);
+        Assertions.assertEquals(1, recorder.received.size());
+
+        recorder.subscription.request(5);
+        Assertions.assertEquals(Arrays.asList(first, third), recorder.received); // latest wins
+
+        observer.observe(first);
+        observer.observe(second);
+        Assertions.assertEquals(Arrays.asList(first, third, first, second), recorder.received);
+        Assertions.assertEquals(1, recorder.subscribes);
+        Assertions.assertNull(recorder.error);
+
+        recorder.subscription.request(0);
+        Assertions.assertInstanceOf(IllegalArgumentException.class, recorder.error);
+        observer.observe(third);
+        Assertions.assertEquals(4, recorder.received.size()); // cancelled by the error
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Flow.Publisher<SockSnapshot> publisher = publisher(Runnable::run);
+        SockObserver observer = (SockObserver) publisher;
+        Recorder recorder = new Recorder(), other = new Recorder();
+        publisher.subscribe(recorder);
+        publisher.subscribe(other);
+        recorder.subscription.request(Long.MAX_VALUE);
+        other.subscription.request(Long.MAX_VALUE);
+
+        SockSnapshot first = snapshot(1), second = snapshot(2);
+        observer.observe(first);
+        recorder.subscription.cancel();
+        observer.observe(second);
+        Assertions.assertEquals(Collections.singletonList(first), recorder.received);
+        Assertions.assertEquals(Arrays.asList(first, second), other.received);
+
+        ((AutoCloseable) publisher).close();
+        Assertions.assertEquals(0, recorder.completes);
+        Assertions.assertEquals(1, other.completes);
+
+        Recorder late = new Recorder();
+        publisher.subscribe(late);
+        late.subscription.request(1);
+        Assertions.assertEquals(Collections.singletonList(second), late.received);
+        Assertions.assertEquals(1, late.completes);
+        Assertions.assertEquals(1, late.subscribes);
+    }
+
+}